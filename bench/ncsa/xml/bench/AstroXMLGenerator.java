@@ -0,0 +1,195 @@
+package ncsa.xml.bench;
+
+import java.io.Writer;
+import java.io.StringWriter;
+import java.io.FileWriter;
+import java.io.OutputStreamWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * a generator of synthetic, VOTable-like XML documents for use in
+ * benchmarking.  The documents resemble what astronomy services produce:
+ * deeply nested RESOURCE/GROUP elements, FIELD and PARAM descriptions
+ * carrying many attributes, tables of TR/TD rows with escaped text, and
+ * several namespaces (some declared at the root, some declared locally).
+ * <p>
+ * The output is deterministic for a given set of parameters and seed, so
+ * that benchmark runs are comparable.
+ */
+public class AstroXMLGenerator {
+
+    public final static String VOT_NS = "http://www.ivoa.net/xml/VOTable/v1.1";
+    public final static String XSI_NS =
+        "http://www.w3.org/2001/XMLSchema-instance";
+    public final static String STC_NS = "http://www.ivoa.net/xml/STC/v1.30";
+
+    private int rows = 1000;
+    private int cols = 8;
+    private int depth = 4;
+    private int nsCount = 4;
+    private long seed = 1;
+
+    /**
+     * create a generator with default settings
+     */
+    public AstroXMLGenerator() { }
+
+    /**
+     * create a generator
+     * @param rows    the number of table rows in each innermost resource
+     * @param depth   the number of levels of RESOURCE nesting
+     */
+    public AstroXMLGenerator(int rows, int depth) {
+        setRows(rows);
+        setDepth(depth);
+    }
+
+    /** set the number of table rows written into each innermost resource */
+    public void setRows(int n) { rows = Math.max(0, n); }
+
+    /** set the number of table columns */
+    public void setColumns(int n) { cols = Math.max(1, n); }
+
+    /** set the number of levels of RESOURCE nesting */
+    public void setDepth(int n) { depth = Math.max(1, n); }
+
+    /** set the number of extra namespaces declared throughout the document */
+    public void setNamespaceCount(int n) { nsCount = Math.max(0, n); }
+
+    /** set the seed for the pseudo-random values */
+    public void setSeed(long s) { seed = s; }
+
+    /**
+     * write a document to the given Writer.  The Writer is not closed.
+     */
+    public void write(Writer out) throws IOException {
+        Random rand = new Random(seed);
+
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<VOTABLE version=\"1.1\" xmlns=\"" + VOT_NS + "\"\n");
+        out.write("         xmlns:xsi=\"" + XSI_NS + "\"\n");
+        out.write("         xmlns:stc=\"" + STC_NS + "\"\n");
+        for(int i = 0; i < nsCount; i++)
+            out.write("         xmlns:x" + i + "=\"urn:ivo:ext:" + i + "\"\n");
+        out.write("         xsi:schemaLocation=\"" + VOT_NS +
+                  " http://www.ivoa.net/xml/VOTable/v1.1\">\n");
+        out.write("  <DESCRIPTION>Synthetic catalog &amp; benchmark data " +
+                  "&lt;generated&gt;</DESCRIPTION>\n");
+        out.write("  <COOSYS ID=\"J2000\" equinox=\"J2000\" " +
+                  "epoch=\"J2000\" system=\"eq_FK5\"/>\n");
+        writeResource(out, rand, 1, "  ");
+        out.write("</VOTABLE>\n");
+    }
+
+    private void writeResource(Writer out, Random rand, int level,
+                               String indent)
+        throws IOException
+    {
+        out.write(indent + "<RESOURCE name=\"level" + level + "\" type=\"" +
+                  ((level == depth) ? "results" : "meta") + "\"");
+        if (nsCount > 0)
+            out.write(" xmlns:r" + level + "=\"urn:ivo:res:" + level + "\"");
+        out.write(">\n");
+        String in = indent + "  ";
+        out.write(in + "<INFO name=\"QUERY_STATUS\" value=\"OK\"/>\n");
+        out.write(in + "<PARAM name=\"RA\" datatype=\"double\" unit=\"deg\"" +
+                  " ucd=\"pos.eq.ra;meta.main\" value=\"" +
+                  (rand.nextDouble()*360) + "\" stc:frame=\"ICRS\"/>\n");
+        out.write(in + "<GROUP name=\"g" + level + "\">\n");
+        for(int i = 0; i < nsCount; i++)
+            out.write(in + "  <x" + i + ":meta key=\"k" + i + "\" x" + i +
+                      ":val=\"" + rand.nextInt(1000) + "\"/>\n");
+        out.write(in + "</GROUP>\n");
+
+        if (level < depth)
+            writeResource(out, rand, level+1, in);
+        else
+            writeTable(out, rand, in);
+
+        out.write(indent + "</RESOURCE>\n");
+    }
+
+    private void writeTable(Writer out, Random rand, String indent)
+        throws IOException
+    {
+        out.write(indent + "<TABLE name=\"results\" nrows=\"" + rows +
+                  "\">\n");
+        String in = indent + "  ";
+        for(int c = 0; c < cols; c++) {
+            out.write(in + "<FIELD ID=\"col" + c + "\" name=\"col" + c +
+                      "\" datatype=\"" + ((c % 3 == 0) ? "char" : "double") +
+                      "\" arraysize=\"*\" ucd=\"phot.mag;em.opt.V\"" +
+                      " unit=\"mag\" ref=\"J2000\">\n");
+            out.write(in + "  <DESCRIPTION>column " + c +
+                      " of the results</DESCRIPTION>\n");
+            out.write(in + "</FIELD>\n");
+        }
+        out.write(in + "<DATA>\n" + in + "<TABLEDATA>\n");
+        for(int r = 0; r < rows; r++) {
+            out.write(in + "<TR>");
+            for(int c = 0; c < cols; c++) {
+                out.write("<TD>");
+                if (c % 3 == 0)
+                    out.write("obj " + r + ((r % 7 == 0) ? " &lt; x" : ""));
+                else
+                    out.write(Double.toString(rand.nextGaussian() * 20));
+                out.write("</TD>");
+            }
+            out.write("</TR>\n");
+        }
+        out.write(in + "</TABLEDATA>\n" + in + "</DATA>\n");
+        out.write(indent + "</TABLE>\n");
+    }
+
+    /**
+     * return a document as a String
+     */
+    public String generate() {
+        StringWriter out = new StringWriter();
+        try {
+            write(out);
+        } catch (IOException ex) {
+            // not expected from a StringWriter
+            throw new InternalError(ex.getMessage());
+        }
+        return out.toString();
+    }
+
+    /**
+     * write a document to a file or standard out.
+     * Usage: AstroXMLGenerator [-r rows] [-d depth] [-c cols] [-n nscount]
+     *                          [outfile]
+     */
+    public static void main(String[] args) throws IOException {
+        AstroXMLGenerator gen = new AstroXMLGenerator();
+        String outfile = null;
+        try {
+            for(int i = 0; i < args.length; i++) {
+                if (args[i].equals("-r"))
+                    gen.setRows(Integer.parseInt(args[++i]));
+                else if (args[i].equals("-d"))
+                    gen.setDepth(Integer.parseInt(args[++i]));
+                else if (args[i].equals("-c"))
+                    gen.setColumns(Integer.parseInt(args[++i]));
+                else if (args[i].equals("-n"))
+                    gen.setNamespaceCount(Integer.parseInt(args[++i]));
+                else
+                    outfile = args[i];
+            }
+        } catch (RuntimeException ex) {
+            System.err.println("Usage: AstroXMLGenerator [-r rows] " +
+                               "[-d depth] [-c cols] [-n nscount] [outfile]");
+            System.exit(1);
+        }
+
+        Writer out = (outfile == null)
+            ? new OutputStreamWriter(System.out, "UTF-8")
+            : new FileWriter(outfile);
+        out = new BufferedWriter(out);
+        gen.write(out);
+        out.flush();
+        if (outfile != null) out.close();
+    }
+}
@@ -0,0 +1,58 @@
+package ncsa.xml.bench;
+
+import ncsa.xml.sax.EntityExpander;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * benchmarks for {@link EntityExpander#expand(String)} and its streaming
+ * form over text with no, few, and many entity references.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntityExpanderBench {
+
+    @Param({"none", "sparse", "dense"})
+    public String refs;
+
+    EntityExpander ee = null;
+    String text = null;
+
+    @Setup
+    public void setup() {
+        ee = new EntityExpander();
+        ee.define("deg", "\u00b0");
+
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < 200; i++) {
+            if (refs.equals("dense"))
+                sb.append("&lt;TD&gt;12&deg;&amp;&quot;x&quot;&lt;/TD&gt;");
+            else if (refs.equals("sparse") && i % 10 == 0)
+                sb.append("obj 148 &lt; x, 23&deg; north ");
+            else
+                sb.append("an ordinary description of a source ");
+        }
+        text = sb.toString();
+    }
+
+    @Benchmark
+    public String expand() {
+        return ee.expand(text);
+    }
+
+    @Benchmark
+    public String expandStream() throws IOException {
+        StringWriter out = new StringWriter(text.length());
+        ee.expand(new StringReader(text), out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,56 @@
+package ncsa.xml.bench;
+
+import ncsa.xml.extractor.ExtractingParser;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * benchmarks for extracting nodes with
+ * {@link ExtractingParser#nextNode()} from synthetic documents of
+ * configurable size and depth.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtractingParserBench {
+
+    @Param({"500", "5000"})
+    public int rows;
+
+    @Param({"2", "8"})
+    public int depth;
+
+    /** the element to extract: many small nodes (TR) or one big one */
+    @Param({"TR", "TABLE"})
+    public String element;
+
+    String doc = null;
+    char[] out = new char[4096];
+
+    @Setup
+    public void setup() {
+        doc = new AstroXMLGenerator(rows, depth).generate();
+    }
+
+    @Benchmark
+    public long nextNode() throws IOException {
+        ExtractingParser ep = new ExtractingParser(new StringReader(doc));
+        ep.extractElement(element);
+
+        long total = 0;
+        int n;
+        Reader node;
+        while ((node = ep.nextNode()) != null) {
+            while ((n = node.read(out, 0, out.length)) >= 0) total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,62 @@
+package ncsa.xml.bench;
+
+import ncsa.xml.saxfilter.SAXFilteredReader;
+import ncsa.xml.saxfilter.SAXFilteredReaderPool;
+
+import java.io.StringReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * benchmarks for filtering many small documents, each with a new
+ * {@link SAXFilteredReader} or with one taken from a
+ * {@link SAXFilteredReaderPool}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReaderPoolBench {
+
+    @Param({"2"})
+    public int rows;
+
+    String doc = null;
+    char[] out = new char[1024];
+    SAXFilteredReaderPool pool = new SAXFilteredReaderPool(8);
+
+    @Setup
+    public void setup() {
+        doc = new AstroXMLGenerator(rows, 2).generate();
+    }
+
+    long drain(SAXFilteredReader rdr) throws IOException {
+        long total = 0;
+        int n;
+        while ((n = rdr.read(out, 0, out.length)) >= 0) total += n;
+        return total;
+    }
+
+    @Benchmark
+    public long newReader(Blackhole bh) throws IOException {
+        return drain(new SAXFilteredReader(new StringReader(doc),
+                         new SAXFilteredReaderBench.PassThrough(bh)));
+    }
+
+    @Benchmark
+    public long pooledReader(Blackhole bh) throws IOException {
+        SAXFilteredReader rdr = pool.acquire(new StringReader(doc),
+                         new SAXFilteredReaderBench.PassThrough(bh));
+        try {
+            return drain(rdr);
+        }
+        finally {
+            pool.release(rdr);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package ncsa.xml.bench;
+
+import ncsa.xml.saxfilter.SAXFilteredReader;
+import ncsa.xml.saxfilter.SAXFilterContentHandler;
+import ncsa.xml.saxfilter.SAXFilterFlowControl;
+import ncsa.xml.saxfilter.OnDemandParser;
+import ncsa.xml.saxfilter.CharContentLocator;
+import ncsa.xml.sax.Namespaces;
+
+import java.io.StringReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.DefaultHandler;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * benchmarks for pulling a document through
+ * {@link SAXFilteredReader#read(char[],int,int)} with no handler, with a
+ * handler that sees every event but changes nothing, and with a handler
+ * that skips every TR element.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SAXFilteredReaderBench {
+
+    @Param({"2000"})
+    public int rows;
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"4096"})
+    public int readSize;
+
+    String doc = null;
+    char[] out = null;
+
+    @Setup
+    public void setup() {
+        doc = new AstroXMLGenerator(rows, depth).generate();
+        out = new char[readSize];
+    }
+
+    long drain(SAXFilteredReader rdr) throws IOException {
+        long total = 0;
+        int n;
+        while ((n = rdr.read(out, 0, out.length)) >= 0) total += n;
+        return total;
+    }
+
+    @Benchmark
+    public long noHandler() throws IOException {
+        return drain(new SAXFilteredReader(new StringReader(doc)));
+    }
+
+    @Benchmark
+    public long passThrough(Blackhole bh) throws IOException {
+        return drain(new SAXFilteredReader(new StringReader(doc),
+                                           new PassThrough(bh)));
+    }
+
+    @Benchmark
+    public long skipRows(Blackhole bh) throws IOException {
+        return drain(new SAXFilteredReader(new StringReader(doc),
+                                           new RowSkipper(bh)));
+    }
+
+    /**
+     * a handler that requests all events and hands them to a Blackhole
+     */
+    public static class PassThrough extends DefaultHandler
+        implements SAXFilterContentHandler
+    {
+        protected Blackhole bh = null;
+        protected SAXFilterFlowControl flow = null;
+        protected CharContentLocator loc = null;
+
+        public PassThrough(Blackhole bh) { this.bh = bh; }
+
+        public void setParseRequestMgr(OnDemandParser prm) {
+            prm.enableEvents(OnDemandParser.ALL_EVENTS);
+        }
+        public void setFlowController(SAXFilterFlowControl control) {
+            flow = control;
+            loc = control.getCharLocator();
+        }
+        public void setNamespaces(Namespaces ns) { }
+
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes atts)
+        {
+            bh.consume(localName);
+            bh.consume(atts.getLength());
+        }
+        public void endElement(String uri, String localName, String qName) {
+            bh.consume(localName);
+        }
+        public void characters(char[] ch, int start, int length) {
+            bh.consume(length);
+        }
+    }
+
+    /**
+     * a handler that removes every TR element from the stream
+     */
+    public static class RowSkipper extends PassThrough {
+        public RowSkipper(Blackhole bh) { super(bh); }
+
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes atts)
+        {
+            if (localName.equals("TR")) flow.skipFrom(loc.getCharNumber());
+        }
+        public void endElement(String uri, String localName, String qName) {
+            if (localName.equals("TR"))
+                flow.resumeFrom(loc.getCharNumber() + loc.getCharLength());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ncsa.xml.bench;
+
+import ncsa.xml.saxfilter.TextBuffer;
+import ncsa.xml.saxfilter.RingTextBuffer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * benchmarks for the basic {@link TextBuffer} operations used by the
+ * SAXFilteredReader, comparing the list-based buffer with the ring buffer.
+ * Each invocation streams a document's worth of text through the buffer
+ * the way the reader does: append a chunk, edit near the front, and pop
+ * what has been sent.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TextBufferBench {
+
+    @Param({"list", "ring"})
+    public String impl;
+
+    @Param({"128", "8192"})
+    public int chunkSize;
+
+    @Param({"1000"})
+    public int chunks;
+
+    String chunkStr = null;
+
+    @Setup
+    public void setup() {
+        String doc = new AstroXMLGenerator(50, 2).generate();
+        while (doc.length() < chunkSize) doc += doc;
+        chunkStr = doc.substring(0, chunkSize);
+    }
+
+    TextBuffer create() {
+        return (impl.equals("ring")) ? new RingTextBuffer() : new TextBuffer();
+    }
+
+    @Benchmark
+    public int appendPop() {
+        TextBuffer tb = create();
+        for(int i = 0; i < chunks; i++) {
+            tb.append(chunkStr);
+            tb.popChars(chunkSize);
+        }
+        return tb.size();
+    }
+
+    @Benchmark
+    public int insert() {
+        TextBuffer tb = create();
+        for(int i = 0; i < chunks; i++) {
+            tb.append(chunkStr);
+            tb.insert("<!-- inserted -->", tb.size() / 2);
+            tb.popChars(chunkSize);
+        }
+        return tb.size();
+    }
+
+    @Benchmark
+    public int substitute() {
+        TextBuffer tb = create();
+        for(int i = 0; i < chunks; i++) {
+            tb.append(chunkStr);
+            tb.substitute("<TD>", tb.size() / 2, 5);
+            tb.popChars(chunkSize);
+        }
+        return tb.size();
+    }
+}
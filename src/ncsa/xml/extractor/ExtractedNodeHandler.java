@@ -0,0 +1,26 @@
+package ncsa.xml.extractor;
+
+import java.io.Reader;
+
+/**
+ * an interface for processing nodes extracted from an XML document by a
+ * {@link ParallelExtractor}.  Because nodes are handed to a pool of worker
+ * threads, an implementation's {@link #handleNode(long, Reader)
+ * handleNode()} method may be called concurrently from several threads
+ * and must be thread-safe.
+ */
+public interface ExtractedNodeHandler {
+
+    /**
+     * process a node extracted from the document.
+     * @param index   the zero-based position of the node among all the nodes
+     *                   extracted from the document.  Nodes are not
+     *                   necessarily handled in this order.
+     * @param node    a Reader containing the complete node (as a
+     *                   standalone document if the Extractor
+     *                   {@link Extractor#returnsDoc() returns documents}).
+     * @exception Exception  if the node could not be processed.  This will
+     *                   stop the extraction.
+     */
+    public void handleNode(long index, Reader node) throws Exception;
+}
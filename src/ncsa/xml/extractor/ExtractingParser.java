@@ -12,11 +12,15 @@ import java.io.Reader;
 import java.io.PushbackReader;
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.StringTokenizer;
 import java.util.Properties;
 import java.util.Stack;
 import java.util.Enumeration;
 
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
 import org.xml.sax.SAXException;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.Attributes;
@@ -47,16 +51,21 @@ import org.xml.sax.Locator;
  * {@link ExportController#exportNode() ExportController's exportNode()} 
  * method to indicate that the node currently being parsed should be extracted.
  * 
+ * <p>
+ * To process the extracted nodes concurrently while the document continues 
+ * to be parsed, pass the parser to a {@link ParallelExtractor}.
+ * 
  * @see #setContentHandler(ContentHandler)
  * @see ExtractingContentHandler
  * @see ExportController
+ * @see ParallelExtractor
  */
 public class ExtractingParser implements Extractor {
     private SAXFilteredReader rdr = null;
     private PushbackReader extrdr = null;
     private ExportingHandler ech = null;
     private SAXFilterFlowControl flow = null;
-    private HashSet exportElements = null;
+    private HashSet<String> exportElements = null;
     private HashSet ignore = new HashSet();
     private int exportDepth = 0;
     private char eofchar = '\004';
@@ -83,6 +92,23 @@ public class ExtractingParser implements Extractor {
         setContentHandler(handler);
     }
 
+    /**
+     * prepare this parser to extract nodes from a new document, reusing 
+     * its reader and handler.  Any node Reader previously returned by 
+     * {@link #nextNode()} becomes invalid.  The configuration of the 
+     * parser--the elements to extract, the namespaces to ignore, the 
+     * content handler, and whether nodes are returned as documents--is 
+     * kept.  The previous source is not closed.  
+     * @param source   a reader for an opened XML document
+     */
+    public void reset(Reader source) {
+        extrdr = null;
+        exportDepth = 0;
+        ech.nodeType = 0;
+        ech.xmldecl = null;
+        rdr.reset(source);
+    }
+
     /**
      * set a SAX content handler.  This handler is allowed to do anything
      * in the course of the parsing; however, it can in particular make calls
@@ -155,8 +181,9 @@ public class ExtractingParser implements Extractor {
      */
     public void extractElement(String nsuri, String locname) {
         if (exportElements == null)
-            exportElements = new HashSet();
+            exportElements = new HashSet<String>();
         exportElements.add("{" + nsuri + "}" + locname);
+        ech.updateSubscriptions();
     }
 
     /**
@@ -166,8 +193,9 @@ public class ExtractingParser implements Extractor {
      */
     public void extractElement(String qname) {
         if (exportElements == null)
-            exportElements = new HashSet();
+            exportElements = new HashSet<String>();
         exportElements.add(qname);
+        ech.updateSubscriptions();
     }
 
     /**
@@ -188,6 +216,22 @@ public class ExtractingParser implements Extractor {
      */
     protected String getExportEpilog() { return null;  }
 
+    /**
+     * return the position of the first occurrence of a string within a 
+     * character sequence, or -1 if it is not found.
+     */
+    static int indexOf(CharSequence in, String s) {
+        int last = in.length() - s.length();
+        char first = (s.length() > 0) ? s.charAt(0) : 0;
+        for(int i=0; i <= last; i++) {
+            if (in.charAt(i) != first) continue;
+            int j = 1;
+            while (j < s.length() && in.charAt(i+j) == s.charAt(j)) j++;
+            if (j >= s.length()) return i;
+        }
+        return -1;
+    }
+
     class FlowECBridge implements ExportController {
         public FlowECBridge() { }
 
@@ -224,6 +268,43 @@ public class ExtractingParser implements Extractor {
             this.prm = prm;
             OnDemandParser _tmp = prm;
             prm.enableEvents(511);
+            updateSubscriptions();
+        }
+
+        /**
+         * request only the events needed from the reader.  Without a 
+         * scanner, only the elements to be extracted (along with the 
+         * namespace declarations and the XML declaration) matter, so the 
+         * reader need not send anything else.
+         */
+        void updateSubscriptions() {
+            if (prm == null) return;
+            if (scnr != null || exportElements == null) {
+                prm.enableEvents(511);
+                prm.subscribeElements(null);
+                return;
+            }
+
+            prm.disableEvents(OnDemandParser.CHARACTERS | 
+                              OnDemandParser.SKIPPED_ENTITY);
+            HashSet<QName> names = new HashSet<QName>();
+            String name;
+            int p;
+            for(Iterator<String> it = exportElements.iterator(); 
+                it.hasNext();) 
+            {
+                name = it.next();
+                if (name.startsWith("{") && (p = name.indexOf('}')) > 0) 
+                    names.add(new QName(name.substring(1, p), 
+                                        name.substring(p+1)));
+                else if ((p = name.indexOf(':')) > 0)
+                    names.add(new QName(XMLConstants.NULL_NS_URI, 
+                                        name.substring(p+1), 
+                                        name.substring(0, p)));
+                else
+                    names.add(new QName(name));
+            }
+            prm.subscribeElements(names);
         }
 
         public void setFlowController(SAXFilterFlowControl control) {
@@ -236,6 +317,7 @@ public class ExtractingParser implements Extractor {
 
         public void setScanner(ContentHandler ch) {
             scnr = ch;
+            updateSubscriptions();
             if (ch != null && (ch instanceof ExtractingContentHandler)) {
                 ExtractingContentHandler ech = (ExtractingContentHandler)ch;
                 if (flow != null)
@@ -301,7 +383,7 @@ public class ExtractingParser implements Extractor {
             CharContentLocator cloc = flow.getCharLocator();
             String val = null;
             String space = null;
-            String content = cloc.getContent();
+            CharSequence content = cloc.getContentView();
             int end;
             for(end = content.length() - 1; 
                 end > 0 && content.charAt(end) != '>'; 
@@ -312,6 +394,32 @@ public class ExtractingParser implements Extractor {
             int sl = atts.getIndex("http://www.w3.org/2001/XMLSchema-instance", 
                                    "schemaLocation");
 
+            // find the positions of the schemaLocation attribute and the 
+            // end of its value before the tag gets edited (which 
+            // invalidates the content view).
+            int slpos = -1, slend = -1;
+            boolean slfound = false;
+            if (sl >= 0) {
+                slpos = indexOf(content, atts.getQName(sl));
+                int p = indexOf(content, ":schemaLocation=");
+                if (p >= 0 && p < content.length() - 1) {
+                    p += ":schemaLocation=".length();
+                    if (content.charAt(p) == '"' || 
+                        content.charAt(p) == '\'')
+                    {
+                        char q = content.charAt(p);
+                        for(p++; p < content.length() && 
+                                 content.charAt(p) != q; p++);
+                        if (p >= content.length()) p = -1;
+                    }
+                    else {
+                        p = content.length();
+                    }
+                    slend = p;
+                    slfound = true;
+                }
+            }
+
             if (sl < 0) {
                 StringBuffer locs = new StringBuffer();
                 space = prettyAttSpace(qName, 20);
@@ -356,26 +464,14 @@ public class ExtractingParser implements Extractor {
                     }
                 } 
 
-                if (slatt.length() > 0) {
-                    int p = content.indexOf(":schemaLocation=");
-                    if (p >= 0 && p < content.length() - 1) {
-                        p += ":schemaLocation=".length();
-                        if (content.charAt(p) == '"' || 
-                            content.charAt(p) == '\'')
-                        {
-                            p = content.indexOf(content.charAt(p), p + 1);
-                        }
-                        else {
-                            p = content.length();
-                        }
-                        flow.insert(space + slatt.toString(), 
-                                    cloc.getCharNumber() + (long)p);
-                    }
+                if (slatt.length() > 0 && slfound) {
+                    flow.insert(space + slatt.toString(), 
+                                cloc.getCharNumber() + (long)slend);
                 }
             }
 
             if (sl >= 0)
-                ins = cloc.getCharNumber() + content.indexOf(atts.getQName(sl));
+                ins = cloc.getCharNumber() + slpos;
 
             if (atts.getIndex("xmlns") < 0 && 
                 nsm.getDefaultNS().length() > 0 && 
@@ -0,0 +1,162 @@
+package ncsa.xml.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import javax.xml.namespace.QName;
+
+/**
+ * an {@link Extractor} that reads elements from an XML file directly at
+ * the positions recorded in a {@link StructureIndex}, without scanning the
+ * parts of the file that come before them.
+ * <p>
+ * Each node is returned just as an {@link ExtractingParser} reading the
+ * whole file would return it:  the namespaces (and schema locations) in
+ * scope where the element starts, as recorded in the index, are declared
+ * on the extracted element, and when nodes are returned as documents, they
+ * begin with the file's XML declaration.  To accomplish this, the
+ * element's text is handed to an ExtractingParser inside a wrapper element
+ * that re-creates its namespace context.
+ * <p>
+ * By default, every element in the index is returned, in document order.
+ * The nodes returned can be restricted with {@link #selectNodes(int[])} or
+ * {@link #selectElements(QName)}; alternatively, any element can be read
+ * at any time with {@link #getNode(int)}.  Note that selecting an element
+ * that contains another selected element will cause the latter to be
+ * returned twice (once on its own and once as part of its ancestor).
+ */
+public class IndexedExtractor implements Extractor {
+    private File file = null;
+    private StructureIndex index = null;
+    private int[] selected = null;
+    private int next = 0;
+    private boolean standalone = true;
+    private HashSet<String> ignore = new HashSet<String>();
+    private Reader current = null;
+
+    /**
+     * create an extractor for a file
+     * @param xml     the XML file to read
+     * @param index   an index of the file
+     * @throws IOException  if the index was not built from the given file
+     *                       in its current state.
+     */
+    public IndexedExtractor(File xml, StructureIndex index)
+        throws IOException
+    {
+        if (! index.isCurrentFor(xml))
+            throw new IOException(xml + ": file has changed since indexed");
+        file = xml;
+        this.index = index;
+    }
+
+    /**
+     * return the index being used
+     */
+    public StructureIndex getIndex() { return index; }
+
+    /**
+     * return only the elements at the given positions in the index from
+     * {@link #nextNode()}, starting again from the first of them.
+     */
+    public void selectNodes(int[] nodes) {
+        for(int i=0; i < nodes.length; i++) {
+            if (nodes[i] < 0 || nodes[i] >= index.size())
+                throw new IndexOutOfBoundsException("no element " + nodes[i]);
+        }
+        selected = nodes.clone();
+        next = 0;
+    }
+
+    /**
+     * return only the elements with the given name from
+     * {@link #nextNode()}, starting again from the first of them.
+     * @throws IllegalArgumentException  if the index was not built to
+     *                        include these elements
+     * @see StructureIndex#find(QName)
+     * @see StructureIndex#covers(QName)
+     */
+    public void selectElements(QName name) {
+        if (! index.covers(name))
+            throw new IllegalArgumentException(name + ": elements not indexed");
+        selected = index.find(name);
+        next = 0;
+    }
+
+    /**
+     * return all of the indexed elements from {@link #nextNode()},
+     * starting again from the first of them.
+     */
+    public void selectAll() {
+        selected = null;
+        next = 0;
+    }
+
+    /**
+     * return a reader for the next selected node or null if there are no
+     * more.  Requesting another Reader implicitly closes the previous
+     * Reader.
+     */
+    public Reader nextNode() throws IOException {
+        int last = (selected == null) ? index.size() : selected.length;
+        if (next >= last) {
+            closeCurrent();
+            return null;
+        }
+        int i = next++;
+        return getNode((selected == null) ? i : selected[i]);
+    }
+
+    /**
+     * return a reader for the element at the given position in the index.
+     * Requesting another Reader implicitly closes the previous Reader.
+     */
+    public Reader getNode(int i) throws IOException {
+        closeCurrent();
+        if (i < 0 || i >= index.size())
+            throw new IndexOutOfBoundsException("no element " + i);
+        current = new IndexedSource(file, index, new int[] { i }, 0, 1,
+                                    standalone);
+
+        ExtractingParser ep = new ExtractingParser(current);
+        ep.setReturnsDoc(standalone);
+        for(Iterator<String> it = ignore.iterator(); it.hasNext();)
+            ep.ignoreNamespace(it.next());
+        QName name = index.getName(i);
+        if (name.getNamespaceURI().length() > 0)
+            ep.extractElement(name.getNamespaceURI(), name.getLocalPart());
+        else
+            ep.extractElement(index.getQName(i));
+        return ep.nextNode();
+    }
+
+    private void closeCurrent() throws IOException {
+        if (current != null) current.close();
+        current = null;
+    }
+
+    /**
+     * set whether the Readers will be returning nodes as if they were
+     * complete documents.  This means that they will start with
+     * an XML declaration (i.e. "<?xml ...?>").
+     */
+    public void setReturnsDoc(boolean yes) { standalone = yes; }
+
+    /**
+     * return true if the Readers will be returning them as if they were
+     * complete documents.
+     */
+    public boolean returnsDoc() { return standalone; }
+
+    /**
+     * tell the extractor not to carry forward the definition of the given
+     * namespace to the extracted nodes.
+     * @see ExtractingParser#ignoreNamespace(String)
+     */
+    public void ignoreNamespace(String uri) {
+        if (uri != null) ignore.add(uri);
+    }
+}
@@ -0,0 +1,197 @@
+package ncsa.xml.extractor;
+
+import ncsa.xml.saxfilter.MappedFileReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * a Reader that presents a run of indexed elements from an XML file as a
+ * stream that an {@link ExtractingParser} can extract them from.  Each
+ * element is enclosed in a wrapper element that declares the namespaces
+ * and schema locations that were in scope where it appeared in the
+ * original document (consecutive elements with the same context share a
+ * wrapper); the text between the elements is skipped.  If the
+ * file has an XML declaration, the stream starts with it.
+ * <p>
+ * The elements must be given in document order, and none may contain
+ * another.  The file text is read sequentially, so the elements are read
+ * with a single pass over the part of the file that spans them.
+ */
+class IndexedSource extends Reader {
+    private StructureIndex index = null;
+    private int[] nodes = null;
+    private int next = 0, last = 0;
+    private Reader body = null;
+
+    // the position in the file of the next character from the body
+    private long cpos = 0;
+
+    // the text to send before any more of the body
+    private String pending = null;
+    private int ppos = 0;
+
+    // the number of characters remaining in the current element
+    private long left = 0;
+
+    // the wrapper start tags made so far, by context
+    private String[] tags = null;
+
+    // the context of the currently open wrapper (-1 if none is open)
+    private int ctx = -1;
+
+    // the name of the wrapper element; it is not part of any output
+    static final String WRAPPER = "junx-indexed-context";
+    static final String WRAPPER_END = "</" + WRAPPER + ">";
+    private static final String XSI =
+        "http://www.w3.org/2001/XMLSchema-instance";
+
+    /**
+     * present elements from a file
+     * @param file    the XML file the index was built from
+     * @param index   the index of the file
+     * @param nodes   the positions in the index of the elements
+     * @param from    the position in nodes of the first element to read
+     * @param to      the position in nodes just after the last element
+     * @param withDecl   if true, start with the file's XML declaration
+     */
+    IndexedSource(File file, StructureIndex index, int[] nodes, int from,
+                  int to, boolean withDecl)
+        throws IOException
+    {
+        this.index = index;
+        this.nodes = nodes;
+        next = from;
+        last = to;
+        if (from >= to) throw new IllegalArgumentException("no elements");
+
+        int first = nodes[from], end = nodes[to-1];
+        if (index.hasBytePositions()) {
+            body = new MappedFileReader(file,
+                                        Charset.forName(index.getCharset()),
+                                        index.getStartByte(first),
+                                        index.getEndByte(end),
+                                        MappedFileReader.DEFAULT_WINDOW_SIZE);
+            cpos = index.getStartChar(first);
+        }
+        else {
+            body = new MappedFileReader(file);
+        }
+
+        if (withDecl && index.getXMLDecl() != null)
+            pending = index.getXMLDecl();
+        else
+            startNext();
+    }
+
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (body == null) throw new IOException("Stream closed");
+        if (len == 0) return 0;
+
+        int n = 0, c;
+        while (n < len) {
+            if (pending != null) {
+                c = Math.min(len - n, pending.length() - ppos);
+                pending.getChars(ppos, ppos + c, cbuf, off + n);
+                n += c;
+                ppos += c;
+                if (ppos >= pending.length()) {
+                    pending = null;
+                    if (left <= 0) startNext();
+                }
+                continue;
+            }
+            if (left <= 0) break;
+
+            c = body.read(cbuf, off + n, (int) Math.min(len - n, left));
+            if (c < 0)
+                throw new IOException("file ended before indexed element");
+            n += c;
+            left -= c;
+            cpos += c;
+            if (left <= 0) {
+                // consecutive elements with the same context share a wrapper
+                if (next < last && index.getContextId(nodes[next]) == ctx) {
+                    startNext();
+                }
+                else {
+                    pending = WRAPPER_END;
+                    ppos = 0;
+                    ctx = -1;
+                }
+            }
+        }
+
+        return (n == 0) ? -1 : n;
+    }
+
+    public void close() throws IOException {
+        if (body == null) return;
+        body.close();
+        body = null;
+    }
+
+    /**
+     * move to the start of the next element, setting up its wrapper
+     */
+    private void startNext() throws IOException {
+        if (next >= last) return;
+        int i = nodes[next++];
+
+        long skip = index.getStartChar(i) - cpos, s;
+        while (skip > 0 && (s = body.skip(skip)) > 0) {
+            skip -= s;
+            cpos += s;
+        }
+        left = index.getEndChar(i) - index.getStartChar(i);
+        if (ctx == index.getContextId(i)) return;
+
+        if (tags == null) tags = new String[index.getContextCount()];
+        ctx = index.getContextId(i);
+        if (tags[ctx] == null) tags[ctx] = contextTag(index, i);
+        pending = tags[ctx];
+        ppos = 0;
+    }
+
+    /**
+     * return the start tag of a wrapper element that re-creates the
+     * namespace context of the i-th indexed element
+     */
+    static String contextTag(StructureIndex index, int i) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('<').append(WRAPPER);
+        String[] pfx = index.getPrefixMappings(i);
+        String xsi = null;
+        for(int j=0; j+1 < pfx.length; j += 2) {
+            sb.append(' ').append((pfx[j].length() > 0) ? "xmlns:" : "xmlns");
+            sb.append(pfx[j]).append("=\"");
+            appendEscaped(sb, pfx[j+1]).append('"');
+            if (pfx[j].length() > 0 && XSI.equals(pfx[j+1])) xsi = pfx[j];
+        }
+        String[] locs = index.getLocations(i);
+        if (xsi != null && locs.length > 0) {
+            sb.append(' ').append(xsi).append(":schemaLocation=\"");
+            for(int j=0; j+1 < locs.length; j += 2) {
+                if (j > 0) sb.append(' ');
+                appendEscaped(sb, locs[j]).append(' ');
+                appendEscaped(sb, locs[j+1]);
+            }
+            sb.append('"');
+        }
+        return sb.append('>').toString();
+    }
+
+    private static StringBuilder appendEscaped(StringBuilder sb, String s) {
+        char c;
+        for(int i=0; i < s.length(); i++) {
+            c = s.charAt(i);
+            if (c == '&') sb.append("&amp;");
+            else if (c == '<') sb.append("&lt;");
+            else if (c == '"') sb.append("&quot;");
+            else sb.append(c);
+        }
+        return sb;
+    }
+}
@@ -0,0 +1,203 @@
+package ncsa.xml.extractor;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * a driver that extracts nodes from an {@link Extractor} (usually an
+ * {@link ExtractingParser}) and hands them to a pool of worker threads for
+ * processing.
+ * <p>
+ * An Extractor hands out one node at a time, and the next node cannot be
+ * parsed until the current one has been consumed; thus, any per-node work
+ * done by the caller runs serially with the parsing.  This class instead
+ * reads each node completely into memory as soon as the parser reaches its
+ * end and places it on a bounded queue.  Worker threads take nodes off the
+ * queue and pass them to an {@link ExtractedNodeHandler} while the parser
+ * continues scanning the document.  When the queue is full, the parser
+ * waits; thus, the queue capacity bounds the number of nodes held in memory
+ * at once (apart from those being processed by workers).
+ * <p>
+ * The parsing itself is done in the thread that calls
+ * {@link #extract(ExtractedNodeHandler) extract()}.  The worker threads are
+ * created by a ThreadFactory, which can be supplied to control how the
+ * threads are made (e.g. as virtual threads on Java platforms that support
+ * them).
+ */
+public class ParallelExtractor {
+    private Extractor source = null;
+    private int workers = 1;
+    private int capacity = 1;
+    private ThreadFactory tfactory = null;
+
+    // placed on the queue to tell a worker to quit
+    private static final Object DONE = new Object();
+
+    /**
+     * create the driver.
+     * @param source    the extractor providing the nodes
+     * @param workers   the number of worker threads to process the nodes
+     * @param capacity  the maximum number of extracted nodes to hold in the
+     *                     queue waiting for a worker
+     */
+    public ParallelExtractor(Extractor source, int workers, int capacity) {
+        this(source, workers, capacity, null);
+    }
+
+    /**
+     * create the driver.
+     * @param source    the extractor providing the nodes
+     * @param workers   the number of worker threads to process the nodes
+     * @param capacity  the maximum number of extracted nodes to hold in the
+     *                     queue waiting for a worker
+     * @param factory   the factory to use to create worker threads; if
+     *                     null, a default factory will be used.
+     */
+    public ParallelExtractor(Extractor source, int workers, int capacity,
+                             ThreadFactory factory)
+    {
+        if (source == null) throw new NullPointerException("source");
+        if (workers < 1)
+            throw new IllegalArgumentException("workers must be at least 1");
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1");
+        this.source = source;
+        this.workers = workers;
+        this.capacity = capacity;
+        tfactory = (factory == null) ? Executors.defaultThreadFactory()
+                                     : factory;
+    }
+
+    /**
+     * return the number of worker threads that will process the nodes
+     */
+    public int getWorkerCount() { return workers; }
+
+    /**
+     * return the maximum number of extracted nodes that may wait in the
+     * queue for a worker
+     */
+    public int getQueueCapacity() { return capacity; }
+
+    /**
+     * extract all remaining nodes from the source and process them with
+     * the given handler.  This method returns after all nodes have been
+     * handled (or when processing has stopped because of an error).
+     * @param handler   the handler for processing nodes
+     * @return long     the number of nodes successfully handled
+     * @exception IOException  if an error occurs while reading the document
+     *                    or if the handler fails to process a node.  In
+     *                    the latter case, the handler's exception will be
+     *                    attached as the cause (unless it is itself an
+     *                    IOException).
+     * @exception InterruptedException  if this thread is interrupted while
+     *                    waiting for the workers.
+     */
+    public long extract(ExtractedNodeHandler handler)
+        throws IOException, InterruptedException
+    {
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(capacity);
+        Worker[] pool = new Worker[workers];
+        Thread[] threads = new Thread[workers];
+        for(int i=0; i < workers; i++) {
+            pool[i] = new Worker(queue, handler);
+            threads[i] = tfactory.newThread(pool[i]);
+            threads[i].start();
+        }
+
+        IOException readerr = null;
+        try {
+            long index = 0;
+            Reader node = null;
+            char[] buf = new char[8192];
+            StringBuilder sb = new StringBuilder();
+            int n;
+            while (failure(pool) == null && (node = source.nextNode()) != null){
+                sb.setLength(0);
+                while ((n = node.read(buf, 0, buf.length)) >= 0)
+                    sb.append(buf, 0, n);
+                queue.put(new Node(index++, sb.toString()));
+            }
+        }
+        catch (IOException ex) {
+            readerr = ex;
+        }
+        finally {
+            for(int i=0; i < workers; i++) queue.put(DONE);
+            for(int i=0; i < workers; i++) threads[i].join();
+        }
+        if (readerr != null) throw readerr;
+
+        Exception ex = failure(pool);
+        if (ex != null) {
+            if (ex instanceof IOException) throw (IOException) ex;
+            IOException ioex = new IOException("node handler failed: " +
+                                               ex.getMessage());
+            ioex.initCause(ex);
+            throw ioex;
+        }
+
+        long count = 0;
+        for(int i=0; i < workers; i++) count += pool[i].handled;
+        return count;
+    }
+
+    private Exception failure(Worker[] pool) {
+        for(int i=0; i < pool.length; i++) {
+            if (pool[i].failure != null) return pool[i].failure;
+        }
+        return null;
+    }
+
+    static class Node {
+        final long index;
+        final String content;
+        Node(long index, String content) {
+            this.index = index;
+            this.content = content;
+        }
+    }
+
+    class Worker implements Runnable {
+        BlockingQueue<Object> queue = null;
+        ExtractedNodeHandler handler = null;
+        volatile Exception failure = null;
+        long handled = 0;
+
+        Worker(BlockingQueue<Object> queue, ExtractedNodeHandler handler) {
+            this.queue = queue;
+            this.handler = handler;
+        }
+
+        public void run() {
+            Object item = null;
+            while (true) {
+                try {
+                    item = queue.take();
+                } catch (InterruptedException ex) {
+                    if (failure == null) failure = ex;
+                    continue;
+                }
+                if (item == DONE) return;
+
+                // after a failure, keep draining the queue so that the
+                // parsing thread is not left blocked
+                if (failure != null) continue;
+
+                Node node = (Node) item;
+                try {
+                    handler.handleNode(node.index,
+                                       new StringReader(node.content));
+                    handled++;
+                } catch (Exception ex) {
+                    failure = ex;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package ncsa.xml.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.namespace.QName;
+
+/**
+ * a driver that extracts nodes from a single large XML file using several
+ * threads, each parsing a different part of the file.
+ * <p>
+ * A {@link ParallelExtractor} hands nodes off to worker threads, but the
+ * document is still parsed by one thread, which limits how fast a large
+ * document can be split.  This class instead uses a {@link StructureIndex}
+ * of the file to find the outermost elements to be extracted and divides
+ * them into contiguous partitions of roughly equal size.  Each worker
+ * thread maps its own part of the file and runs its own
+ * {@link ExtractingParser} over it, so both the parsing and the handling
+ * of nodes proceed in parallel.
+ * <p>
+ * Each extracted element is presented to its worker's parser inside a
+ * wrapper that declares the namespaces (and schema locations) that were
+ * in scope where the element appeared in the file; thus, the namespace
+ * fix-up done by the parser produces the same result as a sequential
+ * extraction would.  Nodes are passed to the {@link ExtractedNodeHandler}
+ * with their position in document order as their index, but they will
+ * generally be handled out of order.  As with an ExtractingParser,
+ * elements contained within an extracted element are not extracted
+ * separately.
+ * <p>
+ * If the file has a current index saved alongside it (see
+ * {@link StructureIndex#load(File)}) that includes the elements to be
+ * extracted, it is used; otherwise, one covering just those elements is
+ * built with a single pass over the file before the workers start.
+ */
+public class PartitionedExtractor {
+    private File file = null;
+    private StructureIndex index = null;
+    private int workers = 1;
+    private ThreadFactory tfactory = null;
+    private HashSet<String> exportElements = new HashSet<String>();
+    private HashSet<String> ignore = new HashSet<String>();
+    private boolean standalone = true;
+
+    /**
+     * create the driver.
+     * @param xml       the file to extract nodes from
+     * @param workers   the number of threads to parse the file with
+     */
+    public PartitionedExtractor(File xml, int workers) {
+        this(xml, null, workers, null);
+    }
+
+    /**
+     * create the driver.
+     * @param xml       the file to extract nodes from
+     * @param index     an index of the file that includes the elements to
+     *                     be extracted (see {@link StructureIndex#covers(Set)});
+     *                     if null, one will be loaded or built as needed.
+     * @param workers   the number of threads to parse the file with
+     * @param factory   the factory to use to create worker threads; if
+     *                     null, a default factory will be used.
+     */
+    public PartitionedExtractor(File xml, StructureIndex index, int workers,
+                                ThreadFactory factory)
+    {
+        if (xml == null) throw new NullPointerException("xml");
+        if (workers < 1)
+            throw new IllegalArgumentException("workers must be at least 1");
+        file = xml;
+        this.index = index;
+        this.workers = workers;
+        tfactory = (factory == null) ? Executors.defaultThreadFactory()
+                                     : factory;
+    }
+
+    /**
+     * return the number of threads that will parse the file
+     */
+    public int getWorkerCount() { return workers; }
+
+    /**
+     * extract the elements of the given name.
+     * @param nsuri    the element's namespace URI
+     * @param locname  the element's local name
+     */
+    public void extractElement(String nsuri, String locname) {
+        exportElements.add("{" + nsuri + "}" + locname);
+    }
+
+    /**
+     * extract the elements of the given name.
+     * @param qname  the element's name, possibly qualified with a prefix
+     */
+    public void extractElement(String qname) {
+        exportElements.add(qname);
+    }
+
+    /**
+     * set whether the nodes will be returned as if they were complete
+     * documents.
+     * @see ExtractingParser#setReturnsDoc(boolean)
+     */
+    public void setReturnsDoc(boolean yes) { standalone = yes; }
+
+    /**
+     * return true if the nodes will be returned as if they were complete
+     * documents.
+     */
+    public boolean returnsDoc() { return standalone; }
+
+    /**
+     * do not carry forward the definition of the given namespace to the
+     * extracted nodes.
+     * @see ExtractingParser#ignoreNamespace(String)
+     */
+    public void ignoreNamespace(String uri) {
+        if (uri != null) ignore.add(uri);
+    }
+
+    /**
+     * return the positions in the index of the outermost elements to be
+     * extracted, in document order
+     * @throws IOException  if the index given at construction is out of
+     *                        date or does not include those elements
+     */
+    int[] findNodes() throws IOException {
+        Set<QName> names = new HashSet<QName>();
+        for(Iterator<String> it = exportElements.iterator(); it.hasNext();)
+            names.add(StructureIndex.toQName(it.next()));
+
+        if (index == null) {
+            index = StructureIndex.load(file);
+            if (index != null && ! index.covers(names)) index = null;
+        }
+        if (index == null) index = StructureIndex.build(file, names);
+        if (! index.isCurrentFor(file))
+            throw new IOException(file + ": file has changed since indexed");
+        if (! index.covers(names))
+            throw new IOException(file + ": index does not include all " +
+                                  "elements to be extracted");
+
+        boolean[] want = new boolean[index.size()];
+        for(Iterator<QName> it = names.iterator(); it.hasNext();) {
+            int[] found = index.find(it.next());
+            for(int i=0; i < found.length; i++) want[found[i]] = true;
+        }
+
+        int[] out = new int[index.size()];
+        int n = 0;
+        long end = -1;
+        for(int i=0; i < want.length; i++) {
+            if (! want[i] || index.getStartChar(i) < end) continue;
+            out[n++] = i;
+            end = index.getEndChar(i);
+        }
+
+        int[] tmp = new int[n];
+        System.arraycopy(out, 0, tmp, 0, n);
+        return tmp;
+    }
+
+    /**
+     * return the boundaries of the partitions of the given nodes:  the
+     * i-th partition runs from out[i] to out[i+1].
+     */
+    int[] partition(int[] nodes) {
+        int parts = Math.max(1, Math.min(workers, nodes.length));
+        int[] out = new int[parts + 1];
+        if (nodes.length == 0) return out;
+
+        long start = index.getStartChar(nodes[0]);
+        long total = index.getEndChar(nodes[nodes.length-1]) - start;
+        int p = 1;
+        for(int i=1; i < nodes.length && p < parts; i++) {
+            if (index.getStartChar(nodes[i]) - start >= total * p / parts &&
+                nodes.length - i >= parts - p)
+                out[p++] = i;
+        }
+        for(; p < parts; p++) out[p] = nodes.length - parts + p;
+        out[parts] = nodes.length;
+        return out;
+    }
+
+    /**
+     * extract all of the desired nodes from the file and process them with
+     * the given handler.  This method returns after all nodes have been
+     * handled (or when processing has stopped because of an error).
+     * @param handler   the handler for processing nodes; it must be safe to
+     *                    call from several threads at once.
+     * @return long     the number of nodes successfully handled
+     * @exception IOException  if an error occurs while reading the file
+     *                    or if the handler fails to process a node.  In
+     *                    the latter case, the handler's exception will be
+     *                    attached as the cause (unless it is itself an
+     *                    IOException).
+     * @exception InterruptedException  if this thread is interrupted while
+     *                    waiting for the workers.
+     */
+    public long extract(ExtractedNodeHandler handler)
+        throws IOException, InterruptedException
+    {
+        if (exportElements.isEmpty())
+            throw new IllegalStateException("no elements to extract");
+        int[] nodes = findNodes();
+        if (nodes.length == 0) return 0;
+        int[] bounds = partition(nodes);
+
+        Worker[] pool = new Worker[bounds.length - 1];
+        Thread[] threads = new Thread[pool.length];
+        for(int i=0; i < pool.length; i++)
+            pool[i] = new Worker(nodes, bounds[i], bounds[i+1], handler, pool);
+        for(int i=0; i < pool.length; i++) {
+            threads[i] = tfactory.newThread(pool[i]);
+            threads[i].start();
+        }
+        for(int i=0; i < threads.length; i++) threads[i].join();
+
+        Exception ex = failure(pool);
+        if (ex != null) {
+            if (ex instanceof IOException) throw (IOException) ex;
+            IOException ioex = new IOException("node handler failed: " +
+                                               ex.getMessage());
+            ioex.initCause(ex);
+            throw ioex;
+        }
+
+        long count = 0;
+        for(int i=0; i < pool.length; i++) count += pool[i].handled.get();
+        return count;
+    }
+
+    private static Exception failure(Worker[] pool) {
+        for(int i=0; i < pool.length; i++) {
+            if (pool[i].failure != null) return pool[i].failure;
+        }
+        return null;
+    }
+
+    class Worker implements Runnable {
+        int[] nodes = null;
+        int from = 0, to = 0;
+        ExtractedNodeHandler handler = null;
+        Worker[] pool = null;
+        volatile Exception failure = null;
+        AtomicLong handled = new AtomicLong();
+
+        Worker(int[] nodes, int from, int to, ExtractedNodeHandler handler,
+               Worker[] pool)
+        {
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+            this.handler = handler;
+            this.pool = pool;
+        }
+
+        public void run() {
+            IndexedSource src = null;
+            try {
+                src = new IndexedSource(file, index, nodes, from, to,
+                                        standalone);
+                ExtractingParser ep = new ExtractingParser(src);
+                ep.setReturnsDoc(standalone);
+                for(Iterator<String> it = ignore.iterator(); it.hasNext();)
+                    ep.ignoreNamespace(it.next());
+                for(Iterator<String> it = exportElements.iterator();
+                    it.hasNext();)
+                    ep.extractElement(it.next());
+
+                Reader node = null;
+                for(int i = from; i < to; i++) {
+                    if (failure(pool) != null) return;
+                    node = ep.nextNode();
+                    if (node == null)
+                        throw new IOException("indexed element " + nodes[i] +
+                                              " not found");
+                    handler.handleNode(i, node);
+                    handled.incrementAndGet();
+                }
+            }
+            catch (Exception ex) {
+                failure = ex;
+            }
+            finally {
+                try { if (src != null) src.close(); }
+                catch (IOException ex) { }
+            }
+        }
+    }
+}
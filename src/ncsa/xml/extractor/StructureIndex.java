@@ -0,0 +1,821 @@
+package ncsa.xml.extractor;
+
+import ncsa.xml.sax.Namespaces;
+import ncsa.xml.saxfilter.CharContentLocator;
+import ncsa.xml.saxfilter.MappedFileReader;
+import ncsa.xml.saxfilter.OnDemandParser;
+import ncsa.xml.saxfilter.OnDemandParserDelegate;
+import ncsa.xml.saxfilter.SAXFilterContentHandler;
+import ncsa.xml.saxfilter.SAXFilterFlowControl;
+import ncsa.xml.saxfilter.SAXFilteredReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * an index of the positions of the elements in an XML file, allowing
+ * individual elements to be read without scanning the document from its
+ * start.
+ * <p>
+ * The index is built in a single pass over the file with
+ * {@link #build(File, Set) build()}.  For every element (or, optionally,
+ * only those with certain names), it records the character and byte
+ * positions of the start of its start tag and the end of its end tag, its
+ * depth in the document, its name, and the namespaces (and schema
+ * locations) in scope where it starts.  The latter allows an
+ * {@link IndexedExtractor} to return an element as a standalone document
+ * just as an {@link ExtractingParser} reading the whole file would.
+ * <p>
+ * An index can be saved to and restored from a compact binary file
+ * (conventionally, the XML file's name with ".jxi" appended; see
+ * {@link #sidecarFor(File)}), so that a large file that is repeatedly
+ * mined for subsets of its records need only be scanned once.  The index
+ * records the size and modification time of the file it was built from
+ * so that a stale index can be detected (see {@link #isCurrentFor(File)}),
+ * as well as the names the index was restricted to, so that an index
+ * lacking the elements of interest can be detected (see
+ * {@link #covers(QName)}).
+ * The {@link #main(String[]) main()} method provides a command-line tool
+ * for creating these files.
+ * <p>
+ * Byte positions can only be recorded when the number of bytes encoding
+ * each character can be determined from the character itself--that is,
+ * for UTF-8, UTF-16, and single-byte encodings; for other encodings, the
+ * byte positions are reported as -1.
+ */
+public final class StructureIndex {
+
+    /**
+     * the extension added to an XML file's name to form the name of its
+     * index file
+     */
+    public static final String SIDECAR_EXT = ".jxi";
+
+    private static final int MAGIC = 0x4a584932;   // "JXI2"
+
+    // what the index was built from
+    private long srcsize = -1;
+    private long srcmtime = 0;
+    private String charset = null;
+    private String xmldecl = null;
+    private boolean bytesKnown = false;
+    private QName[] selection = null;     // null if all elements indexed
+
+    // the distinct element names:  namespace, local name, and prefix
+    private String[] nameURIs = new String[8];
+    private String[] nameLocals = new String[8];
+    private String[] namePrefixes = new String[8];
+    private int nnames = 0;
+
+    // the distinct namespace contexts:  alternating prefixes and URIs,
+    // followed by alternating namespaces and schema locations
+    private String[][] ctxPrefixes = new String[8][];
+    private String[][] ctxLocations = new String[8][];
+    private int nctxs = 0;
+
+    // the elements
+    private int[] names = new int[64];
+    private int[] depths = new int[64];
+    private int[] ctxs = new int[64];
+    private long[] cstart = new long[64];
+    private long[] cend = new long[64];
+    private long[] bstart = new long[64];
+    private long[] bend = new long[64];
+    private int size = 0;
+
+    private StructureIndex() { }
+
+    /**
+     * index all of the elements in an XML file
+     */
+    public static StructureIndex build(File xml) throws IOException {
+        return build(xml, null);
+    }
+
+    /**
+     * index the elements with the given names in an XML file.  Names are
+     * matched as with {@link OnDemandParser#subscribeElements(Set)}:  a
+     * name with a namespace matches elements in that namespace; one with
+     * only a prefix matches elements with that qualified name; one with
+     * neither matches by local name in any namespace.
+     * @param xml     the file to index
+     * @param select  the names of the elements to index; if null, all
+     *                  elements will be indexed.
+     */
+    public static StructureIndex build(File xml, Set<QName> select)
+        throws IOException
+    {
+        StructureIndex out = new StructureIndex();
+        out.srcsize = xml.length();
+        out.srcmtime = xml.lastModified();
+        if (select != null)
+            out.selection = select.toArray(new QName[select.size()]);
+
+        MappedFileReader src = new MappedFileReader(xml);
+        Charset cs = src.getCharset();
+        out.charset = cs.name();
+        ByteCounter bc = ByteCounter.forCharset(cs);
+        if (bc != null && cs.name().equals("UTF-16")) {
+            // the decoder eats the byte order mark; ranges must be read
+            // with an explicit byte order.
+            out.charset = byteOrderOf(xml);
+            bc.bpos = 2;
+        }
+        out.bytesKnown = (bc != null);
+
+        Indexer ix = out.new Indexer(select, bc);
+        SAXFilteredReader rdr = new SAXFilteredReader(src, ix);
+        rdr.setChunkSize(SAXFilteredReader.MAPPED_CHUNK_SIZE);
+        try {
+            char[] buf = new char[SAXFilteredReader.MAPPED_CHUNK_SIZE];
+            int n;
+            while ((n = rdr.read(buf, 0, buf.length)) >= 0)
+                ix.passed(buf, n);
+            ix.passed(buf, 0);
+        }
+        finally {
+            rdr.close();
+        }
+
+        return out;
+    }
+
+    private static String byteOrderOf(File xml) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(xml, "r");
+        try {
+            return (raf.read() == 0xff) ? "UTF-16LE" : "UTF-16BE";
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * return the file that an index for the given XML file is
+     * conventionally saved to
+     */
+    public static File sidecarFor(File xml) {
+        return new File(xml.getPath() + SIDECAR_EXT);
+    }
+
+    /**
+     * load the index saved alongside an XML file (see
+     * {@link #sidecarFor(File)}) if it exists and is up to date.
+     * @return StructureIndex   the index or null if there is no current
+     *                             index for the file
+     */
+    public static StructureIndex load(File xml) throws IOException {
+        File idx = sidecarFor(xml);
+        if (! idx.exists()) return null;
+        StructureIndex out = read(idx);
+        return (out.isCurrentFor(xml)) ? out : null;
+    }
+
+    /**
+     * return true if the given file has the same size and modification
+     * time as the file this index was built from.
+     */
+    public boolean isCurrentFor(File xml) {
+        return xml.length() == srcsize && xml.lastModified() == srcmtime;
+    }
+
+    /**
+     * return the names the index was restricted to when it was built, or
+     * null if all elements were indexed.
+     */
+    public Set<QName> getSelection() {
+        if (selection == null) return null;
+        Set<QName> out = new HashSet<QName>();
+        for(int i=0; i < selection.length; i++) out.add(selection[i]);
+        return out;
+    }
+
+    /**
+     * return true if every element that the given name matches (see
+     * {@link #find(QName)}) was indexed.  This is only certain when the
+     * index was built for all elements or for a name at least as general
+     * as the given one; a name given with a namespace, for example, is not
+     * covered by one given with a prefix.
+     */
+    public boolean covers(QName name) {
+        if (selection == null) return true;
+        String uri = name.getNamespaceURI(), prefix = name.getPrefix();
+        for(int i=0; i < selection.length; i++) {
+            QName sel = selection[i];
+            if (! sel.getLocalPart().equals(name.getLocalPart())) continue;
+            if (sel.getNamespaceURI().length() > 0) {
+                if (sel.getNamespaceURI().equals(uri)) return true;
+            }
+            else if (sel.getPrefix().length() > 0) {
+                if (uri.length() == 0 && sel.getPrefix().equals(prefix))
+                    return true;
+            }
+            else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * return true if every element matching any of the given names was
+     * indexed.
+     * @see #covers(QName)
+     */
+    public boolean covers(Set<QName> names) {
+        for(QName name : names) {
+            if (! covers(name)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * return the number of elements in the index
+     */
+    public int size() { return size; }
+
+    /**
+     * return the name of the character encoding of the indexed file.  For
+     * UTF-16 files with a byte order mark, this will give the byte order
+     * explicitly.
+     */
+    public String getCharset() { return charset; }
+
+    /**
+     * return the XML declaration at the start of the indexed file or null
+     * if it did not have one.
+     */
+    public String getXMLDecl() { return xmldecl; }
+
+    /**
+     * return true if byte positions were recorded for the elements
+     */
+    public boolean hasBytePositions() { return bytesKnown; }
+
+    /**
+     * return the name of the i-th element
+     */
+    public QName getName(int i) {
+        int id = names[check(i)];
+        return new QName(nameURIs[id], nameLocals[id], namePrefixes[id]);
+    }
+
+    /**
+     * return the qualified name of the i-th element as it appears in its
+     * tag
+     */
+    public String getQName(int i) {
+        int id = names[check(i)];
+        return (namePrefixes[id].length() > 0)
+            ? namePrefixes[id] + ':' + nameLocals[id] : nameLocals[id];
+    }
+
+    /**
+     * return the depth of the i-th element; the root element has a depth
+     * of 1.
+     */
+    public int getDepth(int i) { return depths[check(i)]; }
+
+    /**
+     * return the character position of the start of the i-th element's
+     * start tag
+     */
+    public long getStartChar(int i) { return cstart[check(i)]; }
+
+    /**
+     * return the character position just after the end of the i-th
+     * element's end tag
+     */
+    public long getEndChar(int i) { return cend[check(i)]; }
+
+    /**
+     * return the byte position of the start of the i-th element's start
+     * tag or -1 if it is not known
+     */
+    public long getStartByte(int i) { return bstart[check(i)]; }
+
+    /**
+     * return the byte position just after the end of the i-th element's
+     * end tag or -1 if it is not known
+     */
+    public long getEndByte(int i) { return bend[check(i)]; }
+
+    /**
+     * return an identifier for the namespace context of the i-th element;
+     * elements with the same context have the same identifier.
+     */
+    int getContextId(int i) { return ctxs[check(i)]; }
+
+    /**
+     * return the number of distinct namespace contexts
+     */
+    int getContextCount() { return nctxs; }
+
+    /**
+     * return the prefixes and namespace URIs in scope at the start of the
+     * i-th element as an array of alternating prefixes and URIs.  The
+     * default namespace has an empty prefix.
+     */
+    String[] getPrefixMappings(int i) { return ctxPrefixes[ctxs[check(i)]]; }
+
+    /**
+     * return the schema locations in scope at the start of the i-th
+     * element as an array of alternating namespaces and locations.
+     */
+    String[] getLocations(int i) { return ctxLocations[ctxs[check(i)]]; }
+
+    private int check(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("no element " + i);
+        return i;
+    }
+
+    /**
+     * return the positions in the index of the elements with the given
+     * name.  The name is matched as described for
+     * {@link #build(File, Set) build()}.
+     */
+    public int[] find(QName name) {
+        boolean[] match = new boolean[nnames];
+        String uri = name.getNamespaceURI(), prefix = name.getPrefix(),
+               local = name.getLocalPart();
+        for(int id=0; id < nnames; id++) {
+            if (! local.equals(nameLocals[id])) continue;
+            if (uri.length() > 0)
+                match[id] = uri.equals(nameURIs[id]);
+            else if (prefix.length() > 0)
+                match[id] = prefix.equals(namePrefixes[id]);
+            else
+                match[id] = true;
+        }
+
+        int n = 0;
+        for(int i=0; i < size; i++)
+            if (match[names[i]]) n++;
+        int[] out = new int[n];
+        n = 0;
+        for(int i=0; i < size; i++)
+            if (match[names[i]]) out[n++] = i;
+        return out;
+    }
+
+    /**
+     * save this index to a file
+     */
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file), 65536));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(srcsize);
+            out.writeLong(srcmtime);
+            out.writeUTF(charset);
+            out.writeBoolean(xmldecl != null);
+            if (xmldecl != null) out.writeUTF(xmldecl);
+            out.writeBoolean(bytesKnown);
+
+            out.writeInt((selection == null) ? -1 : selection.length);
+            for(int i=0; selection != null && i < selection.length; i++) {
+                out.writeUTF(selection[i].getNamespaceURI());
+                out.writeUTF(selection[i].getLocalPart());
+                out.writeUTF(selection[i].getPrefix());
+            }
+
+            out.writeInt(nnames);
+            for(int i=0; i < nnames; i++) {
+                out.writeUTF(nameURIs[i]);
+                out.writeUTF(nameLocals[i]);
+                out.writeUTF(namePrefixes[i]);
+            }
+
+            out.writeInt(nctxs);
+            for(int i=0; i < nctxs; i++) {
+                writeStrings(out, ctxPrefixes[i]);
+                writeStrings(out, ctxLocations[i]);
+            }
+
+            out.writeInt(size);
+            for(int i=0; i < size; i++) {
+                out.writeInt(names[i]);
+                out.writeInt(depths[i]);
+                out.writeInt(ctxs[i]);
+                out.writeLong(cstart[i]);
+                out.writeLong(cend[i]);
+                if (bytesKnown) {
+                    out.writeLong(bstart[i]);
+                    out.writeLong(bend[i]);
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * restore an index saved with {@link #write(File)}.
+     * @throws IOException   if the file is not a saved index
+     */
+    public static StructureIndex read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file), 65536));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + ": not an XML structure index");
+
+            StructureIndex out = new StructureIndex();
+            out.srcsize = in.readLong();
+            out.srcmtime = in.readLong();
+            out.charset = in.readUTF();
+            if (in.readBoolean()) out.xmldecl = in.readUTF();
+            out.bytesKnown = in.readBoolean();
+
+            int nsel = in.readInt();
+            if (nsel >= 0) {
+                out.selection = new QName[nsel];
+                for(int i=0; i < nsel; i++)
+                    out.selection[i] = new QName(in.readUTF(), in.readUTF(),
+                                                 in.readUTF());
+            }
+
+            out.nnames = in.readInt();
+            out.nameURIs = new String[out.nnames];
+            out.nameLocals = new String[out.nnames];
+            out.namePrefixes = new String[out.nnames];
+            for(int i=0; i < out.nnames; i++) {
+                out.nameURIs[i] = in.readUTF();
+                out.nameLocals[i] = in.readUTF();
+                out.namePrefixes[i] = in.readUTF();
+            }
+
+            out.nctxs = in.readInt();
+            out.ctxPrefixes = new String[out.nctxs][];
+            out.ctxLocations = new String[out.nctxs][];
+            for(int i=0; i < out.nctxs; i++) {
+                out.ctxPrefixes[i] = readStrings(in);
+                out.ctxLocations[i] = readStrings(in);
+            }
+
+            out.size = in.readInt();
+            out.allocate(out.size);
+            for(int i=0; i < out.size; i++) {
+                out.names[i] = in.readInt();
+                out.depths[i] = in.readInt();
+                out.ctxs[i] = in.readInt();
+                out.cstart[i] = in.readLong();
+                out.cend[i] = in.readLong();
+                out.bstart[i] = (out.bytesKnown) ? in.readLong() : -1L;
+                out.bend[i] = (out.bytesKnown) ? in.readLong() : -1L;
+            }
+            return out;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] s)
+        throws IOException
+    {
+        out.writeInt(s.length);
+        for(int i=0; i < s.length; i++) out.writeUTF(s[i]);
+    }
+
+    private static String[] readStrings(DataInputStream in)
+        throws IOException
+    {
+        String[] out = new String[in.readInt()];
+        for(int i=0; i < out.length; i++) out[i] = in.readUTF();
+        return out;
+    }
+
+    private void allocate(int cap) {
+        names = copyOf(names, cap);
+        depths = copyOf(depths, cap);
+        ctxs = copyOf(ctxs, cap);
+        cstart = copyOf(cstart, cap);
+        cend = copyOf(cend, cap);
+        bstart = copyOf(bstart, cap);
+        bend = copyOf(bend, cap);
+    }
+
+    private static int[] copyOf(int[] a, int cap) {
+        int[] out = new int[cap];
+        System.arraycopy(a, 0, out, 0, Math.min(a.length, cap));
+        return out;
+    }
+
+    private static long[] copyOf(long[] a, int cap) {
+        long[] out = new long[cap];
+        System.arraycopy(a, 0, out, 0, Math.min(a.length, cap));
+        return out;
+    }
+
+    /**
+     * convert a name given as "{uri}local", "prefix:local", or "local"
+     * into a QName
+     */
+    static QName toQName(String name) {
+        int p;
+        if (name.startsWith("{") && (p = name.indexOf('}')) > 0)
+            return new QName(name.substring(1, p), name.substring(p+1));
+        if ((p = name.indexOf(':')) > 0)
+            return new QName(XMLConstants.NULL_NS_URI, name.substring(p+1),
+                             name.substring(0, p));
+        return new QName(name);
+    }
+
+    /**
+     * counts the bytes encoding the characters passed on by the reader
+     */
+    static class ByteCounter {
+        final int width;     // 0 for UTF-8
+        long bpos = 0;
+
+        ByteCounter(int width) { this.width = width; }
+
+        static ByteCounter forCharset(Charset cs) {
+            String name = cs.name();
+            if (name.equals("UTF-8")) return new ByteCounter(0);
+            if (name.startsWith("UTF-16")) return new ByteCounter(2);
+            if (cs.canEncode() && cs.newEncoder().maxBytesPerChar() == 1.0f)
+                return new ByteCounter(1);
+            return null;
+        }
+
+        void count(char[] buf, int from, int to) {
+            if (width > 0) {
+                bpos += (long) width * (to - from);
+                return;
+            }
+
+            char c;
+            for(int i=from; i < to; i++) {
+                c = buf[i];
+                if (c < 0x80)
+                    bpos++;
+                else if (c < 0x800)
+                    bpos += 2;
+                else if (Character.isHighSurrogate(c))
+                    bpos += 4;
+                else if (! Character.isLowSurrogate(c))
+                    bpos += 3;
+            }
+        }
+    }
+
+    /**
+     * records the elements as the document is read.  Positions are
+     * reported by the reader as it parses, which is always ahead of what
+     * it has passed on; byte positions are filled in as the text passes
+     * through {@link #passed(char[], int) passed()}.
+     */
+    class Indexer extends DefaultHandler implements SAXFilterContentHandler {
+        OnDemandParserDelegate match = null;
+        ByteCounter bc = null;
+        CharContentLocator loc = null;
+        Namespaces nsm = null;
+
+        // the index of the element open at each depth (-1 if not indexed)
+        int[] open = new int[64];
+        int depth = 0;
+
+        // indexed elements in the order their ends were found
+        int[] ends = new int[64];
+        int nends = 0;
+
+        // the next start and end awaiting a byte position
+        int nextStart = 0, nextEnd = 0;
+        long cpos = 0;
+
+        HashMap<String, Integer> nameIds = new HashMap<String, Integer>();
+        HashMap<String, Integer> ctxIds = new HashMap<String, Integer>();
+        StringBuilder key = new StringBuilder();
+        List<String> pfx = new ArrayList<String>(), locs = new ArrayList<String>();
+
+        Indexer(Set<QName> select, ByteCounter bc) {
+            this.bc = bc;
+            if (select != null) {
+                match = new OnDemandParserDelegate();
+                match.subscribeElements(select);
+            }
+        }
+
+        public void setParseRequestMgr(OnDemandParser prm) {
+            prm.disableEvents(OnDemandParser.ALL_EVENTS);
+            prm.enableEvents(OnDemandParser.ELEMENT |
+                             OnDemandParser.NAMESPACES |
+                             OnDemandParser.PREFIX_MAPPING |
+                             OnDemandParser.PROC_INSTR);
+        }
+
+        public void setFlowController(SAXFilterFlowControl control) {
+            loc = control.getCharLocator();
+        }
+
+        public void setNamespaces(Namespaces namespaces) { nsm = namespaces; }
+
+        public void processingInstruction(String target, String data) {
+            if (xmldecl == null && depth == 0 && "xml".equals(target))
+                xmldecl = loc.getContent();
+        }
+
+        public void startElement(String uri, String local, String qname,
+                                 Attributes atts)
+        {
+            if (++depth >= open.length) open = copyOf(open, 2 * depth);
+            open[depth] = -1;
+            if (match != null && ! match.isSubscribed(uri, local, qname))
+                return;
+
+            if (size >= names.length) allocate(2 * size);
+            names[size] = nameId(uri, local, qname);
+            depths[size] = depth;
+            ctxs[size] = contextId();
+            cstart[size] = loc.getCharNumber();
+            cend[size] = bstart[size] = bend[size] = -1;
+            open[depth] = size++;
+        }
+
+        public void endElement(String uri, String local, String qname) {
+            if (depth <= 0) return;
+            int i = open[depth--];
+            if (i < 0) return;
+
+            cend[i] = loc.getCharNumber() + loc.getCharLength();
+            if (nends >= ends.length) ends = copyOf(ends, 2 * nends);
+            ends[nends++] = i;
+        }
+
+        int nameId(String uri, String local, String qname) {
+            if (uri == null) uri = "";
+            key.setLength(0);
+            key.append(uri).append('\u0000').append(qname);
+            String k = key.toString();
+            Integer id = nameIds.get(k);
+            if (id != null) return id.intValue();
+
+            if (nnames >= nameURIs.length) {
+                nameURIs = grow(nameURIs);
+                nameLocals = grow(nameLocals);
+                namePrefixes = grow(namePrefixes);
+            }
+            int p = qname.indexOf(':');
+            nameURIs[nnames] = uri;
+            nameLocals[nnames] = local;
+            namePrefixes[nnames] = (p > 0) ? qname.substring(0, p) : "";
+            nameIds.put(k, Integer.valueOf(nnames));
+            return nnames++;
+        }
+
+        int contextId() {
+            pfx.clear();
+            locs.clear();
+            key.setLength(0);
+            String p, v;
+            for(Enumeration<?> e = nsm.prefixes(); e.hasMoreElements();) {
+                p = (String) e.nextElement();
+                v = nsm.getURI(p);
+                if (v == null || p.equals("xml") ||
+                    (p.length() == 0 && v.length() == 0))
+                    continue;
+                pfx.add(p);
+                pfx.add(v);
+                key.append(p).append('\u0000').append(v).append('\u0000');
+            }
+            key.append('\u0001');
+            for(Enumeration<?> e = nsm.locatedNamespaces();
+                e.hasMoreElements();)
+            {
+                p = (String) e.nextElement();
+                v = nsm.getLocation(p);
+                locs.add(p);
+                locs.add(v);
+                key.append(p).append('\u0000').append(v).append('\u0000');
+            }
+
+            String k = key.toString();
+            Integer id = ctxIds.get(k);
+            if (id != null) return id.intValue();
+
+            if (nctxs >= ctxPrefixes.length) {
+                String[][] tmp = new String[2 * nctxs][];
+                System.arraycopy(ctxPrefixes, 0, tmp, 0, nctxs);
+                ctxPrefixes = tmp;
+                tmp = new String[2 * nctxs][];
+                System.arraycopy(ctxLocations, 0, tmp, 0, nctxs);
+                ctxLocations = tmp;
+            }
+            ctxPrefixes[nctxs] = pfx.toArray(new String[pfx.size()]);
+            ctxLocations[nctxs] = locs.toArray(new String[locs.size()]);
+            ctxIds.put(k, Integer.valueOf(nctxs));
+            return nctxs++;
+        }
+
+        /**
+         * account for characters passed on by the reader.  A count of
+         * zero signals the end of the document.
+         */
+        void passed(char[] buf, int n) {
+            if (bc == null) return;
+            long end = cpos + n;
+            int from = 0, i;
+            long next;
+            while (true) {
+                // the next position, in document order, awaiting its bytes
+                boolean isStart = nextStart < size &&
+                    (nextEnd >= nends || cstart[nextStart] <= cend[ends[nextEnd]]);
+                if (isStart)
+                    next = cstart[nextStart];
+                else if (nextEnd < nends)
+                    next = cend[ends[nextEnd]];
+                else
+                    break;
+                if (next > end || (next == end && n > 0)) break;
+
+                i = (int) (Math.max(next, cpos) - cpos);
+                if (i > from) {
+                    bc.count(buf, from, i);
+                    from = i;
+                }
+                if (isStart)
+                    bstart[nextStart++] = bc.bpos;
+                else
+                    bend[ends[nextEnd++]] = bc.bpos;
+            }
+            bc.count(buf, from, n);
+            cpos = end;
+        }
+    }
+
+    private static String[] grow(String[] a) {
+        String[] out = new String[2 * a.length];
+        System.arraycopy(a, 0, out, 0, a.length);
+        return out;
+    }
+
+    /**
+     * build an index for an XML file and save it alongside the file.
+     * <pre>
+     * Usage: StructureIndex [-e name ...] file.xml [index-file]
+     * </pre>
+     * Each -e option restricts the index to elements with the given name,
+     * given as "{uri}local", "prefix:local", or "local".  The index is
+     * written to file.xml.jxi unless another index file is given.
+     */
+    public static void main(String[] args) {
+        Set<QName> select = null;
+        List<String> files = new ArrayList<String>();
+        for(int i=0; i < args.length; i++) {
+            if (args[i].equals("-e") && i+1 < args.length) {
+                if (select == null) select = new HashSet<QName>();
+                select.add(toQName(args[++i]));
+            }
+            else if (args[i].startsWith("-")) {
+                files.clear();
+                break;
+            }
+            else {
+                files.add(args[i]);
+            }
+        }
+        if (files.size() < 1 || files.size() > 2) {
+            System.err.println("Usage: StructureIndex [-e name ...] " +
+                               "file.xml [index-file]");
+            System.exit(1);
+        }
+
+        File xml = new File(files.get(0));
+        File idx = (files.size() > 1) ? new File(files.get(1))
+                                      : sidecarFor(xml);
+        try {
+            StructureIndex si = build(xml, select);
+            si.write(idx);
+            System.out.println(idx + ": " + si.size() + " elements indexed");
+        }
+        catch (IOException ex) {
+            System.err.println("StructureIndex: " + ex.getMessage());
+            System.exit(2);
+        }
+    }
+}
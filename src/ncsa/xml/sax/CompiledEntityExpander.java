@@ -0,0 +1,233 @@
+package ncsa.xml.sax;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * an immutable, precompiled set of entity definitions for expanding
+ * entity references in text.
+ * <p>
+ * Entity names are kept in an open-addressing hash table that is probed
+ * directly with the characters found between a "&amp;" and the following
+ * ";", so looking up a reference requires no String to be created, and
+ * the cost of expanding text does not depend on the number of entities
+ * defined.  Expanded text is built in a single pass; it is not re-scanned
+ * for further references.  References to undefined entities are left as
+ * they are.
+ * <p>
+ * Because an instance cannot be changed after it is created, it can be
+ * shared freely between threads without locking.  An instance is usually
+ * obtained from {@link EntityExpander#compile()}.
+ */
+public final class CompiledEntityExpander {
+
+    // the hash table:  names[i] is null for an empty slot
+    private final char[][] names;
+    private final String[] values;
+    private final int mask;
+
+    // the length of the longest entity name
+    private final int maxlen;
+
+    /**
+     * compile a set of entity definitions
+     * @param entities   a map of entity names (without the &amp; or ;) to
+     *                     the values they expand to
+     */
+    public CompiledEntityExpander(Map<String, String> entities) {
+        int cap = 16;
+        while (cap < entities.size() * 2) cap <<= 1;
+        names = new char[cap][];
+        values = new String[cap];
+        mask = cap - 1;
+
+        int longest = 0;
+        for(Iterator<Map.Entry<String, String>> it =
+                entities.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<String, String> ent = it.next();
+            char[] name = ent.getKey().toCharArray();
+            if (name.length > longest) longest = name.length;
+
+            int i = hash(name, 0, name.length) & mask;
+            while (names[i] != null && ! same(names[i], name, 0, name.length))
+                i = (i + 1) & mask;
+            names[i] = name;
+            values[i] = ent.getValue();
+        }
+        maxlen = longest;
+    }
+
+    /**
+     * return the value that an entity is defined to expand to
+     * @param entname    the name of the entity (without the &amp; or ;)
+     * @return String    the value to expand the entity to or null if
+     *                      the entity is not defined.
+     */
+    public String getExpansion(String entname) {
+        char[] name = entname.toCharArray();
+        return lookup(name, 0, name.length);
+    }
+
+    /**
+     * return the length of the longest defined entity name
+     */
+    public int getMaxNameLength() { return maxlen; }
+
+    /**
+     * search for and expand any recognized entities
+     * @return String   the expanded text; this will be the input String if
+     *                    it contains no recognized entities.
+     */
+    public String expand(String in) {
+        int a = in.indexOf('&');
+        if (a < 0) return in;
+
+        StringBuilder out = null;
+        int p = 0, end, semi;
+        String val;
+        while (a >= 0) {
+            end = Math.min(in.length(), a + maxlen + 2);
+            for(semi = a+1; semi < end && in.charAt(semi) != ';'; semi++);
+            val = (semi < end) ? lookup(in, a+1, semi) : null;
+            if (val != null) {
+                if (out == null) out = new StringBuilder(in.length());
+                out.append(in, p, a).append(val);
+                p = semi + 1;
+            }
+            a = in.indexOf('&', (val != null) ? p : a+1);
+        }
+        if (out == null) return in;
+
+        out.append(in, p, in.length());
+        return out.toString();
+    }
+
+    /**
+     * search for and expand any recognized entities in text read from a
+     * stream, writing the result to another stream.  Only a small amount
+     * of the input (enough to see the longest entity name) is held in
+     * memory at a time.
+     * @param in    the stream to read; it will be read to its end but not
+     *                 closed.
+     * @param out   the stream to write the expanded text to; it will not
+     *                 be closed.
+     */
+    public void expand(Reader in, Writer out) throws IOException {
+        char[] buf = new char[Math.max(8192, 4 * (maxlen + 2))];
+        int n = 0, r, keep;
+        boolean eof = false;
+        while (! eof) {
+            r = in.read(buf, n, buf.length - n);
+            if (r < 0)
+                eof = true;
+            else
+                n += r;
+
+            keep = expand(buf, n, eof, out);
+            System.arraycopy(buf, n - keep, buf, 0, keep);
+            n = keep;
+        }
+    }
+
+    /**
+     * expand the entities in a buffer, writing the results to a stream
+     * @param buf    the buffer to expand
+     * @param n      the number of characters in the buffer
+     * @param eof    true if no further characters will follow those in
+     *                  the buffer
+     * @param out    the stream to write to
+     * @return int   the number of characters at the end of the buffer that
+     *                  were not written because they may be the start of a
+     *                  reference that continues past the end of the buffer.
+     */
+    int expand(char[] buf, int n, boolean eof, Writer out) throws IOException
+    {
+        int p = 0, a = 0, end, semi;
+        String val;
+        while (a < n) {
+            if (buf[a] != '&') {
+                a++;
+                continue;
+            }
+
+            end = a + maxlen + 2;
+            if (end > n) {
+                if (! eof) {
+                    // we can't tell yet if this is a reference
+                    for(semi = a+1; semi < n && buf[semi] != ';'; semi++);
+                    if (semi >= n) break;
+                }
+                end = n;
+            }
+
+            for(semi = a+1; semi < end && buf[semi] != ';'; semi++);
+            val = (semi < end) ? lookup(buf, a+1, semi) : null;
+            if (val != null) {
+                out.write(buf, p, a - p);
+                out.write(val);
+                p = a = semi + 1;
+            }
+            else {
+                a++;
+            }
+        }
+
+        if (a > p) out.write(buf, p, a - p);
+        return n - a;
+    }
+
+    /**
+     * look up the value of an entity whose name is given by a range of
+     * a CharSequence
+     */
+    String lookup(CharSequence s, int start, int end) {
+        int len = end - start;
+        if (len > maxlen || len == 0) return null;
+
+        int h = 0;
+        for(int k = start; k < end; k++) h = 31*h + s.charAt(k);
+
+        char[] name;
+        for(int i = h & mask; (name = names[i]) != null; i = (i + 1) & mask) {
+            if (name.length != len) continue;
+            int k = 0;
+            while (k < len && name[k] == s.charAt(start+k)) k++;
+            if (k == len) return values[i];
+        }
+        return null;
+    }
+
+    /**
+     * look up the value of an entity whose name is given by a range of
+     * a character array
+     */
+    String lookup(char[] s, int start, int end) {
+        int len = end - start;
+        if (len > maxlen || len == 0) return null;
+
+        char[] name;
+        int h = hash(s, start, end);
+        for(int i = h & mask; (name = names[i]) != null; i = (i + 1) & mask) {
+            if (same(name, s, start, len)) return values[i];
+        }
+        return null;
+    }
+
+    private static int hash(char[] s, int start, int end) {
+        int h = 0;
+        for(int k = start; k < end; k++) h = 31*h + s[k];
+        return h;
+    }
+
+    private static boolean same(char[] name, char[] s, int start, int len) {
+        if (name.length != len) return false;
+        for(int k = 0; k < len; k++) {
+            if (name[k] != s[start+k]) return false;
+        }
+        return true;
+    }
+}
@@ -11,9 +11,10 @@
  */
 package ncsa.xml.sax;
 
-import java.io.PrintStream;
-import java.util.Enumeration;
-import java.util.Properties;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
 
 /**
  * a class that can lookup XML entities and expand them to their ASCII form.
@@ -40,11 +41,19 @@ import java.util.Properties;
  * Additional entities can be added to this class via 
  * {@link #define(String, String) define()}.  
  * </p>
+ * <p>
+ * Expansion is done by a {@link CompiledEntityExpander} snapshot of the 
+ * current definitions, which is rebuilt only after an entity is defined; 
+ * applications that expand a lot of text with a fixed set of entities can 
+ * get the snapshot directly via {@link #compile()} and share it between 
+ * threads.
+ * </p>
  */
 public class EntityExpander {
 
-    private Properties map = new Properties();
+    private HashMap<String, String> map = new HashMap<String, String>();
     private boolean allowRedefine = false;
+    private volatile CompiledEntityExpander compiled = null;
 
     public EntityExpander() {
         define("amp", "&");
@@ -62,9 +71,9 @@ public class EntityExpander {
      *                     are disabled.
      */
     public synchronized boolean define(String entname, String value) {
-        entname = "&" + entname + ";";
         if (! allowRedefine && map.get(entname) != null) return false;
         map.put(entname, value);
+        compiled = null;
         return true;
     }
 
@@ -74,8 +83,8 @@ public class EntityExpander {
      * @return String    the value to expand the entity to or null if 
      *                      the entity is not defined.
      */
-    public String getExpansion(String entname) {
-        return map.getProperty("&"+entname+';');
+    public synchronized String getExpansion(String entname) {
+        return map.get(entname);
     }
 
     /**
@@ -92,30 +101,40 @@ public class EntityExpander {
         return allowRedefine;
     }
 
+    /**
+     * return an immutable snapshot of the currently defined entities that 
+     * can expand text without locking.  Later definitions are not 
+     * reflected in the returned object.
+     */
+    public CompiledEntityExpander compile() {
+        CompiledEntityExpander out = compiled;
+        if (out == null) {
+            synchronized (this) {
+                if (compiled == null) 
+                    compiled = new CompiledEntityExpander(map);
+                out = compiled;
+            }
+        }
+        return out;
+    }
+
     /**
      * search for and expand any recognized entities
      */
-    public synchronized String expand(String in) {
-        int a, p = 0, n = 0;
-        Enumeration e;
-        boolean found = false;
-        String key = null, sub = null;
-        while ((a = in.indexOf("&", p)) >= 0) {
-            for(found=false, e = map.keys(); e.hasMoreElements();) {
-                key = (String) e.nextElement();
-                if (in.startsWith(key, a)) {
-                    found = true;
-                    sub = map.getProperty(key);
-                    in = in.substring(0, a) + sub + 
-                        in.substring(a + key.length());
-                    p = a + sub.length();
-                    break;
-                }
-            } 
-            if(! found) p++;
-        } 
+    public String expand(String in) {
+        return compile().expand(in);
+    }
 
-        return in;
+    /**
+     * search for and expand any recognized entities in text read from a 
+     * stream, writing the result to another stream.  
+     * @param in    the stream to read; it will be read to its end but not
+     *                 closed.
+     * @param out   the stream to write the expanded text to; it will not
+     *                 be closed.
+     */
+    public void expand(Reader in, Writer out) throws IOException {
+        compile().expand(in, out);
     }
 
     public static void main(String args[]) {
@@ -0,0 +1,280 @@
+package ncsa.xml.sax;
+
+import java.io.Reader;
+import java.io.IOException;
+
+/**
+ * a Reader that expands entity references in the text read from another
+ * Reader as it goes.
+ * <p>
+ * The entities recognized are those defined by a
+ * {@link CompiledEntityExpander}; in addition, numeric character references
+ * (of the form "&amp;#123;" or "&amp;#x7B;") are replaced by the character
+ * they refer to, unless this is turned off at construction.  As with
+ * {@link EntityExpander#expand(String)}, expanded text is not re-scanned
+ * for further references, and references that are not recognized are
+ * passed through unchanged.
+ * <p>
+ * Since the output is meant to be parsed as XML, the five predefined
+ * entities (amp, lt, gt, quot, and apos) are never expanded, even though an
+ * EntityExpander always defines them, and neither are character references
+ * to those five characters.  This keeps escaped text such as
+ * "&amp;lt;b&amp;gt;" escaped, so the output stays well-formed.
+ * <p>
+ * Only a small amount of look-ahead is needed--enough to see the longest
+ * entity name--so references split across the reads of the underlying
+ * stream are handled without ever holding more than one buffer of its
+ * text in memory.  This makes it suitable as the source of a
+ * {@link ncsa.xml.saxfilter.SAXFilteredReader SAXFilteredReader} for
+ * normalizing documents that use custom entities.  Note that character
+ * positions reported by the filter will then refer to the expanded text.
+ */
+public class EntityExpandingReader extends Reader {
+
+    /**
+     * the default size of the buffer used to read the underlying stream
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    // the longest numeric reference body without leading zeros:
+    // "#x10FFFF" or "#1114111".  Longer ones (with leading zeros) are
+    // handled if they fit into the buffer.
+    private static final int MAX_CHARREF_LENGTH = 8;
+
+    // the entities (and characters) that must stay escaped
+    private static final String[] PREDEFINED =
+        { "amp", "lt", "gt", "quot", "apos" };
+    private static final String MARKUP = "&<>\"'";
+
+    private Reader in = null;
+    private CompiledEntityExpander ents = null;
+    private boolean charRefs = true;
+    private int maxlen = 0;
+
+    // text read from the underlying stream but not yet passed on
+    private char[] buf = null;
+    private int pos = 0, lim = 0;
+    private boolean eof = false;
+    private char[] one = new char[1];
+
+    // an expansion that did not entirely fit into the caller's array
+    private String rest = null;
+    private int rpos = 0;
+
+    /**
+     * wrap a Reader, expanding the entities currently defined by an
+     * EntityExpander as well as numeric character references
+     */
+    public EntityExpandingReader(Reader in, EntityExpander ents) {
+        this(in, ents.compile(), true, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * wrap a Reader, expanding entities and numeric character references
+     */
+    public EntityExpandingReader(Reader in, CompiledEntityExpander ents) {
+        this(in, ents, true, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * wrap a Reader
+     * @param in         the stream to read
+     * @param ents       the entities to expand
+     * @param charRefs   if true, numeric character references will be
+     *                     replaced as well.
+     * @param bufsize    the number of characters to read from the stream
+     *                     at a time
+     */
+    public EntityExpandingReader(Reader in, CompiledEntityExpander ents,
+                                 boolean charRefs, int bufsize)
+    {
+        super(in);
+        this.in = in;
+        this.ents = ents;
+        this.charRefs = charRefs;
+        maxlen = ents.getMaxNameLength();
+        if (charRefs && maxlen < MAX_CHARREF_LENGTH)
+            maxlen = MAX_CHARREF_LENGTH;
+
+        // the buffer must be able to hold the longest possible reference
+        buf = new char[Math.max(bufsize, 2 * (maxlen + 2))];
+    }
+
+    /**
+     * return the entities being expanded
+     */
+    public CompiledEntityExpander getEntities() { return ents; }
+
+    /**
+     * return true if numeric character references are being replaced
+     */
+    public boolean expandsCharRefs() { return charRefs; }
+
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (buf == null) throw new IOException("Stream closed");
+
+        int n = 0, a, end, semi;
+        String val;
+        while (n < len) {
+            if (rest != null) {
+                int c = Math.min(len - n, rest.length() - rpos);
+                rest.getChars(rpos, rpos + c, cbuf, off + n);
+                n += c;
+                rpos += c;
+                if (rpos >= rest.length()) rest = null;
+                continue;
+            }
+
+            if (pos >= lim) {
+                if (eof || (n > 0 && ! in.ready())) break;
+                fill();
+                continue;
+            }
+
+            // pass on text up to the next '&'
+            end = Math.min(lim, pos + len - n);
+            for(a = pos; a < end && buf[a] != '&'; a++);
+            if (a > pos) {
+                System.arraycopy(buf, pos, cbuf, off + n, a - pos);
+                n += a - pos;
+                pos = a;
+                continue;
+            }
+
+            // pos is at an '&'; find the end of the reference
+            semi = findEnd(pos);
+            if (semi == MORE) {
+                // it may continue past what we have read so far
+                if (n > 0 && ! in.ready()) break;
+                fill();
+                continue;
+            }
+
+            val = (semi >= 0) ? resolve(pos+1, semi) : null;
+            if (val == null) {
+                cbuf[off + n++] = '&';
+                pos++;
+            }
+            else {
+                pos = semi + 1;
+                rest = val;
+                rpos = 0;
+            }
+        }
+
+        return (n == 0 && eof) ? -1 : n;
+    }
+
+    public int read() throws IOException {
+        return (read(one, 0, 1) < 0) ? -1 : one[0];
+    }
+
+    public boolean ready() throws IOException {
+        if (buf == null) throw new IOException("Stream closed");
+        return rest != null || pos < lim || in.ready();
+    }
+
+    public void close() throws IOException {
+        if (buf == null) return;
+        buf = null;
+        rest = null;
+        in.close();
+    }
+
+    /**
+     * read more of the underlying stream, keeping any unprocessed text
+     */
+    private void fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, lim - pos);
+            lim -= pos;
+            pos = 0;
+        }
+        int r = in.read(buf, lim, buf.length - lim);
+        if (r < 0)
+            eof = true;
+        else
+            lim += r;
+    }
+
+    // returned by findEnd() when more text must be read
+    private static final int MORE = -2;
+
+    /**
+     * return the position of the ';' ending the reference that starts
+     * with the '&' at amp, -1 if there can be none, or MORE if more of
+     * the stream must be read to tell.
+     */
+    private int findEnd(int amp) {
+        int i = amp + 1, end;
+        if (charRefs && i < lim && buf[i] == '#') {
+            // a numeric reference can have any number of leading zeros,
+            // so look as far as the characters could belong to one
+            end = lim;
+            for(i++; i < end && buf[i] != ';' &&
+                     (buf[i] == 'x' || Character.digit(buf[i], 16) >= 0);
+                i++);
+            if (i == end && amp == 0 && lim == buf.length) return -1;
+        }
+        else {
+            end = Math.min(lim, amp + maxlen + 2);
+            for(; i < end && buf[i] != ';'; i++);
+            if (i == amp + maxlen + 2) return -1;
+        }
+
+        if (i < lim) return (buf[i] == ';') ? i : -1;
+        return (eof) ? -1 : MORE;
+    }
+
+    /**
+     * return the expansion of the reference whose name is in buf between
+     * start and end, or null if it is not recognized or must stay escaped
+     */
+    private String resolve(int start, int end) {
+        if (charRefs && end > start && buf[start] == '#') {
+            int cp = parseCharRef(buf, start+1, end);
+            if (cp < 0 || MARKUP.indexOf(cp) >= 0) return null;
+            return new String(Character.toChars(cp));
+        }
+
+        if (isPredefined(buf, start, end)) return null;
+        return ents.lookup(buf, start, end);
+    }
+
+    static boolean isPredefined(char[] s, int start, int end) {
+        int i;
+        for(String name : PREDEFINED) {
+            if (name.length() != end - start) continue;
+            for(i=0; i < name.length() && name.charAt(i) == s[start+i]; i++);
+            if (i == name.length()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * parse the digits of a numeric character reference
+     * @return int  the code point referred to or -1 if the digits are
+     *                 not a legal reference
+     */
+    static int parseCharRef(char[] s, int start, int end) {
+        int radix = 10;
+        if (start < end && s[start] == 'x') {
+            radix = 16;
+            start++;
+        }
+        if (start >= end) return -1;
+
+        int cp = 0, d;
+        for(int i = start; i < end; i++) {
+            d = Character.digit(s[i], radix);
+            if (d < 0 || s[i] > 'f') return -1;
+            cp = cp * radix + d;
+            if (cp > Character.MAX_CODE_POINT) return -1;
+        }
+        if (cp == 0 || (cp >= Character.MIN_SURROGATE &&
+                        cp <= Character.MAX_SURROGATE))
+            return -1;
+        return cp;
+    }
+}
@@ -0,0 +1,532 @@
+package ncsa.xml.sax;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.util.HashMap;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * a ContentHandler that records the SAX events it receives so that they
+ * can be played back, any number of times, to other ContentHandlers.
+ * <p>
+ * Running several sets of handlers over the same document normally means
+ * parsing it several times.  Recording it once to a tape and replaying the
+ * tape is much cheaper:  no text is scanned, and characters are handed to
+ * the handlers straight out of the tape's storage.  The events are kept in
+ * a compact, columnar form:  an array of event type codes, an array of
+ * integer operands, a single character array holding all the text (i.e.
+ * character data, attribute values, and processing instruction data), and
+ * a table of the distinct names (and namespace URIs) used, each of which
+ * is stored once.  Attribute values are only turned into Strings when a
+ * handler asks for them.  A tape can also be {@link #write(OutputStream)
+ * saved} and {@link #read(InputStream) restored}, so that documents can be
+ * archived in a form that can be analyzed again without parsing.
+ * <p>
+ * All ContentHandler events are recorded except setDocumentLocator(); no
+ * locator is available during playback.  The character arrays passed to
+ * {@link ContentHandler#characters(char[],int,int) characters()} and
+ * ignorableWhitespace() during playback are the tape's own storage; the
+ * handlers must not change them.  A tape may be played by several threads
+ * at once, provided none is still recording to it.
+ */
+public class EventTape implements ContentHandler {
+
+    // event type codes
+    static final byte START_DOCUMENT = 1;
+    static final byte END_DOCUMENT = 2;
+    static final byte START_PREFIX = 3;      // prefix, uri
+    static final byte END_PREFIX = 4;        // prefix
+    static final byte START_ELEMENT = 5;     // uri, local, qname, natts,
+                                             //   then per attribute:  uri,
+                                             //   local, qname, type, text
+    static final byte END_ELEMENT = 6;       // uri, local, qname
+    static final byte CHARACTERS = 7;        // text
+    static final byte IGNORABLE_WS = 8;      // text
+    static final byte PROC_INSTR = 9;        // target, text
+    static final byte SKIPPED_ENTITY = 10;   // name
+
+    // the number of operands for each attribute; text takes two (the
+    // offset and length in the character pool)
+    static final int ATT_OPERANDS = 6;
+
+    private static final int MAGIC = 0x4a585431;   // "JXT1"
+
+    private byte[] types = new byte[256];
+    private int nevents = 0;
+    private int[] args = new int[1024];
+    private int nargs = 0;
+    private char[] text = new char[4096];
+    private int ntext = 0;
+    private String[] names = new String[64];
+    private int nnames = 0;
+    private HashMap<String, Integer> nameIds = new HashMap<String, Integer>();
+
+    /**
+     * create an empty tape
+     */
+    public EventTape() {
+        clear();
+    }
+
+    /**
+     * erase all recorded events.  The allocated storage is kept.
+     */
+    public void clear() {
+        nevents = nargs = ntext = 0;
+        nnames = 0;
+        nameIds.clear();
+        name("");
+    }
+
+    /**
+     * return the number of events recorded
+     */
+    public int size() { return nevents; }
+
+    /**
+     * return the number of characters of text recorded
+     */
+    public int getTextLength() { return ntext; }
+
+    /**
+     * play back the recorded events to a handler
+     */
+    public void replay(ContentHandler ch) throws SAXException {
+        TapeAttributes atts = new TapeAttributes();
+        int a = 0, n;
+        for(int e=0; e < nevents; e++) {
+            switch (types[e]) {
+            case START_DOCUMENT:
+                ch.startDocument();
+                break;
+            case END_DOCUMENT:
+                ch.endDocument();
+                break;
+            case START_PREFIX:
+                ch.startPrefixMapping(names[args[a]], names[args[a+1]]);
+                a += 2;
+                break;
+            case END_PREFIX:
+                ch.endPrefixMapping(names[args[a++]]);
+                break;
+            case START_ELEMENT:
+                n = args[a+3];
+                atts.set(a+4, n);
+                ch.startElement(names[args[a]], names[args[a+1]],
+                                names[args[a+2]], atts);
+                a += 4 + n * ATT_OPERANDS;
+                break;
+            case END_ELEMENT:
+                ch.endElement(names[args[a]], names[args[a+1]],
+                              names[args[a+2]]);
+                a += 3;
+                break;
+            case CHARACTERS:
+                ch.characters(text, args[a], args[a+1]);
+                a += 2;
+                break;
+            case IGNORABLE_WS:
+                ch.ignorableWhitespace(text, args[a], args[a+1]);
+                a += 2;
+                break;
+            case PROC_INSTR:
+                ch.processingInstruction(names[args[a]],
+                                         new String(text, args[a+1],
+                                                    args[a+2]));
+                a += 3;
+                break;
+            case SKIPPED_ENTITY:
+                ch.skippedEntity(names[args[a++]]);
+                break;
+            default:
+                throw new SAXException("corrupted event tape: bad event " +
+                                       "type " + types[e]);
+            }
+        }
+    }
+
+    // -- recording --
+
+    public void setDocumentLocator(Locator locator) { }
+
+    public void startDocument() {
+        event(START_DOCUMENT);
+    }
+
+    public void endDocument() {
+        event(END_DOCUMENT);
+    }
+
+    public void startPrefixMapping(String prefix, String uri) {
+        event(START_PREFIX);
+        arg(name(prefix));
+        arg(name(uri));
+    }
+
+    public void endPrefixMapping(String prefix) {
+        event(END_PREFIX);
+        arg(name(prefix));
+    }
+
+    public void startElement(String uri, String localName, String qName,
+                             Attributes atts)
+    {
+        int n = (atts == null) ? 0 : atts.getLength();
+        event(START_ELEMENT);
+        arg(name(uri));
+        arg(name(localName));
+        arg(name(qName));
+        arg(n);
+        for(int i=0; i < n; i++) {
+            arg(name(atts.getURI(i)));
+            arg(name(atts.getLocalName(i)));
+            arg(name(atts.getQName(i)));
+            arg(name(atts.getType(i)));
+            text(atts.getValue(i));
+        }
+    }
+
+    public void endElement(String uri, String localName, String qName) {
+        event(END_ELEMENT);
+        arg(name(uri));
+        arg(name(localName));
+        arg(name(qName));
+    }
+
+    public void characters(char[] ch, int start, int length) {
+        event(CHARACTERS);
+        text(ch, start, length);
+    }
+
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        event(IGNORABLE_WS);
+        text(ch, start, length);
+    }
+
+    public void processingInstruction(String target, String data) {
+        event(PROC_INSTR);
+        arg(name(target));
+        text(data);
+    }
+
+    public void skippedEntity(String name) {
+        event(SKIPPED_ENTITY);
+        arg(name(name));
+    }
+
+    private void event(byte type) {
+        if (nevents >= types.length) {
+            byte[] tmp = new byte[2 * types.length];
+            System.arraycopy(types, 0, tmp, 0, nevents);
+            types = tmp;
+        }
+        types[nevents++] = type;
+    }
+
+    private void arg(int val) {
+        if (nargs >= args.length) {
+            int[] tmp = new int[2 * args.length];
+            System.arraycopy(args, 0, tmp, 0, nargs);
+            args = tmp;
+        }
+        args[nargs++] = val;
+    }
+
+    private void text(char[] ch, int start, int length) {
+        ensureText(length);
+        System.arraycopy(ch, start, text, ntext, length);
+        arg(ntext);
+        arg(length);
+        ntext += length;
+    }
+
+    private void text(String s) {
+        if (s == null) s = "";
+        ensureText(s.length());
+        s.getChars(0, s.length(), text, ntext);
+        arg(ntext);
+        arg(s.length());
+        ntext += s.length();
+    }
+
+    private void ensureText(int length) {
+        if (ntext + length <= text.length) return;
+        int cap = text.length;
+        while (cap < ntext + length) cap *= 2;
+        char[] tmp = new char[cap];
+        System.arraycopy(text, 0, tmp, 0, ntext);
+        text = tmp;
+    }
+
+    private int name(String name) {
+        if (name == null) name = "";
+        Integer id = nameIds.get(name);
+        if (id != null) return id.intValue();
+
+        if (nnames >= names.length) {
+            String[] tmp = new String[2 * names.length];
+            System.arraycopy(names, 0, tmp, 0, nnames);
+            names = tmp;
+        }
+        names[nnames] = name;
+        nameIds.put(name, Integer.valueOf(nnames));
+        return nnames++;
+    }
+
+    // -- serialization --
+
+    /**
+     * save the recorded events to a stream.  The stream is flushed but not
+     * closed.
+     */
+    public void write(OutputStream os) throws IOException {
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(os, 65536));
+        out.writeInt(MAGIC);
+
+        out.writeInt(nnames);
+        for(int i=0; i < nnames; i++) out.writeUTF(names[i]);
+
+        out.writeInt(nevents);
+        out.write(types, 0, nevents);
+
+        out.writeInt(nargs);
+        byte[] buf = new byte[IO_BLOCK];
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        int k;
+        for(int i=0; i < nargs; i += k) {
+            k = Math.min(nargs - i, IO_BLOCK / 4);
+            bb.clear();
+            bb.asIntBuffer().put(args, i, k);
+            out.write(buf, 0, 4 * k);
+        }
+
+        // text is written as UTF-8 in blocks, each preceded by its length
+        // in characters and bytes
+        out.writeInt(ntext);
+        CharsetEncoder enc = UTF8.newEncoder();
+        for(int i=0; i < ntext; i += k) {
+            k = Math.min(ntext - i, IO_BLOCK / 4);
+            if (k < ntext - i && Character.isHighSurrogate(text[i+k-1])) k--;
+            ByteBuffer bytes = enc.encode(CharBuffer.wrap(text, i, k));
+            out.writeInt(k);
+            out.writeInt(bytes.remaining());
+            out.write(bytes.array(), bytes.arrayOffset() + bytes.position(),
+                      bytes.remaining());
+        }
+        out.flush();
+    }
+
+    private static final int IO_BLOCK = 65536;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * restore a tape saved with {@link #write(OutputStream)}.  The stream
+     * is not closed.
+     * @throws IOException   if the stream does not contain a saved tape
+     */
+    public static EventTape read(InputStream is) throws IOException {
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(is, 65536));
+        if (in.readInt() != MAGIC)
+            throw new IOException("not a saved event tape");
+
+        EventTape out = new EventTape();
+        out.nameIds.clear();
+        out.nnames = 0;
+        int n = in.readInt();
+        if (n < 0) throw new IOException("bad name count");
+        for(int i=0; i < n; i++) out.name(in.readUTF());
+
+        out.nevents = in.readInt();
+        if (out.nevents < 0) throw new IOException("bad event count");
+        out.types = new byte[Math.max(out.nevents, 16)];
+        in.readFully(out.types, 0, out.nevents);
+
+        out.nargs = in.readInt();
+        if (out.nargs < 0) throw new IOException("bad operand count");
+        out.args = new int[Math.max(out.nargs, 16)];
+        byte[] buf = new byte[IO_BLOCK];
+        int k;
+        for(int i=0; i < out.nargs; i += k) {
+            k = Math.min(out.nargs - i, IO_BLOCK / 4);
+            in.readFully(buf, 0, 4 * k);
+            ByteBuffer.wrap(buf, 0, 4 * k).asIntBuffer().get(out.args, i, k);
+        }
+
+        out.ntext = in.readInt();
+        if (out.ntext < 0) throw new IOException("bad text length");
+        out.text = new char[Math.max(out.ntext, 16)];
+        CharsetDecoder dec = UTF8.newDecoder();
+        for(int i=0, nb; i < out.ntext; i += k) {
+            k = in.readInt();
+            nb = in.readInt();
+            if (k <= 0 || k > out.ntext - i || nb < 0 || nb > 4 * k)
+                throw new IOException("corrupted event tape: bad text block");
+            if (nb > buf.length) buf = new byte[nb];
+            in.readFully(buf, 0, nb);
+            CharBuffer chars = dec.decode(ByteBuffer.wrap(buf, 0, nb));
+            if (chars.remaining() != k)
+                throw new IOException("corrupted event tape: bad text block");
+            chars.get(out.text, i, k);
+        }
+
+        out.validate();
+        return out;
+    }
+
+    /**
+     * make sure that the operands of all the events are in range
+     */
+    private void validate() throws IOException {
+        int a = 0, n;
+        try {
+            for(int e=0; e < nevents; e++) {
+                switch (types[e]) {
+                case START_DOCUMENT:
+                case END_DOCUMENT:
+                    break;
+                case START_PREFIX:
+                    checkNames(a, 2);
+                    a += 2;
+                    break;
+                case END_PREFIX:
+                case SKIPPED_ENTITY:
+                    checkNames(a, 1);
+                    a += 1;
+                    break;
+                case START_ELEMENT:
+                    checkNames(a, 3);
+                    n = args[a+3];
+                    if (n < 0) throw new IOException("bad attribute count");
+                    a += 4;
+                    for(int i=0; i < n; i++) {
+                        checkNames(a, 4);
+                        checkText(a+4);
+                        a += ATT_OPERANDS;
+                    }
+                    break;
+                case END_ELEMENT:
+                    checkNames(a, 3);
+                    a += 3;
+                    break;
+                case CHARACTERS:
+                case IGNORABLE_WS:
+                    checkText(a);
+                    a += 2;
+                    break;
+                case PROC_INSTR:
+                    checkNames(a, 1);
+                    checkText(a+1);
+                    a += 3;
+                    break;
+                default:
+                    throw new IOException("bad event type: " + types[e]);
+                }
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException ex) {
+            throw new IOException("corrupted event tape: operands missing");
+        }
+        if (a != nargs)
+            throw new IOException("corrupted event tape: extra operands");
+    }
+
+    private void checkNames(int a, int n) throws IOException {
+        for(int i=a; i < a+n; i++) {
+            if (i >= nargs || args[i] < 0 || args[i] >= nnames)
+                throw new IOException("corrupted event tape: bad name id");
+        }
+    }
+
+    private void checkText(int a) throws IOException {
+        if (a+1 >= nargs || args[a] < 0 || args[a+1] < 0 ||
+            args[a] > ntext - args[a+1])
+            throw new IOException("corrupted event tape: bad text range");
+    }
+
+    /**
+     * the attributes of an element on the tape
+     */
+    class TapeAttributes implements Attributes {
+        int base = 0, n = 0;
+
+        void set(int base, int n) {
+            this.base = base;
+            this.n = n;
+        }
+
+        private int op(int i, int which) {
+            return args[base + i * ATT_OPERANDS + which];
+        }
+
+        public int getLength() { return n; }
+
+        public String getURI(int i) {
+            return (i < 0 || i >= n) ? null : names[op(i, 0)];
+        }
+
+        public String getLocalName(int i) {
+            return (i < 0 || i >= n) ? null : names[op(i, 1)];
+        }
+
+        public String getQName(int i) {
+            return (i < 0 || i >= n) ? null : names[op(i, 2)];
+        }
+
+        public String getType(int i) {
+            return (i < 0 || i >= n) ? null : names[op(i, 3)];
+        }
+
+        public String getValue(int i) {
+            if (i < 0 || i >= n) return null;
+            return new String(text, op(i, 4), op(i, 5));
+        }
+
+        public int getIndex(String uri, String localName) {
+            for(int i=0; i < n; i++) {
+                if (names[op(i, 1)].equals(localName) &&
+                    names[op(i, 0)].equals(uri))
+                    return i;
+            }
+            return -1;
+        }
+
+        public int getIndex(String qName) {
+            for(int i=0; i < n; i++) {
+                if (names[op(i, 2)].equals(qName)) return i;
+            }
+            return -1;
+        }
+
+        public String getType(String uri, String localName) {
+            return getType(getIndex(uri, localName));
+        }
+
+        public String getType(String qName) {
+            return getType(getIndex(qName));
+        }
+
+        public String getValue(String uri, String localName) {
+            return getValue(getIndex(uri, localName));
+        }
+
+        public String getValue(String qName) {
+            return getValue(getIndex(qName));
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package ncsa.xml.sax;
 
-import java.util.Properties;
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.Stack;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.StringTokenizer;
 
 /**
@@ -35,14 +35,31 @@ import java.util.StringTokenizer;
  * wishes to remove a prefix mapping prior to a call to 
  * {@link #endElement() endElement()}, one can call 
  * {@link #endPrefixMapping() endPrefixMapping()}.  
+ * <p>
+ * The mappings in scope are kept as an immutable chain of declarations, 
+ * with each element scope that declares prefixes recorded as a pointer
+ * into the chain; entering such a scope costs one link per declaration, 
+ * leaving it costs nothing, and the methods that only look up mappings 
+ * require no locking.  Because nothing is ever modified in place, 
+ * {@link #clone()} and {@link #ancestor(int) ancestor()} are cheap and 
+ * the copies they return are not affected by later changes to this map.
  */
 public class NamespaceMap implements Namespaces, Cloneable {
 
     final int READY = 0;
     final int ADDING = 1;
     final int REMOVING = 2;
-    private Stack history = new Stack();
-    private Snapshot cur = new Snapshot();
+
+    // the root of every declaration chain:  the empty prefix
+    private static final Binding ROOT = new Binding("", "", null);
+
+    // the prefix declarations and schema locations in scope, most recent
+    // first
+    private volatile Binding decls = ROOT;
+    private volatile Binding locs = null;
+
+    // the enclosing scopes
+    private Scope history = null;
     private int state = READY;
     private int validityDepth = 0;
     private static int anoncounter = 0;
@@ -52,6 +69,19 @@ public class NamespaceMap implements Namespaces, Cloneable {
      */
     public NamespaceMap() { }
 
+    /**
+     * forget all prefix mappings, schema locations and scopes, returning
+     * this map to its newly created state.  Clones made earlier are not 
+     * affected.
+     */
+    public synchronized void clear() {
+        decls = ROOT;
+        locs = null;
+        history = null;
+        state = READY;
+        validityDepth = 0;
+    }
+
     /**
      * register a prefix mapping that will be coming into scope with entering 
      * a new element.  A call to {@link #startElement() startElement()} should
@@ -63,7 +93,7 @@ public class NamespaceMap implements Namespaces, Cloneable {
      */
     public synchronized void startPrefixMapping(String prefix, String uri) {
         if(state == READY) setAddingState();
-        cur.addMapping(prefix, uri);
+        addMapping(prefix, uri);
     }
 
     /**
@@ -74,25 +104,40 @@ public class NamespaceMap implements Namespaces, Cloneable {
      * {@link #startElement() startElement()}.  
      */
     public synchronized void addPrefixMapping(String prefix, String uri) {
-        cur.addMapping(prefix, uri);
+        addMapping(prefix, uri);
+    }
+
+    private void addMapping(String prefix, String uri) {
+        if(uri == null)
+            throw new NullPointerException("Null URI given");
+        if(prefix == null) 
+            throw new NullPointerException("Null prefix given");
+        decls = new Binding(prefix, uri, decls);
     }
 
     void setAddingState() {
-        cur.validityDepth = validityDepth;
-        history.push(cur);
-        cur = new Snapshot(cur);
+        history = new Scope(decls, locs, validityDepth, history);
         validityDepth = 0;
         state = ADDING;
     }
 
     void exitElementContext() {
-        if (validityDepth <= 0 && history.size() > 0) {
-            cur = (Snapshot)history.pop();
-            validityDepth = cur.validityDepth;
+        if (validityDepth <= 0 && history != null) {
+            decls = history.decls;
+            locs = history.locs;
+            validityDepth = history.validityDepth;
+            history = history.parent;
         }
         state = READY;
     }
 
+    /**
+     * return the first declaration belonging to enclosing scopes
+     */
+    private Binding scopeBase() {
+        return (history == null) ? ROOT : history.decls;
+    }
+
     /**
      * @deprecated
      * declare the end of a prefix mapping.  This function is deprecated in 
@@ -107,7 +152,22 @@ public class NamespaceMap implements Namespaces, Cloneable {
      * the mapping should be removed prior to an endElement() call.  
      */
     public synchronized void removePrefixMapping(String prefix) {
-        cur.removeMapping(prefix);
+        if(prefix == null)
+            throw new NullPointerException("Null prefix given");
+
+        // rebuild the current scope's declarations without the prefix
+        Binding base = scopeBase(), b;
+        int n = 0;
+        for(b = decls; b != base; b = b.next) n++;
+        Binding[] mine = new Binding[n];
+        for(n = 0, b = decls; b != base; b = b.next) mine[n++] = b;
+
+        b = base;
+        while (--n >= 0) {
+            if (! prefix.equals(mine[n].key)) 
+                b = new Binding(mine[n].key, mine[n].value, b);
+        }
+        decls = b;
     }
 
     /**
@@ -149,12 +209,12 @@ public class NamespaceMap implements Namespaces, Cloneable {
      *                    may actually remain in scope, either with the same 
      *                    or different namespace mapping.
      */
-    public void endElement(Set<String> prefixes) {
-        if (prefixes != null && cur.prefixes != null) {
-            for (String prefix : cur.prefixes) 
-                prefixes.add(prefix);
-        }
+    public synchronized void endElement(Set<String> prefixes) {
         validityDepth--;
+        if (prefixes != null && validityDepth <= 0 && history != null) {
+            for(Binding b = decls; b != history.decls; b = b.next)
+                prefixes.add(b.key);
+        }
         exitElementContext();
     }
 
@@ -168,43 +228,46 @@ public class NamespaceMap implements Namespaces, Cloneable {
         return prefix;
     }
 
-    public String getURI(String prefix)
-    {
-        return cur.pre2ns.getProperty(prefix);
+    public String getURI(String prefix) {
+        return Binding.find(decls, prefix);
     }
 
     /**
      * return the preferred prefix for a given namespace.  
      */
-    public synchronized String getPrefix(String uri) {
-        String prefix = cur.ns2pre.getProperty(uri);
-        if(prefix == null || !uri.equals(cur.pre2ns.getProperty(prefix)))
-            return null;
-        else
-            return prefix;
+    public String getPrefix(String uri) {
+        Binding top = decls;
+        for(Binding b = top; b != null; b = b.next) {
+            if (b.value.equals(uri)) 
+                return (uri.equals(Binding.find(top, b.key))) ? b.key : null;
+        }
+        return null;
     }
 
     /**
      * return an enumeration of the currently defined prefixes
      */
     public Enumeration prefixes() {
-        return cur.pre2ns.propertyNames();
+        return Binding.enumerate(decls, true);
     }
 
     /**
      * return (a copy of) the set of prefixes that will go out of scope
      * when endElement is called next.  Any prefixes that have been undefined
-     * via {@link #} will not be included.  
+     * via {@link #removePrefixMapping(String)} will not be included.  
      */
-    public Set<String> pendingPrefixes() {
-        return cur.getPrefixes();
+    public synchronized Set<String> pendingPrefixes() {
+        Set<String> out = new HashSet<String>();
+        for(Binding b = decls, base = scopeBase(); b != base; b = b.next)
+            out.add(b.key);
+        return out;
     }
 
     /**
      * return an enumeration of the currently defined namespaces
      */
     public Enumeration uris() {
-        return cur.ns2pre.propertyNames();
+        return Binding.enumerate(decls, false);
     }
 
     /**
@@ -228,10 +291,10 @@ public class NamespaceMap implements Namespaces, Cloneable {
      * @param ns   the namespace having a location
      * @param loc  the location URL
      */
-    public void addLocation(String ns, String loc) {
+    public synchronized void addLocation(String ns, String loc) {
         if(state == READY)
             setAddingState();
-        cur.addLocation(ns, loc);
+        locs = new Binding(ns, loc, locs);
     }
 
     /**
@@ -258,14 +321,14 @@ public class NamespaceMap implements Namespaces, Cloneable {
      * return the location for a given namespace or null if it is not known
      */
     public String getLocation(String uri) {
-        return cur.ns2loc.getProperty(uri);
+        return Binding.find(locs, uri);
     }
 
     /**
      * return an enumeration of the namespaces for which a location is known
      */
     public Enumeration locatedNamespaces() {
-        return cur.ns2loc.propertyNames();
+        return Binding.enumerate(locs, true);
     }
 
     /**
@@ -278,10 +341,12 @@ public class NamespaceMap implements Namespaces, Cloneable {
         for(; steps > 0; steps--)
         {
             out.validityDepth--;
-            if(out.validityDepth <= 0 && out.history.size() > 0)
+            if(out.validityDepth <= 0 && out.history != null)
             {
-                out.cur = (Snapshot)out.history.pop();
-                out.validityDepth = out.cur.validityDepth;
+                out.decls = out.history.decls;
+                out.locs = out.history.locs;
+                out.validityDepth = out.history.validityDepth;
+                out.history = out.history.parent;
             }
         }
 
@@ -299,85 +364,68 @@ public class NamespaceMap implements Namespaces, Cloneable {
     }
 
     /**
-     * deeply copy this object
+     * copy this object.  As the scopes are immutable, they are shared 
+     * with the copy rather than duplicated.
      */
-    public Object clone()  {
-        NamespaceMap out = (NamespaceMap)clone();
-        out.history = new Stack();
-        for(Enumeration e = history.elements(); e.hasMoreElements();)
-            out.history.push( ((Snapshot)e.nextElement()).clone() );
-        out.cur = (Snapshot) cur.clone();
-        return out;
-    }
-
-    static class Snapshot implements Cloneable {
-
-        public Properties pre2ns = null;
-        public Properties ns2pre = null;
-        public Properties ns2loc = null;
-        public HashSet<String> prefixes = null;
-        public int validityDepth = 0;
-        static final String CLN = ":";
-        static final String empty = "";
-
-        public Snapshot() {
-            pre2ns = new Properties();
-            pre2ns.setProperty("", "");
-            ns2pre = new Properties();
-            ns2pre.setProperty("", "");
-            ns2loc = new Properties();
+    public synchronized Object clone()  {
+        try {
+            return super.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new InternalError("programmer clone error");
         }
+    }
 
-        public Snapshot(Snapshot parent) {
-            pre2ns = new Properties(parent.pre2ns);
-            ns2pre = new Properties(parent.ns2pre);
-            ns2loc = new Properties(parent.ns2loc);
+    /**
+     * an immutable link in a chain of key-value pairs, most recent first
+     */
+    static final class Binding {
+        final String key, value;
+        final Binding next;
+
+        Binding(String key, String value, Binding next) {
+            this.key = key;
+            this.value = value;
+            this.next = next;
         }
 
-        public Object clone() {
-            Snapshot out;
-            try {
-                out = (Snapshot)super.clone();
-                out.pre2ns = (Properties)pre2ns.clone();
-                out.ns2pre = (Properties)ns2pre.clone();
-                out.ns2loc = (Properties)ns2loc.clone();
-                return out;
-            } catch (CloneNotSupportedException ex) {
-                throw new InternalError("programmer clone error");
+        static String find(Binding b, String key) {
+            for(; b != null; b = b.next) {
+                if (b.key.equals(key)) return b.value;
             }
+            return null;
         }
 
-        public void addMapping(String prefix, String uri) {
-            if(uri == null)
-                throw new NullPointerException("Null URI given");
-            if(prefix == null) 
-                throw new NullPointerException("Null prefix given");
-            if (prefixes == null) prefixes = new HashSet();
-
-            prefixes.add(prefix);
-            pre2ns.setProperty(prefix, uri);
-            ns2pre.setProperty(uri, prefix);
-        }
-
-        public Set getPrefixes() {
-            return (prefixes == null) ? new HashSet<String>() 
-                                      : new HashSet<String>(prefixes);
-        }
-
-        public void addLocation(String namespace, String loc)
-        {
-            ns2loc.setProperty(namespace, loc);
+        /**
+         * enumerate the distinct keys or values in a chain in the order 
+         * they were first added
+         */
+        static Enumeration enumerate(Binding b, boolean keys) {
+            int n = 0;
+            for(Binding c = b; c != null; c = c.next) n++;
+            String[] items = new String[n];
+            for(; b != null; b = b.next) items[--n] = (keys) ? b.key : b.value;
+
+            LinkedHashSet<String> out = new LinkedHashSet<String>();
+            for(String item : items) out.add(item);
+            return Collections.enumeration(out);
         }
+    }
 
-        public void removeMapping(String prefix)
-        {
-            if(prefix == null)
-                throw new NullPointerException("Null prefix given");
-            String uri = (String)pre2ns.remove(prefix);
-            if(uri != null)
-                ns2pre.remove(uri);
-            if (prefixes != null) prefixes.remove(prefix);
+    /**
+     * an immutable record of an enclosing scope:  the bindings in effect
+     * before a scope was entered and the element depth to restore when it
+     * is exited.
+     */
+    static final class Scope {
+        final Binding decls, locs;
+        final int validityDepth;
+        final Scope parent;
+
+        Scope(Binding decls, Binding locs, int depth, Scope parent) {
+            this.decls = decls;
+            this.locs = locs;
+            this.validityDepth = depth;
+            this.parent = parent;
         }
-
     }
 }
@@ -1,6 +1,7 @@
 package ncsa.xml.sax;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -9,16 +10,65 @@ import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * a handler that turns SAX events back into XML text.
- * 
- * All SAXExceptions thrown by the SAX methods are wrapped around IOExceptions; 
- * thus, it is possible to extract the original IOException within a 
+ * <p>
+ * Output is collected in a single character buffer that is passed on to
+ * the output in large blocks; thus, nothing is guaranteed to reach the
+ * output until the buffer fills, the document ends, or {@link #flush()} or
+ * {@link #close()} is called.  When created with an OutputStream, the
+ * handler encodes the text as UTF-8 itself rather than going through a
+ * Writer.
+ * <p>
+ * Character data and attribute values are escaped as needed:  "&amp;",
+ * "&lt;", and "&gt;" become entity references, as do double quotes in
+ * attribute values; carriage returns, and tabs and newlines in attribute
+ * values, become character references so that they survive being parsed
+ * again.  The other C0 control characters cannot appear in an XML 1.0
+ * document at all, not even as character references, so they are dropped;
+ * DEL (0x7f) is written as a character reference.  Ignorable
+ * whitespace, comments, and processing instructions are written as is.
+ * <p>
+ * All SAXExceptions thrown by the SAX methods are wrapped around IOExceptions;
+ * thus, it is possible to extract the original IOException within a
  * catch on SAXException.
  */
 public class SAX2XML extends DefaultHandler {
     private Writer out = null;
+    private OutputStream bout = null;
     private NamespaceMap ns =  new NamespaceMap();
-    private StringBuffer element = null;
-    private AttributesImpl nsattrs = null;
+    private AttributesImpl nsattrs = new AttributesImpl();
+
+    // the output waiting to be written
+    private char[] buf = new char[BUFFER_SIZE];
+    private int pos = 0;
+
+    // the encoded output, when writing to an OutputStream
+    private byte[] bytes = null;
+
+    // true if the last start tag is still missing its closing '>'
+    private boolean open = false;
+
+    static final int BUFFER_SIZE = 8192;
+
+    // how each ASCII character is to be written in character data and in
+    // attribute values:  0 means as is; otherwise, the value is an index
+    // into REFS, CHARREF for a character reference, or DROP to leave it out
+    private static final byte CHARREF = -1;
+    private static final byte DROP = -2;
+    private static final String[] REFS = { null, "&amp;", "&lt;", "&gt;",
+                                           "&quot;" };
+    private static final byte[] TEXT_ESC = new byte[128];
+    private static final byte[] ATTR_ESC = new byte[128];
+    static {
+        for(int c=0; c < 0x20; c++) TEXT_ESC[c] = ATTR_ESC[c] = DROP;
+        TEXT_ESC['\t'] = TEXT_ESC['\n'] = 0;
+        TEXT_ESC['\r'] = ATTR_ESC['\r'] = CHARREF;
+        ATTR_ESC['\t'] = ATTR_ESC['\n'] = CHARREF;
+        TEXT_ESC[0x7f] = ATTR_ESC[0x7f] = CHARREF;
+        TEXT_ESC['&'] = ATTR_ESC['&'] = 1;
+        TEXT_ESC['<'] = ATTR_ESC['<'] = 2;
+        TEXT_ESC['>'] = ATTR_ESC['>'] = 3;
+        ATTR_ESC['"'] = 4;
+    }
 
     /**
      * create the handler
@@ -29,24 +79,52 @@ public class SAX2XML extends DefaultHandler {
     }
 
     /**
-     * close the output writer.  This is sometimes necessary when the writer 
-     * is a pipe to a Reader: closing the writer causes the reader to get an 
+     * create the handler
+     * @param out   the stream to write the XML to, encoded as UTF-8.
+     */
+    public SAX2XML(OutputStream out) {
+        bout = out;
+        bytes = new byte[3 * BUFFER_SIZE];
+    }
+
+    /**
+     * pass all buffered output on to the output writer or stream and
+     * flush it.
+     */
+    public void flush() throws IOException {
+        drain();
+        if (bout != null) bout.flush(); else out.flush();
+    }
+
+    /**
+     * close the output writer.  This is sometimes necessary when the writer
+     * is a pipe to a Reader: closing the writer causes the reader to get an
      * EOF signal.  Receiving additional SAX events after this method is called
-     * will trigger an Exception.  
+     * will trigger an Exception.
      */
     public void close() throws IOException {
-        out.close();
+        drain();
+        if (bout != null) bout.close(); else out.close();
+    }
+
+    public void endDocument() throws SAXException {
+        try {
+            flush();
+        }
+        catch(IOException ex) {
+            throw new SAXException("IOException during write: " +
+                                   ex.getMessage(), ex);
+        }
     }
 
     public void startPrefixMapping(String prefix, String uri) {
         if (uri != null) {
             ns.startPrefixMapping(prefix, uri);
-            if (nsattrs == null) nsattrs = new AttributesImpl();
-                
+
             if (prefix == null || prefix.length() == 0) {
                 ns.setDefaultNS(uri);
                 nsattrs.addAttribute("", "xmlns", "xmlns", "CDATA", uri);
-            } 
+            }
             else {
                 nsattrs.addAttribute("", prefix, "xmlns:"+prefix, "CDATA", uri);
             }
@@ -57,95 +135,72 @@ public class SAX2XML extends DefaultHandler {
         ns.endPrefixMapping(prefix);
     }
 
-    private String elname(String namespaceURI, String localName, String qName) {
-        if (qName != null && qName.length() > 0) return qName;
-            
-        StringBuffer oname = new StringBuffer();
-        if (namespaceURI.length() > 0 && 
-           ! ns.getDefaultNS().equals(namespaceURI)) 
-        {
+    /**
+     * write out the name of an element or attribute
+     * @param scopeNSURI  the namespace that need not be marked with a
+     *                      prefix:  the default namespace for an element
+     *                      name, or the element's namespace for an
+     *                      attribute name.
+     */
+    private void writeName(String namespaceURI, String localName,
+                           String qName, String scopeNSURI)
+        throws IOException
+    {
+        if (qName != null && qName.length() > 0) {
+            write(qName);
+            return;
+        }
+
+        if (namespaceURI.length() > 0 && ! scopeNSURI.equals(namespaceURI)) {
             String pre = ns.getPrefix(namespaceURI);
             if (pre == null) pre = ns.createMapping(namespaceURI);
-            oname.append(pre).append(':');
+            write(pre);
+            write(':');
         }
-        oname.append(localName);
-        return oname.toString();
+        write(localName);
     }
 
-    private String attname(String namespaceURI, String localName, String qName, 
-                           String elementNSURI)
+    private void writeAttributes(Attributes atts, String elementNSURI)
+        throws IOException
     {
-        if (qName != null && qName.length() > 0) return qName;
-            
-        StringBuffer oname = new StringBuffer();
-        if (namespaceURI.length() > 0 && 
-           !elementNSURI.equals(namespaceURI)) 
-        {
-            String pre = ns.getPrefix(namespaceURI);
-            if (pre == null) pre = ns.createMapping(namespaceURI);
-            oname.append(pre).append(':');
+        String value = null;
+        for(int i = 0; i < atts.getLength(); i++) {
+            write(' ');
+            writeName(atts.getURI(i), atts.getLocalName(i), atts.getQName(i),
+                      elementNSURI);
+            write("=\"");
+            value = atts.getValue(i);
+            writeEscaped(value, 0, value.length(), ATTR_ESC);
+            write('"');
         }
-        oname.append(localName);
-        return oname.toString();
     }
 
-    public void startElement(String namespaceURI, String localName, 
+    public void startElement(String namespaceURI, String localName,
                              String qName, Attributes atts)
         throws SAXException
     {
-        String pre = null;
+        try {
+            if (open) write('>');
 
-        if (element != null) {
-            element.append('>');
-            try {
-                out.write(element.toString());
-            }
-            catch(IOException ex)
-            {
-                throw new SAXException("IOException during write: " + 
-                                       ex.getMessage(), ex);
-            }
-            element = null;
-        }
+            // write opening tag; the closing '>' is held back in case the
+            // element turns out to be empty.
+            write('<');
+            writeName(namespaceURI, localName, qName, ns.getDefaultNS());
 
-        // write opening tag
-        element = new StringBuffer();
-        element.append('<').append(elname(namespaceURI, localName, qName));
-
-        /*
-         * SAX2 Extensions 1.1 not supported yet
-        Attributes2 atts2 = (atts instanceof Attributes2) ? atts : null;
-         */
-        String atname = null;
-        if (atts.getLength() > 0) {
-            for(int i = 0; i < atts.getLength(); i++) {
-/*
-                if (atts2.isSpecified(i)) {
- */
-                    atname = attname(atts.getURI(i), atts.getLocalName(i), 
-                                     atts.getQName(i), namespaceURI);
-                    element.append(' ').append(atname).append("=\"");
-                    element.append(atts.getValue(i)).append('"');
-/*
-                }
- */
+            /*
+             * SAX2 Extensions 1.1 not supported yet: unspecified (default)
+             * attributes are written as well.
+             */
+            writeAttributes(atts, namespaceURI);
+            if (nsattrs.getLength() > 0) {
+                writeAttributes(nsattrs, namespaceURI);
+                nsattrs.clear();
             }
+            open = true;
         }
-        if (nsattrs != null) {
-            for(int i = 0; i < nsattrs.getLength(); i++) {
-/*
-                if (atts2.isSpecified(i)) {
- */
-                    atname = attname(nsattrs.getURI(i), nsattrs.getLocalName(i),
-                                     nsattrs.getQName(i), namespaceURI);
-                    element.append(' ').append(atname).append("=\"");
-                    element.append(nsattrs.getValue(i)).append('"');
-/*
-                }
- */
-            }
-
-            nsattrs = null;
+        catch(IOException ex) {
+            throw new SAXException("IOException during write: " +
+                                   ex.getMessage(), ex);
         }
         ns.startElement();
     }
@@ -154,15 +209,14 @@ public class SAX2XML extends DefaultHandler {
         throws SAXException
     {
         try {
-            if (element != null) {
-                element.append('>');
-                out.write(element.toString());
-                element = null;
+            if (open) {
+                write('>');
+                open = false;
             }
-            out.write(ch, start, length);
+            writeEscaped(ch, start, length, TEXT_ESC);
         }
         catch(IOException ex) {
-            throw new SAXException("IOException during write: " + 
+            throw new SAXException("IOException during write: " +
                                    ex.getMessage(), ex);
         }
     }
@@ -171,31 +225,31 @@ public class SAX2XML extends DefaultHandler {
         throws SAXException
     {
         try {
-            if (element != null) {
-                element.append("/>");
-            } 
+            if (open) {
+                write("/>");
+                open = false;
+            }
             else {
-                element = new StringBuffer("</");
-                element.append(elname(namespaceURI, localName, qName));
-                element.append('>');
+                write("</");
+                writeName(namespaceURI, localName, qName, ns.getDefaultNS());
+                write('>');
             }
-            out.write(element.toString());
-            element = null;
         }
         catch(IOException ex) {
-            throw new SAXException("IOException during write: " + 
+            throw new SAXException("IOException during write: " +
                                    ex.getMessage(), ex);
         }
+        ns.endElement();
     }
 
     /**
      * search through a list of attributes for "xmlns".
      * @param atts     the list of attributes to search.
-     * @return String  the value of the xmlns attribute or null if it was not 
+     * @return String  the value of the xmlns attribute or null if it was not
      *                    found in the input list.  If more than one xmlns
      *                    is in the list, the first one is returned.
      */
-    public static String findXmlns(Attributes atts) { 
+    public static String findXmlns(Attributes atts) {
         for(int i = 0; i < atts.getLength(); i++) {
             if (atts.getLocalName(i).equals("xmlns"))
                 return atts.getValue(i);
@@ -207,10 +261,14 @@ public class SAX2XML extends DefaultHandler {
         throws SAXException
     {
         try {
-            out.write(ch, start, length);
+            if (open) {
+                write('>');
+                open = false;
+            }
+            write(ch, start, length);
         }
         catch(IOException ex) {
-            throw new SAXException("IOException during write: " + 
+            throw new SAXException("IOException during write: " +
                                    ex.getMessage(), ex);
         }
     }
@@ -219,14 +277,20 @@ public class SAX2XML extends DefaultHandler {
         throws SAXException
     {
         try {
-            out.write("<?");
-            out.write(target);
-            out.write(32);
-            out.write(data);
-            out.write("?target");
+            if (open) {
+                write('>');
+                open = false;
+            }
+            write("<?");
+            write(target);
+            if (data != null && data.length() > 0) {
+                write(' ');
+                write(data);
+            }
+            write("?>");
         }
         catch(IOException ex) {
-            throw new SAXException("IOException during write: " + 
+            throw new SAXException("IOException during write: " +
                                    ex.getMessage(), ex);
         }
     }
@@ -235,12 +299,16 @@ public class SAX2XML extends DefaultHandler {
         throws SAXException
     {
         try {
-            out.write("<!--");
-            out.write(ch, start, length);
-            out.write("-->");
+            if (open) {
+                write('>');
+                open = false;
+            }
+            write("<!--");
+            write(ch, start, length);
+            write("-->");
         }
         catch(IOException ex) {
-            throw new SAXException("IOException during write: " + 
+            throw new SAXException("IOException during write: " +
                                    ex.getMessage(), ex);
         }
     }
@@ -257,7 +325,7 @@ public class SAX2XML extends DefaultHandler {
     public void startDTD() {   }
     public void endDTD() {  }
 
-    public void attributeDecl(String eName, String aName, String type, 
+    public void attributeDecl(String eName, String aName, String type,
                               String mode, String value)
     {
 
@@ -265,7 +333,7 @@ public class SAX2XML extends DefaultHandler {
     public void elementDecl(String name, String model) {
 
     }
-    public void externalEntityDecl(String name, String publicId, 
+    public void externalEntityDecl(String name, String publicId,
                                    String systemId)
     {
 
@@ -273,4 +341,139 @@ public class SAX2XML extends DefaultHandler {
     public void internalEntityDecl(String name, String value) {
 
     }
+
+    // -- buffered output --
+
+    private void write(char c) throws IOException {
+        if (pos >= buf.length) drain();
+        buf[pos++] = c;
+    }
+
+    private void write(String s) throws IOException {
+        writeRun(s, 0, s.length());
+    }
+
+    private void write(char[] ch, int start, int length) throws IOException {
+        int n;
+        while (length > 0) {
+            if (pos >= buf.length) drain();
+            n = Math.min(length, buf.length - pos);
+            System.arraycopy(ch, start, buf, pos, n);
+            pos += n;
+            start += n;
+            length -= n;
+        }
+    }
+
+    private void writeEscaped(char[] ch, int start, int length, byte[] esc)
+        throws IOException
+    {
+        int end = start + length, run = start;
+        byte e;
+        for(int i=start; i < end; i++) {
+            char c = ch[i];
+            if (c >= 128 || (e = esc[c]) == 0) continue;
+            if (i > run) write(ch, run, i - run);
+            writeRef(c, e);
+            run = i + 1;
+        }
+        if (end > run) write(ch, run, end - run);
+    }
+
+    private void writeEscaped(String s, int start, int end, byte[] esc)
+        throws IOException
+    {
+        int run = start;
+        byte e;
+        for(int i=start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= 128 || (e = esc[c]) == 0) continue;
+            if (i > run) writeRun(s, run, i);
+            writeRef(c, e);
+            run = i + 1;
+        }
+        if (end > run) writeRun(s, run, end);
+    }
+
+    private void writeRun(String s, int start, int end) throws IOException {
+        int n;
+        for(int i=start; i < end; i += n) {
+            if (pos >= buf.length) drain();
+            n = Math.min(end - i, buf.length - pos);
+            s.getChars(i, i + n, buf, pos);
+            pos += n;
+        }
+    }
+
+    private void writeRef(char c, byte e) throws IOException {
+        if (e == CHARREF) {
+            write("&#");
+            write(Integer.toString(c));
+            write(';');
+        }
+        else if (e != DROP) {
+            write(REFS[e]);
+        }
+    }
+
+    /**
+     * pass the buffered characters on to the output
+     */
+    private void drain() throws IOException {
+        if (bout == null) {
+            if (pos > 0) out.write(buf, 0, pos);
+            pos = 0;
+            return;
+        }
+
+        // a high surrogate at the end is kept until its partner arrives
+        int end = pos;
+        if (end > 0 && Character.isHighSurrogate(buf[end-1])) end--;
+        int n = encodeUTF8(buf, end, bytes);
+        if (n > 0) bout.write(bytes, 0, n);
+        if (end < pos) buf[0] = buf[end];
+        pos -= end;
+    }
+
+    /**
+     * encode characters as UTF-8.  An unpaired surrogate is encoded as '?'.
+     * @param len   the number of characters from the start of chars
+     * @param out   the array to put the bytes in; it must be large enough
+     *                to hold 3 bytes per character
+     * @return int  the number of bytes encoded
+     */
+    static int encodeUTF8(char[] chars, int len, byte[] out) {
+        int n = 0, cp;
+        char c;
+        for(int i=0; i < len; i++) {
+            c = chars[i];
+            if (c < 0x80) {
+                out[n++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                out[n++] = (byte) (0xc0 | (c >> 6));
+                out[n++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i+1 < len &&
+                    Character.isLowSurrogate(chars[i+1]))
+                {
+                    cp = Character.toCodePoint(c, chars[++i]);
+                    out[n++] = (byte) (0xf0 | (cp >> 18));
+                    out[n++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    out[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    out[n++] = (byte) (0x80 | (cp & 0x3f));
+                }
+                else {
+                    out[n++] = (byte) '?';
+                }
+            }
+            else {
+                out[n++] = (byte) (0xe0 | (c >> 12));
+                out[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[n++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return n;
+    }
 }
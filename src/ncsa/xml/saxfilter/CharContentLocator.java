@@ -44,4 +44,38 @@ public interface CharContentLocator {
      * return a String containing the characters in the current event
      */
     public String getContent();
+
+    /**
+     * return a read-only view of the characters in the current event 
+     * without copying them.  The view is only valid for the duration of 
+     * the SAX callback in which it was obtained and only until the stream 
+     * is edited (e.g. via {@link SAXFilterFlowControl#insert(String,long) 
+     * insert()}); the same view object may be reused for later events.  
+     * Use {@link #getContent()} or the view's toString() to keep a copy.
+     * <p>
+     * This default implementation returns {@link #getContent()}; 
+     * implementations that can avoid the copy should override it.
+     */
+    public default CharSequence getContentView() {
+        return getContent();
+    }
+
+    /**
+     * copy the characters in the current event into the given array.  
+     * @param dest   the array to copy into
+     * @param off    the position in dest to copy the first character to
+     * @return int   the number of characters copied; this will be less 
+     *                 than {@link #getCharLength()} if there is not enough
+     *                 room in dest.
+     * <p>
+     * This default implementation copies from {@link #getContent()}; 
+     * implementations that can avoid the intermediate String should 
+     * override it.
+     */
+    public default int getContent(char[] dest, int off) {
+        String content = getContent();
+        int n = Math.min(content.length(), dest.length - off);
+        if (n > 0) content.getChars(0, n, dest, off);
+        return Math.max(n, 0);
+    }
 }
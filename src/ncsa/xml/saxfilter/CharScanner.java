@@ -0,0 +1,81 @@
+package ncsa.xml.saxfilter;
+
+/**
+ * a strategy for locating characters in a character array.  This is the 
+ * innermost loop of the markup scanner:  every search for the start or 
+ * end of a tag, comment, or quoted value comes down to it.
+ * <p>
+ * The implementation used is chosen once, when this class is loaded.  If 
+ * the <code>jdk.incubator.vector</code> module is available (i.e. the 
+ * JVM was started with <code>--add-modules jdk.incubator.vector</code>) 
+ * and {@link VectorCharScanner} was compiled in, it is used to compare as
+ * many characters at a time as the hardware allows; otherwise, a plain 
+ * scalar loop is used.  Setting the system property 
+ * <code>ncsa.xml.saxfilter.vectorScan</code> to "false" forces the scalar
+ * scanner.
+ */
+abstract class CharScanner {
+
+    /**
+     * the system property that can be used to turn off vector scanning
+     */
+    static final String VECTOR_PROPERTY = "ncsa.xml.saxfilter.vectorScan";
+
+    private static final CharScanner instance = select();
+
+    /**
+     * return the scanner in use
+     */
+    static CharScanner get() { return instance; }
+
+    /**
+     * return the position of the first occurrence of a character within a
+     * range of an array, or -1 if it does not occur there
+     * @param a      the array to search
+     * @param from   the position to start searching from
+     * @param to     the position to stop searching at (exclusive)
+     * @param c      the character to search for
+     */
+    abstract int indexOf(char[] a, int from, int to, char c);
+
+    /**
+     * return a short name for this implementation
+     */
+    abstract String getName();
+
+    private static CharScanner select() {
+        CharScanner scalar = new Scalar();
+        if ("false".equals(System.getProperty(VECTOR_PROPERTY))) return scalar;
+
+        try {
+            CharScanner out = (CharScanner) 
+                Class.forName("ncsa.xml.saxfilter.VectorCharScanner")
+                     .getDeclaredConstructor().newInstance();
+
+            // make sure it actually works before relying on it
+            char[] test = new char[100];
+            test[77] = '<';
+            if (out.indexOf(test, 3, 100, '<') == 77 && 
+                out.indexOf(test, 3, 77, '<') < 0) 
+                return out;
+        }
+        catch (Throwable ex) {
+            // not compiled in, or the module is not available
+        }
+        return scalar;
+    }
+
+    /**
+     * the plain, one-character-at-a-time scanner
+     */
+    static final class Scalar extends CharScanner {
+        int indexOf(char[] a, int from, int to, char c) {
+            for(int i = from; i < to; i++) {
+                if (a[i] == c) return i;
+            }
+            return -1;
+        }
+
+        String getName() { return "scalar"; }
+    }
+}
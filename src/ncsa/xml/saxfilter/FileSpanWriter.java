@@ -0,0 +1,118 @@
+package ncsa.xml.saxfilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * a sink that writes the spans sent by a SAXFilteredReader to a byte
+ * channel.  Adjacent ranges of unchanged source bytes are coalesced and
+ * copied from the source file with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)
+ * transferTo()}, which lets the operating system move the data without it
+ * passing through the Java heap; text is encoded in the source's encoding.
+ */
+class FileSpanWriter implements SourceSpans.Sink {
+
+    private FileChannel in = null;
+    private WritableByteChannel out = null;
+    private CharsetEncoder enc = null;
+    private ByteBuffer bytes = ByteBuffer.allocate(8192);
+
+    // the pending range of source bytes not yet copied
+    private long cstart = 0, clen = 0;
+
+    // a trailing high surrogate awaiting its pair in the next text span
+    private char high = 0;
+
+    /**
+     * create the sink
+     * @param in    the source file
+     * @param out   the destination
+     * @param cs    the encoding of the source file
+     */
+    FileSpanWriter(FileChannel in, WritableByteChannel out, Charset cs) {
+        this.in = in;
+        this.out = out;
+        enc = cs.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public void copy(long pos, long len) throws IOException {
+        if (len <= 0) return;
+        if (high != 0) encodeHigh();
+        if (clen > 0 && cstart + clen == pos) {
+            clen += len;
+            return;
+        }
+        flush();
+        cstart = pos;
+        clen = len;
+    }
+
+    public void text(char[] chars, int off, int len) throws IOException {
+        if (len <= 0) return;
+        flush();
+
+        if (high != 0) {
+            encode(CharBuffer.wrap(new char[] { high, chars[off] }));
+            high = 0;
+            off++;
+            len--;
+        }
+        if (len > 0 && Character.isHighSurrogate(chars[off+len-1])) {
+            high = chars[off+len-1];
+            len--;
+        }
+        if (len > 0) encode(CharBuffer.wrap(chars, off, len));
+    }
+
+    /**
+     * write out everything received so far
+     */
+    void finish() throws IOException {
+        if (high != 0) encodeHigh();
+        flush();
+    }
+
+    private void encodeHigh() throws IOException {
+        encode(CharBuffer.wrap(new char[] { high }));
+        high = 0;
+    }
+
+    private void encode(CharBuffer cb) throws IOException {
+        CoderResult cr;
+        do {
+            cr = enc.encode(cb, bytes, true);
+            drain();
+        } while (cr.isOverflow());
+        enc.reset();
+    }
+
+    /**
+     * copy any pending source bytes to the destination
+     */
+    void flush() throws IOException {
+        long n;
+        while (clen > 0) {
+            n = in.transferTo(cstart, clen, out);
+            if (n <= 0 && cstart >= in.size())
+                throw new IOException("source file was truncated");
+            cstart += n;
+            clen -= n;
+        }
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) out.write(bytes);
+        bytes.clear();
+    }
+}
@@ -0,0 +1,340 @@
+package ncsa.xml.saxfilter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.Reader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+
+/**
+ * a Reader that decodes a local file by memory-mapping it.
+ * <p>
+ * The file is mapped a window at a time (64 MB by default) via
+ * {@link FileChannel#map(FileChannel.MapMode, long, long) FileChannel.map()},
+ * and characters are decoded straight from the mapped bytes into the
+ * caller's array; no intermediate byte or character buffers are used.
+ * Decoding is lazy:  bytes are only touched as characters are requested,
+ * so a file that is resident in the page cache is never copied into the
+ * heap as a whole.  Windows allow files larger than 2 GB to be read.
+ * <p>
+ * If no encoding is given, it is determined from the file itself as
+ * described by the XML specification:  a UTF-16 byte order mark, or the
+ * <code>encoding</code> given in the XML declaration, with UTF-8 as the
+ * default.  Malformed input is replaced with U+FFFD, as it is with an
+ * InputStreamReader; the number of such replacements made so far is 
+ * available from {@link #getReplacementCount()}.
+ */
+public class MappedFileReader extends Reader {
+
+    /**
+     * the default number of bytes mapped at a time
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final char REPLACEMENT = '\ufffd';
+
+    private FileChannel chan = null;
+    private CharsetDecoder dec = null;
+    private long size = 0;
+
+    // the file position just after the last byte to decode
+    private long end = 0;
+    private int wsize = DEFAULT_WINDOW_SIZE;
+
+    // the currently mapped window and its position in the file
+    private MappedByteBuffer win = null;
+    private long wpos = 0;
+
+    // last = all bytes have been handed to the decoder; ended = the decoder
+    // has been flushed
+    private boolean last = false, ended = false;
+
+    // the number of malformed or unmappable inputs replaced
+    private long replaced = 0;
+
+    // holds the second half of a surrogate pair decoded for a 1-char read
+    private char[] spare = new char[2];
+    private int nspare = 0;
+
+    /**
+     * open a file for reading, determining its encoding from its contents
+     * @param file   the file to read
+     * @throws UnsupportedEncodingException  if the file's declared encoding
+     *                   is not supported by this platform.
+     */
+    public MappedFileReader(File file) throws IOException {
+        this(file, null, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * open a file for reading
+     * @param file     the file to read
+     * @param cs       the character encoding of the file; if null, it will
+     *                   be determined from the file's contents.
+     * @param window   the maximum number of bytes to map at a time
+     * @throws UnsupportedEncodingException  if cs is null and the file's
+     *                   declared encoding is not supported by this platform.
+     */
+    public MappedFileReader(File file, Charset cs, int window)
+        throws IOException
+    {
+        this(file, cs, 0L, Long.MAX_VALUE, window);
+    }
+
+    /**
+     * open a range of bytes within a file for reading.  This allows reading
+     * to start in the middle of a file (e.g. at a position found in an 
+     * index) without decoding what comes before it.  
+     * @param file     the file to read
+     * @param cs       the character encoding of the file; if null, it will
+     *                   be determined from the bytes at the start of the
+     *                   range.  
+     * @param from     the position of the first byte to decode; this must
+     *                   be the start of a character.
+     * @param to       the position just after the last byte to decode; if 
+     *                   this is past the end of the file, the file will be
+     *                   read to its end.
+     * @param window   the maximum number of bytes to map at a time
+     */
+    public MappedFileReader(File file, Charset cs, long from, long to, 
+                            int window)
+        throws IOException
+    {
+        if (window < 16)
+            throw new IllegalArgumentException("window size too small: " +
+                                               window);
+        wsize = window;
+
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            chan = fis.getChannel();
+            size = chan.size();
+            end = Math.min(to, size);
+            if (from < 0 || from > end)
+                throw new IllegalArgumentException("bad byte range: " + from +
+                                                   "-" + to);
+            map(from);
+            if (cs == null) cs = detectCharset(win);
+        }
+        catch (IOException ex) {
+            fis.close();
+            throw ex;
+        }
+
+        // errors are reported to decode() so that it can count them
+        dec = cs.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    /**
+     * return the character encoding used to decode the file
+     */
+    public Charset getCharset() { return dec.charset(); }
+
+    /**
+     * return the number of malformed or unmappable byte sequences that 
+     * have been replaced with U+FFFD so far.  
+     */
+    public long getReplacementCount() { return replaced; }
+
+    /**
+     * return the size of the file in bytes
+     */
+    public long getFileSize() { return size; }
+
+    /**
+     * return the number of bytes of the file that have been decoded
+     */
+    public long getBytesRead() {
+        return (win == null) ? end : wpos + win.position();
+    }
+
+    private void map(long pos) throws IOException {
+        win = chan.map(FileChannel.MapMode.READ_ONLY, pos,
+                       Math.min((long) wsize, end - pos));
+        wpos = pos;
+    }
+
+    /**
+     * map the window following the current one.  Any bytes at the end of
+     * the current window that the decoder has not consumed (i.e. an
+     * incomplete character) are included at the start of the new window.
+     * @return boolean  false if the current window already reaches the end
+     *                    of the file.
+     */
+    private boolean nextWindow() throws IOException {
+        if (wpos + win.limit() >= end) return false;
+        map(wpos + win.position());
+        return true;
+    }
+
+    /**
+     * Read characters into a portion of an array.
+     */
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        synchronized (lock) {
+            if (chan == null) throw new IOException("Stream closed");
+            if (off < 0 || len < 0 || off + len > cbuf.length)
+                throw new IndexOutOfBoundsException();
+            if (len == 0) return 0;
+
+            if (nspare > 0) {
+                cbuf[off] = spare[1];
+                nspare = 0;
+                return 1;
+            }
+
+            if (len == 1) {
+                // a supplementary character needs room for two chars
+                int n = decode(spare, 0, 2);
+                if (n <= 0) return n;
+                cbuf[off] = spare[0];
+                if (n > 1) nspare = 1;
+                return 1;
+            }
+
+            return decode(cbuf, off, len);
+        }
+    }
+
+    private int decode(char[] cbuf, int off, int len) throws IOException {
+        if (ended) return -1;
+
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        CoderResult cr = null;
+        while (out.hasRemaining() && ! ended) {
+            cr = dec.decode(win, out, last);
+            if (cr.isOverflow()) break;
+            if (cr.isError()) {
+                // the error will be reported again on the next read
+                if (! out.hasRemaining()) break;
+                win.position(win.position() + cr.length());
+                out.put(REPLACEMENT);
+                replaced++;
+                continue;
+            }
+
+            // underflow:  the window is used up
+            if (last) {
+                cr = dec.flush(out);
+                if (cr.isOverflow()) break;
+                ended = true;
+            }
+            else if (! nextWindow()) {
+                last = true;
+            }
+        }
+
+        int n = out.position() - off;
+        return (n == 0 && ended) ? -1 : n;
+    }
+
+    /**
+     * Tell whether this stream is ready to be read.  A mapped file can
+     * always be read without blocking.
+     */
+    public boolean ready() throws IOException {
+        synchronized (lock) {
+            if (chan == null) throw new IOException("Stream closed");
+            return true;
+        }
+    }
+
+    /**
+     * close this stream.
+     */
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (chan != null) {
+                chan.close();
+                chan = null;
+                win = null;
+            }
+        }
+    }
+
+    /**
+     * determine the character encoding of an XML document from its first
+     * bytes.  The buffer's position is not changed.
+     * @throws UnsupportedEncodingException  if the encoding declared in the
+     *                   XML declaration is not supported by this platform.
+     */
+    static Charset detectCharset(ByteBuffer bytes)
+        throws UnsupportedEncodingException
+    {
+        int p = bytes.position();
+        int n = Math.min(bytes.remaining(), 1024);
+        int b0 = (n > 0) ? bytes.get(p) & 0xff : -1;
+        int b1 = (n > 1) ? bytes.get(p+1) & 0xff : -1;
+
+        // UTF-16 with a byte order mark or starting with "<"
+        if ((b0 == 0xfe && b1 == 0xff) || (b0 == 0xff && b1 == 0xfe))
+            return Charset.forName("UTF-16");
+        if (b0 == 0 && b1 == '<') return Charset.forName("UTF-16BE");
+        if (b0 == '<' && b1 == 0) return Charset.forName("UTF-16LE");
+
+        // skip over a UTF-8 byte order mark
+        int i = p;
+        if (b0 == 0xef && b1 == 0xbb && n > 2 && (bytes.get(p+2)&0xff) == 0xbf)
+            i += 3;
+
+        // look for an encoding in the XML declaration
+        String enc = null;
+        int end = p + n;
+        if (startsWith(bytes, i, end, "<?xml")) {
+            StringBuilder decl = new StringBuilder();
+            char c;
+            for(i += 5; i < end && (c = (char) (bytes.get(i)&0xff)) != '>'; i++)
+                decl.append(c);
+            enc = declaredEncoding(decl);
+        }
+        if (enc == null) return Charset.forName("UTF-8");
+
+        try {
+            return Charset.forName(enc);
+        }
+        catch (IllegalCharsetNameException ex) {
+            throw new UnsupportedEncodingException(enc);
+        }
+        catch (IllegalArgumentException ex) {
+            throw new UnsupportedEncodingException(enc);
+        }
+    }
+
+    private static boolean startsWith(ByteBuffer bytes, int i, int end,
+                                      String s)
+    {
+        if (end - i < s.length()) return false;
+        for(int j=0; j < s.length(); j++) {
+            if (bytes.get(i+j) != s.charAt(j)) return false;
+        }
+        return true;
+    }
+
+    private static String declaredEncoding(CharSequence decl) {
+        String s = decl.toString();
+        int i = s.indexOf("encoding");
+        if (i < 0) return null;
+        i += "encoding".length();
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        if (i >= s.length() || s.charAt(i) != '=') return null;
+        i++;
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        if (i >= s.length()) return null;
+        char q = s.charAt(i);
+        if (q != '"' && q != '\'') return null;
+        int e = s.indexOf(q, i+1);
+        if (e < 0) return null;
+        return s.substring(i+1, e);
+    }
+}
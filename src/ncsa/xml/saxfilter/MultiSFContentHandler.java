@@ -10,6 +10,7 @@ import java.util.LinkedList;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Iterator;
+import javax.xml.namespace.QName;
 
 /**
  * a {@link SAXFilterContentHandler} that will pass events onto a sequence 
@@ -23,6 +24,11 @@ public class MultiSFContentHandler
     LinkedList<OnDemandParser> odpdels = new LinkedList<OnDemandParser>();
     OnDemandParser parent = null;
 
+    // the parse request managers handed to the delegates, in the same order
+    // as the delegates (null for plain ContentHandlers); these filter the 
+    // element events according to each handler's subscriptions.
+    LinkedList<ODPDelegate> filters = new LinkedList<ODPDelegate>();
+
     /**
      * instantiate an empty ssquence of handlers
      */
@@ -53,13 +59,17 @@ public class MultiSFContentHandler
      */
     public void setParseRequestMgr(OnDemandParser prm) {
         parent = prm;
-        OnDemandParser del = null;
+        ODPDelegate del = null;
         for(ContentHandler ch : delegates) {
             if (ch instanceof SAXFilterContentHandler) {
                 del = new ODPDelegate();
                 odpdels.add(del);
+                filters.add(del);
                 ((SAXFilterContentHandler) ch).setParseRequestMgr(del);
             }
+            else {
+                filters.add(null);
+            }
         }
     }
 
@@ -209,8 +219,13 @@ public class MultiSFContentHandler
 			     String qName, Attributes attributes)
 	throws SAXException
     {
-        for(ContentHandler ch : delegates) 
-            ch.startElement(uri, localName, qName, attributes);
+        Iterator<ODPDelegate> f = filters.iterator();
+        ODPDelegate odp = null;
+        for(ContentHandler ch : delegates) {
+            odp = (f.hasNext()) ? f.next() : null;
+            if (odp == null || odp.isSubscribed(uri, localName, qName))
+                ch.startElement(uri, localName, qName, attributes);
+        }
     }
     
     
@@ -237,8 +252,13 @@ public class MultiSFContentHandler
     public void endElement(String uri, String localName, String qName)
 	throws SAXException
     {
-        for(ContentHandler ch : delegates) 
-            ch.endElement(uri, localName, qName);
+        Iterator<ODPDelegate> f = filters.iterator();
+        ODPDelegate odp = null;
+        for(ContentHandler ch : delegates) {
+            odp = (f.hasNext()) ? f.next() : null;
+            if (odp == null || odp.isSubscribed(uri, localName, qName))
+                ch.endElement(uri, localName, qName);
+        }
     }
     
     
@@ -368,6 +388,24 @@ public class MultiSFContentHandler
             super.loadAttributes(elname, attnames);
             // this implementation will always load all attributes.
         }
+        public void subscribeElements(Set<QName> names) {
+            super.subscribeElements(names);
+
+            // the parent must send the elements wanted by any handler; 
+            // plain ContentHandlers want them all.
+            Set<QName> all = null;
+            if (odpdels.size() == delegates.size()) {
+                all = new HashSet<QName>();
+                for(OnDemandParser odp : odpdels) {
+                    if (odp.getSubscribedElements() == null) {
+                        all = null;
+                        break;
+                    }
+                    all.addAll(odp.getSubscribedElements());
+                }
+            }
+            parent.subscribeElements(all);
+        }
     }
 }
 
@@ -14,6 +14,7 @@
 package ncsa.xml.saxfilter;
 
 import java.util.Set;
+import javax.xml.namespace.QName;
 
 /**
  * an interface for instructing a parser the types of events to send to an
@@ -143,6 +144,31 @@ public interface OnDemandParser {
      */
     public void loadAllAttributes();
 
+    /**
+     * send start/end-Element events only for elements with the given 
+     * names.  Other elements are still parsed as far as needed to track 
+     * namespace scope, but no Attributes are built for them and the 
+     * ContentHandler is not called.  Note that an element's descendants 
+     * are not included unless they are themselves subscribed to.  A name 
+     * with an empty namespace URI matches elements of that local name in 
+     * any namespace, unless it has a prefix, in which case it is matched 
+     * against the element's qualified name.  
+     * @param names   the element names as a Set of QNames.  A null value
+     *                  resets the selection such that events will be sent
+     *                  for all elements.  
+     * <p>
+     * This default implementation ignores the selection, so that events 
+     * continue to be sent for all elements.
+     */
+    public default void subscribeElements(Set<QName> names) { }
+
+    /**
+     * return the element names set via subscribeElements() or null if 
+     * events are being sent for all elements.  This default implementation
+     * returns null.
+     */
+    public default Set<QName> getSubscribedElements() { return null; }
+
     /**
      * return true if given events are enabled
      * @param events   the OR-ed set of events to check
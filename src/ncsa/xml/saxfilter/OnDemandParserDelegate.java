@@ -13,8 +13,11 @@
  */
 package ncsa.xml.saxfilter;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Set;
+import javax.xml.namespace.QName;
 
 /**
  * a class that manages instructions via the OnDemandParser interface. <p>
@@ -27,8 +30,18 @@ import java.util.Set;
  */
 public class OnDemandParserDelegate implements OnDemandParser {
     private Hashtable attrSel = new Hashtable();
+    private int attrSelVersion = 0;
     private int events = 0;
 
+    // the element subscriptions, split by how they are matched:  local 
+    // names in any namespace, prefixed qualified names, and local names 
+    // mapped to the namespace URIs they are wanted in
+    private Set<QName> subscribed = null;
+    private HashSet<String> subLocals = new HashSet<String>();
+    private HashSet<String> subQNames = new HashSet<String>();
+    private HashMap<String, HashSet<String>> subURIs = 
+        new HashMap<String, HashSet<String>>();
+
     /**
      * create an OnDemandParserDelegate with nothing initially enabled.
      */
@@ -52,6 +65,18 @@ public class OnDemandParserDelegate implements OnDemandParser {
         enableEvents(events);
     }
 
+    /**
+     * return this delegate to the state of one newly created with nothing
+     * enabled:  all events are disabled, and all attribute selections and
+     * element subscriptions are dropped.  
+     */
+    public void reset() {
+        events = 0;
+        attrSel.clear();
+        attrSelVersion++;
+        subscribeElements(null);
+    }
+
     /**
      * return true if given events are enabled
      * @param events   the OR-ed set of events to check
@@ -212,6 +237,7 @@ public class OnDemandParserDelegate implements OnDemandParser {
             attrSel.remove(elname);
         else
             attrSel.put(elname, attnames);
+        attrSelVersion++;
     }
 
     /**
@@ -232,5 +258,93 @@ public class OnDemandParserDelegate implements OnDemandParser {
      */
     public void loadAllAttributes() {
         attrSel.clear();
+        attrSelVersion++;
+    }
+
+    /**
+     * return a number that changes whenever the attribute selections are
+     * changed via loadAttributes() or loadAllAttributes().  A parser can 
+     * use this to tell when results it has saved from 
+     * {@link #attributesFor(String) attributesFor()} are out of date.
+     */
+    public final int getAttrSelVersion() {
+        return attrSelVersion;
+    }
+
+    /**
+     * send start/end-Element events only for elements with the given 
+     * names.  
+     * @see OnDemandParser#subscribeElements(Set)
+     */
+    public void subscribeElements(Set<QName> names) {
+        subLocals.clear();
+        subQNames.clear();
+        subURIs.clear();
+        if (names == null) {
+            subscribed = null;
+            return;
+        }
+        subscribed = new HashSet<QName>(names);
+
+        String uri, prefix;
+        HashSet<String> uris = null;
+        for(QName name : names) {
+            uri = name.getNamespaceURI();
+            prefix = name.getPrefix();
+            if (uri.length() > 0) {
+                uris = subURIs.get(name.getLocalPart());
+                if (uris == null) {
+                    uris = new HashSet<String>();
+                    subURIs.put(name.getLocalPart(), uris);
+                }
+                uris.add(uri);
+            }
+            else if (prefix.length() > 0) {
+                subQNames.add(prefix + ':' + name.getLocalPart());
+            }
+            else {
+                subLocals.add(name.getLocalPart());
+            }
+        }
+    }
+
+    /**
+     * return the element names set via subscribeElements() or null if 
+     * events are being sent for all elements.
+     */
+    public Set<QName> getSubscribedElements() { return subscribed; }
+
+    /**
+     * return true if element events are restricted to subscribed elements
+     */
+    public final boolean elementsFiltered() { return subscribed != null; }
+
+    /**
+     * return false if an element with the given names cannot be one that 
+     * has been subscribed to, regardless of its namespace.  This is meant 
+     * as a quick test that can be applied before the element's namespace 
+     * is resolved.  
+     * @param qname   the element's qualified name (as it appears in the tag)
+     * @param local   the element's local name
+     */
+    public final boolean maybeSubscribed(String qname, String local) {
+        return (subscribed == null || subLocals.contains(local) || 
+                subURIs.containsKey(local) || subQNames.contains(qname));
+    }
+
+    /**
+     * return true if events should be sent for the element with the given
+     * names
+     * @param uri     the element's namespace URI
+     * @param local   the element's local name
+     * @param qname   the element's qualified name (as it appears in the tag)
+     */
+    public final boolean isSubscribed(String uri, String local, String qname)
+    {
+        if (subscribed == null || subLocals.contains(local) || 
+            subQNames.contains(qname)) 
+            return true;
+        HashSet<String> uris = subURIs.get(local);
+        return (uris != null && uri != null && uris.contains(uri));
     }
 }
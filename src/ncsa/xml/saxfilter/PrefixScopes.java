@@ -0,0 +1,93 @@
+package ncsa.xml.saxfilter;
+
+import java.util.Arrays;
+
+/**
+ * the namespace URIs bound to prefixes, both given as {@link SymbolTable}
+ * ids, as they come in and out of scope while parsing.  
+ * <p>
+ * The current binding of every prefix is kept in an array indexed by its
+ * id, so resolving a prefix is a single array access.  Each declaration
+ * saves the binding it replaces on a stack, which is unwound when the 
+ * element that made the declaration ends.  This mirrors the scoping done
+ * by {@link ncsa.xml.sax.NamespaceMap}, which the parser maintains 
+ * alongside for the benefit of its handlers.
+ */
+class PrefixScopes {
+
+    /**
+     * the value returned for an unbound prefix
+     */
+    static final int UNBOUND = -1;
+
+    // the current binding for each prefix id
+    private int[] bound = new int[64];
+
+    // the stack of replaced bindings:  the prefix, its previous binding,
+    // and the depth of the element that made the declaration
+    private int[] saved = new int[48];
+    private int nsaved = 0;
+
+    // the number of open elements
+    private int depth = 0;
+
+    PrefixScopes() { reset(); }
+
+    /**
+     * forget all declarations.  Only the empty prefix remains bound, to
+     * the empty namespace.
+     */
+    void reset() {
+        Arrays.fill(bound, UNBOUND);
+        bound[0] = 0;
+        nsaved = 0;
+        depth = 0;
+    }
+
+    /**
+     * return the id of the namespace URI bound to a prefix id or UNBOUND
+     */
+    final int uri(int prefix) {
+        return (prefix < bound.length) ? bound[prefix] : UNBOUND;
+    }
+
+    /**
+     * bind a prefix for the element about to be started
+     */
+    void declare(int prefix, int uri) {
+        if (prefix >= bound.length) {
+            int n = bound.length;
+            while (n <= prefix) n *= 2;
+            int[] tmp = new int[n];
+            System.arraycopy(bound, 0, tmp, 0, bound.length);
+            Arrays.fill(tmp, bound.length, n, UNBOUND);
+            bound = tmp;
+        }
+        if (nsaved + 3 > saved.length) {
+            int[] tmp = new int[2 * saved.length];
+            System.arraycopy(saved, 0, tmp, 0, nsaved);
+            saved = tmp;
+        }
+        saved[nsaved++] = prefix;
+        saved[nsaved++] = bound[prefix];
+        saved[nsaved++] = depth + 1;
+        bound[prefix] = uri;
+    }
+
+    /**
+     * register the start of an element
+     */
+    final void startElement() { depth++; }
+
+    /**
+     * register the end of an element, restoring the bindings that were in
+     * effect before it started
+     */
+    final void endElement() {
+        while (nsaved > 0 && saved[nsaved-1] >= depth) {
+            nsaved -= 3;
+            bound[saved[nsaved]] = saved[nsaved+1];
+        }
+        if (depth > 0) depth--;
+    }
+}
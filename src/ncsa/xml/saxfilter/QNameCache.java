@@ -0,0 +1,94 @@
+package ncsa.xml.saxfilter;
+
+/**
+ * a small, direct-mapped cache of the XML qualified names encountered in
+ * a stream.  XML documents tend to use a small vocabulary of element and
+ * attribute names over and over; this cache allows a name sitting in a
+ * {@link RingTextBuffer} to be turned into a String (along with its
+ * prefix and local part) without allocating anything when the name has
+ * been seen recently.  All Strings handed out are interned, and each part
+ * of a name is also given an id from the parser's {@link SymbolTable}.
+ */
+class QNameCache {
+
+    /**
+     * a cached qualified name split into its parts
+     */
+    static final class Entry {
+        final String qname;
+        final String prefix;
+        final String local;
+        final int hash;
+        final int qnameId, prefixId, localId;
+
+        // the attribute selection found for this name when used as an 
+        // element name in the namespace with id attsURI; it is valid 
+        // while the selections have not changed since attsVersion
+        Object atts = null;
+        int attsURI = -1;
+        int attsVersion = -1;
+
+        Entry(String qname, int hash, SymbolTable symbols) {
+            this.qname = qname;
+            this.hash = hash;
+            int p = qname.indexOf(':');
+            if (p >= 0) {
+                prefix = qname.substring(0, p).intern();
+                local = qname.substring(p + 1).intern();
+            }
+            else {
+                prefix = "";
+                local = qname;
+            }
+            qnameId = symbols.intern(qname);
+            prefixId = (p >= 0) ? symbols.intern(prefix) : 0;
+            localId = (p >= 0) ? symbols.intern(local) : qnameId;
+        }
+    }
+
+    private Entry[] table = null;
+    private int mask = 0;
+    private SymbolTable symbols = null;
+
+    /**
+     * create a cache with a default number of slots
+     */
+    QNameCache(SymbolTable symbols) { this(symbols, 512); }
+
+    /**
+     * create a cache
+     * @param symbols  the table to assign name ids from
+     * @param size     the number of slots; this will be rounded up to a
+     *                   power of 2.
+     */
+    QNameCache(SymbolTable symbols, int size) {
+        this.symbols = symbols;
+        int n = 16;
+        while (n < size) n <<= 1;
+        table = new Entry[n];
+        mask = n - 1;
+    }
+
+    /**
+     * return the entry for the name occupying the given range of a buffer
+     * @param buf    the buffer holding the name
+     * @param start  the position of the first character of the name
+     * @param end    the position just after the last character of the name
+     */
+    Entry get(RingTextBuffer buf, int start, int end) {
+        int h = 0;
+        for(int i = start; i < end; i++)
+            h = 31*h + buf.charAt(i);
+
+        int slot = (h ^ (h >>> 16)) & mask;
+        Entry e = table[slot];
+        if (e != null && e.hash == h && e.qname.length() == end - start &&
+            buf.startsWith(e.qname, start))
+          return e;
+
+        // a miss simply replaces whatever occupied the slot
+        e = new Entry(buf.substring(start, end).intern(), h, symbols);
+        table[slot] = e;
+        return e;
+    }
+}
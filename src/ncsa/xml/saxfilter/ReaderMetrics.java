@@ -0,0 +1,387 @@
+package ncsa.xml.saxfilter;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * counters that show where a {@link SAXFilteredReader} spends its effort.
+ * <p>
+ * Metrics are kept only when an instance of this class is attached to a
+ * reader with {@link SAXFilteredReader#setMetrics(ReaderMetrics)}; a
+ * reader without one does no more than check for its absence.  The
+ * following are tracked:
+ * <ul>
+ *  <li> the characters filled (read from the source), parsed, sent to the
+ *       caller, skipped, and inserted by content handlers, </li>
+ *  <li> the SAX events dispatched to the content handler, by type, </li>
+ *  <li> if timing is turned on, the time spent reading from the source,
+ *       tokenizing tags, and in the content handler's methods, </li>
+ *  <li> the peak number of characters held in the reader's text buffer
+ *       and the peak capacity of the buffer, and </li>
+ *  <li> the number of sources pushed by content handlers and the peak
+ *       depth of the stack of sources. </li>
+ * </ul>
+ * Counting alone adds little to the cost of reading; timing calls
+ * System.nanoTime() a few times per event and should be turned on only
+ * when needed.  Counts accumulate across documents when the reader is
+ * {@link SAXFilteredReader#reset(java.io.Reader) reset}.
+ * <p>
+ * An instance should be attached to only one reader at a time, as its
+ * counters are not updated atomically.  They may be read from another
+ * thread with {@link #getSnapshot()}, though a snapshot taken while the
+ * reader is busy may be slightly out of date.  An instance can be
+ * published through JMX with {@link #register(String)}.
+ */
+public class ReaderMetrics implements ReaderMetricsMXBean {
+
+    // event types, as indexes into the event counts
+    public static final int START_DOCUMENT = 0;
+    public static final int END_DOCUMENT = 1;
+    public static final int START_ELEMENT = 2;
+    public static final int END_ELEMENT = 3;
+    public static final int CHARACTERS = 4;
+    public static final int IGNORABLE_WHITESPACE = 5;
+    public static final int PROCESSING_INSTRUCTION = 6;
+    public static final int START_PREFIX_MAPPING = 7;
+    public static final int END_PREFIX_MAPPING = 8;
+    public static final int SKIPPED_ENTITY = 9;
+    static final int EVENT_TYPES = 10;
+
+    private boolean timing = false;
+
+    long filled = 0, parsed = 0, sent = 0, skipped = 0, inserted = 0;
+    long[] events = new long[EVENT_TYPES];
+    long fillNanos = 0, tagNanos = 0, handlerNanos = 0;
+    int peakBufferSize = 0, peakBufferCapacity = 0;
+    long sourcesPushed = 0;
+    int peakSourceDepth = 0;
+
+    // handlerNanos when the current tag started being handled
+    private long tagHandlerNanos = 0;
+
+    private ObjectName registered = null;
+
+    /**
+     * create a set of counters that do not measure time
+     */
+    public ReaderMetrics() { this(false); }
+
+    /**
+     * create a set of counters
+     * @param timing   if true, measure the time spent in each stage of
+     *                    reading as well as counting
+     */
+    public ReaderMetrics(boolean timing) {
+        this.timing = timing;
+    }
+
+    public boolean isTiming() { return timing; }
+
+    public synchronized void reset() {
+        filled = parsed = sent = skipped = inserted = 0;
+        for(int i=0; i < events.length; i++) events[i] = 0;
+        fillNanos = tagNanos = handlerNanos = 0;
+        peakBufferSize = peakBufferCapacity = 0;
+        sourcesPushed = 0;
+        peakSourceDepth = 0;
+    }
+
+    public synchronized Snapshot getSnapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * publish these metrics with the platform MBean server under the
+     * name "ncsa.xml.saxfilter:type=SAXFilteredReader,name=<i>name</i>".
+     * @param name   a name distinguishing this reader's metrics
+     * @return ObjectName   the name they were registered under
+     * @throws JMException  if the name is already in use or is invalid
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        if (registered != null) unregister();
+        ObjectName oname = new ObjectName("ncsa.xml.saxfilter:" +
+                                          "type=SAXFilteredReader,name=" +
+                                          ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, oname);
+        registered = oname;
+        return oname;
+    }
+
+    /**
+     * withdraw these metrics from the platform MBean server, if they
+     * were published with {@link #register(String)}.
+     */
+    public synchronized void unregister() throws JMException {
+        if (registered == null) return;
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        if (mbs.isRegistered(registered)) mbs.unregisterMBean(registered);
+        registered = null;
+    }
+
+    // -- recording, by the reader --
+
+    final long clock() {
+        return (timing) ? System.nanoTime() : 0;
+    }
+
+    final void filled(int n, long since) {
+        if (n > 0) filled += n;
+        if (timing) fillNanos += System.nanoTime() - since;
+    }
+
+    final void buffer(int size, int capacity) {
+        if (size > peakBufferSize) peakBufferSize = size;
+        if (capacity > peakBufferCapacity) peakBufferCapacity = capacity;
+    }
+
+    final void pushed(int depth) {
+        sourcesPushed++;
+        if (depth > peakSourceDepth) peakSourceDepth = depth;
+    }
+
+    final long tagStart() {
+        if (! timing) return 0;
+        tagHandlerNanos = handlerNanos;
+        return System.nanoTime();
+    }
+
+    /**
+     * record the time spent handling a tag, less the time spent within
+     * the content handler
+     */
+    final void tagEnd(long since) {
+        if (timing) tagNanos += System.nanoTime() - since -
+                                (handlerNanos - tagHandlerNanos);
+    }
+
+    /**
+     * a ContentHandler that counts and times the calls made to another
+     */
+    class MeteredHandler implements ContentHandler {
+        ContentHandler ch = null;
+
+        MeteredHandler(ContentHandler ch) { this.ch = ch; }
+
+        private long start(int type) {
+            events[type]++;
+            return (timing) ? System.nanoTime() : 0;
+        }
+
+        private void end(long since) {
+            if (timing) handlerNanos += System.nanoTime() - since;
+        }
+
+        public void setDocumentLocator(Locator locator) {
+            ch.setDocumentLocator(locator);
+        }
+
+        public void startDocument() throws SAXException {
+            long t = start(START_DOCUMENT);
+            try { ch.startDocument(); } finally { end(t); }
+        }
+
+        public void endDocument() throws SAXException {
+            long t = start(END_DOCUMENT);
+            try { ch.endDocument(); } finally { end(t); }
+        }
+
+        public void startPrefixMapping(String prefix, String uri)
+            throws SAXException
+        {
+            long t = start(START_PREFIX_MAPPING);
+            try { ch.startPrefixMapping(prefix, uri); } finally { end(t); }
+        }
+
+        public void endPrefixMapping(String prefix) throws SAXException {
+            long t = start(END_PREFIX_MAPPING);
+            try { ch.endPrefixMapping(prefix); } finally { end(t); }
+        }
+
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes atts)
+            throws SAXException
+        {
+            long t = start(START_ELEMENT);
+            try { ch.startElement(uri, localName, qName, atts); }
+            finally { end(t); }
+        }
+
+        public void endElement(String uri, String localName, String qName)
+            throws SAXException
+        {
+            long t = start(END_ELEMENT);
+            try { ch.endElement(uri, localName, qName); } finally { end(t); }
+        }
+
+        public void characters(char[] chars, int start, int length)
+            throws SAXException
+        {
+            long t = start(CHARACTERS);
+            try { ch.characters(chars, start, length); } finally { end(t); }
+        }
+
+        public void ignorableWhitespace(char[] chars, int start, int length)
+            throws SAXException
+        {
+            long t = start(IGNORABLE_WHITESPACE);
+            try { ch.ignorableWhitespace(chars, start, length); }
+            finally { end(t); }
+        }
+
+        public void processingInstruction(String target, String data)
+            throws SAXException
+        {
+            long t = start(PROCESSING_INSTRUCTION);
+            try { ch.processingInstruction(target, data); } finally { end(t); }
+        }
+
+        public void skippedEntity(String name) throws SAXException {
+            long t = start(SKIPPED_ENTITY);
+            try { ch.skippedEntity(name); } finally { end(t); }
+        }
+    }
+
+    /**
+     * the values of a set of {@link ReaderMetrics} at one moment.  Times
+     * are in nanoseconds and are zero if timing was turned off.
+     */
+    public static final class Snapshot {
+        private long filled, parsed, sent, skipped, inserted;
+        private long[] events = null;
+        private long fillNanos, tagNanos, handlerNanos;
+        private int peakBufferSize, peakBufferCapacity;
+        private long sourcesPushed;
+        private int peakSourceDepth;
+
+        Snapshot(ReaderMetrics m) {
+            filled = m.filled;
+            parsed = m.parsed;
+            sent = m.sent;
+            skipped = m.skipped;
+            inserted = m.inserted;
+            events = m.events.clone();
+            fillNanos = m.fillNanos;
+            tagNanos = m.tagNanos;
+            handlerNanos = m.handlerNanos;
+            peakBufferSize = m.peakBufferSize;
+            peakBufferCapacity = m.peakBufferCapacity;
+            sourcesPushed = m.sourcesPushed;
+            peakSourceDepth = m.peakSourceDepth;
+        }
+
+        /** return the number of characters read from the sources */
+        public long getCharsFilled() { return filled; }
+
+        /** return the number of characters passed over by the parser */
+        public long getCharsParsed() { return parsed; }
+
+        /** return the number of characters returned to the caller */
+        public long getCharsSent() { return sent; }
+
+        /** return the number of characters skipped over at a handler's
+            request */
+        public long getCharsSkipped() { return skipped; }
+
+        /** return the number of characters inserted (or substituted) into
+            the stream by handlers */
+        public long getCharsInserted() { return inserted; }
+
+        /**
+         * return the number of events of a given type dispatched to the
+         * content handler
+         * @param type   one of the event type constants of ReaderMetrics,
+         *                 e.g. {@link ReaderMetrics#START_ELEMENT}
+         */
+        public long getEventCount(int type) { return events[type]; }
+
+        /** return the total number of events dispatched */
+        public long getEventCount() {
+            long out = 0;
+            for(int i=0; i < events.length; i++) out += events[i];
+            return out;
+        }
+
+        /** return the number of startElement() events */
+        public long getStartElements() { return events[START_ELEMENT]; }
+
+        /** return the number of endElement() events */
+        public long getEndElements() { return events[END_ELEMENT]; }
+
+        /** return the number of characters() events */
+        public long getCharacterEvents() { return events[CHARACTERS]; }
+
+        /** return the number of ignorableWhitespace() events */
+        public long getWhitespaceEvents() {
+            return events[IGNORABLE_WHITESPACE];
+        }
+
+        /** return the number of processingInstruction() events */
+        public long getProcInstrEvents() {
+            return events[PROCESSING_INSTRUCTION];
+        }
+
+        /** return the number of startPrefixMapping() and
+            endPrefixMapping() events */
+        public long getPrefixMappingEvents() {
+            return events[START_PREFIX_MAPPING] + events[END_PREFIX_MAPPING];
+        }
+
+        /** return the number of startDocument() and endDocument() events */
+        public long getDocumentEvents() {
+            return events[START_DOCUMENT] + events[END_DOCUMENT];
+        }
+
+        /** return the time spent reading from the sources */
+        public long getFillNanos() { return fillNanos; }
+
+        /** return the time spent tokenizing tags, apart from the time
+            spent in the handler */
+        public long getTagParseNanos() { return tagNanos; }
+
+        /** return the time spent in the content handler */
+        public long getHandlerNanos() { return handlerNanos; }
+
+        /** return the largest number of characters held in the text
+            buffer */
+        public int getPeakBufferSize() { return peakBufferSize; }
+
+        /** return the largest capacity the text buffer reached */
+        public int getPeakBufferCapacity() { return peakBufferCapacity; }
+
+        /** return the number of sources pushed by handlers */
+        public long getSourcesPushed() { return sourcesPushed; }
+
+        /** return the greatest depth of the stack of suspended sources */
+        public int getPeakSourceDepth() { return peakSourceDepth; }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("chars: filled=").append(filled);
+            sb.append(" parsed=").append(parsed);
+            sb.append(" sent=").append(sent);
+            sb.append(" skipped=").append(skipped);
+            sb.append(" inserted=").append(inserted);
+            sb.append("; events: ").append(getEventCount());
+            sb.append(" (elements=").append(getStartElements());
+            sb.append(" characters=").append(getCharacterEvents());
+            sb.append(')');
+            if (fillNanos + tagNanos + handlerNanos > 0) {
+                sb.append("; ms: fill=").append(fillNanos / 1000000);
+                sb.append(" tags=").append(tagNanos / 1000000);
+                sb.append(" handler=").append(handlerNanos / 1000000);
+            }
+            sb.append("; buffer peak=").append(peakBufferSize);
+            sb.append('/').append(peakBufferCapacity);
+            sb.append("; sources pushed=").append(sourcesPushed);
+            return sb.toString();
+        }
+    }
+}
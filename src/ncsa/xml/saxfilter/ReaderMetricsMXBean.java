@@ -0,0 +1,23 @@
+package ncsa.xml.saxfilter;
+
+/**
+ * the management interface of {@link ReaderMetrics}.  Through JMX, the
+ * counters appear as a single composite attribute, Snapshot.
+ */
+public interface ReaderMetricsMXBean {
+
+    /**
+     * return a copy of the current values of the counters
+     */
+    public ReaderMetrics.Snapshot getSnapshot();
+
+    /**
+     * return true if time is being measured as well as counts
+     */
+    public boolean isTiming();
+
+    /**
+     * set all counters back to zero
+     */
+    public void reset();
+}
@@ -0,0 +1,583 @@
+package ncsa.xml.saxfilter;
+
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+/**
+ * a TextBuffer that holds its characters in a single, growable ring of
+ * chars.  <p>
+ *
+ * Unlike the list-of-Strings storage used by {@link TextBuffer}, this
+ * implementation provides constant-time access to any character position
+ * (see {@link #charAt(int) charAt()}), drops characters from the front
+ * of the buffer in place (see {@link #popChars(int) popChars()}), and
+ * makes room for inserted text by shifting whichever side of the
+ * insertion point is shorter into the free space (the "gap") of the ring.
+ * <p>
+ * The Substring-oriented methods inherited from TextBuffer are still
+ * supported.  As with TextBuffer, each String appended (or inserted at the
+ * end) starts a new segment, while characters appended from an array join
+ * the last segment.  The Substrings returned are views of these segments
+ * whose characters are read from the ring when asked for (via
+ * {@link Substring#str() str()} or toString()); thus, later edits to the
+ * buffer are reflected in them.
+ */
+public class RingTextBuffer extends TextBuffer {
+    private char[] data = null;
+    private int mask = 0;
+    private int head = 0;   // the array index of the first valid character
+    private int size = 0;   // the number of valid characters
+
+    // the segments, in order; they always cover the valid characters
+    // exactly.  base is the position (counted from an arbitrary origin)
+    // of the first valid character, and each segment's position is
+    // counted from the same origin so that popping characters only needs
+    // to touch the first segment.
+    private LinkedList<Segment> segs = null;
+    private long base = 0;
+    private static final CharScanner SCANNER = CharScanner.get();
+
+    /**
+     * the default initial capacity
+     */
+    public final static int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * create an empty buffer with the default initial capacity
+     */
+    public RingTextBuffer() { this(DEFAULT_CAPACITY); }
+
+    /**
+     * create an empty buffer
+     * @param capacity   the initial number of characters that can be held
+     *                     without having to grow the buffer.  This will be
+     *                     rounded up to a power of 2.
+     */
+    public RingTextBuffer(int capacity) {
+        this(capacity, new LinkedList<Segment>());
+    }
+
+    private RingTextBuffer(int capacity, LinkedList<Segment> segs) {
+        super(segs);
+        this.segs = segs;
+        int cap = 16;
+        while (cap < capacity) cap <<= 1;
+        data = new char[cap];
+        mask = cap - 1;
+    }
+
+    /**
+     * return the number of characters currently held in the buffer
+     */
+    public int size() { return size; }
+
+    /**
+     * return the number of characters that can be held before the buffer
+     * must be grown.
+     */
+    public int capacity() { return data.length; }
+
+    /**
+     * make sure that the buffer can hold at least the given number of
+     * characters without growing.
+     */
+    public void ensureCapacity(int need) {
+        if (need <= data.length) return;
+
+        int cap = data.length;
+        while (cap < need) cap <<= 1;
+        char[] use = new char[cap];
+        copy(0, use, 0, size);
+        data = use;
+        mask = cap - 1;
+        head = 0;
+    }
+
+    /**
+     * return the character at the given position in the buffer
+     * @param i  the position of the character relative to the start of the
+     *             buffer
+     * @throws StringIndexOutOfBoundsException  if i is out of range
+     */
+    public final char charAt(int i) {
+        if (i < 0 || i >= size) throw new StringIndexOutOfBoundsException(i);
+        return data[(head + i) & mask];
+    }
+
+    /**
+     * append a String to the buffer
+     * @param s   the string to append
+     */
+    public TextBuffer append(String s) {
+        int n = s.length();
+        if (n == 0) return this;
+        ensureCapacity(size + n);
+
+        int p = (head + size) & mask;
+        int first = Math.min(n, data.length - p);
+        s.getChars(0, first, data, p);
+        if (first < n) s.getChars(first, n, data, 0);
+        segs.add(new Segment(base + size, n));
+        size += n;
+        return this;
+    }
+
+    /**
+     * append characters from an array to the buffer
+     * @param chars   the array containing the characters
+     * @param off     the position of the first character to append
+     * @param len     the number of characters to append
+     */
+    public TextBuffer append(char[] chars, int off, int len) {
+        if (len <= 0) return this;
+        ensureCapacity(size + len);
+
+        int p = (head + size) & mask;
+        int first = Math.min(len, data.length - p);
+        System.arraycopy(chars, off, data, p, first);
+        if (first < len)
+            System.arraycopy(chars, off + first, data, 0, len - first);
+        if (segs.isEmpty())
+            segs.add(new Segment(base + size, len));
+        else
+            segs.getLast().count += len;
+        size += len;
+        return this;
+    }
+
+    public String toString() {
+        return substring(0, size);
+    }
+
+    /**
+     * return the characters in a given range as a String
+     * @param begin   the position of the first character
+     * @param end     the position after the last character
+     * @throws StringIndexOutOfBoundsException  if the range is out of bounds
+     */
+    public String substring(int begin, int end) {
+        if (begin < 0 || end > size || begin > end)
+            throw new StringIndexOutOfBoundsException(begin);
+        int p = (head + begin) & mask;
+        int n = end - begin;
+        if (p + n <= data.length) return new String(data, p, n);
+
+        char[] out = new char[n];
+        copy(begin, out, 0, n);
+        return new String(out);
+    }
+
+    /**
+     * return the position of the first occurrence of a character at or
+     * after a given position, or -1 if it does not appear in the buffer.
+     * @param c      the character to search for
+     * @param from   the position to start searching from
+     */
+    public int indexOf(char c, int from) {
+        return indexOf(c, from, size);
+    }
+
+    /**
+     * return the position of the first occurrence of a character within
+     * a range of positions, or -1 if it does not appear in that range.
+     * The search is done by the {@link CharScanner} in use.
+     * @param c      the character to search for
+     * @param from   the position to start searching from
+     * @param to     the position to stop searching at (exclusive)
+     */
+    public int indexOf(char c, int from, int to) {
+        if (from < 0) from = 0;
+        if (to > size) to = size;
+        if (from >= to) return -1;
+
+        int p = (head + from) & mask;
+        int n = to - from;
+        int first = Math.min(n, data.length - p);
+        int i = SCANNER.indexOf(data, p, p + first, c);
+        if (i >= 0) return from + i - p;
+        i = SCANNER.indexOf(data, 0, n - first, c);
+        return (i < 0) ? -1 : from + first + i;
+    }
+
+    /**
+     * return the position of the first occurrence of a string at or
+     * after a given position, or -1 if it does not appear in the buffer.
+     * @param s      the string to search for
+     * @param from   the position to start searching from
+     */
+    public int indexOf(String s, int from) {
+        if (s.length() == 0) return (from <= size) ? Math.max(from, 0) : -1;
+        char c = s.charAt(0);
+        int last = size - s.length();
+        for(int p = indexOf(c, from, last+1); p >= 0;
+            p = indexOf(c, p+1, last+1))
+        {
+            if (startsWith(s, p)) return p;
+        }
+        return -1;
+    }
+
+    /**
+     * return true if the characters at the given position match a string
+     * @param s      the string to compare with
+     * @param pos    the position in the buffer to compare at
+     */
+    public boolean startsWith(String s, int pos) {
+        int n = s.length();
+        if (pos < 0 || pos + n > size) return false;
+        for(int i = 0; i < n; i++) {
+            if (data[(head + pos + i) & mask] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * return the Substring containing the i-th character as an iterator
+     * @param i  the index of the desired character
+     * @return Iter   an iterator positioned such that the next
+     *                element it returns will be the requested
+     *                Substring.  The Substring's start will be
+     *                set at the position of the requested character.
+     *                null is returned if the position is out of
+     *                range.
+     * <p>
+     * Finding the segment means walking the segment list, so this takes
+     * time proportional to the number of segments rather than constant
+     * time.  It is not on the reading path:  SAXFilteredReader only uses
+     * the character-oriented methods (charAt(), indexOf(), copy(), and
+     * the like), which go straight to the ring.  The list also stays
+     * short:  text read from the source is appended from an array and so
+     * joins the last segment, and popChars() drops segments once their
+     * characters are consumed.
+     */
+    public Iter getSubstring(int i) {
+        if (i < 0 || i >= size) return null;
+
+        ListIterator<Segment> it = locate(i);
+        Segment seg = it.next();
+        it.previous();
+        seg.off = i - seg.pos();
+        seg.len = seg.count - seg.off;
+        return new Iter(it);
+    }
+
+    /**
+     * insert a string at a given position
+     * @param s    the string to insert
+     * @param pos  the position to insert the string at
+     * @throws StringIndexOutOfBounds  if pos is out of bounds
+     */
+    public TextBuffer insert(String s, int pos) {
+        if (pos == size)
+            return append(s);
+        if (pos < 0 || pos > size)
+            throw new StringIndexOutOfBoundsException(pos);
+
+        Segment seg = locate(pos).next();
+        openGap(pos, s.length());
+        put(s, pos);
+        seg.count += s.length();
+        reflow();
+        return this;
+    }
+
+    /**
+     * substitute in a string at a given position.
+     * @param s    the string to substitute in
+     * @param pos  the position to begin the substitution
+     * @param len  the number of characters to pull out starting with pos
+     * @throws StringIndexOutOfBounds  if pos is out of bounds
+     */
+    public TextBuffer substitute(String s, int pos, int len) {
+        if (pos == size)
+            return append(s);
+        if (pos < 0 || pos > size)
+            throw new StringIndexOutOfBoundsException(pos);
+        if (pos+len > size) len = size-pos;
+        edit(s, pos, len);
+
+        ListIterator<Segment> it = locate(pos);
+        Segment seg = it.next();
+        int in = Math.min(len, seg.pos() + seg.count - pos);
+        seg.count += s.length() - in;
+        len -= in;
+
+        // the rest of the substituted characters come out of the
+        // following segments
+        while (len > 0 && it.hasNext()) {
+            seg = it.next();
+            if (seg.count <= len) {
+                len -= seg.count;
+                seg.count = 0;
+                it.remove();
+            }
+            else {
+                seg.count -= len;
+                len = 0;
+            }
+        }
+        reflow();
+        return this;
+    }
+
+    /**
+     * remove all characters from the given position to the end of the
+     * buffer.
+     */
+    public void truncate(int pos) {
+        if (pos < 0) pos = 0;
+        if (pos >= size) return;
+        size = pos;
+
+        ListIterator<Segment> it = segs.listIterator(segs.size());
+        while (it.hasPrevious()) {
+            Segment seg = it.previous();
+            if (seg.pos() < pos) {
+                seg.count = pos - seg.pos();
+                break;
+            }
+            seg.count = 0;
+            it.remove();
+        }
+    }
+
+    /**
+     * pop off a given number of characters from the start of this buffer
+     */
+    public void popChars(int nchars) {
+        if (nchars <= 0) return;
+        if (nchars >= size) {
+            clear();
+            return;
+        }
+        head = (head + nchars) & mask;
+        size -= nchars;
+        base += nchars;
+
+        // drop the segments that were popped off entirely
+        while (segs.getFirst().pos() + segs.getFirst().count <= 0) {
+            segs.removeFirst().count = 0;
+        }
+        Segment first = segs.getFirst();
+        first.count += first.pos();
+        first.at = base;
+    }
+
+    /**
+     * remove all characters from this buffer.  The allocated capacity is
+     * retained.
+     */
+    public void clear() {
+        for(Segment seg : segs) seg.count = 0;
+        segs.clear();
+        head = 0;
+        size = 0;
+        base = 0;
+    }
+
+    /**
+     * copy characters from this text buffer into a given character array
+     * @param srcBegin   the index of the first character from this buffer
+     *                       to copy
+     * @param chars      the array to copy into
+     * @param destBegin  the index into the output array to copy the first
+     *                       character to
+     * @param len        the number of characters to copy
+     */
+    public void copy(int srcBegin, char chars[], int destBegin, int len) {
+        if (srcBegin < 0 || srcBegin + len > size)
+            throw new ArrayIndexOutOfBoundsException(srcBegin);
+        if (len <= 0) return;
+
+        int p = (head + srcBegin) & mask;
+        int first = Math.min(len, data.length - p);
+        System.arraycopy(data, p, chars, destBegin, first);
+        if (first < len)
+            System.arraycopy(data, 0, chars, destBegin + first, len - first);
+    }
+
+    /**
+     * return the first Substring in this buffer
+     * @throws NoSuchElementException  if the buffer is empty
+     */
+    public Substring getFirst() {
+        Segment out = segs.getFirst();
+        out.off = 0;
+        out.len = out.count;
+        return out;
+    }
+
+    /**
+     * return the last Substring in this buffer
+     * @throws NoSuchElementException  if the buffer is empty
+     */
+    public Substring getLast() {
+        Segment out = segs.getLast();
+        out.off = 0;
+        out.len = out.count;
+        return out;
+    }
+
+    /**
+     * return an iterator positioned to return the last Substring with
+     * the first call to previous()
+     */
+    public Iter iterAtLast() {
+        return new Iter(segs.listIterator(segs.size()));
+    }
+
+    /**
+     * replace the contents of a Substring of this buffer.  Nothing is done
+     * if the Substring is no longer part of the buffer.
+     */
+    void replace(Substring sub, String replacement) {
+        if (! segs.contains(sub)) return;
+        Segment seg = (Segment) sub;
+        edit(replacement, seg.pos(), seg.count);
+        seg.count = replacement.length();
+        reflow();
+    }
+
+    void removed(Substring sub, boolean afterFirst) {
+        Segment seg = (Segment) sub;
+        closeGap(seg.pos(), seg.count);
+        seg.count = 0;
+        reflow();
+    }
+
+    /*
+     * return an iterator positioned such that next() returns the segment
+     * containing the character at pos, or null if pos is out of range
+     */
+    private ListIterator<Segment> locate(int pos) {
+        ListIterator<Segment> it = segs.listIterator();
+        while (it.hasNext()) {
+            Segment seg = it.next();
+            if (pos < seg.pos() + seg.count) {
+                it.previous();
+                return it;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * reset the segments' positions after their counts have changed
+     */
+    private void reflow() {
+        long at = base;
+        for(Segment seg : segs) {
+            seg.at = at;
+            at += seg.count;
+        }
+    }
+
+    /*
+     * replace len characters at pos with a string
+     */
+    private void edit(String s, int pos, int len) {
+        int diff = s.length() - len;
+        if (diff > 0)
+            openGap(pos + len, diff);
+        else if (diff < 0)
+            closeGap(pos + s.length(), -diff);
+        put(s, pos);
+    }
+
+    /*
+     * make room for n characters at pos by shifting the shorter side of
+     * the buffer into the free space of the ring.  The contents of the
+     * opened range are undefined.
+     */
+    private void openGap(int pos, int n) {
+        if (n <= 0) return;
+        ensureCapacity(size + n);
+        if (pos < size - pos) {
+            // shift the head backward
+            head = (head - n) & mask;
+            move(n, 0, pos);
+        }
+        else {
+            // shift the tail forward
+            move(pos, pos + n, size - pos);
+        }
+        size += n;
+    }
+
+    /*
+     * remove n characters at pos by shifting the shorter side of the
+     * buffer over them.
+     */
+    private void closeGap(int pos, int n) {
+        if (n <= 0) return;
+        int tail = size - pos - n;
+        if (pos < tail) {
+            // shift the head forward
+            move(0, n, pos);
+            head = (head + n) & mask;
+        }
+        else {
+            move(pos + n, pos, tail);
+        }
+        size -= n;
+    }
+
+    /*
+     * move len characters from one buffer position to another.  Positions
+     * are relative to the current head and may be beyond the current size.
+     */
+    private void move(int from, int to, int len) {
+        if (len <= 0 || from == to) return;
+        int ps = (head + from) & mask;
+        int pd = (head + to) & mask;
+        if (ps + len <= data.length && pd + len <= data.length) {
+            System.arraycopy(data, ps, data, pd, len);
+        }
+        else if (from > to) {
+            for(int i = 0; i < len; i++)
+                data[(pd + i) & mask] = data[(ps + i) & mask];
+        }
+        else {
+            for(int i = len - 1; i >= 0; i--)
+                data[(pd + i) & mask] = data[(ps + i) & mask];
+        }
+    }
+
+    /*
+     * write a string into the buffer at the given (already allocated)
+     * position.
+     */
+    private void put(String s, int pos) {
+        int n = s.length();
+        int p = (head + pos) & mask;
+        int first = Math.min(n, data.length - p);
+        s.getChars(0, first, data, p);
+        if (first < n) s.getChars(first, n, data, 0);
+    }
+
+    /*
+     * a segment of the buffer.  Its characters are not copied out of the
+     * ring until they are asked for.
+     */
+    class Segment extends Substring {
+        long at;     // the position of the first character (see base)
+        int count;   // the number of characters
+
+        Segment(long at, int count) {
+            super(0, count);
+            this.at = at;
+            this.count = count;
+        }
+
+        /*
+         * return the position of the first character relative to the
+         * start of the buffer
+         */
+        int pos() { return (int) (at - base); }
+
+        public String str() {
+            if (count == 0) return "";
+            return substring(pos(), pos() + count);
+        }
+    }
+}
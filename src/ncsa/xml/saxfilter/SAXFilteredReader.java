@@ -16,6 +16,7 @@ package ncsa.xml.saxfilter;
 
 import java.io.*;
 import java.util.*;
+import javax.xml.namespace.QName;
 import ncsa.xml.sax.NamespaceMap;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
@@ -42,8 +43,8 @@ import org.xml.sax.helpers.AttributesImpl;
  */
 public class SAXFilteredReader extends Reader {
     private ContentHandler chandler = null;
-    private PushbackReader src = null;
-    private TextBuffer buf = new TextBuffer();
+    private Reader src = null;
+    private RingTextBuffer buf = new RingTextBuffer();
     private OnDemandParserDelegate evts = new OnDemandParserDelegate();
     private CharLocator loc = new CharLocator();
     private boolean strict = false;
@@ -65,9 +66,7 @@ public class SAXFilteredReader extends Reader {
     //        that have already been sent.  sent >= 0
     // parsed = the number of characters from the beginning of the TextBuffer
     //        that have been parsed.  parsed >= sent
-    // cursor = the position from the start of the TextBuffer where 
-    //        unparsed characters were last retrieved.  
-    private int sent=0, parsed=0, cursor=0;
+    private int sent=0, parsed=0;
 
     // the pending-parsed position.  This is set before any call to a 
     // ContentHandler method to the value parsed will have immediately after
@@ -80,11 +79,44 @@ public class SAXFilteredReader extends Reader {
     private ParseRequestMgr prq = null;
     private NamespaceMap namespaces = new NamespaceMap();
 
+    // reused by handleStartElement() to avoid per-tag allocation; content 
+    // handlers may only use the attributes during the startElement() call
+    private SymbolTable symbols = new SymbolTable();
+    private PrefixScopes scopes = new PrefixScopes();
+    private QNameCache qnames = new QNameCache(symbols);
+    private AttributesImpl atts = new AttributesImpl();
+    private AttributesImpl selatts = new AttributesImpl();
+    private HashSet<String> endedPrefixes = new HashSet<String>();
+
+    // the document position up to which no tokenizing is needed because 
+    // no events are wanted (see enterFlowOnly())
+    private long flowTo = 0;
+
     private PauseMarkers pmarks = null;
     private char pausechar = '\004';
-    private char[] cb = new char[1];
     private boolean addpause = false;
 
+    // characters read ahead to serve single-character reads; cbpause means
+    // a pause follows them.  paused records whether the last call to 
+    // fill() ended with a pause.
+    private char[] cb = new char[128];
+    private int cbpos = 0, cblen = 0;
+    private boolean cbpause = false, paused = false;
+
+    // when sending spans (see setSpanSink()):  the mapped source, where the
+    // buffered characters came from, and the byte position and replacement
+    // count of the source as of the last chunk read from it
+    private MappedFileReader msrc = null;
+    private SourceSpans spans = null;
+    private SourceSpans.Sink spansink = null;
+    private long mbytes = 0, mreplaced = 0;
+
+    // the metrics being kept (see setMetrics()) and what the content 
+    // handler's methods are called through:  the handler itself, or a 
+    // wrapper around it that counts the calls when metrics are kept
+    private ReaderMetrics metrics = null;
+    private ContentHandler dispatch = null;
+
     /**
      * create a "closed" reader.  No source reader is set, and so it behaves
      * as if it is closed.  It can be opened by calling the setSource()
@@ -113,6 +145,35 @@ public class SAXFilteredReader extends Reader {
         setContentHandler(ch);
     }
 
+    /**
+     * create a reader that reads the XML document in a local file.  The 
+     * file is memory-mapped and decoded directly into this reader's 
+     * buffer (see {@link MappedFileReader}); its encoding is determined 
+     * from its contents.  
+     * @param file     the file to read
+     * @param ch       a content handler for filtering the XML data; may be 
+     *                    null
+     * @throws UnsupportedEncodingException  if the file's declared encoding
+     *                   is not supported by this platform.
+     */
+    public static SAXFilteredReader forFile(File file, ContentHandler ch)
+        throws IOException
+    {
+        SAXFilteredReader out = 
+            new SAXFilteredReader(new MappedFileReader(file));
+        out.setChunkSize(MAPPED_CHUNK_SIZE);
+        if (ch != null) out.setContentHandler(ch);
+        return out;
+    }
+
+    /**
+     * create a reader that reads the XML document in a local file.  
+     * @see #forFile(File, ContentHandler)
+     */
+    public static SAXFilteredReader forFile(File file) throws IOException {
+        return forFile(file, null);
+    }
+
     /**
      * return true if IOExceptions will be thrown when bad XML is 
      * encountered
@@ -131,8 +192,117 @@ public class SAXFilteredReader extends Reader {
      * @param source    the source Reader
      */
     public void setSource(Reader source) {
-        src = new PushbackReader(source, 128);
+        src = source;
+        eof = false;
+    }
+
+    /**
+     * prepare this reader to read a new document, reusing its buffers and
+     * name tables.  All parsing state is discarded, as are any pending 
+     * skips, insertions, pause markers, and span sink, and the reader's 
+     * settings other than its chunk size (i.e. strictness and pause 
+     * character) are returned to their defaults.  The previous source is 
+     * not closed.  If a content handler is set, it is kept and attached 
+     * again as if passed to {@link #setContentHandler(ContentHandler)}, 
+     * so that a {@link SAXFilterContentHandler} can make its initial 
+     * requests for the new document.  
+     * <p>
+     * Creating a reader allocates a number of buffers and tables; when 
+     * many small documents are parsed, resetting a reader (or taking one
+     * from a {@link SAXFilteredReaderPool}) avoids this cost.
+     * @param source    the source Reader for the new document; if null, 
+     *                    this reader will behave as if it is closed.
+     */
+    public synchronized void reset(Reader source) {
+        src = source;
+        srcstack = null;
         eof = false;
+        started = false;
+        parseAhead = false;
+        strict = false;
+
+        buf.clear();
+        cpos = 0;
+        sent = parsed = pending = 0;
+        flowTo = 0;
+        loc.setChars(0, 0);
+        skip.reset(false);
+
+        evts.reset();
+        namespaces.clear();
+        scopes.reset();
+        atts.clear();
+        selatts.clear();
+        endedPrefixes.clear();
+
+        // keep the name tables warm, unless they have grown very large
+        if (symbols.size() > MAX_KEPT_SYMBOLS) {
+            symbols = new SymbolTable();
+            qnames = new QNameCache(symbols);
+        }
+
+        pmarks = null;
+        pausechar = '\004';
+        addpause = false;
+        cbpos = cblen = 0;
+        cbpause = paused = false;
+
+        msrc = null;
+        spans = null;
+        spansink = null;
+        mbytes = mreplaced = 0;
+
+        if (chandler != null) setContentHandler(chandler);
+    }
+
+    // the number of distinct names beyond which reset() starts over with 
+    // empty name tables
+    private static final int MAX_KEPT_SYMBOLS = 16384;
+
+    /**
+     * set the maximum number of characters to read from the source stream 
+     * at a time.  Larger chunks mean fewer reads from the source at the 
+     * cost of a larger internal buffer; values in the range of 8k to 64k 
+     * work well for most documents.  The default is 
+     * {@link #DEFAULT_CHUNK_SIZE}.
+     * @param size   the chunk size in characters
+     * @throws IllegalArgumentException   if size is not positive
+     */
+    public synchronized void setChunkSize(int size) {
+        if (size <= 0) 
+            throw new IllegalArgumentException("chunk size must be positive: "
+                                               + size);
+        if (size != cbuf.length) cbuf = new char[size];
+    }
+
+    /**
+     * return the maximum number of characters read from the source stream 
+     * at a time.
+     */
+    public int getChunkSize() { return cbuf.length; }
+
+    /**
+     * arrange for the characters sent by this reader to be reported to a
+     * sink as spans:  the characters passed through unchanged from the 
+     * source file are given as byte ranges of the file, and only the 
+     * others (inserted or substituted text) as characters.  This allows 
+     * an editor to copy the unchanged bytes directly to its output.  The 
+     * characters are still returned by read() as usual.  This must be 
+     * called before the first read.
+     * @throws IllegalStateException  if the source is not a 
+     *                   MappedFileReader whose encoding allows byte ranges
+     *                   to be counted, or reading has already begun.
+     */
+    void setSpanSink(SourceSpans.Sink sink) {
+        if (! (src instanceof MappedFileReader))
+            throw new IllegalStateException("source is not a mapped file");
+        if (started || buf.size() > 0)
+            throw new IllegalStateException("reading has already begun");
+        msrc = (MappedFileReader) src;
+        spans = new SourceSpans(buf, msrc.getCharset());
+        spansink = sink;
+        mbytes = msrc.getBytesRead();
+        mreplaced = msrc.getReplacementCount();
     }
 
     /**
@@ -146,6 +316,8 @@ public class SAXFilteredReader extends Reader {
      */
     public void setContentHandler(ContentHandler handler) {
         chandler = handler;
+        dispatch = (handler == null || metrics == null) ? handler 
+                   : metrics.new MeteredHandler(handler);
         if (chandler != null && (chandler instanceof SAXFilterContentHandler)) {
             SAXFilterContentHandler sfhandler = 
                 (SAXFilterContentHandler) handler;
@@ -155,6 +327,24 @@ public class SAXFilteredReader extends Reader {
         }
     }
 
+    /**
+     * start or stop keeping metrics on the work done by this reader.  
+     * Metrics are kept until this method is called with null; resetting
+     * the reader does not affect them.  
+     * @param m   the metrics to update, or null to stop keeping them
+     */
+    public synchronized void setMetrics(ReaderMetrics m) {
+        metrics = m;
+        dispatch = (chandler == null || m == null) ? chandler 
+                   : m.new MeteredHandler(chandler);
+    }
+
+    /**
+     * return the metrics being kept on the work done by this reader, or 
+     * null if none are being kept.
+     */
+    public ReaderMetrics getMetrics() { return metrics; }
+
     /**
      * set the character that will be used as a pause marker.  This should 
      * be a character that is not normally expected to be encounter in the
@@ -207,46 +397,94 @@ public class SAXFilteredReader extends Reader {
      * any subsequent read will throw an IOException).
      */
     public boolean ready() throws IOException {
-        return (src == null || src.ready());
+        return (cbpos < cblen || cbpause || src == null || src.ready());
     }
 
     /**
-     * read a single character
+     * read a single character.  Characters are read ahead in small blocks
+     * so that the parsing and flow bookkeeping is not done for every one.
      */
-    public int read() throws IOException {
+    public synchronized int read() throws IOException {
+        if (cbpos < cblen) return cb[cbpos++];
+        if (cbpause) {
+            cbpause = false;
+            return pausechar;
+        }
+
         int n=0;
+        cbpos = cblen = 0;
         while(n == 0) { 
-            n = read(cb, 0, 1);
-            if (n == 0 && cb[0] == pausechar) break;
+            n = fill(cb, 0, cb.length);
+            if (n == 0 && paused) return pausechar;
         }
 
-        if (n < 0)
-            return -1;
-        else
-            return cb[0];
+        if (n < 0) return -1;
+        cblen = n;
+        cbpause = paused;
+        return cb[cbpos++];
     }
 
     /**
      * Read characters into a portion of an array.  If a content handler 
-     * is set, the characters will trigger SAX events.
+     * is set, the characters will trigger SAX events.  If fewer than 
+     * <code>len</code> characters are returned because a pause marker
+     * was reached, the pause character is placed in the array just after
+     * the characters returned.  
      */
     public synchronized int read(char chars[], int off, int len)
         throws IOException
     {
         if (src == null)
             throw new IOException("read on closed input stream");
+        if (cbpos >= cblen && ! cbpause) return fill(chars, off, len);
+
+        // first hand over anything read ahead by read()
+        int n = Math.min(len, cblen - cbpos);
+        System.arraycopy(cb, cbpos, chars, off, n);
+        cbpos += n;
+        if (n == len) return n;
+
+        if (cbpause) {
+            chars[off+n] = pausechar;
+            cbpause = false;
+            return n;
+        }
+        int more = fill(chars, off+n, len-n);
+        return (more < 0) ? n : n + more;
+    }
+
+    /**
+     * parse and send characters into a portion of an array.  
+     */
+    private int fill(char chars[], int off, int len) throws IOException {
+        if (src == null)
+            throw new IOException("read on closed input stream");
 //        if (eof) throw new EOFException();
 
         int sendable;
         int need = len;
-        int[] tilleof = new int[1];
 
+        paused = false;
         if (addpause) {
             chars[off] = pausechar;
             addpause = false;
+            paused = true;
             return 0;
         }
 
+        // if the request can be met entirely from text that has already 
+        // been parsed and no skip switch or pause falls within it, it can 
+        // go out in one step
+        if (need > 0 && parsed - sent >= need && ! eof && ! parseAhead &&
+            (pmarks == null || pmarks.isEmpty())) 
+        {
+            skip.popTo(cpos+sent);
+            if (! skip.skipping() && skip.nextSwitch()-cpos-sent >= need) {
+                send(chars, off, need);
+                return need;
+            }
+        }
+
         try {
             while (need > 0) {
                 sendable = parseBuffer(need);
@@ -259,22 +497,19 @@ public class SAXFilteredReader extends Reader {
                 sendable = skipLimit(sendable);
 
                 // check to see if we need to pause
-                if (pmarks != null && sendable > 0) {
-                    addpause = pmarks.applyPause(sendable, tilleof);
-                    if (tilleof[0] < sendable) sendable = tilleof[0];
-                }
+                if (pmarks != null && sendable > 0) 
+                    sendable = pmarks.applyPause(sendable);
 
                 if (sendable > 0) {
-                    buf.copy(sent, chars, off, sendable);
-                    sent += sendable;
+                    send(chars, off, sendable);
                     off += sendable;
                     need -= sendable;
-                    skip.popTo(cpos+sent);
                 }
 
                 if (addpause && off < chars.length) {
                     chars[off] = pausechar;
                     addpause = false;
+                    paused = true;
                     break;
                 }
             }
@@ -284,7 +519,7 @@ public class SAXFilteredReader extends Reader {
 
             if (eof && chandler != null && evts.isEnabled(evts.DOCUMENT)) {
                 pending = parsed;
-                chandler.endDocument();
+                dispatch.endDocument();
             }
         } catch (SAXException ex) {
             if (ex instanceof IOinSAXException &&
@@ -302,11 +537,22 @@ public class SAXFilteredReader extends Reader {
         return sendable;
     }
 
+    /**
+     * copy parsed characters out of the buffer to the caller
+     */
+    private void send(char[] chars, int off, int n) throws IOException {
+        buf.copy(sent, chars, off, n);
+        if (spans != null) spans.send(sent, chars, off, n, spansink);
+        sent += n;
+        skip.popTo(cpos+sent);
+        if (metrics != null) metrics.sent += n;
+    }
+
     /**
      * return the number of characters read
      */
     public long readCount() {
-        return sent + cpos;
+        return sent + cpos - (cblen - cbpos);
     }
 
     /**
@@ -317,12 +563,18 @@ public class SAXFilteredReader extends Reader {
     }
 
     // a buffer for reading characters from the source stream
-    private char[] cbuf = new char[128];
+    private char[] cbuf = new char[DEFAULT_CHUNK_SIZE];
 
-    // lip = the position of the offset in the current Substring relative 
-    //       to the beginning of the TextBuffer.
-    // lilen = the length of the current Substring
-    private int lip = 0, lilen = 0;
+    /**
+     * the default number of characters to read from the source at a time
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    /**
+     * the chunk size used for memory-mapped file sources.  Reads from a 
+     * mapped file never block, so a larger chunk costs nothing in latency.
+     */
+    public static final int MAPPED_CHUNK_SIZE = 65536;
 
     public static final String COMMENT_START = "<!--";
     public static final String COMMENT_END = "-->";
@@ -332,6 +584,10 @@ public class SAXFilteredReader extends Reader {
     public static final String CDATA_END = "]]>";
     public static final String EMPTYSTR = "";
 
+    // the events that require the markup to be tokenized
+    private static final int MARKUP_EVENTS = OnDemandParser.ALL_EVENTS & 
+        ~(OnDemandParser.DOCUMENT | OnDemandParser.IGNORE_WHITE_SPACE);
+
     private static final String XSI = 
         "http://www.w3.org/2001/XMLSchema-instance";
 
@@ -346,229 +602,187 @@ public class SAXFilteredReader extends Reader {
         if (!started) {
             pending = parsed;
             if (chandler != null && evts.isEnabled(evts.DOCUMENT)) 
-                chandler.startDocument();
+                dispatch.startDocument();
             started = true;
         }
 
         // first shift off the characters no longer needed in the buffer
         trimBuffer();
 
-        String use = null;
-        Substring sub = getSubstring(parsed);
-        if (sub == null) return parsed - sent;
-
-        // p = a pointer into the current Substring to a character position 
-        //     of interest.  Initialized to local position of parsed.
-        int p = sub.off;
-
-        // lp = (mneumonic: local parsed) a pointer indicating the position 
-        //      of parsed in the current Substring.  lp <= p.  can be < 0 if
-        //      it corresponds to previously handled Substrings.
-        int lp = p;
+        // p = the position of the next markup start ('<')
+        // end = the position just past the text or markup being handled
+        int p, end;
+        long from = cpos + parsed, t;
 
         while (parsed-sent < nchars || parseAhead) {
+            if (cpos + parsed < flowTo || enterFlowOnly()) {
+                if (! flowStep()) break;
+                continue;
+            }
+            if (! available(parsed)) break;
 
-            // parse and process
-            p = sub.str().indexOf('<', lp);
-            if (p >= 0) {
+            // load enough to see the end of the text that starts here so 
+            // that text nodes are not split at chunk boundaries
+            p = find('<', parsed);
+            if (p != parsed) {
 
-                // process any text nodes
-                if (p > 0 && evts.isEnabled(evts.CHARACTERS)) {
+                // process a text node running up to the next markup (or to
+                // the end of the stream)
+                end = (p < 0) ? buf.size() : p;
+                if (evts.isEnabled(evts.CHARACTERS)) {
                     try {
-                        handleChars(parsed, p - lp, true);
+                        handleChars(parsed, end - parsed, true);
                     } catch(SAXException ex) {
                         if (strict) throw ex;
                     }
 
-                    // handler may have changed size of buffer; use global
-                    // vars (updated by handler) to reset local markers.
-                    sub = getSubstring(cursor);
-                    lp = parsed - cursor + sub.off;
-                    p = lp + loc.getCharLength();
-                    if (sub.str().charAt(p) != '<')
+                    // handler may have changed size of buffer; use the 
+                    // locator (updated by handler) to reset local markers.
+                    end = locEnd();
+                    if (p >= 0 && end < buf.size() && buf.charAt(end) != '<')
                         throw new SAXException("stream manipulation broke " +
                                                "XML validity");
                 }
-                parsed += p - lp;  // move pointers past text (to '<')
-                lp = p;
+                parsed = end;  // move pointers past text (to '<')
+            }
+            else {
+                // make sure we can see enough to recognize the markup type
+                available(p + CDATA_START.length() - 1);
 
-                if (sub.str().startsWith(COMMENT_START, p)) {
+                if (buf.startsWith(COMMENT_START, p)) {
 
                     // found a comment; advance to the end of it
-                    p = sub.str().indexOf(COMMENT_END, p);
-                    while (p < 0) {
-                        lp -= sub.str().length();
-                        sub = nextSubstring();
-                        if (sub == null) break;
-                        p = sub.str().indexOf("-->", sub.off);
-                    } 
-                    if (p < 0)
-                        p = 0;
-                    else
-                        p += COMMENT_END.length();
-//                    if (evts.isEnabled(COMMENTS)) {
-//                        try {
-//                            handleComment(parsed, p-lp);
-//                        } catch (SAXException ex) {
-//                          if (strict) throw ex;
-// //                           throw new IOException("SAX processing error: " +
-// //                                                 ex.getMessage());
-//                        }
-//                    }
-                    parsed += p - lp;
-                    lp = p;
-                    if (sub == null) break;
+                    end = find(COMMENT_END, p + COMMENT_START.length());
+                    end = (end < 0) ? buf.size() : end + COMMENT_END.length();
+                    parsed = end;
                 } 
-                else if (sub.str().startsWith(PROC_INSTR_START, p)) {
+                else if (buf.startsWith(PROC_INSTR_START, p)) {
 
                     // found a processing instruction
-                    p = sub.str().indexOf(PROC_INSTR_END, p);
-                    while (p < 0) {
-                        lp -= sub.str().length();
-                        sub = nextSubstring();
-                        if (sub == null) break;
-                        p = sub.str().indexOf(PROC_INSTR_END, sub.off);
-                    } 
-                    if (p < 0)
-                        p = 0;
-                    else
-                        p += PROC_INSTR_END.length();
+                    end = find(PROC_INSTR_END, p + PROC_INSTR_START.length());
+                    end = (end < 0) ? buf.size() : end+PROC_INSTR_END.length();
                     if (evts.isEnabled(evts.PROC_INSTR)) {
                         try {
-                            handleProcInstr(parsed, p - lp);
+                            handleProcInstr(parsed, end - parsed);
                         } catch(SAXException ex) {
                             if (strict) throw ex;
-//                             throw new IOException("SAX processing error: " + 
-//                                                   ex.getMessage());
                         }
 
-                        // handler may have changed size of buffer; use global
-                        // vars (updated by handler) to reset local markers.
-                        sub = getSubstring(cursor);
-                        lp = parsed - cursor + sub.off;
-                        p = lp + loc.getCharLength();
+                        // handler may have changed size of buffer
+                        end = locEnd();
                     }
-                    parsed += p - lp;  // move pointers past <?...?>
-                    lp = p;
-                    if (sub == null) break;
+                    parsed = end;  // move pointers past <?...?>
                 } 
-                else if (sub.str().startsWith(CDATA_START, p)) {
-
-                    // found a CDATA section instruction
-                    p = sub.str().indexOf(CDATA_END, p);
-                    while (p < 0) {
-                        lp -= sub.str().length();
-                        sub = nextSubstring();
-                        if (sub == null) break;
-                        p = sub.str().indexOf(CDATA_END, sub.off);
-                    } 
-                    if (p < 0) p = 0;
+                else if (buf.startsWith(CDATA_START, p)) {
+
+                    // found a CDATA section
+                    int cstart = p + CDATA_START.length();
+                    int cend = find(CDATA_END, cstart);
+                    if (cend < 0) cend = buf.size();
                     if (evts.isEnabled(evts.CHARACTERS)) {
                         try {
-                            handleChars(parsed+CDATA_START.length(), 
-                                        p-lp, false);
+                            handleChars(cstart, cend - cstart, false);
                         } catch(SAXException ex) {
                             if (strict) throw ex;
-//                             throw new IOException("SAX processing error: " + 
-//                                                   ex.getMessage());
                         }
 
-                        // handler may have changed size of buffer; use global
-                        // vars (updated by handler) to reset local markers.
-                        sub = getSubstring(cursor);
-                        lp = parsed - cursor + sub.off;
-                        p = lp + loc.getCharLength();
+                        // handler may have changed size of buffer
+                        cend = locEnd();
                     }
-                    p += CDATA_END.length();
-                    parsed += p - lp;
-                    lp = p;
-                    if (sub == null) break;
+                    end = Math.min(cend + CDATA_END.length(), buf.size());
+                    parsed = end;
                 } 
                 else {
 
                     // found a tag; advance to the end of it
-                    char tagtype = sub.str().charAt(p + 1);
-                    p = sub.str().indexOf('>', p);
-                    while (p < 0) {
-                        lp -= sub.str().length();
-                        sub = nextSubstring();
-                        if (sub == null) break;
-                        p = sub.str().indexOf('>', sub.off);
-                    } 
-                    if (p < 0)
-                        p = 0;
-                    else
-                        p += 1;
+                    char tagtype = (p+1 < buf.size()) ? buf.charAt(p+1) : '!';
+                    end = find('>', p + 1);
+                    end = (end < 0) ? buf.size() : end + 1;
                     if (tagtype != '!' && evts.anyEnabled(evts.ELEMENT|
                                                           evts.ATTRIBUTES|
                                                           evts.NAMESPACES)) 
                     {
+                        t = (metrics != null) ? metrics.tagStart() : 0;
                         try {
                             if (tagtype == '/') {
-                                handleEndElement(parsed, p - lp);
+                                handleEndElement(parsed, end - parsed);
                             } else {
-                                handleStartElement(parsed, p - lp);
+                                handleStartElement(parsed, end - parsed);
                             }
                         } catch(SAXException ex) {
                             if (strict) throw ex;
-//                             throw new IOException("SAX processing error: " + 
-//                                                   ex.getMessage());
+                        } finally {
+                            if (metrics != null) metrics.tagEnd(t);
                         }
 
-                        // handler may have changed size of buffer; use global
-                        // vars (updated by handler) to reset local markers.
-                        sub = getSubstring(cursor);
-                        lp = parsed - cursor + sub.off;
-                        p = lp + loc.getCharLength();
+                        // handler may have changed size of buffer
+                        end = locEnd();
                     }
-                    parsed += p - lp;
-                    lp = p;
-                    if (sub == null) break;
+                    parsed = end;
                 }
             } 
-            else {
-                if (evts.isEnabled(evts.CHARACTERS) && 
-                    lp < sub.str().length())
-                {
-                    try {
-                        handleChars(parsed, sub.str().length() - lp, true);
-                    } catch(SAXException ex) {
-                        if (strict) throw ex;
-//                             throw new IOException("SAX processing error: " + 
-//                                                   ex.getMessage());
-                    }
-
-                    // handler may have changed size of buffer; use global
-                    // vars (updated by handler) to reset local markers.
-                    sub = getSubstring(cursor);
-                    lp = parsed - cursor + sub.off;
-                    p = lp + loc.getCharLength();
-                }
-                p = sub.str().length();
-                parsed += p - lp;
-                lp = p;
-            }
 
             applySkip();
-
-            if ((parsed-sent < nchars || parseAhead) &&  // need more to send
-                (sub == null || p >= sub.str().length() || p < 0)) // sub used up
-            {
-                lp -= sub.str().length();
-                sub = nextSubstring();
-                if (sub == null) break;
-                p = sub.off;
-            } 
         }
 
+        if (metrics != null) metrics.parsed += cpos + parsed - from;
         return parsed - sent;
     }
 
+    /**
+     * return the buffer position just past the characters of the event 
+     * most recently sent to the content handler.
+     */
+    private final int locEnd() {
+        return (int) (loc.getCharNumber() - cpos) + loc.getCharLength();
+    }
+
+    /**
+     * ensure that the character at the given buffer position has been 
+     * loaded, filling the buffer as necessary.  
+     * @return boolean  false if the end of the stream was reached before 
+     *                     the position could be loaded.
+     */
+    private boolean available(int p) throws IOException {
+        return (p < buf.size() || fillBuffer(p + 1) > p);
+    }
+
+    /**
+     * return the position of the next occurrence of a character at or 
+     * after the given position, filling the buffer as necessary.  -1 is 
+     * returned if the end of the stream is reached first.
+     */
+    private int find(char c, int from) throws IOException {
+        int p;
+        while ((p = buf.indexOf(c, from)) < 0) {
+            from = buf.size();
+            if (! available(from)) return -1;
+        }
+        return p;
+    }
+
+    /**
+     * return the position of the next occurrence of a string at or 
+     * after the given position, filling the buffer as necessary.  -1 is 
+     * returned if the end of the stream is reached first.
+     */
+    private int find(String s, int from) throws IOException {
+        int p;
+        while ((p = buf.indexOf(s, from)) < 0) {
+            // the string may straddle the end of what is currently loaded
+            from = Math.max(from, buf.size() - s.length() + 1);
+            if (! available(buf.size())) return -1;
+        }
+        return p;
+    }
+
     private int applySkip() {
         int skipped = 0;
         if (skip.skipping()) {
             long swtch = skip.nextSwitch();
             skipped = (int) Math.min(parsed, swtch-cpos);
+            if (metrics != null && skipped > sent) 
+                metrics.skipped += skipped - sent;
             sent = skipped;
             skip.popTo(cpos+skipped);
         }
@@ -577,15 +791,20 @@ public class SAXFilteredReader extends Reader {
 
     private int skipLimit(int need) {
         if (need <= 0) return 0;
-        need -= applySkip();
-        if (need <= 0) return 0;
+
+        // a switch scheduled right at the current position takes effect now
+        skip.popTo(cpos+sent);
+        if (skip.skipping()) {
+            applySkip();
+            return 0;
+        }
 
         long sendable = skip.nextSwitch()-cpos-sent;
         if (sendable < 0) {
             System.err.println("Programmer warning: skip schedule out of sync");
             return need;
         }
-        if (! skip.skipping && sendable < need) {
+        if (sendable < need) {
             // Note that if 0 < sendable < need, sendable will fit into an int
             need = (int)sendable;
         }
@@ -598,6 +817,7 @@ public class SAXFilteredReader extends Reader {
      */
     private void trimBuffer() {
         if (sent > 0) {
+            if (spans != null) spans.pop(sent);
             buf.popChars(sent);
             cpos += sent;
             parsed -= sent;
@@ -606,106 +826,99 @@ public class SAXFilteredReader extends Reader {
     }
 
     /**
-     * return the Substring containing the character at a given position,
-     * resetting the iteration handled by nextSubstring().
+     * fill the buffer until contains at least p characters.  Text is read 
+     * from the source in chunks of up to the current chunk size (see 
+     * {@link #setChunkSize(int) setChunkSize()}) without regard to line 
+     * boundaries; the markup scanner will pull in additional chunks as 
+     * needed to see the end of a construct.  
+     * @return int   the number of characters in the buffer as a result of the
+     *               call to this method.
      */
-    private Substring getSubstring(int p) throws IOException {
-        TextBuffer.Iter li = null;
-
-        if (p < buf.size() || fillBuffer(p + 1) > p)
-            li = buf.getSubstring(p);
-
-//         if (li == null) {
-//             System.err.println("position " + p + " out of range");
-//      }
+    private synchronized int fillBuffer(int p) throws IOException {
+        int n;
+        long t;
+        while (p > buf.size()) {
+            t = (metrics != null) ? metrics.clock() : 0;
+            n = src.read(cbuf, 0, cbuf.length);
+            if (n < 0 && srcstack != null) {
+                while (n < 0 && srcstack.size() > 0) {
+                    src.close();
+                    src = (Reader) srcstack.pop();
+                    n = src.read(cbuf, 0, cbuf.length);
+                }
+            }
+            if (metrics != null) metrics.filled(n, t);
+            if (n < 0) {
+                eof = true;
+                break;
+            }
 
-        if (li != null && li.hasNext()) {
-            cursor = p;
-            return (Substring) li.next();
+            if (spans != null) recordSpan(n);
+            buf.append(cbuf, 0, n);
+            if (metrics != null) metrics.buffer(buf.size(), buf.capacity());
         }
-        cursor = buf.size();
-        return null;
+
+        return buf.size();
     }
 
     /**
-     * get the next Substring
+     * determine whether the text starting at the parsed position can be 
+     * passed along without tokenizing it.  This is possible when no markup
+     * events are enabled (or there is no content handler) and the next 
+     * position where the flow changes--a skip switch or a pause marker--is
+     * known:  no handler can be called in between, so the parser can jump 
+     * straight to that position, which is assumed to fall on a markup 
+     * boundary.  Events enabled from outside of a handler while in such a 
+     * stretch take effect from its end.  
+     * @return boolean  true if a flow-only stretch has been set up
      */
-    private Substring nextSubstring() throws IOException {
-        Substring out = null;
-        TextBuffer.Iter li = null;
-
-        if (cursor < buf.size()) {
-            li = buf.getSubstring(cursor);
-            if (li.hasNext()) {
-                // get the substring we got last time
-                out = (Substring)li.next();  
-                if (li.hasNext()) {
-                    // now go to next one
-                    cursor += out.str().length() - out.off;
-                    return (Substring)li.next();
-                }
-            }
+    private boolean enterFlowOnly() {
+        if (chandler != null && evts.anyEnabled(MARKUP_EVENTS)) return false;
+
+        long here = cpos + parsed;
+        long to = Long.MAX_VALUE;
+        if (chandler != null) {
+            to = skip.nextSwitchAfter(here);
+            if (pmarks != null) to = Math.min(to, pmarks.nextMarkAfter(here));
+            if (to == Long.MAX_VALUE) return false;
         }
-
-        // need to fetch more characters; return next Substring
-        int upto = buf.size() + 1;
-        int got = fillBuffer(upto);
-        out = getSubstring(upto-1);
-        if (out != null) {
-            out.off = 0;
-            out.len = out.string.length();
-        }
-        return out;
+        flowTo = to;
+        return true;
     }
 
     /**
-     * fill the buffer until contains at least p characters
-     * @return int   the number of characters in the buffer as a result of the
-     *               call to this method.
+     * advance the parsed position through a flow-only stretch by the 
+     * contents of the buffer (reading another chunk if necessary).  When 
+     * skipping, the passed-over text is dropped right away so that a long 
+     * skip is never held in memory.  
+     * @return boolean  false if the end of the stream has been reached
      */
-    private synchronized int fillBuffer(int p) throws IOException {
-        int n, nl;
-        StringBuffer sb = new StringBuffer(Math.max(cbuf.length, 
-                                                    p-buf.size()));
-        while (p > buf.size()) {
-
-            // add text to the buffer.  Each piece of new text should be 
-            // terminated with a newline character to ensure easy parsing.
-            nl = -1;
-            n = cbuf.length;
-            while (nl < 0) {
-                n = src.read(cbuf, 0, cbuf.length);
-                if (n < 0 && srcstack != null) {
-                    while (n < 0 && srcstack.size() > 0) {
-                        src.close();
-                        src = (PushbackReader) srcstack.pop();
-                        n = src.read(cbuf, 0, cbuf.length);
-                    }
-                }
-                if (n < 0) break;
-
-                // find the last newline 
-                nl = n-1;
-                while (nl >= 0 && cbuf[nl] != '\n') nl--;
-                
-                if (nl < 0) 
-                    sb.append(cbuf, 0, n);     // no newline found; add it all
-                else 
-                    sb.append(cbuf, 0, nl+1);  // append up to end of line
-            }
+    private boolean flowStep() throws IOException {
+        if (! available(parsed)) return false;
+        parsed = (int) Math.min(flowTo - cpos, (long) buf.size());
+        if (applySkip() > 0) trimBuffer();
+        return true;
+    }
 
-            buf.append(sb.toString());
-            if (nl >= 0) {
-                src.unread(cbuf, nl+1, n-nl-1);
-            }
-            else if (n < cbuf.length) { 
-                eof = true;
-                break;
-//                return false;
-            }
+    /**
+     * record where n characters just read from the source came from
+     */
+    private void recordSpan(int n) {
+        if (src != msrc) {
+            spans.appendText(n);
+            return;
         }
 
-        return buf.size();
+        // a chunk containing replaced (malformed) input can't be mapped 
+        // back onto the source bytes, so it is passed on as text
+        long b = msrc.getBytesRead();
+        long r = msrc.getReplacementCount();
+        if (r == mreplaced) 
+            spans.appendSource(n, mbytes, b);
+        else
+            spans.appendText(n);
+        mbytes = b;
+        mreplaced = r;
     }
 
     /**
@@ -718,26 +931,16 @@ public class SAXFilteredReader extends Reader {
     void handleChars(int start, int len, boolean whiteIgnorable)
         throws SAXException, IOException
     {
-        if (chandler == null) return;
         int l, m;
 
         // update the locator
         pending = parsed + len;
         loc.setChars(cpos + (long)start, len);
+        if (chandler == null) return;
 
         // copy characters into an array
         char[] sb = new char[len];
-        ListIterator li = buf.getSubstring(start);
-        Substring sub = (Substring)li.next();
-        start = 0;
-        l = Math.min(len, sub.str().length() - sub.off);
-        while (len > 0) {
-            sub.str().getChars(sub.off, sub.off + l, sb, start);
-            len -= l;
-            start += l;
-            if (len > 0) sub = (Substring) li.next();
-            l = Math.min(sub.off+len, sub.str().length());
-        }
+        buf.copy(start, sb, 0, len);
 
         l = 0;
         m = sb.length;
@@ -746,215 +949,157 @@ public class SAXFilteredReader extends Reader {
             // look for leading white space
             for(l = 0; l < sb.length && Character.isWhitespace(sb[l]); l++);
             if (l > 0 && evts.isEnabled(evts.IGNORE_WHITE_SPACE)) 
-                chandler.ignorableWhitespace(sb, 0, l);
+                dispatch.ignorableWhitespace(sb, 0, l);
 
             // look for trailing white space
             for(m = sb.length; m > 0 && Character.isWhitespace(sb[m-1]); m--);
         }
 
         if (l < m) {
-            chandler.characters(sb, l, m - l);
+            dispatch.characters(sb, l, m - l);
             if (m < sb.length && evts.isEnabled(evts.IGNORE_WHITE_SPACE)) 
-                chandler.ignorableWhitespace(sb, m, sb.length - m);
+                dispatch.ignorableWhitespace(sb, m, sb.length - m);
         }
     }
 
     void handleProcInstr(int start, int len) throws SAXException, IOException {
-        if (chandler == null) return;
         int l, m;
 
         // update the locator
         pending = parsed + len;
         loc.setChars(cpos+start, len);
+        if (chandler == null) return;
 
-        ListIterator li = buf.getSubstring(start);
-        Substring sub = (Substring)li.next();
-        m = sub.off+PROC_INSTR_START.length();
-        for(l=m+1; 
-            l < sub.str().length() && 
-                ! Character.isWhitespace(sub.str().charAt(l)); 
-            l++);
-        String target = sub.str().substring(m, l);
-        len -= l-sub.off;
-
-        StringBuffer sb = new StringBuffer();
-        while (len > 0)  {
-            m = Math.min(sub.str().length(), l+len);
-            len -= m - l;
-            if (len <= 0) m -= PROC_INSTR_END.length();
-            sb.append(sub.str().substring(l, m));
-        }
-
-        chandler.processingInstruction(target, sb.toString());
+        // the target runs up to the first white space; the data is the 
+        // rest, minus the leading white space and the closing "?>".
+        m = start + PROC_INSTR_START.length();
+        int end = start + len;
+        if (buf.startsWith(PROC_INSTR_END, end - PROC_INSTR_END.length()))
+            end -= PROC_INSTR_END.length();
+        for(l=m; l < end && ! Character.isWhitespace(buf.charAt(l)); l++);
+        String target = buf.substring(m, l);
+        for(; l < end && Character.isWhitespace(buf.charAt(l)); l++);
+
+        dispatch.processingInstruction(target, buf.substring(l, end));
     }
 
     void handleStartElement(int start, int len)
         throws SAXException, IOException
     {
-        if (chandler == null) return;
-
         // update the locator
         pending = parsed + len;
         loc.setChars(cpos+start, len);
+        if (chandler == null) return;
 
         boolean empty = false;
 
-        // load element tag contents
-        ListIterator li = buf.getSubstring(start);
-        Substring sub = (Substring) li.next();
-        StringBuffer sb = new StringBuffer();
-        int use = 0, suboff = sub.off+1;
-        len--;
-        while (len > 0) {
-            use = Math.min(len, sub.str().length() - suboff);
-            len -= use;
-            if (len <= 0) {
-                if (sub.str().charAt((suboff + use) - 2) == '/') {
-                    empty = true;
-                    use--;
-                }
-                use--;
-            }
-            sb.append(sub.str().substring(suboff, suboff + use));
-            if (len > 0) sub = (Substring)li.next();
-            suboff = 0;
+        // find the extent of the element tag contents
+        int end = start + len;
+        if (end > start+1 && buf.charAt(end - 1) == '>') end--;
+        if (end > start+1 && buf.charAt(end - 1) == '/') {
+            empty = true;
+            end--;
         }
-        StringTokenizer st = new StringTokenizer(sb.toString(), 
-                                                 " \t\n\r\f", true);
 
         // get tag name
-        if (!st.hasMoreTokens()) {
+        int i = Math.min(start+1, end), j = i;
+        while (j < end && ! isSpace(buf.charAt(j))) j++;
+        if (j == i) {
             if (strict)
                 throw new SAXException("Element Tag without a name: " + 
-                                       sb.toString());
+                                       buf.substring(start, start+len));
             return;
         }
-        String elname = st.nextToken();
-        String qelname = elname;
-        String prefix = EMPTYSTR;
+        QNameCache.Entry name = qnames.get(buf, i, j), tag = name;
+        String elname = name.local;
+        String qelname = name.qname;
         String namesp = EMPTYSTR;
-        {
-            int p;
-            if ((p = elname.indexOf(':')) >= 0) {
-                prefix = qelname.substring(0, p);
-                elname = qelname.substring(p + 1);
-            }
-        }
-        if (st.hasMoreTokens())
-            st.nextToken();
+        int nsid = 0, id;
+
+        // an element that has not been subscribed to gets no events; its 
+        // attributes are only parsed if it may declare namespaces
+        boolean deliver = evts.maybeSubscribed(qelname, elname);
 
         // load attributes as desired
-        AttributesImpl tmplist = new AttributesImpl();
-        AttributesImpl attrlist = tmplist;
-        StringBuffer aval = null;
-        if (evts.anyEnabled(evts.ATTRIBUTES|evts.NAMESPACES)) {
-            String attr, qname, nsname, pname, lname;
-            int p, q;
-
-            while (st.hasMoreTokens()) {
-                attr = st.nextToken();
-                if (Character.isWhitespace(attr.charAt(0))) continue;
-
-                // parse attribute name and value
-                p = attr.indexOf('=');
-                if (p < 1 || p > attr.length()-3) {
+        atts.clear();
+        AttributesImpl attrlist = atts;
+        if (evts.anyEnabled(evts.ATTRIBUTES|evts.NAMESPACES) && 
+            (deliver || mayDeclareNamespaces(j, end))) 
+        {
+            String qname, nsname, lname, value;
+            int nend, vend;
+            char quote;
+
+            for(i = j; i < end; i = vend + 1) {
+                while (i < end && isSpace(buf.charAt(i))) i++;
+                if (i >= end) break;
+
+                // parse attribute name
+                j = i;
+                while (j < end && buf.charAt(j) != '=' && 
+                       ! isSpace(buf.charAt(j))) 
+                    j++;
+                nend = j;
+
+                // find the '='; white space on either side of it is allowed
+                while (j < end && isSpace(buf.charAt(j))) j++;
+                if (j >= end || buf.charAt(j) != '=' || nend == i) {
                     if (strict)
-                        throw new SAXException("bad attribute syntax: " + attr);
-                    if (st.hasMoreTokens()) {
-                        // being lenient for errant spaces around = in attributes
-                        // (for HEASARC)
-                        String tmp = st.nextToken();
-                        while (st.hasMoreTokens() && 
-                               (tmp.length() == 0 || tmp.charAt(0) == ' '))
-                            tmp = st.nextToken();
-                        p = tmp.indexOf('=');
-                        if (p == 0) {
-                            // ignore space before =
-                            p = attr.length();
-                            attr += tmp;
-                            if (tmp.length() == 1) {
-                                // ignore space after =
-                                if (! st.hasMoreTokens()) continue;
-                                tmp = st.nextToken();
-                                while (st.hasMoreTokens() && 
-                                       (tmp.length()==0 || tmp.charAt(0)==' '))
-                                    tmp = st.nextToken();
-                                if (tmp.length()==0 || 
-                                    Character.isWhitespace(tmp.charAt(0)))
-                                  continue;
-                                attr += tmp;
-                            }
-                        }
-                        else if (p < 0 || p > tmp.length()-3) {
-                            // give up
-                            continue;
-                        }
-                        else {
-                            attr = tmp;
-                        }
-                    }
-                    else {
-                        continue;
-                    }
-                } 
-                lname = attr.substring(0, p);
-                qname = EMPTYSTR;
-                nsname = EMPTYSTR;
-                pname = EMPTYSTR;
+                        throw new SAXException("bad attribute syntax: " + 
+                                               buf.substring(i, j));
 
-                if (attr.charAt(++p) != '"' && attr.charAt(p) != '\'') {
-                  if (strict)
-                    throw new SAXException("bad attribute syntax: no quotes: "
-                                           + attr);
-                  p--;
+                    // drop the bare name and resume at whatever follows it
+                    vend = j - 1;
+                    if (j < end && buf.charAt(j) == '=') vend = j;
+                    continue;
                 }
-                aval = new StringBuffer(attr.substring(p + 1));
-                if (attr.charAt(p) != '=') {
-                    // we're being strict, so find the ending quote that 
-                    // matches the quote character at position p
-                    q = p + 1;
-                    String tmp = attr;
-                    while(st.hasMoreTokens() && 
-                          (q = tmp.indexOf(attr.charAt(p), q)) < 0)
-                    {
-                        tmp = st.nextToken();
-                        aval.append(tmp);
-                        q = 0;
+                j++;
+                while (j < end && isSpace(buf.charAt(j))) j++;
+
+                // parse attribute value
+                quote = (j < end) ? buf.charAt(j) : ' ';
+                if (quote == '"' || quote == '\'') {
+                    j++;
+                    vend = buf.indexOf(quote, j, end);
+                    if (vend < 0) {
+                        if (strict)
+                            throw new SAXException("bad attribute syntax: " +
+                                                   "missing end quote: " +
+                                                   buf.substring(i, end));
+                        vend = end;
                     }
-
-                    attr = tmp;
                 }
-                if (st.hasMoreTokens()) st.nextToken();
-
-                // lop off possible trailing '>' and '/'
-                if (aval.charAt(aval.length() - 1) == '>') {
-                    aval.deleteCharAt(aval.length() - 1);
-                    if (aval.charAt(aval.length() - 1) == '/')
-                            aval.deleteCharAt(aval.length() - 1);
+                else {
+                    if (strict)
+                        throw new SAXException("bad attribute syntax: " + 
+                                               "no quotes: " +
+                                               buf.substring(i, end));
+                    vend = j;
+                    while (vend < end && ! isSpace(buf.charAt(vend))) vend++;
                 }
+                value = buf.substring(j, vend);   // the parsed attribute val
 
-                // lop off the trailing quote
-                if (aval.charAt(aval.length() - 1) == '"' || 
-                    aval.charAt(aval.length() - 1) == '\'')
-                  aval.deleteCharAt(aval.length() - 1);
-
-                String value = aval.toString();    // the parsed attribute val
+                name = qnames.get(buf, i, nend);
+                lname = name.qname;
+                qname = EMPTYSTR;
+                nsname = EMPTYSTR;
 
                 if (evts.isEnabled(evts.NAMESPACES)) {
                     // check to see if attribute has a namespace prefix
-                    qname = lname;
-                    if ((q = qname.indexOf(':')) >= 0) {
-                        lname = qname.substring(q + 1);
-                        pname = qname.substring(0, q);
+                    qname = name.qname;
+                    if (name.prefix.length() > 0) {
+                        lname = name.local;
 
                         if (evts.isEnabled(evts.PREFIX_MAPPING)) {
-                            if (pname.equals("xmlns")) {
+                            if (name.prefix.equals("xmlns")) {
                                 // register a namespace definition
                                 namespaces.startPrefixMapping(lname, value);
-                                chandler.startPrefixMapping(lname, value);
+                                scopes.declare(name.localId, 
+                                               symbols.intern(value));
+                                dispatch.startPrefixMapping(lname, value);
                             } 
-                            else if (namespaces.getURI(pname) != null) {
-                                nsname = namespaces.getURI(pname);
+                            else if ((id = scopes.uri(name.prefixId)) >= 0) {
+                                nsname = symbols.symbol(id);
                             }
                         }
                     }
@@ -963,60 +1108,82 @@ public class SAXFilteredReader extends Reader {
                     {
                         nsname = value;
                         namespaces.setDefaultNS(nsname);
-                        chandler.startPrefixMapping(EMPTYSTR, value);
+                        scopes.declare(0, symbols.intern(nsname));
+                        dispatch.startPrefixMapping(EMPTYSTR, value);
                     }
                     if (XSI.equals(nsname) && lname.equals("schemaLocation"))
                         namespaces.addLocations(value);
                 }
-                tmplist.addAttribute(nsname, lname, qname, "CDATA", value);
+                atts.addAttribute(nsname, lname, qname, "CDATA", value);
             } 
 
             if (evts.isEnabled(evts.PREFIX_MAPPING)) {
-                if (prefix.length() > 0) {
-                    namesp = namespaces.getURI(prefix);
-                    if (namesp == null) namesp = EMPTYSTR;
-                } 
-                else {
-                    namesp = namespaces.getDefaultNS();
-                }
+                nsid = scopes.uri(tag.prefixId);
+                if (nsid < 0) nsid = 0;
+                namesp = symbols.symbol(nsid);
             }
 
+            selatts.clear();
             if (evts.isEnabled(evts.ATTRIBUTES)) {
+                // the selection for an element depends only on its name 
+                // and namespace, so it is saved with the name
                 Set wantatts = null;
-                if (namesp.length() > 0)
-                    wantatts = evts.attributesFor(namesp + elname);
-                if (wantatts == null && qelname.length() > 0)
-                    wantatts = evts.attributesFor(qelname);
-                if (wantatts == null)
-                    wantatts = evts.attributesFor(elname);
-                if (wantatts == null)
-                    wantatts = evts.attributesFor(EMPTYSTR);
+                int version = evts.getAttrSelVersion();
+                if (tag.attsVersion == version && tag.attsURI == nsid) {
+                    wantatts = (Set) tag.atts;
+                }
+                else {
+                    if (namesp.length() > 0)
+                        wantatts = evts.attributesFor(namesp + elname);
+                    if (wantatts == null && qelname.length() > 0)
+                        wantatts = evts.attributesFor(qelname);
+                    if (wantatts == null)
+                        wantatts = evts.attributesFor(elname);
+                    if (wantatts == null)
+                        wantatts = evts.attributesFor(EMPTYSTR);
+                    tag.atts = wantatts;
+                    tag.attsURI = nsid;
+                    tag.attsVersion = version;
+                }
 
                 if (wantatts != null) {
-                    attrlist = new AttributesImpl();
-                    for(int i = 0; i < tmplist.getLength(); i++) {
-                        if (wantatts.contains(tmplist.getQName(i)))
-                            attrlist.addAttribute(tmplist.getURI(i), 
-                                                  tmplist.getLocalName(i), 
-                                                  tmplist.getQName(i), 
-                                                  tmplist.getType(i), 
-                                                  tmplist.getValue(i));
+                    attrlist = selatts;
+                    for(int k = 0; k < atts.getLength(); k++) {
+                        if (wantatts.contains(atts.getQName(k)))
+                            attrlist.addAttribute(atts.getURI(k), 
+                                                  atts.getLocalName(k), 
+                                                  atts.getQName(k), 
+                                                  atts.getType(k), 
+                                                  atts.getValue(k));
                     }
                 }
             } 
             else {
-                attrlist = new AttributesImpl();
+                attrlist = selatts;
             }
         }
 
+        if (deliver && evts.elementsFiltered()) {
+            String uri = namesp;
+            if (! evts.isEnabled(evts.PREFIX_MAPPING)) {
+                id = scopes.uri(tag.prefixId);
+                uri = (id < 0) ? EMPTYSTR : symbols.symbol(id);
+            }
+            deliver = evts.isSubscribed(uri, elname, qelname);
+        }
+
         namespaces.startElement();
-        chandler.startElement(namesp, elname, qelname, attrlist);
+        scopes.startElement();
+        if (deliver) dispatch.startElement(namesp, elname, qelname, attrlist);
         if (empty) {
             HashSet<String> prefixes = null;
-            if (evts.anyEnabled(evts.PREFIX_MAPPING|evts.NAMESPACES))
-                prefixes = new HashSet<String>();
-            chandler.endElement(namesp, elname, qelname);
+            if (evts.anyEnabled(evts.PREFIX_MAPPING|evts.NAMESPACES)) {
+                prefixes = endedPrefixes;
+                prefixes.clear();
+            }
+            if (deliver) dispatch.endElement(namesp, elname, qelname);
             namespaces.endElement(prefixes);
+            scopes.endElement();
 
             if (evts.anyEnabled(evts.PREFIX_MAPPING|evts.NAMESPACES) && 
                 prefixes != null)
@@ -1024,47 +1191,66 @@ public class SAXFilteredReader extends Reader {
                 if (evts.anyEnabled(evts.PREFIX_MAPPING)) {
                     for(Iterator it = prefixes.iterator(); 
                         it.hasNext(); 
-                        chandler.endPrefixMapping((String)it.next()));
+                        dispatch.endPrefixMapping((String)it.next()));
                 }
             }
         }
     }
 
+    /**
+     * return true if the given character is XML white space
+     */
+    private static final boolean isSpace(char c) {
+        return (c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f');
+    }
+
+    /**
+     * return true if the tag text in the given range of the buffer could
+     * contain a namespace declaration or an xsi:schemaLocation attribute.
+     * This is a conservative test for skipping the attributes of elements
+     * no handler has subscribed to.
+     */
+    private boolean mayDeclareNamespaces(int from, int end) {
+        char c;
+        for(int i=from; i < end; i++) {
+            c = buf.charAt(i);
+            if ((c == 'x' && buf.startsWith("xmlns", i)) ||
+                (c == 'L' && buf.startsWith("Location", i)))
+                return true;
+        }
+        return false;
+    }
+
     void handleEndElement(int start, int len)
         throws SAXException, IOException
     {
-        if (chandler == null) return;
-        int q, p;
-        String prefix, elname, qelname, namesp, uri;
+        String elname, qelname, uri;
         HashSet<String> prefixes = null;
+        int id;
 
         // update the locator
         pending = parsed+len;
         loc.setChars(cpos + (long)start, len);
+        if (chandler == null) return;
 
-        ListIterator li = buf.getSubstring(start);
-        Substring sub = (Substring)li.next();
-
-        int suboff = sub.off + 2;
-        len -= 3;
-        if (suboff+len > sub.str().length())
-            len = sub.str().length()-suboff;
-        elname = sub.str().substring(suboff, suboff + len);
-        qelname = elname;
-        prefix = EMPTYSTR;
-        namesp = EMPTYSTR;
-
-        if ((p = qelname.indexOf(':')) >= 0) {
-            prefix = qelname.substring(0, p);
-            elname = qelname.substring(p + 1);
+        int end = start + len;
+        if (end > start+2 && buf.charAt(end - 1) == '>') end--;
+        while (end > start+2 && Character.isWhitespace(buf.charAt(end - 1))) 
+            end--;
+        QNameCache.Entry name = qnames.get(buf, Math.min(start+2, end), end);
+        elname = name.local;
+        qelname = name.qname;
+
+        if (evts.anyEnabled(evts.NAMESPACES|evts.PREFIX_MAPPING)) {
+            prefixes = endedPrefixes;
+            prefixes.clear();
         }
-
-        if (evts.anyEnabled(evts.NAMESPACES|evts.PREFIX_MAPPING))
-            prefixes = new HashSet<String>();
-        uri = namespaces.getURI(prefix);
-        if (uri == null) uri = EMPTYSTR;
-        chandler.endElement(uri, elname, qelname);
+        id = scopes.uri(name.prefixId);
+        uri = (id < 0) ? EMPTYSTR : symbols.symbol(id);
+        if (evts.isSubscribed(uri, elname, qelname))
+            dispatch.endElement(uri, elname, qelname);
         namespaces.endElement(prefixes);
+        scopes.endElement();
 
         // update the scope of namespace prefixes as necessary
         if (prefixes != null && 
@@ -1074,33 +1260,33 @@ public class SAXFilteredReader extends Reader {
             if (evts.isEnabled(evts.PREFIX_MAPPING)) {
                 for(i = prefixes.iterator(); 
                     i.hasNext(); 
-                    chandler.endPrefixMapping((String)i.next()));
+                    dispatch.endPrefixMapping((String)i.next()));
             }
         }
     }
 
     class PauseMarkers {
-        TreeSet marks;
+        TreeSet<Long> marks;
 
         public PauseMarkers() {
-            marks = new TreeSet();
+            marks = new TreeSet<Long>();
         }
 
         public PauseMarkers(long mark) {
-            marks = new TreeSet();
+            marks = new TreeSet<Long>();
             setMark(mark);
         }
 
         public void setMark(long pos) {
-            marks.add(new Long(pos));
+            marks.add(Long.valueOf(pos));
         }
 
         public long nextMark() {
             if (marks.size() > 0) return -1;
                 
             Long next = null;
-            for(Iterator i = marks.iterator(); i.hasNext();) {
-                next = (Long)i.next();
+            for(Iterator<Long> i = marks.iterator(); i.hasNext();) {
+                next = i.next();
                 if (next.longValue() - cpos - ((long) sent) >= 0)
                     return next.longValue();
             }
@@ -1108,24 +1294,35 @@ public class SAXFilteredReader extends Reader {
             return -1;
         }
 
-        public boolean applyPause(int want, int send[]) {
+        public long nextMarkAfter(long pos) {
+            Long next = marks.higher(Long.valueOf(pos));
+            return (next == null) ? Long.MAX_VALUE : next.longValue();
+        }
+
+        public boolean isEmpty() { return marks.isEmpty(); }
+
+        /**
+         * return the number of the next want characters that can be sent
+         * before pausing.  If a pause falls within them, the pause will
+         * be signaled once they are sent.
+         */
+        public int applyPause(int want) {
             Long next = null;
             long diff = 0;
 
-            send[0] = want;
             while(marks.size() > 0)  {
-                next = (Long) marks.first();
+                next = marks.first();
                 diff = next.longValue() - cpos - (long)sent;
-                if (diff > (long) want) return false;
+                if (diff > (long) want) return want;
                     
                 marks.remove(next);
                 if (diff >= 0L) {
-                    send[0] = (int) diff;
-                    return true;
+                    addpause = true;
+                    return (int) diff;
                 }
             }
 
-            return false;
+            return want;
         }
     }
     
@@ -1189,13 +1386,14 @@ public class SAXFilteredReader extends Reader {
                 throw new IllegalStateException("Too late for insert");
 
             int bpos = (int)(pos - cpos);  // position within buffer
-            if (bpos == buf.size()) {
-                buf.append(chars);
-            } 
-            else if (bpos > buf.size()) {
+            if (bpos > buf.size()) {
                 // FIXME: allow this in the future
                 throw new IllegalStateException("Too soon for insert");
             }
+            if (spans != null) spans.insert(bpos, chars.length());
+            if (bpos == buf.size()) {
+                buf.append(chars);
+            } 
             else {
                 buf.insert(chars, bpos);
             }
@@ -1204,7 +1402,6 @@ public class SAXFilteredReader extends Reader {
             // to the the start of the buffer) is at the parsed position or 
             // before, we will interpret the new text as already parsed.
             if (bpos <= parsed) parsed += chars.length();
-            if (bpos < cursor) cursor += chars.length();
             if (pos <= loc.getCharNumber()) {
                 loc.setChars(loc.getCharNumber()+chars.length(), 
                              loc.getCharLength());
@@ -1214,8 +1411,15 @@ public class SAXFilteredReader extends Reader {
                              loc.getCharLength()+chars.length());
             }
 
+            if (metrics != null) {
+                metrics.inserted += chars.length();
+                metrics.buffer(buf.size(), buf.capacity());
+            }
+
             // update the skip schedule
             skip.insert(pos, chars.length());
+            if (pos < flowTo && flowTo != Long.MAX_VALUE) 
+                flowTo += chars.length();
         }
 
         /**
@@ -1237,7 +1441,9 @@ public class SAXFilteredReader extends Reader {
                 throw new IllegalStateException("Too late for substitution");
 
             int bpos = (int) (pos - cpos);  // position within buffer
+            if (metrics != null) metrics.inserted += chars.length();
             if (bpos == buf.size()) {
+                if (spans != null) spans.insert(bpos, chars.length());
                 buf.append(chars);
             } 
             else if ((bpos + len) - 1 > buf.size()) {
@@ -1245,6 +1451,7 @@ public class SAXFilteredReader extends Reader {
                 throw new IllegalStateException("Too soon for substitution");
             }
             else {
+                if (spans != null) spans.substitute(bpos, len, chars.length());
                 buf.substitute(chars, bpos, len);
 
                 // adjust the parsed marker position
@@ -1262,17 +1469,6 @@ public class SAXFilteredReader extends Reader {
                     }
                 }
 
-                if (bpos+len <= cursor)
-                    // if the end position of what we took out is before the 
-                    // cursor, advance the cursor by the # of extra characters
-                    // added.  (If net loss, cursor is reduced.)
-                    cursor += chars.length() - len;
-                else if (bpos+len > cursor && bpos+chars.length() <= cursor)
-                    // if the range we took out straddled the cursor but 
-                    // the range put in fell below the cursor, move cursor to 
-                    // end of range of characters added.  
-                    cursor = bpos + chars.length();
-
                 // update the locator position
                 if (pos + (long)len <= loc.getCharNumber()) {
                     // substitution range is prior to locator start position:
@@ -1301,10 +1497,8 @@ public class SAXFilteredReader extends Reader {
 
                 // update the skip schedule
                 skip.insert(pos, chars.length() - len);
-
-                // update the buffer iterator
-//              getSubstring((int) (loc.getCharNumber() + loc.getCharLength() +
-//                                  1 - cpos));
+                if (pos < flowTo && flowTo != Long.MAX_VALUE) 
+                    flowTo += chars.length() - len;
             }
         }
 
@@ -1320,40 +1514,19 @@ public class SAXFilteredReader extends Reader {
             srcstack.push(src);
 
             // if our buffer has unparsed characters, push them onto the stack
-            // in the form of StringReaders (wrapped in PushbackReaders).
+            // in the form of a StringReader.
             int pending = ((int) (loc.getCharNumber()-cpos)) + 
                                                            loc.getCharLength();
             if (buf.size() > pending) {
-                ListIterator li = buf.getSubstring(pending);
-                Substring psub = (Substring)li.next();
-                String head = psub.str().substring(0, psub.off);
-                String tail = psub.str().substring(psub.off);
-
-                if (tail.length() > 0)
-                    srcstack.push(
-                        new PushbackReader(new StringReader(tail), 128));
-
-                li = buf.iterAtLast();
-                Substring sub = null;
-                while (li.hasPrevious()) {
-                    sub = (Substring) li.previous();
-                    if (sub == psub) break;
-                    li.remove();
-
-                    srcstack.push(
-                        new PushbackReader(new StringReader(sub.str()), 128));
-                } 
-
-                if (head.length() > 0) {
-                    if (sub == psub)
-                        buf.replace(sub, head);
-                    else
-                        buf.append(head);
-                }
+                srcstack.push(
+                    new StringReader(buf.substring(pending, buf.size())));
+                if (spans != null) spans.truncate(pending);
+                buf.truncate(pending);
             }
 
             // make the new source the current source
-            src = new PushbackReader(source, 128);
+            src = source;
+            if (metrics != null) metrics.pushed(srcstack.size());
         }
 
         /**
@@ -1511,6 +1684,23 @@ public class SAXFilteredReader extends Reader {
             evts.loadAllAttributes();
         }
 
+        /**
+         * send start/end-Element events only for elements with the given 
+         * names.  
+         * @see OnDemandParser#subscribeElements(Set)
+         */
+        public void subscribeElements(Set<QName> names) {
+            evts.subscribeElements(names);
+        }
+
+        /**
+         * return the element names set via subscribeElements() or null if 
+         * events are being sent for all elements.
+         */
+        public Set<QName> getSubscribedElements() {
+            return evts.getSubscribedElements();
+        }
+
         /**
          * return true if given events are enabled
          * @param events   the OR-ed set of events to check
@@ -1550,21 +1740,61 @@ public class SAXFilteredReader extends Reader {
             length = len;
         }
 
+        ContentView view = new ContentView();
+
         public String getContent() {
+            int off = contentOffset();
+            return buf.substring(off, Math.min(off + length, buf.size()));
+        }
+
+        public CharSequence getContentView() {
+            int off = contentOffset();
+            view.set(off, Math.min(off + length, buf.size()) - off);
+            return view;
+        }
+
+        public int getContent(char[] dest, int off) {
+            int from = contentOffset();
+            int n = Math.min(Math.min(length, buf.size() - from), 
+                             dest.length - off);
+            if (n > 0) buf.copy(from, dest, off, n);
+            return Math.max(n, 0);
+        }
+
+        private int contentOffset() {
             if (start < cpos)
                 throw new IllegalStateException("Content missing from memory");
+            return (int)(start - cpos);
+        }
+    }
 
-            StringBuffer sb = new StringBuffer(length);
-            ListIterator li = buf.getSubstring((int)(start - cpos));
-            int need = length; 
-            while (li.hasNext() && need > 0) {
-                Substring sub = (Substring) li.next();
-                sub.len = Math.min(sub.str().length() - sub.off, need);
-                sb.append(sub.toString());
-                need -= sub.len;
-            }
+    /**
+     * a window onto a range of the text buffer
+     */
+    class ContentView implements CharSequence {
+        int off = 0;
+        int len = 0;
+
+        final void set(int off, int len) {
+            this.off = off;
+            this.len = len;
+        }
+
+        public int length() { return len; }
+
+        public char charAt(int i) {
+            if (i < 0 || i >= len) throw new StringIndexOutOfBoundsException(i);
+            return buf.charAt(off + i);
+        }
+
+        public CharSequence subSequence(int begin, int end) {
+            if (begin < 0 || end > len || begin > end)
+                throw new StringIndexOutOfBoundsException(begin);
+            return buf.substring(off + begin, off + end);
+        }
 
-            return sb.toString();
+        public String toString() {
+            return buf.substring(off, off + len);
         }
     }
 } 
@@ -0,0 +1,107 @@
+package ncsa.xml.saxfilter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+import org.xml.sax.ContentHandler;
+
+/**
+ * a thread-safe pool of reusable {@link SAXFilteredReader}s.
+ * <p>
+ * Creating a SAXFilteredReader allocates a number of buffers and tables,
+ * which dominates the cost of filtering a small document.  A pool keeps
+ * readers that are no longer in use so that they can be handed out again
+ * after being {@link SAXFilteredReader#reset(Reader) reset}, with their
+ * buffers and name tables already grown to fit the documents being read.
+ * A reader obtained with {@link #acquire(Reader, ContentHandler) acquire()}
+ * should be given back with {@link #release(SAXFilteredReader) release()}
+ * when the caller is done with it; it must not be used afterward.
+ * Readers that are never released are simply garbage-collected.
+ * <p>
+ * The most recently released reader is handed out first, as it is the
+ * most likely to still be in the processor's cache.
+ */
+public class SAXFilteredReaderPool {
+    private ArrayList<SAXFilteredReader> idle = null;
+    private int maxIdle = 0;
+    private int chunkSize = SAXFilteredReader.DEFAULT_CHUNK_SIZE;
+
+    /**
+     * create a pool
+     * @param maxIdle    the maximum number of unused readers to keep
+     */
+    public SAXFilteredReaderPool(int maxIdle) {
+        this(maxIdle, SAXFilteredReader.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * create a pool
+     * @param maxIdle    the maximum number of unused readers to keep
+     * @param chunkSize  the chunk size to give new readers (see
+     *                     {@link SAXFilteredReader#setChunkSize(int)})
+     */
+    public SAXFilteredReaderPool(int maxIdle, int chunkSize) {
+        if (maxIdle < 0)
+            throw new IllegalArgumentException("maxIdle must not be " +
+                                               "negative: " + maxIdle);
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunk size must be positive: "
+                                               + chunkSize);
+        this.maxIdle = maxIdle;
+        this.chunkSize = chunkSize;
+        idle = new ArrayList<SAXFilteredReader>(Math.min(maxIdle, 64));
+    }
+
+    /**
+     * return a reader for a document
+     * @param source   the source Reader for the document
+     */
+    public SAXFilteredReader acquire(Reader source) {
+        return acquire(source, null);
+    }
+
+    /**
+     * return a reader for a document
+     * @param source   the source Reader for the document
+     * @param ch       a content handler for filtering the XML data; may be
+     *                    null
+     */
+    public SAXFilteredReader acquire(Reader source, ContentHandler ch) {
+        SAXFilteredReader out = null;
+        synchronized (idle) {
+            if (idle.size() > 0) out = idle.remove(idle.size() - 1);
+        }
+
+        if (out == null) {
+            out = new SAXFilteredReader();
+            out.setChunkSize(chunkSize);
+        }
+        out.reset(source);
+        if (ch != null) out.setContentHandler(ch);
+        return out;
+    }
+
+    /**
+     * give back a reader obtained from this pool.  Its source is closed,
+     * and its content handler is dropped.
+     */
+    public void release(SAXFilteredReader rdr) {
+        try { rdr.close(); } catch (IOException ex) { }
+        rdr.setContentHandler(null);
+        rdr.reset(null);
+
+        synchronized (idle) {
+            if (idle.size() < maxIdle) idle.add(rdr);
+        }
+    }
+
+    /**
+     * return the number of unused readers currently held
+     */
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+}
@@ -13,98 +13,238 @@
  */
 package ncsa.xml.saxfilter;
 
-import java.util.Vector;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.SortedMap;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
-
+/**
+ * a schedule of character positions at which a stream should switch 
+ * between skipping and sending characters.  <p>
+ *
+ * Each request to start or stop skipping at a position is kept, along 
+ * with the state it asks for, in a pair of sorted primitive arrays; a 
+ * later request at the same position replaces an earlier one.  The 
+ * effective state at any position is that asked for by the last request 
+ * before it, so requests may be made in any order; redundant requests 
+ * (e.g. a request to start skipping at a position that will already be 
+ * skipped) are simply passed over when the schedule is queried.  
+ * {@link #skippingAt(long) skippingAt()} is answered with a binary search 
+ * and without any boxing, and requests are normally made in increasing 
+ * order, in which case adding them is constant time.  A shift of the 
+ * entire schedule via {@link #insert(long,long) insert()} is applied 
+ * lazily by adjusting a common offset.  <p>
+ *
+ * This class is not thread-safe; it is expected to be protected by the 
+ * lock of the stream that uses it.
+ */
 public class SkipSchedule {
-    TreeMap sched;
+
+    // request positions (less offset) are held in pos[lo] through 
+    // pos[hi-1]; state[i] is the skipping state requested at pos[i].
+    private long[] pos = new long[16];
+    private boolean[] state = new boolean[16];
+    private int lo = 0, hi = 0;
+    private long offset = 0;
     boolean skipping;
 
     public SkipSchedule(boolean startskip) {
-        sched = new TreeMap();
-        skipping = false;
         skipping = startskip;
     }
 
-    public synchronized void skipFrom(long pos) {
+    /**
+     * forget all scheduled switches, setting the current state.  The 
+     * allocated space is kept.
+     */
+    public void reset(boolean startskip) {
+        lo = hi = 0;
+        offset = 0;
+        skipping = startskip;
+    }
+
+    /**
+     * schedule the start of skipping at the given position.  A position
+     * less than or equal to zero turns skipping on immediately.
+     */
+    public void skipFrom(long pos) {
         if(pos <= 0L)
             skipping = true;
         else
-            sched.put(new Long(pos), Boolean.TRUE);
+            put(pos, true);
     }
 
-    public synchronized void skipTo(long pos) {
+    /**
+     * schedule the end of skipping at the given position.  A position
+     * less than or equal to zero turns skipping off immediately.
+     */
+    public void skipTo(long pos) {
         if(pos <= 0L)
             skipping = false;
         else
-            sched.put(new Long(pos), Boolean.FALSE);
+            put(pos, false);
     }
 
-    public synchronized long nextSwitch() {
-        Set keys = sched.keySet();
-        for(Iterator iter = keys.iterator(); iter.hasNext();)
-        {
-            Long pos = (Long)iter.next();
-            if(((Boolean)sched.get(pos)).booleanValue() != skipping)
-                return pos.longValue();
-        }
+    /**
+     * return the position of the next scheduled change in the skipping 
+     * state or Long.MAX_VALUE if there are none.
+     */
+    public long nextSwitch() {
+        return switchFrom(lo, skipping);
+    }
 
-        return 0x7fffffffffffffffL;
+    /**
+     * return the position of the first scheduled change in the skipping 
+     * state after the given position or Long.MAX_VALUE if there are none.
+     */
+    public long nextSwitchAfter(long pos) {
+        if (pos == Long.MAX_VALUE) return Long.MAX_VALUE;
+        int i = lowerBound(pos + 1L);
+        return switchFrom(i, (i > lo) ? state[i-1] : skipping);
     }
 
-    public final synchronized boolean skippingAt(long pos) {
-        SortedMap upto = sched.headMap(new Long(pos));
-        if(upto.size() == 0)
-            return skipping;
-        else
-            return ((Boolean)sched.get(upto.lastKey())).booleanValue();
+    /**
+     * return the skipping state that will be in effect at the given 
+     * position, considering only the switches scheduled before it.
+     */
+    public final boolean skippingAt(long pos) {
+        int i = lowerBound(pos);
+        return (i > lo) ? state[i-1] : skipping;
     }
 
+    /**
+     * return the current skipping state
+     */
     public final boolean skipping() {
         return skipping;
     }
 
-    public synchronized boolean popTo(long pos) {
-        Boolean last = null;
-        Set remove = sched.headMap(new Long(pos + 1L)).keySet();
-        for(Iterator iter = remove.iterator(); iter.hasNext(); iter.remove())
-            last = (Boolean)sched.get(iter.next());
-
-        if(last != null)
-            skipping = last.booleanValue();
+    /**
+     * advance to the given position, applying (and removing) all switches
+     * scheduled at or before it.
+     * @return boolean   the skipping state after advancing
+     */
+    public boolean popTo(long pos) {
+        int i = (pos == Long.MAX_VALUE) ? hi : lowerBound(pos + 1L);
+        if (i > lo) skipping = state[i-1];
+        lo = i;
+        if (lo == hi) {
+            lo = hi = 0;
+            offset = 0;
+        }
         return skipping;
     }
 
-    public synchronized void insert(long start, long change) {
-        if(sched.size() == 0 || change == 0L)
+    /**
+     * shift all switches scheduled after a given position.  This is used 
+     * to account for characters inserted into or removed from the stream.
+     * @param start   the position after which switches should be shifted
+     * @param change  the number of characters to shift by; this may be
+     *                   negative.
+     */
+    public void insert(long start, long change) {
+        if (lo == hi || change == 0L)
+            return;
+
+        int i = lowerBound(start + 1L);
+        if (i == hi) return;
+        if (i == lo) {
+            // the whole schedule is shifted
+            offset += change;
+            return;
+        }
+
+        if (change > 0L || pos[i] + change > pos[i-1]) {
+            for(int j=i; j < hi; j++) pos[j] += change;
             return;
-        java.util.Map.Entry pair = null;
-        Object newpair[] = null;
-        Long pos = null;
-        Vector newentries = new Vector(sched.size());
-        Iterator iter = sched.entrySet().iterator();
-        do
-        {
-            if(!iter.hasNext())
-                break;
-            pair = (java.util.Map.Entry)iter.next();
-            pos = (Long)pair.getKey();
-            if(start < pos.longValue())
-            {
-                newpair = (new Object[] {
-                    new Long(pos.longValue() + change), pair.getValue()
-                });
-                newentries.addElement(((Object) (newpair)));
-                iter.remove();
-            }
-        } while(true);
-        for(iter = newentries.iterator(); iter.hasNext(); sched.put(newpair[0], newpair[1]))
-            newpair = (Object[])iter.next();
+        }
 
+        // removing characters has moved shifted switches onto or before 
+        // earlier ones; re-add them in order so that they replace any 
+        // earlier requests at the same positions.
+        int n = hi - i;
+        long[] moved = new long[n];
+        boolean[] val = new boolean[n];
+        for(int j=0; j < n; j++) {
+            moved[j] = pos[i+j] + offset + change;
+            val[j] = state[i+j];
+        }
+        hi = i;
+        for(int j=0; j < n; j++) put(moved[j], val[j]);
+    }
+
+    /**
+     * return the number of switch requests currently scheduled
+     */
+    public int size() {
+        return hi - lo;
+    }
+
+    /*
+     * return the position of the first request at or after index i that
+     * changes the skipping state from the given one
+     */
+    private long switchFrom(int i, boolean from) {
+        for(; i < hi; i++) {
+            if (state[i] != from) return pos[i] + offset;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /*
+     * record a request for the given skipping state at a given position,
+     * replacing any earlier request at that position.
+     */
+    private void put(long p, boolean val) {
+        if (hi == lo || pos[hi-1] + offset < p) {
+            // the usual case:  requests are made in increasing order
+            if (hi == pos.length) makeRoom();
+            pos[hi] = p - offset;
+            state[hi++] = val;
+            return;
+        }
+
+        int i = lowerBound(p);
+        if (pos[i] + offset == p) {
+            state[i] = val;
+            return;
+        }
+
+        if (hi == pos.length) {
+            makeRoom();
+            i = lowerBound(p);
+        }
+        System.arraycopy(pos, i, pos, i+1, hi - i);
+        System.arraycopy(state, i, state, i+1, hi - i);
+        pos[i] = p - offset;
+        state[i] = val;
+        hi++;
+    }
+
+    private void makeRoom() {
+        if (lo > 0) {
+            System.arraycopy(pos, lo, pos, 0, hi - lo);
+            System.arraycopy(state, lo, state, 0, hi - lo);
+            hi -= lo;
+            lo = 0;
+        }
+        if (hi == pos.length) {
+            long[] use = new long[pos.length * 2];
+            System.arraycopy(pos, 0, use, 0, hi);
+            pos = use;
+            boolean[] usest = new boolean[state.length * 2];
+            System.arraycopy(state, 0, usest, 0, hi);
+            state = usest;
+        }
+    }
+
+    /*
+     * return the index of the first scheduled switch at or after p
+     */
+    private int lowerBound(long p) {
+        long key = p - offset;
+        int l = lo, h = hi, m;
+        while (l < h) {
+            m = (l + h) >>> 1;
+            if (pos[m] < key) 
+                l = m + 1;
+            else
+                h = m;
+        }
+        return l;
     }
 }
@@ -0,0 +1,235 @@
+package ncsa.xml.saxfilter;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * a record of where each character in a SAXFilteredReader's buffer came
+ * from.  The buffer is described as a sequence of runs, each of which is
+ * either a range of bytes copied unchanged from the (memory-mapped) source
+ * file or text that came from somewhere else (an insertion, a substitution,
+ * or a pushed source).  The runs are kept in step with the buffer as
+ * characters are appended, inserted, substituted, and popped off, so that
+ * when characters are sent, the unchanged ones can be written as the
+ * source's original bytes rather than re-encoded.
+ * <p>
+ * Splitting a source run requires knowing how many bytes its characters
+ * occupied in the file; this is computed from the characters themselves,
+ * which is only possible for UTF-8 and single-byte encodings (see
+ * {@link #canCount(Charset)}).
+ */
+class SourceSpans {
+
+    /**
+     * a receiver of the spans making up the characters sent by a reader
+     */
+    interface Sink {
+
+        /**
+         * receive a range of unchanged bytes from the source file
+         * @param pos   the byte offset into the file
+         * @param len   the number of bytes
+         */
+        public void copy(long pos, long len) throws IOException;
+
+        /**
+         * receive characters that did not come unchanged from the source
+         */
+        public void text(char[] chars, int off, int len) throws IOException;
+    }
+
+    private RingTextBuffer buf = null;
+    private boolean utf8 = false;
+
+    // the runs:  bstart = the byte offset of a source run, or -1 for text;
+    // blen = its length in bytes; clen = its length in characters
+    private long[] bstart = new long[16];
+    private long[] blen = new long[16];
+    private int[] clen = new int[16];
+    private int n = 0;
+
+    /**
+     * create a record for the given buffer
+     * @param buf   the buffer whose contents are described
+     * @param cs    the encoding of the source file
+     * @throws IllegalArgumentException  if the encoding's byte lengths
+     *                 cannot be counted
+     */
+    SourceSpans(RingTextBuffer buf, Charset cs) {
+        if (! canCount(cs))
+            throw new IllegalArgumentException("unsupported charset: " + cs);
+        this.buf = buf;
+        utf8 = cs.name().equals("UTF-8");
+    }
+
+    /**
+     * return true if the number of bytes encoding a string of characters
+     * can be determined from the characters alone for the given charset.
+     */
+    static boolean canCount(Charset cs) {
+        if (cs.name().equals("UTF-8")) return true;
+        if (! cs.canEncode()) return false;
+        return cs.newEncoder().maxBytesPerChar() == 1.0f;
+    }
+
+    /**
+     * return the number of runs currently recorded
+     */
+    int size() { return n; }
+
+    /**
+     * record characters appended to the buffer from the source file
+     * @param len     the number of characters appended
+     * @param start   the byte offset of the first character
+     * @param end     the byte offset just past the last character
+     */
+    void appendSource(int len, long start, long end) {
+        if (len <= 0) return;
+        if (n > 0 && bstart[n-1] >= 0 && bstart[n-1] + blen[n-1] == start) {
+            blen[n-1] += end - start;
+            clen[n-1] += len;
+            return;
+        }
+        add(n, start, end - start, len);
+    }
+
+    /**
+     * record characters appended to the buffer from elsewhere
+     */
+    void appendText(int len) {
+        if (len <= 0) return;
+        if (n > 0 && bstart[n-1] < 0) {
+            clen[n-1] += len;
+            return;
+        }
+        add(n, -1, 0, len);
+    }
+
+    /**
+     * record the replacement of len characters at pos by nlen characters
+     * of text.  This must be called before the buffer is changed.
+     */
+    void substitute(int pos, int len, int nlen) {
+        int i = split(pos);
+        int j = split(pos + len);
+        remove(i, j);
+        if (nlen > 0) add(i, -1, 0, nlen);
+    }
+
+    /**
+     * record the insertion of len characters of text at pos.  This must be
+     * called before the buffer is changed.
+     */
+    void insert(int pos, int len) {
+        substitute(pos, 0, len);
+    }
+
+    /**
+     * record the removal of all characters from pos on.  This must be
+     * called before the buffer is changed.
+     */
+    void truncate(int pos) {
+        n = split(pos);
+    }
+
+    /**
+     * record the removal of len characters from the start of the buffer.
+     * This must be called before the buffer is changed.
+     */
+    void pop(int len) {
+        remove(0, split(len));
+    }
+
+    /**
+     * pass the spans making up a range of sent characters to a sink.
+     * @param pos    the position in the buffer of the first character sent
+     * @param chars  an array holding a copy of the sent characters
+     * @param off    the position in chars of the first character sent
+     * @param len    the number of characters sent
+     */
+    void send(int pos, char[] chars, int off, int len, Sink sink)
+        throws IOException
+    {
+        int i = split(pos);
+        int j = split(pos + len);
+        for(; i < j; i++) {
+            if (bstart[i] >= 0)
+                sink.copy(bstart[i], blen[i]);
+            else
+                sink.text(chars, off, clen[i]);
+            off += clen[i];
+        }
+    }
+
+    /**
+     * make sure that a run begins at the given buffer position, splitting
+     * a source run if necessary.
+     * @return int  the index of the run beginning at pos (or n if pos is
+     *                 at or beyond the end of the buffer)
+     */
+    private int split(int pos) {
+        int i = 0, p = 0;
+        while (i < n && p + clen[i] <= pos) p += clen[i++];
+        if (i >= n || p == pos) return i;
+
+        int head = pos - p;
+        if (bstart[i] < 0) {
+            add(i, -1, 0, head);
+        }
+        else {
+            long hb = byteLength(p, pos);
+            add(i, bstart[i], hb, head);
+            bstart[i+1] += hb;
+            blen[i+1] -= hb;
+        }
+        clen[i+1] -= head;
+        return i+1;
+    }
+
+    /**
+     * count the bytes that encode the buffer characters in [from, to)
+     */
+    private long byteLength(int from, int to) {
+        if (! utf8) return to - from;
+
+        long out = 0;
+        char c;
+        for(int i=from; i < to; i++) {
+            c = buf.charAt(i);
+            if (c < 0x80) out += 1;
+            else if (c < 0x800) out += 2;
+            else if (Character.isSurrogate(c)) out += 2;   // 4 per pair
+            else out += 3;
+        }
+        return out;
+    }
+
+    private void add(int i, long start, long len, int chars) {
+        if (n == clen.length) {
+            int cap = n * 2;
+            long[] bs = new long[cap], bl = new long[cap];
+            int[] cl = new int[cap];
+            System.arraycopy(bstart, 0, bs, 0, n);
+            System.arraycopy(blen, 0, bl, 0, n);
+            System.arraycopy(clen, 0, cl, 0, n);
+            bstart = bs; blen = bl; clen = cl;
+        }
+        if (i < n) {
+            System.arraycopy(bstart, i, bstart, i+1, n-i);
+            System.arraycopy(blen, i, blen, i+1, n-i);
+            System.arraycopy(clen, i, clen, i+1, n-i);
+        }
+        bstart[i] = start;
+        blen[i] = len;
+        clen[i] = chars;
+        n++;
+    }
+
+    private void remove(int i, int j) {
+        if (j <= i) return;
+        System.arraycopy(bstart, j, bstart, i, n-j);
+        System.arraycopy(blen, j, blen, i, n-j);
+        System.arraycopy(clen, j, clen, i, n-j);
+        n -= j - i;
+    }
+}
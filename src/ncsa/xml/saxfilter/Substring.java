@@ -29,7 +29,7 @@ public class Substring {
     /**
      * return the entire string held in this class
      */
-    public final String str() { return string; }
+    public String str() { return string; }
 
     Substring(int offset, int length) {
         off = offset;
@@ -51,9 +51,10 @@ public class Substring {
     }
 
     public String toString() {
+        String s = str();
         int n = off + len;
-        if(len <= 0 || n >= string.length())
-            n = string.length();
-        return string.substring(off, n);
+        if(len <= 0 || n >= s.length())
+            n = s.length();
+        return s.substring(off, n);
     }
 }
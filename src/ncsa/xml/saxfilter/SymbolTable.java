@@ -0,0 +1,52 @@
+package ncsa.xml.saxfilter;
+
+import java.util.HashMap;
+
+/**
+ * a table that assigns small integer ids to the names and namespace URIs
+ * encountered while parsing a stream.  Once a string has an id, the
+ * parser can keep per-symbol state in arrays and compare symbols with
+ * <code>==</code> on ints rather than hashing and comparing Strings for
+ * every tag.  Id 0 is always the empty string, which serves as both the
+ * empty prefix and the empty namespace.
+ * <p>
+ * Ids are never reused, so a table lives as long as the parser that owns
+ * it.
+ */
+class SymbolTable {
+
+    private HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    private String[] symbols = new String[64];
+    private int size = 0;
+
+    SymbolTable() {
+        intern("");
+    }
+
+    /**
+     * return the id for a string, assigning a new one if necessary
+     */
+    int intern(String sym) {
+        Integer id = ids.get(sym);
+        if (id != null) return id.intValue();
+
+        if (size >= symbols.length) {
+            String[] tmp = new String[2 * symbols.length];
+            System.arraycopy(symbols, 0, tmp, 0, size);
+            symbols = tmp;
+        }
+        symbols[size] = sym;
+        ids.put(sym, size);
+        return size++;
+    }
+
+    /**
+     * return the string with a given id
+     */
+    String symbol(int id) { return symbols[id]; }
+
+    /**
+     * return the number of ids assigned so far
+     */
+    int size() { return size; }
+}
@@ -17,11 +17,22 @@ import java.util.ListIterator;
 import java.util.NoSuchElementException;
 
 public class TextBuffer {
-    LinkedList deque = new LinkedList();
+    LinkedList<? extends Substring> deque = null;
+    private LinkedList<Substring> strings = null;  // deque, if created here
     int start = 0;  // characters before that at this pos have been discarded
     int length = 0; // the total length the valid data
 
-    public TextBuffer() { }
+    public TextBuffer() {
+        strings = new LinkedList<Substring>();
+        deque = strings;
+    }
+
+    /**
+     * create a buffer that keeps its Substrings in the given list.  The
+     * subclass must override {@link #append(String)}, the only method
+     * here that adds to the list.
+     */
+    TextBuffer(LinkedList<? extends Substring> deque) { this.deque = deque; }
 
     /**
      * return the number of characters currently held in the buffer
@@ -34,7 +45,7 @@ public class TextBuffer {
      */
     public TextBuffer append(String s) {
         if (s.length() > 0) {
-            deque.add(new Substring(s));
+            strings.add(new Substring(s));
             length += s.length();
         }
         return this;
@@ -181,9 +192,9 @@ public class TextBuffer {
         Substring sub = null;
         start += nchars; 
         while (deque.size() > 0 && 
-               start >= ((Substring)deque.getFirst()).string.length())
+               start >= deque.getFirst().string.length())
         {
-            sub = (Substring)deque.removeFirst();
+            sub = deque.removeFirst();
             start -= sub.string.length();
         }
         length -= nchars;
@@ -227,7 +238,7 @@ public class TextBuffer {
      * return the first Substring in this buffer
      */
     public Substring getFirst() {
-        Substring out = (Substring)deque.getFirst();
+        Substring out = deque.getFirst();
         out.off = start;
         out.len = out.string.length() - out.off;
         return out;
@@ -237,7 +248,7 @@ public class TextBuffer {
      * return the first Substring in this buffer
      */
     public Substring getLast() {
-        return (Substring)deque.getLast();
+        return deque.getLast();
     }
 
     /**
@@ -258,6 +269,19 @@ public class TextBuffer {
         length += replacement.length();
     }
 
+    /**
+     * account for a Substring that was removed from the buffer via an Iter
+     * @param sub          the removed Substring
+     * @param afterFirst   true if Substrings remain before the removed one
+     */
+    void removed(Substring sub, boolean afterFirst) {
+        if (afterFirst && start > 0) {
+            length += start;
+            start = 0;
+        }
+        length -= sub.str().length();
+    }
+
     public class Iter implements ListIterator {
         ListIterator li = null;
         Substring last = null;
@@ -290,13 +314,7 @@ public class TextBuffer {
 
         public final void remove() {
             li.remove();
-            if (last != null) {
-                if (li.hasPrevious() && start > 0) {
-                    length += start;
-                    start = 0;
-                }
-                length -= last.str().length();
-            }
+            if (last != null) removed(last, li.hasPrevious());
         }
     }
 
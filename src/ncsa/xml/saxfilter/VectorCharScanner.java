@@ -0,0 +1,41 @@
+package ncsa.xml.saxfilter;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * a {@link CharScanner} that compares a full vector register's worth of 
+ * characters (8 to 32, depending on the hardware) at a time using the 
+ * <code>jdk.incubator.vector</code> API.  
+ * <p>
+ * This class requires Java 16 or later and must be compiled and run with
+ * <code>--add-modules jdk.incubator.vector</code>; the build compiles it 
+ * separately when possible.  It is never referred to directly, so the 
+ * rest of the library works without it.
+ */
+final class VectorCharScanner extends CharScanner {
+
+    private static final VectorSpecies<Short> SPECIES = 
+        ShortVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    int indexOf(char[] a, int from, int to, char c) {
+        int i = from;
+        if (to - from >= LANES) {
+            short s = (short) c;
+            for(int last = to - LANES; i <= last; i += LANES) {
+                int hit = ShortVector.fromCharArray(SPECIES, a, i)
+                                     .compare(VectorOperators.EQ, s)
+                                     .firstTrue();
+                if (hit < LANES) return i + hit;
+            }
+        }
+        for(; i < to; i++) {
+            if (a[i] == c) return i;
+        }
+        return -1;
+    }
+
+    String getName() { return "vector" + LANES; }
+}
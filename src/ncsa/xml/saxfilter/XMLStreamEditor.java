@@ -1,11 +1,16 @@
 package ncsa.xml.saxfilter;
 
 import java.io.Reader;
-import java.io.FileReader;
 import java.io.Writer;
-import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.Iterator;
 
 import javax.xml.namespace.QName;
@@ -68,7 +73,7 @@ public class XMLStreamEditor {
      */
     public void modify(Reader in, Writer out) throws IOException {
         Reader instrm = modifiedReader(in);
-        char[] buf = new char[1024];
+        char[] buf = new char[SAXFilteredReader.DEFAULT_CHUNK_SIZE];
         int n = 0;
         while ((n = instrm.read(buf)) >= 0)
             out.write(buf, 0, n);
@@ -76,28 +81,66 @@ public class XMLStreamEditor {
 
     /**
      * copy the XML content in an input file to an output file, updating the 
-     * data along the way.  
+     * data along the way.  The input file is memory-mapped (see 
+     * {@link MappedFileReader}), and the output is written in the same 
+     * character encoding as the input.  
+     * <p>
+     * When the input is encoded in UTF-8 or a single-byte encoding, the 
+     * parts of the document that the content handlers leave unchanged are 
+     * copied to the output as raw bytes (using 
+     * {@link FileChannel#transferTo(long,long,WritableByteChannel) 
+     * FileChannel.transferTo()}); only inserted or substituted text is 
+     * encoded.  For a document with few edits, this makes the transfer 
+     * largely I/O-bound.  
      * @param in    the file containing the source XML data to update.  
      * @param out   the file to write the updated XML to.  
      */
     public void modify(File in, File out) throws IOException {
-        FileReader instrm = null;
-        FileWriter outstrm = null;
+        MappedFileReader instrm = null;
+        FileInputStream inbytes = null;
+        FileOutputStream outstrm = null;
         try {
-            instrm = new FileReader(in);
-            outstrm = new FileWriter(in);
-            modify(instrm, outstrm);
+            instrm = new MappedFileReader(in);
+            Reader rdr = modifiedReader(instrm);
+            Charset cs = instrm.getCharset();
+            outstrm = new FileOutputStream(out);
+
+            if (rdr instanceof SAXFilteredReader && SourceSpans.canCount(cs)) {
+                inbytes = new FileInputStream(in);
+                FileSpanWriter sink = 
+                    new FileSpanWriter(inbytes.getChannel(), 
+                                       outstrm.getChannel(), cs);
+                ((SAXFilteredReader) rdr).setSpanSink(sink);
+                ((SAXFilteredReader) rdr).setChunkSize(
+                                         SAXFilteredReader.MAPPED_CHUNK_SIZE);
+
+                // the characters read are discarded:  the sink writes them
+                char[] buf = new char[SAXFilteredReader.MAPPED_CHUNK_SIZE];
+                while (rdr.read(buf, 0, buf.length) >= 0) ;
+                sink.finish();
+            }
+            else {
+                Writer w = new BufferedWriter(new OutputStreamWriter(outstrm,
+                                                                     cs));
+                char[] buf = new char[SAXFilteredReader.DEFAULT_CHUNK_SIZE];
+                int n = 0;
+                while ((n = rdr.read(buf)) >= 0)
+                    w.write(buf, 0, n);
+                w.flush();
+            }
         }
         finally {
             if (instrm != null) {
                 try { instrm.close(); } catch (IOException ex) { }
             }
+            if (inbytes != null) {
+                try { inbytes.close(); } catch (IOException ex) { }
+            }
             if (outstrm != null) {
                 try { outstrm.close(); } catch (IOException ex) { }
             }
         }
     }
 
-
 }
 
@@ -0,0 +1,180 @@
+package ncsa.xml.validation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * a utility for turning command-line arguments into a list of input files.
+ * An argument may name a file, a directory, or a glob pattern:
+ * <ul>
+ *   <li> a plain file name is passed through as is (whether or not it
+ *        exists, so that the caller can report missing files). </li>
+ *   <li> a directory is searched recursively for files with one of the
+ *        accepted extensions (".xml" by default). </li>
+ *   <li> a pattern containing <code>*</code>, <code>?</code>, or
+ *        <code>[...]</code> is matched against the files under the
+ *        directory given by its leading, wildcard-free path components.
+ *        <code>*</code> and <code>?</code> do not match across directory
+ *        separators, while <code>**</code> does.  A pattern that matches
+ *        nothing is passed through as is, like a missing file. </li>
+ * </ul>
+ * The files found in a directory or by a pattern are returned in sorted
+ * order so that the result is deterministic.
+ */
+class InputFiles {
+
+    private String[] exts = { ".xml" };
+
+    /**
+     * create a lister that looks for ".xml" files in directories
+     */
+    InputFiles() { }
+
+    /**
+     * create a lister that looks for files with the given extensions in
+     * directories
+     */
+    InputFiles(String[] extensions) {
+        exts = extensions;
+    }
+
+    /**
+     * expand a list of arguments into a list of files
+     */
+    List<String> expand(List<String> args) {
+        List<String> out = new ArrayList<String>();
+        for(String arg : args) expand(arg, out);
+        return out;
+    }
+
+    /**
+     * expand an argument, adding the resulting file names to a list
+     */
+    void expand(String arg, List<String> out) {
+        File f = new File(arg);
+        if (f.isDirectory()) {
+            addDirectory(f, out);
+        }
+        else if (! f.exists() && isPattern(arg)) {
+            int had = out.size();
+            addMatches(arg, out);
+            if (out.size() == had) out.add(arg);
+        }
+        else {
+            out.add(arg);
+        }
+    }
+
+    static boolean isPattern(String arg) {
+        return (arg.indexOf('*') >= 0 || arg.indexOf('?') >= 0 ||
+                arg.indexOf('[') >= 0);
+    }
+
+    private boolean accept(String name) {
+        String lc = name.toLowerCase();
+        for(String ext : exts) {
+            if (lc.endsWith(ext)) return true;
+        }
+        return false;
+    }
+
+    private void addDirectory(File dir, List<String> out) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files);
+        for(File f : files) {
+            if (f.isDirectory())
+                addDirectory(f, out);
+            else if (accept(f.getName()))
+                out.add(f.getPath());
+        }
+    }
+
+    private void addMatches(String pattern, List<String> out) {
+        // split off the leading components that have no wildcards
+        String norm = pattern.replace(File.separatorChar, '/');
+        int wild = norm.length();
+        for(char c : new char[] { '*', '?', '[' }) {
+            int p = norm.indexOf(c);
+            if (p >= 0 && p < wild) wild = p;
+        }
+        int slash = norm.lastIndexOf('/', wild);
+        String base = (slash < 0) ? "." : norm.substring(0, slash+1);
+        String rest = norm.substring(slash+1);
+
+        File basedir = new File(base);
+        if (! basedir.isDirectory()) return;
+
+        Pattern re = Pattern.compile(globToRegex(rest));
+        String prefix = (slash < 0) ? "" : base;
+        addMatches(basedir, "", re, prefix, out);
+    }
+
+    private void addMatches(File dir, String rel, Pattern re, String prefix,
+                            List<String> out)
+    {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files);
+        for(File f : files) {
+            String path = rel + f.getName();
+            if (f.isDirectory())
+                addMatches(f, path + '/', re, prefix, out);
+            else if (re.matcher(path).matches())
+                out.add(new File(prefix + path).getPath());
+        }
+    }
+
+    /**
+     * convert a glob pattern to an equivalent regular expression
+     */
+    static String globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        char c;
+        for(int i=0; i < glob.length(); i++) {
+            c = glob.charAt(i);
+            if (c == '*') {
+                if (i+1 < glob.length() && glob.charAt(i+1) == '*') {
+                    // "**/" matches zero or more directories
+                    i++;
+                    if (i+1 < glob.length() && glob.charAt(i+1) == '/') {
+                        i++;
+                        sb.append("(?:.*/)?");
+                    }
+                    else {
+                        sb.append(".*");
+                    }
+                }
+                else {
+                    sb.append("[^/]*");
+                }
+            }
+            else if (c == '?') {
+                sb.append("[^/]");
+            }
+            else if (c == '[') {
+                int end = glob.indexOf(']', i+1);
+                if (end < 0) {
+                    sb.append("\\[");
+                }
+                else {
+                    String set = glob.substring(i+1, end);
+                    if (set.startsWith("!")) set = "^" + set.substring(1);
+                    sb.append('[').append(set.replace("\\", "\\\\"))
+                      .append(']');
+                    i = end;
+                }
+            }
+            else if ("\\.+()^$|{}".indexOf(c) >= 0) {
+                sb.append('\\').append(c);
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
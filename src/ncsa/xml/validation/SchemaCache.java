@@ -0,0 +1,191 @@
+package ncsa.xml.validation;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+
+/**
+ * a process-wide cache of compiled XML Schemas.
+ * <p>
+ * Compiling a set of XML Schema documents is expensive compared to
+ * validating a small document against them.  This class compiles the
+ * schemas registered in a {@link SchemaLocation} into a
+ * {@link javax.xml.validation.Schema} once and hands back the same
+ * (thread-safe) Schema object to any later request made with the same
+ * list of schema documents in the same order.  (The order matters, as
+ * the schemas are compiled in the order they were added to work around
+ * Xerces bug #30481; see {@link SchemaLocation}.)
+ * <p>
+ * Schemas are compiled outside of the cache's lock:  requests for a set
+ * of schemas that is already being compiled wait for that compilation,
+ * while requests for other sets proceed independently.  The cache holds
+ * at most {@link #getMaxSize() a fixed number} of compiled sets, dropping
+ * the least recently used.
+ * <p>
+ * A SchemaLocation with no mappings yields a Schema that loads schemas
+ * according to the <code>xsi:schemaLocation</code> hints in the documents
+ * being validated.  Documents validated against a Schema with mappings
+ * may also use namespaces that are not mapped; where the underlying
+ * SchemaFactory supports it, these are loaded according to the hints.
+ */
+public class SchemaCache {
+
+    /**
+     * the default maximum number of compiled schema sets kept
+     */
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    private static int maxSize = DEFAULT_MAX_SIZE;
+
+    // ordered by access so that the least recently used set is dropped
+    private static LinkedHashMap<String, FutureTask<Schema>> cache =
+        new LinkedHashMap<String, FutureTask<Schema>>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(
+                                    Map.Entry<String, FutureTask<Schema>> e)
+            {
+                return size() > maxSize;
+            }
+        };
+
+    // the Xerces feature that, when true, restricts validation to the
+    // schemas given when the Schema was compiled
+    static final String USE_GRAMMAR_POOL_ONLY =
+     "http://apache.org/xml/features/internal/validation/schema/use-grammar-pool-only";
+
+    private SchemaCache() { }
+
+    /**
+     * return the compiled Schema for the given set of schema locations,
+     * compiling it if necessary.
+     * @param sl   the schema locations; if null, a Schema relying on
+     *                <code>xsi:schemaLocation</code> hints is returned.
+     * @exception SAXException  if the schemas could not be compiled
+     */
+    public static Schema getSchema(SchemaLocation sl) throws SAXException {
+        String key = (sl == null) ? "" : sl.getMappingKey();
+        final Object[] schemas = (sl == null) ? null : sl.getSchemaList();
+
+        FutureTask<Schema> task = null;
+        boolean mine = false;
+        synchronized (cache) {
+            task = cache.get(key);
+            if (task == null) {
+                task = new FutureTask<Schema>(new Callable<Schema>() {
+                    public Schema call() throws SAXException {
+                        return compile(schemas);
+                    }
+                });
+                cache.put(key, task);
+                mine = true;
+            }
+        }
+
+        if (mine) task.run();
+        try {
+            return task.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SAXException("interrupted while waiting for schemas " +
+                                   "to compile");
+        }
+        catch (ExecutionException ex) {
+            // don't keep the failure; a later request will try again
+            synchronized (cache) {
+                if (cache.get(key) == task) cache.remove(key);
+            }
+
+            Throwable cause = ex.getCause();
+            if (cause instanceof SAXException) throw (SAXException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new SAXException("Failed to compile schemas: " +
+                                   cause.getMessage());
+        }
+    }
+
+    /**
+     * remove all compiled schemas from the cache.  This can be used to
+     * force schemas to be reloaded (e.g. after they have been edited).
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * return the number of compiled schema sets currently in the cache
+     */
+    public static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * return the maximum number of compiled schema sets kept in the cache
+     */
+    public static int getMaxSize() {
+        synchronized (cache) {
+            return maxSize;
+        }
+    }
+
+    /**
+     * set the maximum number of compiled schema sets kept in the cache.
+     * If more than this many are currently held, the least recently used
+     * are dropped.
+     * @throws IllegalArgumentException  if size is less than one
+     */
+    public static void setMaxSize(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("cache size must be " +
+                                               "positive: " + size);
+        synchronized (cache) {
+            maxSize = size;
+            Iterator<String> it = cache.keySet().iterator();
+            for(int n = cache.size(); n > maxSize; n--) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * compile the given schema documents, in the given order
+     */
+    static Schema compile(Object[] schemas) throws SAXException {
+        SchemaFactory sf =
+            SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        if (schemas == null || schemas.length == 0)
+            return sf.newSchema();
+
+        // let documents use namespaces beyond those given, loading their
+        // schemas via xsi:schemaLocation hints
+        try {
+            sf.setFeature(USE_GRAMMAR_POOL_ONLY, false);
+        }
+        catch (SAXNotRecognizedException ex) { }
+        catch (SAXNotSupportedException ex) { }
+
+        Source[] sources = new Source[schemas.length];
+        for(int i=0; i < schemas.length; i++)
+            sources[i] = new StreamSource((String) schemas[i]);
+        return sf.newSchema(sources);
+    }
+}
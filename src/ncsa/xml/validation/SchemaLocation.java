@@ -318,6 +318,22 @@ public class SchemaLocation implements Cloneable {
         return out;
     }
 
+    /**
+     * return a string that uniquely identifies the list of schema 
+     * documents returned by {@link #getSchemaList()}, in order.  Because
+     * the order in which schemas are compiled can matter (see the class 
+     * documentation), two SchemaLocation objects return equal keys only if
+     * they list the same schema documents in the same order.  This is used 
+     * to look up compiled schemas in a {@link SchemaCache}.
+     */
+    String getMappingKey() {
+        Object[] schemas = getSchemaList();
+        StringBuilder out = new StringBuilder();
+        for(int i=0; i < schemas.length; i++) 
+            out.append(schemas[i]).append('\n');
+        return out.toString();
+    }
+
     /**
      * look for schemaLocation files in the classpath and on local disk
      * and load their contents.  This method will look in the following places
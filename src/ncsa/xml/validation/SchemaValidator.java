@@ -0,0 +1,149 @@
+package ncsa.xml.validation;
+
+import java.io.Reader;
+import java.io.PrintWriter;
+import java.io.IOException;
+
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * a validator that checks XML documents against a set of XML Schemas
+ * compiled once and shared via the {@link SchemaCache}.  Documents are
+ * validated as a SAX stream; no DOM is built.
+ * <p>
+ * A single SchemaValidator may be used from multiple threads at once.
+ */
+public class SchemaValidator {
+
+    private Schema schema = null;
+    private ThreadLocal<Validator> validators = new ThreadLocal<Validator>();
+
+    /**
+     * create the validator
+     * @param sl   the locations of the schemas to validate against; if null,
+     *               the <code>xsi:schemaLocation</code> hints in the
+     *               documents will be used.
+     * @exception SAXException  if the schemas could not be compiled
+     */
+    public SchemaValidator(SchemaLocation sl) throws SAXException {
+        this(SchemaCache.getSchema(sl));
+    }
+
+    /**
+     * create the validator from a compiled Schema
+     */
+    public SchemaValidator(Schema schema) {
+        if (schema == null) throw new NullPointerException("schema");
+        this.schema = schema;
+    }
+
+    /**
+     * return the compiled Schema used by this validator
+     */
+    public Schema getSchema() { return schema; }
+
+    /**
+     * validate the XML document on the given stream
+     * @param doc     the document to validate
+     * @param errors  a stream to write error messages to; if null, no
+     *                  messages will be written.
+     * @param systemId  the system ID (e.g. file name) of the document to
+     *                  use in error messages; can be null.
+     * @return boolean  true if the document is valid
+     */
+    public boolean validate(Reader doc, PrintWriter errors, String systemId)
+        throws IOException
+    {
+        Validator v = validators.get();
+        if (v == null) {
+            v = schema.newValidator();
+            validators.set(v);
+        }
+        else {
+            v.reset();
+        }
+
+        Handler eh = new Handler(errors);
+        v.setErrorHandler(eh);
+
+        InputSource in = new InputSource(doc);
+        if (systemId != null) in.setSystemId(systemId);
+        try {
+            v.validate(new SAXSource(in));
+            return eh.okay;
+        }
+        catch (SAXException ex) {
+            eh.print("ABORT", ex);
+            return false;
+        }
+    }
+
+    /**
+     * validate the XML document on the given stream
+     * @param doc     the document to validate
+     * @param errors  a stream to write error messages to; if null, no
+     *                  messages will be written.
+     * @return boolean  true if the document is valid
+     */
+    public boolean validate(Reader doc, PrintWriter errors)
+        throws IOException
+    {
+        return validate(doc, errors, null);
+    }
+
+    static class Handler implements ErrorHandler {
+        PrintWriter out = null;
+        boolean okay = true;
+
+        public Handler(PrintWriter errors) {
+            out = errors;
+        }
+
+        public void error(SAXParseException ex) {
+            okay = false;
+            print("ERROR", ex);
+        }
+
+        public void warning(SAXParseException ex) {
+            print("WARNING", ex);
+        }
+
+        public void fatalError(SAXParseException ex) throws SAXException {
+            okay = false;
+            print("FAILURE", ex);
+            throw ex;
+        }
+
+        void print(String level, SAXException ex) {
+            if (out != null) {
+                out.print('[');
+                out.print(level);
+                out.print(']');
+
+                if (ex instanceof SAXParseException) {
+                    SAXParseException pex = (SAXParseException) ex;
+                    String file = pex.getSystemId();
+                    int index = -1;
+                    if (file != null && (index=file.lastIndexOf('/')) > -1)
+                        file = file.substring(index+1);
+
+                    out.print(' ');
+                    out.print(file);
+                    out.print(':');
+                    out.print(pex.getLineNumber());
+                    out.print(':');
+                    out.print(pex.getColumnNumber());
+                }
+                out.print(": ");
+                out.println(ex.getMessage());
+            }
+        }
+    }
+}
@@ -8,33 +8,39 @@ import java.io.File;
 import java.io.PrintWriter;
 import java.io.PrintStream;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import javax.xml.parsers.DocumentBuilder; 
-import javax.xml.parsers.DocumentBuilderFactory; 
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.xml.sax.helpers.DefaultHandler;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.Locator;
-import org.xml.sax.SAXParseException;
-import org.w3c.dom.Document;
 
 /**
  * an application that will validate an XML document against the XML Schemas 
- * that it references.  
+ * that it references.  The schemas are compiled once (see 
+ * {@link SchemaCache}) and documents are validated as SAX streams via a 
+ * {@link SchemaValidator}.
  */
 public class Validate {
 
-    DocumentBuilderFactory fact = DocumentBuilderFactory.newInstance();
+    SchemaLocation sl = null;
+    SchemaValidator validator = null;
 
     /**
      * validate a list of files
      */
     public static void main(String[] args) {
-        CmdLine cl = new CmdLine("qshS:");
+        CmdLine cl = new CmdLine("qshS:j:");
         try {
             cl.setCmdLine(args);
         }
@@ -75,39 +81,162 @@ public class Validate {
             }
         }
 
-        Validate v = new Validate(sl);
+        int nthreads = 1;
+        if (cl.isSet('j')) {
+            try {
+                nthreads = Integer.parseInt(cl.getValue('j'));
+                if (nthreads < 1) throw new NumberFormatException();
+            }
+            catch (NumberFormatException ex) {
+                if (! silent)
+                    System.err.println("Bad value for -j (need a positive " +
+                                       "integer): " + cl.getValue('j'));
+                System.exit(2);
+            }
+        }
+
+        // expand directories and patterns into a list of files
+        List<String> names = new ArrayList<String>();
+        for(Enumeration e = cl.arguments(); e.hasMoreElements();) 
+            names.add((String) e.nextElement());
+        List<String> files = new InputFiles().expand(names);
 
+        Validate v = new Validate(sl);
         PrintWriter out = null;
         if (! quiet) out = new PrintWriter(System.out, true);
+
+        System.exit(v.validateFiles(files, nthreads, out, 
+                                    (silent) ? null : System.err));
+    }
+
+    /**
+     * validate a list of files using a pool of threads and report the 
+     * results in the order of the given list.  
+     * @param files     the names of the files to validate
+     * @param nthreads  the number of files to validate at a time
+     * @param out       where to write validation messages and results; 
+     *                     if null, nothing will be written
+     * @param err       where to write messages about files that could not 
+     *                     be validated (e.g. because they could not be 
+     *                     read); if null, nothing will be written
+     * @return int   an aggregate status: 0 if all files are valid, 1 if 
+     *                  any are invalid, or 2 if any could not be validated.
+     */
+    public int validateFiles(List<String> files, int nthreads, 
+                             PrintWriter out, PrintStream err) 
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+        LinkedList<Future<Result>> pending = new LinkedList<Future<Result>>();
+        int window = 4 * nthreads;
         int exit = 0;
-        String xmlfile = null;
 
-        for(Enumeration e = cl.arguments(); e.hasMoreElements();) {
-            try {
-                xmlfile = (String) e.nextElement();
-                if (v.validate(new FileReader(xmlfile), out)) {
-                    if (out != null) {
-                        out.print(xmlfile);
-                        out.println(": valid!");
-                    }
-                }
-                else {
-                    if (out != null) {
-                        System.out.print(xmlfile);
-                        System.out.println(": not valid.");
-                    }
-                    exit = 1;
+        try {
+            Iterator<String> it = files.iterator();
+            while (it.hasNext() || ! pending.isEmpty()) {
+
+                // keep a limited number of files in flight so that the 
+                // results awaiting their turn to print stay bounded
+                while (it.hasNext() && pending.size() < window) 
+                    pending.add(pool.submit(new Task(it.next(), 
+                                                     out != null)));
+
+                Result res = null;
+                try {
+                    res = pending.removeFirst().get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return 2;
+                } catch (ExecutionException ex) {
+                    res = new Result(null, 2, null, ex.getCause());
                 }
-            } catch (Exception ex) {
-                if (! silent) {
-                    System.err.print("Validation failed: ");
-                    System.err.println(ex.getMessage());
+
+                res.report(out, err);
+                if (res.status > exit) exit = res.status;
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        return exit;
+    }
+
+    /**
+     * the outcome of validating one file
+     */
+    static class Result {
+        String file;
+        int status;          // 0 = valid, 1 = invalid, 2 = failed
+        String messages;
+        Throwable failure;
+
+        Result(String file, int status, String messages, Throwable failure) {
+            this.file = file;
+            this.status = status;
+            this.messages = messages;
+            this.failure = failure;
+        }
+
+        void report(PrintWriter out, PrintStream err) {
+            if (out != null && messages != null) out.print(messages);
+            if (status == 2) {
+                if (err != null) {
+                    err.print("Validation failed: ");
+                    if (file != null) err.print(file + ": ");
+                    err.println(failure.getMessage());
                 }
-                System.exit(2);
             }
+            else if (out != null) {
+                out.print(file);
+                out.println((status == 0) ? ": valid!" : ": not valid.");
+            }
+        }
+    }
+
+    /**
+     * a job that validates a single file
+     */
+    class Task implements Callable<Result> {
+        String file;
+        boolean keepMessages;
+
+        Task(String file, boolean keepMessages) {
+            this.file = file;
+            this.keepMessages = keepMessages;
         }
 
-        System.exit(exit);
+        public Result call() {
+            StringWriter msgs = null;
+            PrintWriter pw = null;
+            if (keepMessages) {
+                msgs = new StringWriter();
+                pw = new PrintWriter(msgs);
+            }
+
+            Reader rdr = null;
+            try {
+                if (InputFiles.isPattern(file) && ! new File(file).exists())
+                    throw new FileNotFoundException("no files match");
+                rdr = new FileReader(file);
+                boolean ok = validate(rdr, pw, 
+                                      new File(file).toURI().toString());
+                if (pw != null) pw.flush();
+                return new Result(file, (ok) ? 0 : 1, 
+                                  (msgs == null) ? null : msgs.toString(), 
+                                  null);
+            }
+            catch (Exception ex) {
+                if (pw != null) pw.flush();
+                return new Result(file, 2, 
+                                  (msgs == null) ? null : msgs.toString(), 
+                                  ex);
+            }
+            finally {
+                if (rdr != null) {
+                    try { rdr.close(); } catch (IOException ex) { }
+                }
+            }
+        }
     }
 
     /**
@@ -115,8 +244,7 @@ public class Validate {
      */
     public Validate(SchemaLocation sl) {
         if (sl == null) sl = new SchemaLocation(getClass());
-
-        ValidationUtils.setForXMLValidation(fact, sl);
+        this.sl = sl;
     }
 
     /**
@@ -126,76 +254,44 @@ public class Validate {
         this(null);
     }
 
+    /**
+     * return the underlying validator, compiling the schemas (or fetching 
+     * them from the {@link SchemaCache}) on first use.
+     */
+    synchronized SchemaValidator getValidator() 
+        throws ParserConfigurationException
+    {
+        if (validator == null) {
+            try {
+                validator = new SchemaValidator(sl);
+            } catch (SAXException ex) {
+                throw new ParserConfigurationException("Failed to load " + 
+                                                       "schemas: " + 
+                                                       ex.getMessage());
+            }
+        }
+        return validator;
+    }
+
     /**
      * validate the XML document on the given stream
      */
     public boolean validate(Reader doc, PrintWriter errors) 
          throws ParserConfigurationException, IOException
     {
-        DocumentBuilder db = fact.newDocumentBuilder();
-        Handler eh = new Handler(errors);
-        db.setErrorHandler(eh);
-
-        try {
-            Document result = db.parse(new InputSource(doc));
-            return (result != null && eh.okay);
-        }
-        catch (SAXException ex) {
-            eh.print("ABORT", ex);
-            return false;
-        }
+        return getValidator().validate(doc, errors);
     }
 
-    class Handler extends DefaultHandler {
-        PrintWriter out = null;
-        Locator loc = null;
-        boolean okay = true;
-
-        public Handler(PrintWriter errors) {
-            out = errors;
-        }
-
-        public void setDocumentLocator(Locator locator) {
-            loc = locator;
-        }
-
-        public void error(SAXParseException ex) {
-            okay = false;
-            print("ERROR", ex);
-        }
-
-        public void warning(SAXParseException ex) {
-            print("WARNING", ex);
-        }
-
-        public void fatalError(SAXParseException ex) {
-            okay = false;
-            print("FAILURE", ex);
-        }
-
-        void print(String level, SAXException ex) {
-            if (out != null) {
-                out.print('[');
-                out.print(level);
-                out.print(']');
-
-                if (loc != null) {
-                    String file = loc.getSystemId();
-                    int index = -1;
-                    if (file != null && (index=file.lastIndexOf('/')) > -1) 
-                        file = file.substring(index+1);
-
-                    out.print(' ');
-                    out.print(file);
-                    out.print(':');
-                    out.print(loc.getLineNumber());
-                    out.print(':');
-                    out.print(loc.getColumnNumber());
-                }
-                out.print(": ");
-                out.println(ex.getMessage());
-            }
-        }
+    /**
+     * validate the XML document on the given stream
+     * @param doc       the document to validate
+     * @param errors    where to write error messages; can be null.
+     * @param systemId  the name of the document to use in error messages
+     */
+    public boolean validate(Reader doc, PrintWriter errors, String systemId) 
+         throws ParserConfigurationException, IOException
+    {
+        return getValidator().validate(doc, errors, systemId);
     }
 
     /**
@@ -203,17 +299,25 @@ public class Validate {
      * @param out    the stream to write to
      */
     public static void usage(PrintStream out) {
-        out.println("validate [ -qh ] [ -S schemaLocFile ] xmlfile ...");
+        out.println("validate [ -qsh ] [ -j N ] [ -S schemaLocFile ] " +
+                    "xmlfile|dir|pattern ...");
         out.println("  -h      print this usage (ignore all other input)");
         out.println("  -q      print nothing to standard out; only set " + 
                               "the exit code");
         out.println("  -s      print nothing to standard out or error; only " + 
                               "set the exit code");
+        out.println("  -j N    validate N files at a time (default: 1)");
         out.println("  -S schemaLocFile  set the schema cache via a schema " +
                               "location file");
         out.println("Each line in a schemaLocFile gives a namespace, a space, " +
                     "and local file path.");
         out.println("The file path is the location of the Schema (.xsd) document"
                     + " for that namespace.");
+        out.println("A directory argument is searched recursively for .xml " +
+                    "files; a quoted pattern");
+        out.println("(e.g. 'data/**/*.xml') selects matching files.  Results " +
+                    "are listed in input order.");
+        out.println("Exit code: 0 if all valid, 1 if any not valid, 2 if any " +
+                    "could not be validated.");
     }
 }
@@ -13,7 +13,11 @@ import javax.xml.parsers.DocumentBuilderFactory;
  * in that validation will only work if they are loaded in a particular order:
  * when schemas include other schemas, the inner most included schemas must 
  * loaded first.  This requirement is passed onto the SchemaLocation object.  
+ * @deprecated  use {@link SchemaCache} to compile the schemas registered in
+ *              a SchemaLocation once, and a {@link SchemaValidator} to 
+ *              validate documents against them.
  */
+@Deprecated
 public class ValidationUtils {
 
     private static Boolean java14 = null;
@@ -0,0 +1,38 @@
+package ncsa.xml.extractor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ExtractingParserTest {
+
+    @Test
+    public void testReset() throws IOException {
+        String doc1 = ParallelExtractorTest.makeDoc(30);
+        String doc2 = "<?xml version=\"1.1\"?>\n<x xmlns=\"urn:x\">" +
+                      "<rec>a</rec><rec>b</rec></x>";
+
+        ExtractingParser fresh = new ExtractingParser(new StringReader(doc2));
+        fresh.extractElement("rec");
+        List<String> expect = StructureIndexTest.extractAll(fresh);
+        assertEquals(2, expect.size());
+        assertTrue(expect.get(0).startsWith("<?xml version=\"1.1\"?>"));
+
+        // abandon the first document part way through
+        ExtractingParser ep = new ExtractingParser(new StringReader(doc1));
+        ep.extractElement("rec");
+        Reader node = ep.nextNode();
+        ParallelExtractorTest.readAll(node);
+        ep.nextNode().read();
+
+        ep.reset(new StringReader(doc2));
+        assertEquals(expect, StructureIndexTest.extractAll(ep));
+
+        ep.reset(new StringReader(doc1));
+        assertEquals(30, StructureIndexTest.extractAll(ep).size());
+    }
+}
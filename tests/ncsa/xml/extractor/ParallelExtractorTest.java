@@ -0,0 +1,76 @@
+package ncsa.xml.extractor;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ParallelExtractorTest {
+
+    static String makeDoc(int n) {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\n");
+        sb.append("<recs xmlns:a=\"urn:a\">\n");
+        for(int i=0; i < n; i++) 
+            sb.append("  <rec id=\"").append(i).append("\"><a:v>")
+              .append(i*i).append("</a:v></rec>\n");
+        sb.append("</recs>\n");
+        return sb.toString();
+    }
+
+    static String readAll(Reader r) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[64];
+        int n;
+        while ((n = r.read(buf, 0, buf.length)) >= 0) sb.append(buf, 0, n);
+        return sb.toString();
+    }
+
+    @Test
+    public void testAllNodesHandled() throws Exception {
+        ExtractingParser ep = new ExtractingParser(new StringReader(makeDoc(200)));
+        ep.extractElement("rec");
+        final Map<Long, String> got = new TreeMap<Long, String>();
+
+        ParallelExtractor px = new ParallelExtractor(ep, 4, 3);
+        long count = px.extract(new ExtractedNodeHandler() {
+            public void handleNode(long index, Reader node) throws Exception {
+                String s = readAll(node);
+                synchronized (got) { got.put(index, s); }
+            }
+        });
+
+        assertEquals(200, count);
+        assertEquals(200, got.size());
+        for(long i=0; i < 200; i++) {
+            String s = got.get(i);
+            assertTrue(s.indexOf("<rec id=\"" + i + "\"") >= 0);
+            assertTrue(s.indexOf("xmlns:a=\"urn:a\"") >= 0);
+            assertTrue(s.trim().endsWith("</rec>"));
+        }
+    }
+
+    @Test
+    public void testHandlerFailure() throws Exception {
+        ExtractingParser ep = new ExtractingParser(new StringReader(makeDoc(50)));
+        ep.extractElement("rec");
+
+        ParallelExtractor px = new ParallelExtractor(ep, 2, 1);
+        try {
+            px.extract(new ExtractedNodeHandler() {
+                public void handleNode(long index, Reader node) 
+                    throws Exception 
+                {
+                    if (index == 10) throw new IllegalStateException("bad");
+                }
+            });
+            fail("handler failure not reported");
+        }
+        catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ncsa.xml.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PartitionedExtractorTest {
+
+    @Test
+    public void testMatchesSequential() throws Exception {
+        String doc = StructureIndexTest.makeDoc("UTF-8", 300);
+        File xml = StructureIndexTest.writeDoc(doc, "UTF-8");
+
+        ExtractingParser ep = new ExtractingParser(new StringReader(doc));
+        ep.extractElement("rec");
+        List<String> expect = StructureIndexTest.extractAll(ep);
+
+        for(int workers : new int[] { 1, 3, 8 }) {
+            final Map<Long, String> got = new TreeMap<Long, String>();
+            PartitionedExtractor px = new PartitionedExtractor(xml, workers);
+            px.extractElement("rec");
+            long count = px.extract(new ExtractedNodeHandler() {
+                public void handleNode(long index, Reader node)
+                    throws Exception
+                {
+                    String s = ParallelExtractorTest.readAll(node);
+                    synchronized (got) { got.put(index, s); }
+                }
+            });
+
+            assertEquals(expect.size(), count);
+            assertEquals(expect, new java.util.ArrayList<String>(got.values()));
+        }
+    }
+
+    @Test
+    public void testOutermostOnly() throws Exception {
+        String doc = "<a><b><b/></b><c><b>x</b></c><b/></a>";
+        File xml = StructureIndexTest.writeDoc(doc, "UTF-8");
+        PartitionedExtractor px = new PartitionedExtractor(xml, 2);
+        px.extractElement("b");
+        px.setReturnsDoc(false);
+        final Map<Long, String> got = new TreeMap<Long, String>();
+        long count = px.extract(new ExtractedNodeHandler() {
+            public void handleNode(long index, Reader node) throws Exception {
+                String s = ParallelExtractorTest.readAll(node);
+                synchronized (got) { got.put(index, s); }
+            }
+        });
+        assertEquals(3, count);
+        assertEquals("{0=<b><b/></b>, 1=<b>x</b>, 2=<b/>}", got.toString());
+    }
+
+    @Test
+    public void testHandlerFailure() throws Exception {
+        File xml = StructureIndexTest.writeDoc(
+            StructureIndexTest.makeDoc("UTF-8", 100), "UTF-8");
+        PartitionedExtractor px = new PartitionedExtractor(xml, 4);
+        px.extractElement("rec");
+        try {
+            px.extract(new ExtractedNodeHandler() {
+                public void handleNode(long index, Reader node)
+                    throws Exception
+                {
+                    if (index == 50) throw new IllegalStateException("bad");
+                }
+            });
+            fail("handler failure not reported");
+        }
+        catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testIndexCoverage() throws Exception {
+        File xml = StructureIndexTest.writeDoc(
+            StructureIndexTest.makeDoc("UTF-8", 30), "UTF-8");
+        ExtractedNodeHandler ignore = new ExtractedNodeHandler() {
+            public void handleNode(long index, Reader node) { }
+        };
+
+        // a saved index that lacks the elements is passed over
+        Set<QName> select = new HashSet<QName>();
+        select.add(new QName("grp"));
+        StructureIndex grps = StructureIndex.build(xml, select);
+        File idx = StructureIndex.sidecarFor(xml);
+        idx.deleteOnExit();
+        grps.write(idx);
+        PartitionedExtractor px = new PartitionedExtractor(xml, 2);
+        px.extractElement("rec");
+        assertEquals(40, px.extract(ignore));
+
+        // while one given explicitly is an error
+        px = new PartitionedExtractor(xml, grps, 2, null);
+        px.extractElement("rec");
+        try {
+            px.extract(ignore);
+            fail("index lacking extracted elements was used");
+        }
+        catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().indexOf(
+                           "does not include") > 0);
+        }
+    }
+}
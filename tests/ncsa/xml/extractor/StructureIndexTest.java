@@ -0,0 +1,145 @@
+package ncsa.xml.extractor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StructureIndexTest {
+
+    static String makeDoc(String enc, int n) {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"")
+            .append(enc).append("\"?>\n");
+        sb.append("<recs xmlns:a=\"urn:a\" xmlns:xsi=")
+          .append("\"http://www.w3.org/2001/XMLSchema-instance\" ")
+          .append("xsi:schemaLocation=\"urn:a http://x/a.xsd\">\n");
+        for(int i=0; i < n; i++) {
+            sb.append("  <rec id=\"").append(i).append("\"><a:v>")
+              .append("\u00e9t\u00e9 ").append(i).append("</a:v></rec>\n");
+            if (i % 3 == 0)
+                sb.append("  <grp xmlns=\"urn:d\"><rec>d").append(i)
+                  .append("</rec></grp>\n");
+        }
+        sb.append("</recs>\n");
+        return sb.toString();
+    }
+
+    static File writeDoc(String doc, String enc) throws IOException {
+        File out = File.createTempFile("sitest", ".xml");
+        out.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(out);
+        fos.write(doc.getBytes(enc));
+        fos.close();
+        return out;
+    }
+
+    static List<String> extractAll(Extractor ex) throws IOException {
+        List<String> out = new ArrayList<String>();
+        Reader node;
+        while ((node = ex.nextNode()) != null)
+            out.add(ParallelExtractorTest.readAll(node));
+        return out;
+    }
+
+    @Test
+    public void testPositions() throws IOException {
+        for(String enc : new String[] { "UTF-8", "UTF-16", "ISO-8859-1" }) {
+            String doc = makeDoc(enc, 20);
+            File xml = writeDoc(doc, enc);
+            StructureIndex si = StructureIndex.build(xml);
+            assertTrue(si.hasBytePositions());
+            assertEquals(1 + 2*20 + 2*7, si.size());
+            assertEquals("recs", si.getQName(0));
+            assertEquals(1, si.getDepth(0));
+            assertEquals(2, si.getDepth(3));
+            assertEquals(3, si.getDepth(4));
+            assertEquals(new QName("urn:a", "v"), si.getName(2));
+            assertTrue(si.getXMLDecl().startsWith("<?xml"));
+
+            byte[] bytes = doc.getBytes(enc);
+            int off = (enc.equals("UTF-16")) ? 2 : 0;
+            for(int i=0; i < si.size(); i++) {
+                String el = doc.substring((int) si.getStartChar(i),
+                                          (int) si.getEndChar(i));
+                assertTrue(el, el.startsWith("<" + si.getQName(i)));
+                assertTrue(el, el.endsWith("</" + si.getQName(i) + ">"));
+                String enc2 = (off > 0) ? "UTF-16BE" : enc;
+                assertEquals(el, new String(bytes, (int) si.getStartByte(i),
+                    (int) (si.getEndByte(i) - si.getStartByte(i)), enc2));
+            }
+        }
+    }
+
+    @Test
+    public void testSaveAndFind() throws IOException {
+        File xml = writeDoc(makeDoc("UTF-8", 30), "UTF-8");
+        Set<QName> select = new HashSet<QName>();
+        select.add(new QName("rec"));
+        StructureIndex si = StructureIndex.build(xml, select);
+        assertEquals(30 + 10, si.size());
+
+        File idx = StructureIndex.sidecarFor(xml);
+        idx.deleteOnExit();
+        si.write(idx);
+        StructureIndex got = StructureIndex.load(xml);
+        assertNotNull(got);
+        assertEquals(si.size(), got.size());
+        for(int i=0; i < si.size(); i++) {
+            assertEquals(si.getName(i), got.getName(i));
+            assertEquals(si.getStartByte(i), got.getStartByte(i));
+            assertEquals(si.getEndChar(i), got.getEndChar(i));
+        }
+
+        assertEquals(10, got.find(new QName("urn:d", "rec")).length);
+        assertEquals(30, got.find(new QName("", "rec")).length - 10);
+        assertEquals(0, got.find(new QName("urn:a", "rec")).length);
+
+        // the selection is saved with the index
+        assertEquals(select, got.getSelection());
+        assertTrue(got.covers(new QName("urn:d", "rec")));
+        assertTrue(got.covers(new QName("", "rec", "p")));
+        assertFalse(got.covers(new QName("grp")));
+        assertNull(StructureIndex.build(xml).getSelection());
+        assertTrue(StructureIndex.build(xml).covers(new QName("grp")));
+
+        IndexedExtractor ix = new IndexedExtractor(xml, got);
+        try {
+            ix.selectElements(new QName("urn:d", "grp"));
+            fail("selected elements that were not indexed");
+        }
+        catch (IllegalArgumentException ex) { }
+    }
+
+    @Test
+    public void testMatchesExtractingParser() throws IOException {
+        String doc = makeDoc("UTF-8", 25);
+        File xml = writeDoc(doc, "UTF-8");
+
+        ExtractingParser ep = new ExtractingParser(new StringReader(doc));
+        ep.extractElement("rec");
+        List<String> expect = extractAll(ep);
+
+        IndexedExtractor ix =
+            new IndexedExtractor(xml, StructureIndex.build(xml));
+        ix.selectElements(new QName("rec"));
+        List<String> got = extractAll(ix);
+        assertEquals(expect, got);
+        assertTrue(got.get(1).indexOf("xmlns=\"urn:d\"") > 0);
+
+        // any node, in any order
+        ix.setReturnsDoc(false);
+        int[] recs = ix.getIndex().find(new QName("urn:d", "rec"));
+        String last = ParallelExtractorTest.readAll(ix.getNode(recs[3]));
+        assertTrue(last, last.startsWith("<rec"));
+        assertTrue(last, last.indexOf(">d9</rec>") > 0);
+    }
+}
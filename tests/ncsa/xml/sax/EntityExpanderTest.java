@@ -2,6 +2,11 @@ package ncsa.xml.sax;
 
 import ncsa.xml.sax.EntityExpander;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
 import static java.lang.String.format;
 
 import org.junit.Before;
@@ -56,5 +61,52 @@ public class EntityExpanderTest {
         ee.define("qq", "\"");
         assertEquals("failed expansion:", textout, ee.expand(textin));
     }
-}
 
+    @Test public void testCompiled() {
+        EntityExpander ee = new EntityExpander();
+        CompiledEntityExpander ce = ee.compile();
+        assertTrue("snapshot not reused", ce == ee.compile());
+        String plain = "a & b";
+        assertTrue("unchanged text copied", plain == ce.expand(plain));
+
+        ee.define("qq", "\"");
+        assertTrue("snapshot not rebuilt", ce != ee.compile());
+        assertEquals("old snapshot changed:", "<vao id=\"&go&gb;ob&qq;>",
+                     ce.expand(textin));
+
+        // expanded text is not re-scanned
+        assertEquals("rescanned:", "&lt;", ee.expand("&amp;lt;"));
+        assertEquals("trailing &:", "<&", ee.expand("&lt;&"));
+        assertEquals("unterminated:", "&lt", ee.expand("&lt"));
+    }
+
+    @Test public void testExpandStream() throws IOException {
+        EntityExpander ee = new EntityExpander();
+        ee.define("qq", "\"");
+        ee.define("averyveryverylongname", "L");
+
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i < 3000; i++) 
+            sb.append(textin).append(" &averyveryverylongname; &#").append(i);
+        sb.append("&lt");
+        String in = sb.toString();
+
+        // entity references get split across reads
+        for(int chunk : new int[] { 1, 3, 7, 8192 }) {
+            StringWriter sw = new StringWriter();
+            ee.expand(new ChunkedReader(in, chunk), sw);
+            assertEquals("chunk="+chunk+":", ee.expand(in), sw.toString());
+        }
+    }
+
+    static class ChunkedReader extends Reader {
+        StringReader in;  int chunk;
+        ChunkedReader(String s, int chunk) { 
+            in = new StringReader(s);  this.chunk = chunk; 
+        }
+        public int read(char[] buf, int off, int len) throws IOException {
+            return in.read(buf, off, Math.min(len, chunk));
+        }
+        public void close() { in.close(); }
+    }
+}
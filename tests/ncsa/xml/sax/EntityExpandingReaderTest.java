@@ -0,0 +1,87 @@
+package ncsa.xml.sax;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import ncsa.xml.saxfilter.SAXFilteredReader;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EntityExpandingReaderTest {
+
+    static String readAll(Reader rdr, int chunk) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[chunk];
+        int n;
+        while ((n = rdr.read(buf, 0, chunk)) >= 0) sb.append(buf, 0, n);
+        return sb.toString();
+    }
+
+    EntityExpander makeEntities() {
+        EntityExpander ee = new EntityExpander();
+        ee.define("deg", "\u00b0");
+        ee.define("longerentityname", "<b>bold</b>");
+        return ee;
+    }
+
+    @Test public void testCharRefs() throws IOException {
+        String in = "&#65;&#x42;&#X63;&#x1D11E;&#0;&#xD800;&#12a;&#;&#x;" +
+                    "&#1114112;&#x0000000041;&#0000000000000066;&amp;" +
+                    "&#60;&#x3C;&#38;&#x3e;&#34;&#39;&lt;&gt;&quot;&apos;";
+        String out = "AB&#X63;\ud834\udd1e&#0;&#xD800;&#12a;&#;&#x;" +
+                     "&#1114112;AB&amp;" +
+                     "&#60;&#x3C;&#38;&#x3e;&#34;&#39;&lt;&gt;&quot;&apos;";
+        Reader rdr = new EntityExpandingReader(new StringReader(in),
+                                               new EntityExpander());
+        assertEquals(out, readAll(rdr, 100));
+
+        rdr = new EntityExpandingReader(new StringReader(in),
+                                        new EntityExpander().compile(),
+                                        false, 64);
+        assertEquals(in, readAll(rdr, 100));
+    }
+
+    @Test public void testSplitReads() throws IOException {
+        EntityExpander ee = makeEntities();
+        StringBuilder in = new StringBuilder(), expect = new StringBuilder();
+        for(int i=0; i < 500; i++) {
+            in.append("<t>").append(i).append("&deg; &lt;&#x3e; &amp;amp;")
+              .append("&longerentityname;&unknown;&#x000000041;&&#")
+              .append(i+32).append(";</t>\n");
+            expect.append("<t>").append(i).append("\u00b0 &lt;&#x3e; ")
+                  .append("&amp;amp;<b>bold</b>&unknown;A&");
+            if ("&<>\"'".indexOf(i+32) >= 0)
+                expect.append("&#").append(i+32).append(';');
+            else
+                expect.appendCodePoint(i+32);
+            expect.append("</t>\n");
+        }
+        in.append("&longer");
+        expect.append("&longer");
+
+        // small buffers and reads split references in every way
+        for(int bufsize : new int[] { 1, 7, 64, 8192 }) {
+            for(int chunk : new int[] { 1, 5, 1000 }) {
+                Reader rdr = new EntityExpandingReader(
+                    new EntityExpanderTest.ChunkedReader(in.toString(), chunk),
+                    ee.compile(), true, bufsize);
+                assertEquals("buf="+bufsize+", chunk="+chunk+":",
+                             expect.toString(), readAll(rdr, chunk + 2));
+            }
+        }
+    }
+
+    @Test public void testAsFilterSource() throws IOException {
+        EntityExpander ee = makeEntities();
+        String doc = "<doc><t>12&deg;&#xA0;N &lt;&#38;&gt;</t>" +
+                     "&longerentityname;</doc>";
+        SAXFilteredReader rdr = new SAXFilteredReader(
+            new EntityExpandingReader(new StringReader(doc), ee.compile(),
+                                      true, 16));
+        assertEquals("<doc><t>12\u00b0\u00a0N &lt;&#38;&gt;</t>" +
+                     "<b>bold</b></doc>",
+                     readAll(rdr, 10));
+    }
+}
@@ -0,0 +1,146 @@
+package ncsa.xml.sax;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EventTapeTest {
+
+    static final String DOC = "<?xml version=\"1.0\"?>\n" +
+        "<doc xmlns=\"urn:d\" xmlns:p=\"urn:p\"><?pi some data?>" +
+        "<p:a id=\"1\" p:x=\"&lt;y&gt;\">text &amp; more</p:a>" +
+        "<b/><c n=\"\u00e9t\u00e9\"><![CDATA[<raw>]]></c></doc>";
+
+    static class Logger extends DefaultHandler {
+        StringBuilder log = new StringBuilder();
+
+        public void startDocument() { log.append("[doc "); }
+        public void endDocument() { log.append(" doc]"); }
+        public void startPrefixMapping(String prefix, String uri) {
+            log.append("{").append(prefix).append('=').append(uri);
+        }
+        public void endPrefixMapping(String prefix) {
+            log.append(prefix).append("}");
+        }
+        public void startElement(String uri, String local, String qname,
+                                 Attributes atts)
+        {
+            log.append('<').append(uri).append('|').append(local)
+               .append('|').append(qname);
+            for(int i=0; i < atts.getLength(); i++)
+                log.append(' ').append(atts.getURI(i)).append('|')
+                   .append(atts.getLocalName(i)).append('|')
+                   .append(atts.getQName(i)).append('|')
+                   .append(atts.getType(i)).append('=')
+                   .append(atts.getValue(i));
+            if (atts.getLength() > 0)
+                log.append(" @").append(atts.getValue(atts.getQName(0)))
+                   .append(atts.getIndex(atts.getURI(0), atts.getLocalName(0)));
+            log.append('>');
+        }
+        public void endElement(String uri, String local, String qname) {
+            log.append("</").append(qname).append('>');
+        }
+        public void characters(char[] ch, int start, int length) {
+            log.append(ch, start, length);
+        }
+        public void processingInstruction(String target, String data) {
+            log.append("<?").append(target).append(' ').append(data)
+               .append("?>");
+        }
+    }
+
+    static void parse(String doc, ContentHandler h) throws Exception {
+        SAXParserFactory f = SAXParserFactory.newInstance();
+        f.setNamespaceAware(true);
+        XMLReader xr = f.newSAXParser().getXMLReader();
+        xr.setContentHandler(h);
+        xr.parse(new InputSource(new StringReader(doc)));
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        Logger direct = new Logger();
+        parse(DOC, direct);
+
+        EventTape tape = new EventTape();
+        parse(DOC, tape);
+        assertTrue(tape.size() > 10);
+
+        for(int i=0; i < 2; i++) {
+            Logger replayed = new Logger();
+            tape.replay(replayed);
+            assertEquals(direct.log.toString(), replayed.log.toString());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        tape.write(bytes);
+        EventTape copy =
+            EventTape.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(tape.size(), copy.size());
+        assertEquals(tape.getTextLength(), copy.getTextLength());
+        Logger restored = new Logger();
+        copy.replay(restored);
+        assertEquals(direct.log.toString(), restored.log.toString());
+
+        tape.clear();
+        assertEquals(0, tape.size());
+        Logger empty = new Logger();
+        tape.replay(empty);
+        assertEquals("", empty.log.toString());
+    }
+
+    @Test
+    public void testCorrupted() throws Exception {
+        EventTape tape = new EventTape();
+        tape.startDocument();
+        tape.characters("abc".toCharArray(), 0, 3);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        tape.write(bytes);
+        byte[] b = bytes.toByteArray();
+
+        // truncate the text length, leaving the characters range bad
+        b[b.length - 7] = 2;
+        try {
+            EventTape.read(new ByteArrayInputStream(b));
+            fail("corrupted tape not detected");
+        }
+        catch (IOException ex) { }
+
+        // negative counts are reported before anything is allocated
+        assertBadCounts(b, -1, 0, "bad name count");
+        assertBadCounts(b, 0, -2, "bad event count");
+    }
+
+    void assertBadCounts(byte[] tape, int nnames, int nevents, String msg)
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(tape, 0, 4);
+        out.writeInt(nnames);
+        out.writeInt(nevents);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.close();
+        try {
+            EventTape.read(new ByteArrayInputStream(bytes.toByteArray()));
+            fail("corrupted tape not detected");
+        }
+        catch (IOException ex) {
+            assertEquals(msg, ex.getMessage());
+        }
+    }
+}
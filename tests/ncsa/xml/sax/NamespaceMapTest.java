@@ -0,0 +1,72 @@
+package ncsa.xml.sax;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class NamespaceMapTest {
+
+    @Test public void testScopes() {
+        NamespaceMap nsm = new NamespaceMap();
+        assertEquals("", nsm.getDefaultNS());
+
+        // <a xmlns="urn:a" xmlns:p="urn:p">
+        nsm.setDefaultNS("urn:a");
+        nsm.startPrefixMapping("p", "urn:p");
+        nsm.startElement();
+        assertEquals("urn:a", nsm.getDefaultNS());
+        assertEquals("p", nsm.getPrefix("urn:p"));
+
+        //   <b xmlns:p="urn:q"><c/>
+        nsm.startPrefixMapping("p", "urn:q");
+        nsm.startElement();
+        assertEquals("urn:q", nsm.getURI("p"));
+        assertNull("shadowed prefix", nsm.getPrefix("urn:p"));
+        assertEquals("[, p]", Collections.list(nsm.prefixes()).toString());
+
+        nsm.startElement();
+        Set<String> ended = new HashSet<String>();
+        nsm.endElement(ended);
+        assertTrue("prefixes ended early", ended.isEmpty());
+
+        //   </b>
+        nsm.endElement(ended);
+        assertEquals("[p]", ended.toString());
+        assertEquals("urn:p", nsm.getURI("p"));
+        assertEquals(new HashSet<String>(Arrays.asList("", "p")),
+                     nsm.pendingPrefixes());
+
+        nsm.removePrefixMapping("p");
+        assertNull(nsm.getURI("p"));
+        assertEquals("urn:a", nsm.getDefaultNS());
+    }
+
+    @Test public void testAncestor() {
+        NamespaceMap nsm = new NamespaceMap();
+        nsm.startPrefixMapping("p", "urn:p");
+        nsm.addLocation("urn:p", "p.xsd");
+        nsm.startElement();
+        nsm.startElement();
+        nsm.startPrefixMapping("p", "urn:q");
+        nsm.startElement();
+
+        NamespaceMap copy = (NamespaceMap) nsm.clone();
+        Namespaces parent = nsm.ancestor(1);
+        Namespaces top = nsm.ancestor(3);
+        assertEquals("urn:p", parent.getURI("p"));
+        assertEquals("p.xsd", parent.getLocation("urn:p"));
+        assertNull(top.getURI("p"));
+
+        // copies are unaffected by later changes
+        nsm.endElement();
+        nsm.endElement();
+        nsm.endElement();
+        assertEquals("urn:q", copy.getURI("p"));
+        assertNull(nsm.getURI("p"));
+        assertNull(nsm.getLocation("urn:p"));
+    }
+}
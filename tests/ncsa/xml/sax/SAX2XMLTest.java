@@ -0,0 +1,78 @@
+package ncsa.xml.sax;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+
+import org.xml.sax.helpers.AttributesImpl;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SAX2XMLTest {
+
+    static String makeDoc() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\"?>\n<doc xmlns=\"urn:d\" ");
+        sb.append("xmlns:p=\"urn:p\"><?pi some data?><?empty?>");
+        sb.append("<p:a t=\"a&#9;b&#10;&#13;&quot;&lt;&amp;'\">");
+        sb.append("x &amp; y &lt; z ]]&gt; &#13; \u00e9\ud83d\ude00</p:a>");
+        sb.append("<b/><c><![CDATA[<raw> & more]]></c>");
+        for(int i=0; i < 2000; i++)
+            sb.append("<e i=\"").append(i).append("\">\u00e9t\u00e9 &amp; ")
+              .append("\u4e2d\ud83d\ude00</e>\n");
+        return sb.append("</doc>").toString();
+    }
+
+    static String log(String doc) throws Exception {
+        EventTapeTest.Logger l = new EventTapeTest.Logger();
+        EventTapeTest.parse(doc, l);
+        return l.log.toString();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        String doc = makeDoc();
+        String expected = log(doc);
+
+        StringWriter sw = new StringWriter();
+        EventTapeTest.parse(doc, new SAX2XML(sw));
+        assertEquals(expected, log(sw.toString()));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EventTapeTest.parse(doc, new SAX2XML(bytes));
+        String utf8 = new String(bytes.toByteArray(), "UTF-8");
+        assertEquals(sw.toString(), utf8);
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        StringWriter sw = new StringWriter();
+        SAX2XML out = new SAX2XML(sw);
+        AttributesImpl atts = new AttributesImpl();
+        atts.addAttribute("", "v", "v", "CDATA", "<\"&\n\t\u001f>");
+        out.startDocument();
+        out.startElement("", "a", "a", atts);
+        char[] text = "1 < 2 & 3 > 2\r\n\u0001\u0000\u007f.".toCharArray();
+        out.characters(text, 0, text.length);
+        out.endElement("", "a", "a");
+        out.startElement("", "b", "b", new AttributesImpl());
+        out.processingInstruction("t", "d");
+        out.endElement("", "b", "b");
+        out.startElement("", "c", "c", new AttributesImpl());
+        out.endElement("", "c", "c");
+        out.endDocument();
+
+        assertEquals("<a v=\"&lt;&quot;&amp;&#10;&#9;&gt;\">" +
+                     "1 &lt; 2 &amp; 3 &gt; 2&#13;\n&#127;.</a>" +
+                     "<b><?t d?></b><c/>", sw.toString());
+    }
+
+    @Test
+    public void testEncodeUTF8() throws Exception {
+        String s = "a\u00e9\u4e2d\ud83d\ude00\ud83d";
+        byte[] b = new byte[3 * s.length()];
+        int n = SAX2XML.encodeUTF8(s.toCharArray(), s.length(), b);
+        assertEquals("a\u00e9\u4e2d\ud83d\ude00?",
+                     new String(b, 0, n, "UTF-8"));
+    }
+}
@@ -0,0 +1,42 @@
+package ncsa.xml.saxfilter;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CharScannerTest {
+
+    @Test
+    public void testAgainstScalar() {
+        // the scanner in use (vector, if the JVM allows) must agree with 
+        // the scalar one over all kinds of ranges
+        CharScanner scalar = new CharScanner.Scalar();
+        CharScanner scnr = CharScanner.get();
+        Random rand = new Random(7);
+        char[] a = new char[300];
+
+        for(int trial = 0; trial < 2000; trial++) {
+            for(int i = 0; i < a.length; i++) 
+                a[i] = (rand.nextInt(40) == 0) ? '<' : (char) ('a' + i % 26);
+            int from = rand.nextInt(a.length);
+            int to = from + rand.nextInt(a.length - from + 1);
+            assertEquals(scnr.getName() + " [" + from + ", " + to + "):",
+                         scalar.indexOf(a, from, to, '<'),
+                         scnr.indexOf(a, from, to, '<'));
+        }
+    }
+
+    @Test
+    public void testRingWrap() {
+        // a search range that wraps around the end of the ring
+        RingTextBuffer buf = new RingTextBuffer(64);
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < 50; i++) sb.append('x');
+        buf.append(sb.toString());
+        buf.popChars(40);
+        buf.append(sb.toString() + "<");
+        assertEquals(60, buf.indexOf('<', 0));
+        assertEquals(-1, buf.indexOf('<', 0, 60));
+    }
+}
@@ -0,0 +1,124 @@
+package ncsa.xml.saxfilter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MappedFileReaderTest {
+
+    // includes 2-, 3-, and 4-byte UTF-8 sequences
+    static final String doc =
+        "<?xml version=\"1.0\"?>\n<doc a=\"\u00e9t\u00e9\">caf\u00e9 " +
+        "\u20ac12 \ud834\udd1e<b>\u65e5\u672c</b></doc>\n";
+
+    File file = null;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("mapped", ".xml");
+    }
+
+    @After
+    public void tearDown() {
+        if (file != null) file.delete();
+    }
+
+    void write(byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try { out.write(data); } finally { out.close(); }
+    }
+
+    String readAll(MappedFileReader rdr, int chunk) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[chunk];
+        int n;
+        while ((n = rdr.read(buf, 0, chunk)) >= 0) sb.append(buf, 0, n);
+        rdr.close();
+        return sb.toString();
+    }
+
+    @Test
+    public void testWindows() throws IOException {
+        write(doc.getBytes("UTF-8"));
+
+        // small windows force multi-byte characters to straddle them
+        for(int w=16; w < 24; w++) {
+            MappedFileReader rdr = new MappedFileReader(file, null, w);
+            assertEquals("UTF-8", rdr.getCharset().name());
+            assertEquals(doc, readAll(rdr, 7));
+        }
+
+        MappedFileReader rdr = new MappedFileReader(file);
+        assertEquals(doc, readAll(rdr, 8192));
+    }
+
+    @Test
+    public void testSingleChars() throws IOException {
+        write(doc.getBytes("UTF-8"));
+        MappedFileReader rdr = new MappedFileReader(file, null, 16);
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = rdr.read()) >= 0) sb.append((char) c);
+        assertEquals(doc, sb.toString());
+        assertEquals(file.length(), rdr.getBytesRead());
+        rdr.close();
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        write(new byte[0]);
+        MappedFileReader rdr = new MappedFileReader(file);
+        assertEquals(-1, rdr.read());
+        rdr.close();
+    }
+
+    @Test
+    public void testDetectCharset() throws IOException {
+        assertEquals("UTF-8", detect("<doc/>", "ISO-8859-1"));
+        assertEquals("ISO-8859-1",
+                     detect("<?xml version='1.0' encoding='ISO-8859-1'?><a/>",
+                            "ISO-8859-1"));
+        assertEquals("UTF-16LE", detect("<a/>", "UTF-16LE"));
+        assertEquals("UTF-16", detect("\ufeff<a/>", "UTF-16BE"));
+
+        try {
+            detect("<?xml version=\"1.0\" encoding=\"bogus-enc\"?>", "UTF-8");
+            fail("accepted unknown encoding");
+        }
+        catch (IOException ex) { }
+    }
+
+    @Test
+    public void testDeclaredEncoding() throws IOException {
+        String latin = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" +
+                       "<a>\u00e9\u00e8</a>";
+        write(latin.getBytes("ISO-8859-1"));
+        assertEquals(latin, readAll(new MappedFileReader(file), 5));
+    }
+
+    @Test
+    public void testForFile() throws IOException {
+        write(doc.getBytes("UTF-8"));
+        SAXFilteredReader rdr = SAXFilteredReader.forFile(file);
+        StringWriter out = new StringWriter();
+        char[] buf = new char[100];
+        int n;
+        while ((n = rdr.read(buf, 0, buf.length)) >= 0) out.write(buf, 0, n);
+        rdr.close();
+        assertEquals(doc, out.toString());
+    }
+
+    String detect(String content, String enc) throws IOException {
+        Charset cs = MappedFileReader.detectCharset(
+                                    ByteBuffer.wrap(content.getBytes(enc)));
+        return cs.name();
+    }
+}
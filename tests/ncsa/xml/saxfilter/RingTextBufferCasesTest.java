@@ -0,0 +1,9 @@
+package ncsa.xml.saxfilter;
+
+/**
+ * runs the TextBuffer test cases against a RingTextBuffer
+ */
+public class RingTextBufferCasesTest extends TextBufferTest {
+
+    TextBuffer create() { return new RingTextBuffer(16); }
+}
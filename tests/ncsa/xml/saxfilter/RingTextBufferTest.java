@@ -0,0 +1,264 @@
+package ncsa.xml.saxfilter;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RingTextBufferTest {
+
+    RingTextBuffer tb = null;
+
+    @Before
+    public void setup() {
+        // start small so that the tests exercise wrapping and growing
+        tb = new RingTextBuffer(16);
+    }
+
+    @Test
+    public void testCtor() {
+        assertEquals(0, tb.size());
+        assertEquals(16, tb.capacity());
+        assertEquals("", tb.toString());
+    }
+
+    @Test
+    public void testAppend() {
+        testCtor();
+        String s1 = "The quick brown fox ";
+        tb.append(s1);
+        assertEquals(s1.length(), tb.size());
+        assertEquals(s1, tb.toString());
+
+        String s2 = "jumped over ";
+        tb.append(s2.toCharArray(), 0, s2.length());
+        assertEquals(s1.length()+s2.length(), tb.size());
+        assertEquals("The quick brown fox jumped over ", tb.toString());
+
+        String s3 = "the lazy dogs.";
+        tb.append(s3);
+        assertEquals(s1.length()+s2.length()+s3.length(), tb.size());
+        assertEquals("The quick brown fox jumped over the lazy dogs.",
+                     tb.toString());
+    }
+
+    @Test
+    public void testPopChars() {
+        testAppend();
+        tb.popChars(4);
+        assertEquals("quick brown fox jumped over the lazy dogs.",
+                     tb.toString());
+        tb.popChars(20);
+        assertEquals("ed over the lazy dogs.", tb.toString());
+        assertEquals('e', tb.charAt(0));
+        tb.popChars(100);
+        assertEquals(0, tb.size());
+    }
+
+    @Test
+    public void testWrap() {
+        tb.append("0123456789");
+        tb.popChars(8);
+        tb.append("abcdefghij");
+        assertEquals(16, tb.capacity());
+        assertEquals("89abcdefghij", tb.toString());
+        assertEquals('9', tb.charAt(1));
+        assertEquals('j', tb.charAt(11));
+        assertEquals(8, tb.indexOf('g', 0));
+        assertEquals(5, tb.indexOf("def", 2));
+        assertEquals(-1, tb.indexOf('g', 0, 8));
+        assertTrue(tb.startsWith("9ab", 1));
+        assertEquals("9abc", tb.substring(1, 5));
+
+        tb.insert("XY", 3);
+        assertEquals("89aXYbcdefghij", tb.toString());
+        tb.insert("Z", 12);
+        assertEquals("89aXYbcdefghZij", tb.toString());
+        tb.substitute("", 3, 2);
+        assertEquals("89abcdefghZij", tb.toString());
+
+        // force a grow while wrapped
+        tb.append("klmnopqrst");
+        assertEquals(32, tb.capacity());
+        assertEquals("89abcdefghZijklmnopqrst", tb.toString());
+    }
+
+    @Test(expected=StringIndexOutOfBoundsException.class)
+    public void testBadCharAt() {
+        testAppend();
+        tb.charAt(tb.size());
+    }
+
+    @Test
+    public void testInsert() {
+        testAppend();
+        tb.insert("yellow and ", 10);
+        assertEquals("The quick yellow and brown fox jumped over the lazy dogs.",
+                        tb.toString());
+
+        tb.insert("S: ", 0);
+        assertEquals("S: The quick yellow and brown fox jumped over the lazy dogs.",
+                        tb.toString());
+
+        tb.insert("-assed", 54);
+        assertEquals("S: The quick yellow and brown fox jumped over the lazy-assed dogs.",
+                        tb.toString());
+
+        tb.insert("!!", tb.toString().length());
+        assertEquals("S: The quick yellow and brown fox jumped over the lazy-assed dogs.!!",
+                        tb.toString());
+    }
+
+    @Test(expected=StringIndexOutOfBoundsException.class)
+    public void testBadInsert() {
+        testAppend();
+        tb.insert("!!", 400);
+    }
+
+    @Test(expected=StringIndexOutOfBoundsException.class)
+    public void testBadNegInsert() {
+        testAppend();
+        tb.insert("!!", -4);
+    }
+
+    @Test
+    public void testCopy() {
+        testAppend();
+        char[] buf = new char[tb.size()];
+        for(int i=0; i < buf.length; i++) buf[i] = '|';
+
+        tb.copy(0, buf, 0, 3);
+        assertEquals("The|", new String(buf, 0, 4));
+        tb.copy(4, buf, 4, 5);
+        assertEquals("The|quick|", new String(buf, 0, 10));
+        tb.copy(10, buf, 0, 16);
+        assertEquals("brown fox jumped|", new String(buf, 0, 17));
+    }
+
+    @Test(expected=ArrayIndexOutOfBoundsException.class)
+    public void testBadCopy() {
+        testAppend();
+        char[] buf = new char[tb.size()];
+        tb.copy(400, buf, 0, 4);
+    }
+
+    @Test(expected=ArrayIndexOutOfBoundsException.class)
+    public void testBadNegCopy() {
+        testAppend();
+        char[] buf = new char[tb.size()];
+        tb.copy(-4, buf, 0, 4);
+    }
+
+    @Test
+    public void testSubstitute() {
+        testAppend();
+        tb.substitute("yellow", 10, 5);
+        assertTrue(tb.toString().startsWith("The quick yellow fox "));
+        tb.substitute("red", 10, 6);
+        assertTrue(tb.toString().startsWith("The quick red fox "));
+        tb.substitute("foxes", 14, 4);
+        assertTrue(tb.toString().startsWith("The quick red foxesjumped "));
+        tb.substitute("fox leap", 14, 9);
+        assertTrue(tb.toString().startsWith("The quick red fox leaped over"));
+
+        tb.substitute("", 24, tb.size()-24);
+        assertEquals("The quick red fox leaped", tb.toString());
+        assertEquals(24, tb.size());
+
+        // len goes past end is okay
+        tb.substitute(".", 17, 40);
+        assertEquals("The quick red fox.", tb.toString());
+        assertEquals(18, tb.size());
+
+        // appending with substitute
+        tb.substitute("..", 18, 8);
+        assertEquals("The quick red fox...", tb.toString());
+        assertEquals(20, tb.size());
+    }
+
+    @Test
+    public void testTruncate() {
+        testAppend();
+        tb.truncate(9);
+        assertEquals("The quick", tb.toString());
+        tb.append("!");
+        assertEquals("The quick!", tb.toString());
+    }
+
+    @Test
+    public void testGetSubstring() {
+        testAppend();
+
+        // the characters appended from an array join the first segment
+        Substring sub = (Substring) tb.getSubstring(27).next();
+        assertEquals("over ", sub.toString());
+        assertEquals("The quick brown fox jumped over ", sub.str());
+        assertNull(tb.getSubstring(400));
+    }
+
+    @Test
+    public void testSegmentsFollowEdits() {
+        testAppend();
+        Substring first = tb.getFirst();
+        Substring last = tb.getLast();
+        assertEquals("the lazy dogs.", last.str());
+
+        tb.insert("big ", 36);
+        assertEquals("the big lazy dogs.", last.str());
+        tb.popChars(4);
+        assertEquals("quick brown fox jumped over ", first.str());
+        tb.substitute("cat", 36, 4);
+        assertEquals("quick brown fox jumped over the big cat dogs.",
+                     tb.toString());
+        assertEquals("the big cat dogs.", last.str());
+
+        // substituting across a segment boundary shortens the next one
+        tb.substitute("under", 23, 8);
+        assertEquals("quick brown fox jumped under big cat dogs.",
+                     tb.toString());
+        assertEquals("quick brown fox jumped under", first.str());
+        assertEquals(" big cat dogs.", last.str());
+
+        tb.truncate(10);
+        assertEquals("quick brow", first.str());
+        assertEquals("", last.str());
+        assertSame(first, tb.getLast());
+    }
+
+    @Test
+    public void testReplace() {
+        testAppend();
+        tb.append("  Woof!");
+        tb.replace(tb.getFirst(), "A ");
+        assertEquals("A the lazy dogs.  Woof!", tb.toString());
+        assertEquals(23, tb.size());
+
+        TextBuffer.Iter it = tb.iterAtLast();
+        Substring sub = (Substring) it.previous();
+        tb.replace(sub, "");
+        assertEquals("A the lazy dogs.", tb.toString());
+        tb.replace((Substring) it.previous(), "dogs");
+        assertEquals("A dogs", tb.toString());
+        assertEquals(6, tb.size());
+
+        // no longer part of the buffer
+        tb.popChars(6);
+        tb.append("cats");
+        tb.replace(sub, "mice");
+        assertEquals("cats", tb.toString());
+    }
+
+    @Test
+    public void testIterRemove() {
+        testAppend();
+        TextBuffer.Iter it = tb.getSubstring(32);
+        assertEquals("the lazy dogs.", it.next().toString());
+        it.remove();
+        assertEquals("The quick brown fox jumped over ", tb.toString());
+        assertEquals(32, tb.size());
+        tb.append("the cat.");
+        assertEquals("the cat.", tb.getLast().str());
+        assertEquals("The quick brown fox jumped over the cat.",
+                     tb.toString());
+    }
+}
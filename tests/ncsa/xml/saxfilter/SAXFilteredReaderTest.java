@@ -0,0 +1,624 @@
+package ncsa.xml.saxfilter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.xml.namespace.QName;
+
+import ncsa.xml.sax.Namespaces;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SAXFilteredReaderTest {
+
+    static String makeDoc(int nrecs) {
+        StringBuilder sb = new StringBuilder("<doc>\n");
+        for(int i=0; i < nrecs; i++)
+            sb.append("  <rec n=\"").append(i).append("\"><!-- <x> -->")
+              .append("<![CDATA[<y>]]><?pi <z>?>text</rec>\n");
+        sb.append("</doc>\n");
+        return sb.toString();
+    }
+
+    static String readAll(Reader rdr, int chunk) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[chunk];
+        int n;
+        while ((n = rdr.read(buf, 0, chunk)) >= 0) sb.append(buf, 0, n);
+        return sb.toString();
+    }
+
+    @Test
+    public void testFlowOnlySkip() throws IOException {
+        String doc = makeDoc(2000);
+        int from = doc.indexOf("<rec n=\"10\"");
+        int to = doc.indexOf("<rec n=\"1990\"");
+        String expect = doc.substring(0, from) + doc.substring(to);
+
+        // with events enabled, the markup is tokenized; with none, the
+        // reader jumps between the skip positions
+        for(int events : new int[] { OnDemandParser.ALL_EVENTS, 0 }) {
+            Recorder rec = new Recorder(events);
+            SAXFilteredReader rdr =
+                new SAXFilteredReader(new StringReader(doc), rec);
+            rdr.setChunkSize(64);
+            rec.flow.skipFrom(from);
+            rec.flow.resumeFrom(to);
+            assertEquals(expect, readAll(rdr, 100));
+        }
+    }
+
+    @Test
+    public void testChunkSizes() throws IOException {
+        String doc = makeDoc(30);
+        int from = doc.indexOf("<rec n=\"3\"");
+        int to = doc.indexOf("<rec n=\"7\"");
+        String expect = doc.substring(0, from) + doc.substring(to);
+
+        // the default size gives the reference list of events
+        Recorder rec = new Recorder(OnDemandParser.ALL_EVENTS);
+        SAXFilteredReader rdr =
+            new SAXFilteredReader(new StringReader(doc), rec);
+        assertEquals(SAXFilteredReader.DEFAULT_CHUNK_SIZE,
+                     rdr.getChunkSize());
+        rec.flow.skipFrom(from);
+        rec.flow.resumeFrom(to);
+        assertEquals(expect, readAll(rdr, 100));
+        List<String> events = rec.elements;
+        assertEquals(31, events.size());
+
+        // a single character, less than a tag, and more than the document
+        for(int size : new int[] { 1, 3, 7, 1 << 20 }) {
+            rec = new Recorder(OnDemandParser.ALL_EVENTS);
+            rdr = new SAXFilteredReader(new StringReader(doc), rec);
+            rdr.setChunkSize(size);
+            assertEquals(size, rdr.getChunkSize());
+            rec.flow.skipFrom(from);
+            rec.flow.resumeFrom(to);
+            assertEquals("chunk size " + size, expect, readAll(rdr, 100));
+            assertEquals("chunk size " + size, events, rec.elements);
+        }
+
+        // the size can be changed while reading
+        rec = new Recorder(OnDemandParser.ALL_EVENTS);
+        rdr = new SAXFilteredReader(new StringReader(doc), rec);
+        rdr.setChunkSize(5);
+        char[] buf = new char[50];
+        int n = rdr.read(buf, 0, 50);
+        rdr.setChunkSize(1);
+        String got = new String(buf, 0, n) + readAll(rdr, 13);
+        assertEquals(doc, got);
+        assertEquals(events, rec.elements);
+    }
+
+    @Test
+    public void testBadChunkSize() {
+        SAXFilteredReader rdr =
+            new SAXFilteredReader(new StringReader("<doc/>"));
+        rdr.setChunkSize(64);
+        for(int size : new int[] { 0, -1, Integer.MIN_VALUE }) {
+            try {
+                rdr.setChunkSize(size);
+                fail("accepted chunk size " + size);
+            } catch (IllegalArgumentException ex) {
+                assertEquals(64, rdr.getChunkSize());
+            }
+        }
+    }
+
+    /**
+     * a handler that edits the stream:  it inserts a comment before each
+     * ins element, skips each skipme element, and adds a pause marker
+     * before each p element.  Each stretch from an r element to the end
+     * of the following skipme is parsed ahead before any of it is sent, 
+     * so that the edits fall within text that has already been parsed.
+     */
+    static class Editor extends Recorder {
+        Editor() { super(OnDemandParser.ELEMENT); }
+
+        public void startElement(String uri, String local, String qname,
+                                 Attributes atts)
+        {
+            CharContentLocator loc = flow.getCharLocator();
+            try {
+                if (local.equals("r"))
+                    flow.setPause(true);
+                else if (local.equals("ins"))
+                    flow.insert("<!--I-->", loc.getCharNumber());
+                else if (local.equals("skipme"))
+                    flow.skipFrom(loc.getCharNumber());
+                else if (local.equals("p"))
+                    flow.addPauseMarker(loc.getCharNumber());
+            }
+            catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        public void endElement(String uri, String local, String qname) {
+            CharContentLocator loc = flow.getCharLocator();
+            if (local.equals("skipme")) {
+                flow.resumeFrom(loc.getCharNumber() + loc.getCharLength());
+                flow.setPause(false);
+            }
+        }
+    }
+
+    static final String BLOCK =
+        "<r>some text</r><ins/><skipme><x>gone</x></skipme><p/>\n";
+
+    static SAXFilteredReader editingReader(int nblocks, boolean pauses) {
+        String block = (pauses) ? BLOCK : BLOCK.replace("<p/>", "");
+        StringBuilder sb = new StringBuilder("<doc>\n");
+        for(int i=0; i < nblocks; i++) sb.append(block);
+        sb.append("</doc>\n");
+        SAXFilteredReader rdr =
+            new SAXFilteredReader(new StringReader(sb.toString()),
+                                  new Editor());
+        rdr.setChunkSize(50);
+        return rdr;
+    }
+
+    /**
+     * the output expected from editingReader() with pauses shown as '|'
+     */
+    static String editedText(int nblocks, boolean pauses) {
+        String block = "<r>some text</r><!--I--><ins/>" +
+                       ((pauses) ? "|<p/>\n" : "\n");
+        StringBuilder sb = new StringBuilder("<doc>\n");
+        for(int i=0; i < nblocks; i++) sb.append(block);
+        sb.append("</doc>\n");
+        return sb.toString();
+    }
+
+    /**
+     * read with read(char[],int,int), showing pauses as '|'
+     */
+    static String readEdited(Reader rdr, int chunk) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[chunk+1];
+        int n;
+        while (true) {
+            Arrays.fill(buf, ' ');
+            if ((n = rdr.read(buf, 0, chunk)) < 0) break;
+            sb.append(buf, 0, n);
+            if (n < chunk && buf[n] == '\004') sb.append('|');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testReadWithEdits() throws IOException {
+        // without pause markers, bulk reads of text parsed ahead take 
+        // the fast path when they span no skip switch
+        for(boolean pauses : new boolean[] { false, true }) {
+            String expect = editedText(100, pauses);
+
+            // bulk reads of various sizes
+            for(int chunk : new int[] { 1, 2, 7, 20, 50, 64, 1000, 100000 }) {
+                assertEquals("read size " + chunk, expect,
+                             readEdited(editingReader(100, pauses), chunk));
+            }
+
+            // single-character reads return the pause character in line
+            SAXFilteredReader rdr = editingReader(100, pauses);
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = rdr.read()) >= 0)
+                sb.append((c == '\004') ? '|' : (char) c);
+            assertEquals(expect, sb.toString());
+        }
+    }
+
+    @Test
+    public void testMixedReadsWithEdits() throws IOException {
+        String expect = editedText(100, true);
+
+        // alternate between single-character and bulk reads so that
+        // characters read ahead by read() are handed over to bulk reads
+        for(int chunk : new int[] { 1, 3, 16, 200 }) {
+            SAXFilteredReader rdr = editingReader(100, true);
+            StringBuilder sb = new StringBuilder();
+            char[] buf = new char[chunk+1];
+            int n = 0, c = 0;
+            for(int i=0; n >= 0 && c >= 0; i++) {
+                if (i % 2 == 0) {
+                    if ((c = rdr.read()) >= 0)
+                        sb.append((c == '\004') ? '|' : (char) c);
+                }
+                else {
+                    Arrays.fill(buf, ' ');
+                    if ((n = rdr.read(buf, 0, chunk)) >= 0) {
+                        sb.append(buf, 0, n);
+                        if (n < chunk && buf[n] == '\004') sb.append('|');
+                    }
+                }
+            }
+            assertEquals("read size " + chunk, expect, sb.toString());
+        }
+    }
+
+    @Test
+    public void testNoHandler() throws IOException {
+        String doc = makeDoc(100);
+        SAXFilteredReader rdr = new SAXFilteredReader(new StringReader(doc));
+        rdr.setChunkSize(64);
+        assertEquals(doc, readAll(rdr, 7));
+    }
+
+    @Test
+    public void testEnableAfterStretch() throws IOException {
+        String doc = makeDoc(50);
+        int to = doc.indexOf("<rec n=\"40\"");
+
+        Recorder rec = new Recorder(0);
+        SAXFilteredReader rdr =
+            new SAXFilteredReader(new StringReader(doc), rec);
+        rdr.setChunkSize(16);
+        rec.flow.skipFrom(to);
+        rec.flow.resumeFrom(to+1);  // chops off a '<'
+
+        // events turned on mid-stretch take effect at its end
+        char[] buf = new char[10];
+        assertEquals(10, rdr.read(buf, 0, 10));
+        rec.prm.enableEvents(OnDemandParser.ELEMENT);
+        readAll(rdr, 100);
+
+        assertEquals(10, rec.elements.size());
+        assertEquals("rec", rec.elements.get(0));
+    }
+
+    @Test
+    public void testSubscribeElements() throws IOException {
+        String doc = "<doc xmlns:p=\"urn:p\"><a/><p:b><a n=\"1\"/><b/></p:b>" +
+                     "<c xmlns=\"urn:p\"><b/></c><q:b xmlns:q=\"urn:q\"/></doc>";
+
+        Set<QName> names = new HashSet<QName>();
+        names.add(new QName("a"));
+        names.add(new QName("urn:p", "b"));
+
+        Recorder rec = new Recorder(OnDemandParser.ALL_EVENTS);
+        SAXFilteredReader rdr =
+            new SAXFilteredReader(new StringReader(doc), rec);
+        rec.prm.subscribeElements(names);
+        assertEquals(doc, readAll(rdr, 10));
+
+        // a in any namespace; b only in urn:p
+        assertEquals("[a, b, a, /b, b, /b]", rec.elements.toString());
+        assertEquals("1", rec.lastAtts);
+    }
+
+    @Test
+    public void testAttributeSelection() throws IOException {
+        String doc = "<doc xmlns:p=\"urn:p\">" +
+            "<r n=\"1\" m=\"a\"/><r n=\"2\" m=\"b\"/><p:r n=\"3\" m=\"c\"/>" +
+            "<r xmlns=\"urn:p\" n=\"4\" m=\"d\"/><r n=\"5\" m=\"e\"/></doc>";
+        final Set<String> n = new HashSet<String>(), m = new HashSet<String>();
+        n.add("n");
+        m.add("m");
+
+        // selections changed mid-stream apply from the next element
+        final List<String> got = new ArrayList<String>();
+        Recorder rec = new Recorder(OnDemandParser.ALL_EVENTS) {
+            public void startElement(String uri, String local, String qname,
+                                     Attributes atts)
+            {
+                if (! local.equals("r")) return;
+                got.add(atts.getLength() + ":" + atts.getValue(0));
+                if (got.size() == 1) prm.loadAttributes("r", m);
+                if (got.size() == 2) prm.loadAttributes("urn:pr", n);
+            }
+        };
+        SAXFilteredReader rdr =
+            new SAXFilteredReader(new StringReader(doc), rec);
+        rec.prm.loadAttributes("r", n);
+        assertEquals(doc, readAll(rdr, 10));
+
+        // p:r and r in urn:p are matched by their namespace
+        assertEquals("[1:1, 1:b, 1:3, 1:4, 1:e]", got.toString());
+    }
+
+    @Test
+    public void testReset() throws IOException {
+        String doc1 = "<doc xmlns:p=\"urn:p\"><p:a n=\"1\"/><b/></doc>";
+        String doc2 = "<doc><a n=\"2\"/><p:a xmlns:p=\"urn:q\"/></doc>";
+
+        Recorder rec = new Recorder(OnDemandParser.ALL_EVENTS);
+        SAXFilteredReader rdr =
+            new SAXFilteredReader(new StringReader(doc1), rec);
+        rdr.setChunkSize(16);
+        Set<QName> names = new HashSet<QName>();
+        names.add(new QName("urn:p", "a"));
+        rec.prm.subscribeElements(names);
+        rec.flow.skipFrom(5);
+        assertEquals("<doc ", readAll(rdr, 7));
+        assertEquals("[a]", rec.elements.toString());
+
+        // the handler is attached again and makes its requests afresh; 
+        // the subscription and skip are gone
+        rec.elements.clear();
+        rdr.reset(new StringReader(doc2));
+        assertEquals(16, rdr.getChunkSize());
+        assertEquals(doc2, readAll(rdr, 7));
+        assertEquals("[doc, a, a]", rec.elements.toString());
+        assertEquals(doc2.length(), rdr.readCount());
+    }
+
+    @Test
+    public void testPool() throws IOException {
+        SAXFilteredReaderPool pool = new SAXFilteredReaderPool(1);
+        String doc = makeDoc(20);
+        Recorder rec = new Recorder(OnDemandParser.ELEMENT);
+        SAXFilteredReader rdr = pool.acquire(new StringReader(doc), rec);
+        assertEquals(doc, readAll(rdr, 100));
+        assertEquals(21, rec.elements.size());
+        pool.release(rdr);
+        assertEquals(1, pool.getIdleCount());
+
+        SAXFilteredReader again = pool.acquire(new StringReader(doc));
+        assertTrue(again == rdr);
+        assertTrue(again.getContentHandler() == null);
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(doc, readAll(again, 100));
+        assertEquals(21, rec.elements.size());
+
+        pool.release(again);
+        pool.release(new SAXFilteredReader());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        String doc = makeDoc(2000);
+        int from = doc.indexOf("<rec n=\"10\"");
+        int to = doc.indexOf("<rec n=\"1990\"");
+
+        Recorder rec = new Recorder(OnDemandParser.ELEMENT);
+        SAXFilteredReader rdr =
+            new SAXFilteredReader(new StringReader(doc), rec);
+        rdr.setChunkSize(64);
+        ReaderMetrics m = new ReaderMetrics(true);
+        rdr.setMetrics(m);
+        assertTrue(rdr.getMetrics() == m);
+        rec.flow.skipFrom(from);
+        rec.flow.resumeFrom(to);
+        int sent = readAll(rdr, 100).length();
+
+        ReaderMetrics.Snapshot snap = m.getSnapshot();
+        assertEquals(doc.length(), snap.getCharsFilled());
+        assertEquals(doc.length(), snap.getCharsParsed());
+        assertEquals(sent, snap.getCharsSent());
+        assertEquals(to - from, snap.getCharsSkipped());
+        assertEquals(rec.elements.size(), snap.getStartElements());
+        assertEquals(snap.getStartElements(),
+                     snap.getEventCount(ReaderMetrics.START_ELEMENT));
+        assertEquals(0, snap.getCharacterEvents());
+        assertTrue(snap.getPeakBufferSize() > 0);
+        assertTrue(snap.getPeakBufferCapacity() >= snap.getPeakBufferSize());
+        assertTrue(snap.getFillNanos() > 0);
+        assertTrue(snap.getHandlerNanos() > 0);
+
+        ObjectName name = m.register("test");
+        try {
+            CompositeData attr = (CompositeData) ManagementFactory
+                .getPlatformMBeanServer().getAttribute(name, "Snapshot");
+            assertEquals(Long.valueOf(doc.length()), attr.get("charsFilled"));
+        }
+        finally {
+            m.unregister();
+        }
+
+        // a reset reader keeps its metrics until they are turned off
+        rdr.reset(new StringReader(doc));
+        readAll(rdr, 100);
+        assertEquals(2 * doc.length(), m.getSnapshot().getCharsFilled());
+        rdr.setMetrics(null);
+        rdr.reset(new StringReader(doc));
+        readAll(rdr, 100);
+        assertEquals(2 * doc.length(), m.getSnapshot().getCharsFilled());
+        m.reset();
+        assertEquals(0, m.getSnapshot().getEventCount());
+    }
+
+    @Test
+    public void testContentView() throws IOException {
+        final String doc = makeDoc(40);
+        final List<String> bad = new ArrayList<String>();
+        final int[] checked = new int[1];
+        Recorder rec = new Recorder(OnDemandParser.ELEMENT) {
+            public void startElement(String uri, String local, String qname,
+                                     Attributes atts)
+            {
+                CharContentLocator loc = flow.getCharLocator();
+                int start = (int) loc.getCharNumber();
+                String expect =
+                    doc.substring(start, start + loc.getCharLength());
+                if (! expect.equals(loc.getContent())) bad.add(expect);
+
+                CharSequence view = loc.getContentView();
+                StringBuilder sb = new StringBuilder();
+                for(int i=0; i < view.length(); i++) sb.append(view.charAt(i));
+                if (! expect.equals(sb.toString()) ||
+                    ! expect.equals(view.toString()) ||
+                    ! expect.substring(1, 4).equals(
+                                      view.subSequence(1, 4).toString()))
+                    bad.add("view: " + expect);
+
+                // copying into an array that is big enough, and one that
+                // is too small
+                char[] dest = new char[expect.length() + 2];
+                if (loc.getContent(dest, 2) != expect.length() ||
+                    ! expect.equals(new String(dest, 2, expect.length())))
+                    bad.add("copy: " + expect);
+                dest = new char[5];
+                if (loc.getContent(dest, 2) != 3 ||
+                    ! expect.substring(0, 3).equals(new String(dest, 2, 3)))
+                    bad.add("short copy: " + expect);
+                checked[0]++;
+            }
+        };
+        SAXFilteredReader rdr =
+            new SAXFilteredReader(new StringReader(doc), rec);
+        rdr.setChunkSize(16);
+        assertEquals(doc, readAll(rdr, 10));
+        assertEquals(41, checked[0]);
+        assertEquals("[]", bad.toString());
+    }
+
+    @Test
+    public void testContentViewDefaults() {
+        CharContentLocator loc = new CharContentLocator() {
+            public long getCharNumber() { return 10; }
+            public int getCharLength() { return 5; }
+            public String getContent() { return "<a/>!"; }
+        };
+        assertEquals("<a/>!", loc.getContentView().toString());
+
+        char[] dest = new char[7];
+        assertEquals(5, loc.getContent(dest, 1));
+        assertEquals("<a/>!", new String(dest, 1, 5));
+        assertEquals(2, loc.getContent(dest, 5));
+        assertEquals("<a", new String(dest, 5, 2));
+        assertEquals(0, loc.getContent(dest, 7));
+    }
+
+    /**
+     * parse a document and return the attributes of each element as
+     * name=[value] pairs
+     */
+    static String parseAttributes(String doc, boolean strict)
+        throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+        Recorder rec = new Recorder(OnDemandParser.ALL_EVENTS) {
+            public void startElement(String uri, String local, String qname,
+                                     Attributes atts)
+            {
+                sb.append(qname).append('(');
+                for(int i=0; i < atts.getLength(); i++) {
+                    if (i > 0) sb.append(' ');
+                    sb.append(atts.getQName(i)).append("=[")
+                      .append(atts.getValue(i)).append(']');
+                }
+                sb.append(')');
+            }
+        };
+        SAXFilteredReader rdr =
+            new SAXFilteredReader(new StringReader(doc), rec);
+        rdr.setStrict(strict);
+        assertEquals(doc, readAll(rdr, 10));
+        return sb.toString();
+    }
+
+    @Test
+    public void testQuotedAttributes() throws IOException {
+        String doc = "<doc><a x=\"1\" y='2' z=\"it's\" w='say \"hi\"'/>" +
+                     "<b\tx=\"\"\ny='a b'></b></doc>";
+        String expect = "doc()a(x=[1] y=[2] z=[it's] w=[say \"hi\"])" +
+                        "b(x=[] y=[a b])";
+        assertEquals(expect, parseAttributes(doc, false));
+        assertEquals(expect, parseAttributes(doc, true));
+    }
+
+    @Test
+    public void testSpaceAroundEquals() throws IOException {
+        String doc = "<doc><a x = \"1\"  y= '2' z =\"3\"\n w\n=\n'4' /></doc>";
+        String expect = "doc()a(x=[1] y=[2] z=[3] w=[4])";
+        assertEquals(expect, parseAttributes(doc, false));
+        assertEquals(expect, parseAttributes(doc, true));
+    }
+
+    @Test
+    public void testUnquotedAttributes() throws IOException {
+        // kept when lenient
+        String doc = "<doc><a x=1 y=two z = 3/><b x=1></b></doc>";
+        assertEquals("doc()a(x=[1] y=[two] z=[3])b(x=[1])",
+                     parseAttributes(doc, false));
+        try {
+            parseAttributes(doc, true);
+            fail("unquoted value accepted in strict mode");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), 
+                       ex.getMessage().contains("no quotes"));
+        }
+    }
+
+    @Test
+    public void testMalformedAttributes() throws IOException {
+        // when lenient, bare names and values without names are dropped,
+        // and an unclosed value runs to the end of the tag
+        String[][] cases = {
+            { "<doc><a x y=\"1\"/></doc>",      "doc()a(y=[1])" },
+            { "<doc><a x=\"1\" y/></doc>",      "doc()a(x=[1])" },
+            { "<doc><a =\"1\" y=\"2\"/></doc>", "doc()a(y=[2])" },
+            { "<doc><a x=\"1></a></doc>",       "doc()a(x=[1])" },
+            { "<doc><a x='1 y=\"2\"></a></doc>", "doc()a(x=[1 y=\"2\"])" },
+            { "<doc><a x=/></doc>",             "doc()a(x=[])" },
+        };
+        for(String[] c : cases) {
+            assertEquals(c[0], c[1], parseAttributes(c[0], false));
+            try {
+                parseAttributes(c[0], true);
+                fail("accepted in strict mode: " + c[0]);
+            } catch (IOException ex) {
+                assertTrue(ex.getMessage(), 
+                           ex.getMessage().contains("bad attribute syntax"));
+            }
+        }
+
+        // a tag without a name
+        String doc = "<doc>< x=\"1\"/></doc>";
+        assertEquals("doc()", parseAttributes(doc, false));
+        try {
+            parseAttributes(doc, true);
+            fail("nameless tag accepted in strict mode");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), 
+                       ex.getMessage().contains("without a name"));
+        }
+    }
+
+    static class Recorder extends DefaultHandler
+        implements SAXFilterContentHandler
+    {
+        int events = 0;
+        OnDemandParser prm = null;
+        SAXFilterFlowControl flow = null;
+        List<String> elements = new ArrayList<String>();
+        String lastAtts = null;
+
+        Recorder(int events) { this.events = events; }
+
+        public void setParseRequestMgr(OnDemandParser prm) {
+            this.prm = prm;
+            prm.disableEvents(OnDemandParser.ALL_EVENTS);
+            prm.enableEvents(events);
+        }
+        public void setFlowController(SAXFilterFlowControl control) {
+            flow = control;
+        }
+        public void setNamespaces(Namespaces namespaces) { }
+
+        public void startElement(String uri, String local, String qname,
+                                 Attributes atts)
+        {
+            elements.add(local);
+            if (atts.getLength() > 0) lastAtts = atts.getValue("n");
+        }
+
+        public void endElement(String uri, String local, String qname) {
+            if (local.equals("b")) elements.add("/" + local);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ncsa.xml.saxfilter;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SkipScheduleTest {
+
+    @Test
+    public void testSchedule() {
+        SkipSchedule ss = new SkipSchedule(false);
+        assertFalse(ss.skipping());
+        assertEquals(Long.MAX_VALUE, ss.nextSwitch());
+
+        ss.skipFrom(10);
+        ss.skipTo(20);
+        ss.skipFrom(30);
+        assertEquals(10, ss.nextSwitch());
+        assertFalse(ss.skippingAt(10));
+        assertTrue(ss.skippingAt(11));
+        assertTrue(ss.skippingAt(20));
+        assertFalse(ss.skippingAt(25));
+        assertTrue(ss.skippingAt(1000));
+        assertEquals(10, ss.nextSwitchAfter(0));
+        assertEquals(20, ss.nextSwitchAfter(10));
+        assertEquals(30, ss.nextSwitchAfter(25));
+        assertEquals(Long.MAX_VALUE, ss.nextSwitchAfter(30));
+
+        assertFalse(ss.popTo(9));
+        assertTrue(ss.popTo(10));
+        assertEquals(20, ss.nextSwitch());
+        assertFalse(ss.popTo(25));
+        assertEquals(30, ss.nextSwitch());
+    }
+
+    @Test
+    public void testRedundant() {
+        SkipSchedule ss = new SkipSchedule(false);
+        ss.skipTo(5);          // already not skipping
+        assertEquals(1, ss.size());
+        assertEquals(Long.MAX_VALUE, ss.nextSwitch());
+        assertFalse(ss.skippingAt(6));
+
+        ss.skipFrom(10);
+        ss.skipFrom(15);       // already skipping by then
+        ss.skipTo(20);
+        assertEquals(4, ss.size());
+        assertEquals(10, ss.nextSwitch());
+        assertEquals(20, ss.nextSwitchAfter(10));
+
+        // once skipping is turned on, the request at 5 turns it off again
+        ss.skipFrom(0);
+        assertTrue(ss.skipping());
+        assertEquals(5, ss.nextSwitch());
+        assertFalse(ss.popTo(5));
+        assertEquals(10, ss.nextSwitch());
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        SkipSchedule ss = new SkipSchedule(false);
+        ss.skipTo(30);
+        ss.skipFrom(10);
+        assertEquals(2, ss.size());
+        assertFalse(ss.skippingAt(10));
+        assertTrue(ss.skippingAt(11));
+        assertTrue(ss.skippingAt(30));
+        assertFalse(ss.skippingAt(31));
+        assertEquals(10, ss.nextSwitch());
+        assertEquals(30, ss.nextSwitchAfter(10));
+
+        // a later request at the same position replaces the earlier one
+        ss.skipFrom(20);
+        ss.skipTo(20);
+        assertFalse(ss.skippingAt(21));
+        assertTrue(ss.skippingAt(20));
+        assertEquals(20, ss.nextSwitchAfter(10));
+
+        assertTrue(ss.popTo(15));
+        assertFalse(ss.popTo(25));
+        assertEquals(Long.MAX_VALUE, ss.nextSwitch());
+        assertFalse(ss.popTo(40));
+    }
+
+    @Test
+    public void testInsert() {
+        SkipSchedule ss = new SkipSchedule(false);
+        ss.skipFrom(10);
+        ss.skipTo(20);
+
+        ss.insert(5, 3);       // shifts everything
+        assertEquals(13, ss.nextSwitch());
+        ss.insert(15, 4);      // shifts only the second switch
+        assertEquals(13, ss.nextSwitch());
+        assertTrue(ss.skippingAt(24));
+        assertFalse(ss.skippingAt(28));
+        ss.insert(15, -20);    // moves the second switch before the first
+        assertEquals(13, ss.nextSwitch());
+        assertTrue(ss.skippingAt(1000));
+        assertTrue(ss.popTo(13));
+        assertEquals(0, ss.size());
+    }
+
+    @Test
+    public void testAgainstMap() {
+        // compare with a direct map-based schedule
+        Random rand = new Random(42);
+        SkipSchedule ss = new SkipSchedule(false);
+        TreeMap<Long, Boolean> map = new TreeMap<Long, Boolean>();
+        boolean skipping = false;
+        long next = 1;
+
+        for(int i=0; i < 5000; i++) {
+            int op = rand.nextInt(10);
+            if (op < 5) {
+                // mostly in increasing order, but sometimes behind
+                long at = (rand.nextInt(4) == 0) ? next - rand.nextInt(60)
+                                                 : (next += 1 + rand.nextInt(20));
+                if (at <= 0) continue;
+                boolean val = rand.nextBoolean();
+                if (val) ss.skipFrom(at); else ss.skipTo(at);
+                map.put(at, val);
+            }
+            else if (op < 7) {
+                long at = next - rand.nextInt(50);
+                long by = rand.nextInt(15) - 5;
+                ss.insert(at, by);
+
+                // shifted switches replace any earlier ones they land on
+                TreeMap<Long, Boolean> shifted = 
+                    new TreeMap<Long, Boolean>(map.headMap(at, true));
+                for(Map.Entry<Long, Boolean> e : 
+                        map.tailMap(at, false).entrySet()) 
+                    shifted.put(e.getKey()+by, e.getValue());
+                map = shifted;
+                next += by;
+            }
+            else {
+                long to = next - rand.nextInt(60);
+                while (! map.isEmpty() && map.firstKey() <= to) 
+                    skipping = map.remove(map.firstKey());
+                assertEquals(skipping, ss.popTo(to));
+            }
+
+            long probe = next - rand.nextInt(80);
+            Map.Entry<Long, Boolean> e = map.lowerEntry(probe);
+            assertEquals((e == null) ? skipping : e.getValue(), 
+                         ss.skippingAt(probe));
+
+            long sw = Long.MAX_VALUE;
+            for(Map.Entry<Long, Boolean> f : map.entrySet()) {
+                if (f.getValue() != skipping) { sw = f.getKey(); break; }
+            }
+            assertEquals(sw, ss.nextSwitch());
+
+            Map.Entry<Long, Boolean> g = map.floorEntry(probe);
+            boolean at = (g == null) ? skipping : g.getValue();
+            sw = Long.MAX_VALUE;
+            for(Map.Entry<Long, Boolean> f : 
+                    map.tailMap(probe, false).entrySet()) 
+            {
+                if (f.getValue() != at) { sw = f.getKey(); break; }
+            }
+            assertEquals(sw, ss.nextSwitchAfter(probe));
+        }
+    }
+}
@@ -13,9 +13,14 @@ public class TextBufferTest {
 
     TextBuffer tb = null;
 
+    /**
+     * create the buffer under test
+     */
+    TextBuffer create() { return new TextBuffer(); }
+
     @Before
     public void setup() {
-        tb = new TextBuffer();
+        tb = create();
     }
 
     @Test
@@ -130,7 +135,7 @@ public class TextBufferTest {
     @Test
     public void testCopy() {
         testAppend();
-        char[] buf = new char[tb.length];
+        char[] buf = new char[tb.size()];
         for(int i=0; i < buf.length; i++) buf[i] = '|';
 
         tb.copy(0, buf, 0, 3);
@@ -144,14 +149,14 @@ public class TextBufferTest {
     @Test(expected=ArrayIndexOutOfBoundsException.class)
     public void testBadCopy() {
         testAppend();
-        char[] buf = new char[tb.length];
+        char[] buf = new char[tb.size()];
         tb.copy(400, buf, 0, 4);
     }
 
     @Test(expected=ArrayIndexOutOfBoundsException.class)
     public void testBadNegCopy() {
         testAppend();
-        char[] buf = new char[tb.length];
+        char[] buf = new char[tb.size()];
         tb.copy(-4, buf, 0, 4);
     }
 
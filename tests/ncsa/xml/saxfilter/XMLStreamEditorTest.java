@@ -0,0 +1,151 @@
+package ncsa.xml.saxfilter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import ncsa.xml.sax.Namespaces;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class XMLStreamEditorTest {
+
+    static final String record =
+        "<rec id=\"\u00e9\">\n  <skipme>caf\u00e9 \u20ac</skipme>\n" +
+        "  <ins/><sub a=\"1\">\ud834\udd1e \u65e5\u672c</sub>\n</rec>\n";
+
+    File in = null, out = null;
+
+    @Before
+    public void setUp() throws IOException {
+        in = File.createTempFile("edit", ".xml");
+        out = File.createTempFile("edited", ".xml");
+    }
+
+    @After
+    public void tearDown() {
+        if (in != null) in.delete();
+        if (out != null) out.delete();
+    }
+
+    String makeDoc(String decl, int nrecs) {
+        StringBuilder sb = new StringBuilder(decl);
+        sb.append("<doc>\n");
+        for(int i=0; i < nrecs; i++) sb.append(record);
+        sb.append("</doc>\n");
+        return sb.toString();
+    }
+
+    void write(String doc, String enc) throws IOException {
+        FileOutputStream os = new FileOutputStream(in);
+        try { os.write(doc.getBytes(enc)); } finally { os.close(); }
+    }
+
+    String readOut(String enc) throws IOException {
+        byte[] data = new byte[(int) out.length()];
+        FileInputStream is = new FileInputStream(out);
+        try {
+            int p = 0, n;
+            while (p < data.length &&
+                   (n = is.read(data, p, data.length-p)) >= 0) p += n;
+        } finally { is.close(); }
+        return new String(data, enc);
+    }
+
+    String editChars(String doc) throws IOException {
+        StringWriter sw = new StringWriter();
+        new XMLStreamEditor(new Editor()).modify(new StringReader(doc), sw);
+        return sw.toString();
+    }
+
+    @Test
+    public void testPassThrough() throws IOException {
+        String doc = makeDoc("", 2000);
+        write(doc, "UTF-8");
+        new XMLStreamEditor().modify(in, out);
+        assertEquals(doc, readOut("UTF-8"));
+    }
+
+    @Test
+    public void testEditUTF8() throws IOException {
+        String doc = makeDoc("<?xml version=\"1.0\"?>\n", 2000);
+        write(doc, "UTF-8");
+        new XMLStreamEditor(new Editor()).modify(in, out);
+
+        String expect = editChars(doc);
+        assertTrue(expect.indexOf("<skipme>") < 0);
+        assertTrue(expect.indexOf("<!--ins\u00e9rted-->") > 0);
+        assertEquals(expect, readOut("UTF-8"));
+    }
+
+    @Test
+    public void testEditLatin1() throws IOException {
+        String doc =
+            makeDoc("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n", 500);
+        doc = doc.replace("\ud834\udd1e \u65e5\u672c", "\u00fc");
+        write(doc, "ISO-8859-1");
+        new XMLStreamEditor(new Editor()).modify(in, out);
+        assertEquals(editChars(doc), readOut("ISO-8859-1"));
+    }
+
+    @Test
+    public void testMalformed() throws IOException {
+        // a lone continuation byte is decoded as U+FFFD and written as such
+        byte[] bad = { '<', 'a', '>', (byte) 0x80, '<', '/', 'a', '>' };
+        FileOutputStream os = new FileOutputStream(in);
+        try { os.write(bad); } finally { os.close(); }
+        new XMLStreamEditor().modify(in, out);
+        assertEquals("<a>\ufffd</a>", readOut("UTF-8"));
+    }
+
+    /**
+     * skips skipme elements, inserts a comment before ins elements, and
+     * renames sub elements
+     */
+    static class Editor extends DefaultHandler
+        implements SAXFilterContentHandler
+    {
+        SAXFilterFlowControl flow = null;
+        CharContentLocator loc = null;
+
+        public void setParseRequestMgr(OnDemandParser prm) {
+            prm.enableEvents(OnDemandParser.ELEMENT);
+        }
+        public void setFlowController(SAXFilterFlowControl control) {
+            flow = control;
+            loc = control.getCharLocator();
+        }
+        public void setNamespaces(Namespaces namespaces) { }
+
+        public void startElement(String uri, String local, String qname,
+                                 Attributes atts)
+            throws SAXException
+        {
+            try {
+                if (local.equals("skipme"))
+                    flow.skipFrom(loc.getCharNumber());
+                else if (local.equals("ins"))
+                    flow.insert("<!--ins\u00e9rted-->", loc.getCharNumber());
+                else if (local.equals("sub"))
+                    flow.substitute("<s\u00fcb", loc.getCharNumber(), 4);
+            }
+            catch (IOException ex) {
+                throw new SAXException(ex);
+            }
+        }
+
+        public void endElement(String uri, String local, String qname) {
+            if (local.equals("skipme"))
+                flow.resumeFrom(loc.getCharNumber() + loc.getCharLength());
+        }
+    }
+}
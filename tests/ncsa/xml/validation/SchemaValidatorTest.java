@@ -0,0 +1,170 @@
+package ncsa.xml.validation;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.PrintWriter;
+
+import javax.xml.validation.Schema;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SchemaValidatorTest {
+
+    public static final String NS = "urn:junx:test";
+    public static final String XSD = 
+        "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" " +
+        "targetNamespace=\"" + NS + "\" elementFormDefault=\"qualified\">" +
+        "<xs:element name=\"rec\"><xs:complexType><xs:sequence>" +
+        "<xs:element name=\"v\" type=\"xs:int\" maxOccurs=\"unbounded\"/>" +
+        "</xs:sequence></xs:complexType></xs:element></xs:schema>";
+
+    File xsd = null;
+    SchemaLocation sl = null;
+
+    @Before
+    public void setup() throws Exception {
+        xsd = File.createTempFile("junx", ".xsd");
+        FileWriter w = new FileWriter(xsd);
+        w.write(XSD);
+        w.close();
+
+        sl = new SchemaLocation();
+        sl.addLocation(NS, xsd.getAbsolutePath());
+    }
+
+    @After
+    public void teardown() {
+        if (xsd != null) xsd.delete();
+        SchemaCache.clear();
+        SchemaCache.setMaxSize(SchemaCache.DEFAULT_MAX_SIZE);
+    }
+
+    static File writeTemp(String content, String suffix) throws Exception {
+        File out = File.createTempFile("junx", suffix);
+        out.deleteOnExit();
+        FileWriter w = new FileWriter(out);
+        w.write(content);
+        w.close();
+        return out;
+    }
+
+    @Test
+    public void testValidate() throws Exception {
+        SchemaValidator sv = new SchemaValidator(sl);
+        String good = "<rec xmlns=\"" + NS + "\"><v>1</v><v>2</v></rec>";
+        String bad = "<rec xmlns=\"" + NS + "\"><v>one</v></rec>";
+
+        assertTrue(sv.validate(new StringReader(good), null));
+
+        StringWriter msgs = new StringWriter();
+        assertFalse(sv.validate(new StringReader(bad), new PrintWriter(msgs)));
+        assertTrue(msgs.toString().startsWith("[ERROR]"));
+
+        // the validator can be reused after a failure
+        assertTrue(sv.validate(new StringReader(good), null));
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        SchemaValidator sv1 = new SchemaValidator(sl);
+
+        SchemaLocation same = new SchemaLocation();
+        same.addLocation(NS, xsd.getAbsolutePath());
+        SchemaValidator sv2 = new SchemaValidator(same);
+
+        assertSame(sv1.getSchema(), sv2.getSchema());
+        assertEquals(1, SchemaCache.size());
+    }
+
+    @Test
+    public void testHintsForUnmappedNamespaces() throws Exception {
+        // a mapped schema that allows elements from other namespaces
+        File wrap = writeTemp(
+          "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" " +
+          "targetNamespace=\"urn:junx:wrap\" elementFormDefault=\"qualified\">" +
+          "<xs:element name=\"r\"><xs:complexType><xs:sequence>" +
+          "<xs:any namespace=\"##other\" processContents=\"strict\" " +
+          "maxOccurs=\"unbounded\"/></xs:sequence></xs:complexType>" +
+          "</xs:element></xs:schema>", ".xsd");
+        SchemaLocation wsl = new SchemaLocation();
+        wsl.addLocation("urn:junx:wrap", wrap.getAbsolutePath());
+        SchemaValidator sv = new SchemaValidator(wsl);
+
+        // the schema for NS is found only via the document's hint
+        String doc = "<r xmlns=\"urn:junx:wrap\" xmlns:b=\"" + NS + "\" " +
+            "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" " +
+            "xsi:schemaLocation=\"" + NS + " " + xsd.toURI() + "\">" +
+            "<b:rec><b:v>1</b:v></b:rec></r>";
+        StringWriter msgs = new StringWriter();
+        assertTrue(msgs.toString(), 
+                   sv.validate(new StringReader(doc), new PrintWriter(msgs)));
+        assertFalse(sv.validate(new StringReader(doc.replace(">1<", ">x<")),
+                                null));
+    }
+
+    @Test
+    public void testOrderMatters() throws Exception {
+        File other = writeTemp(XSD.replace(NS, "urn:junx:other"), ".xsd");
+        SchemaLocation ab = new SchemaLocation();
+        ab.addLocation(NS, xsd.getAbsolutePath());
+        ab.addLocation("urn:junx:other", other.getAbsolutePath());
+        SchemaLocation ba = new SchemaLocation();
+        ba.addLocation("urn:junx:other", other.getAbsolutePath());
+        ba.addLocation(NS, xsd.getAbsolutePath());
+
+        Schema first = SchemaCache.getSchema(ab);
+        assertTrue(first != SchemaCache.getSchema(ba));
+        assertEquals(2, SchemaCache.size());
+        assertTrue(first == SchemaCache.getSchema(ab));
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        File other = writeTemp(XSD.replace(NS, "urn:junx:other"), ".xsd");
+        SchemaLocation osl = new SchemaLocation();
+        osl.addLocation("urn:junx:other", other.getAbsolutePath());
+
+        SchemaCache.getSchema(sl);
+        SchemaCache.getSchema(osl);
+        assertEquals(2, SchemaCache.size());
+        SchemaCache.setMaxSize(1);
+        assertEquals(1, SchemaCache.size());
+        Schema kept = SchemaCache.getSchema(osl);
+        SchemaCache.getSchema(sl);
+        assertEquals(1, SchemaCache.size());
+        assertTrue(kept != SchemaCache.getSchema(osl));
+
+        try {
+            SchemaCache.setMaxSize(0);
+            fail("accepted a zero cache size");
+        }
+        catch (IllegalArgumentException ex) { }
+    }
+
+    @Test
+    public void testConcurrentCompile() throws Exception {
+        final Schema[] got = new Schema[4];
+        Thread[] threads = new Thread[got.length];
+        for(int i=0; i < threads.length; i++) {
+            final int j = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try { got[j] = SchemaCache.getSchema(sl); }
+                    catch (Exception ex) { }
+                }
+            };
+            threads[i].start();
+        }
+        for(int i=0; i < threads.length; i++) threads[i].join();
+        for(int i=0; i < got.length; i++) {
+            assertNotNull(got[i]);
+            assertTrue(got[i] == got[0]);
+        }
+        assertEquals(1, SchemaCache.size());
+    }
+}
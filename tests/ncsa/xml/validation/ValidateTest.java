@@ -0,0 +1,202 @@
+package ncsa.xml.validation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ValidateTest {
+
+    File root = null;
+    File xsd = null;
+
+    @Before
+    public void setup() throws Exception {
+        root = File.createTempFile("junx", ".d");
+        root.delete();
+        root.mkdir();
+    }
+
+    @After
+    public void teardown() {
+        delete(root);
+        if (xsd != null) xsd.delete();
+        SchemaCache.clear();
+    }
+
+    static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for(File sub : files) delete(sub);
+        }
+        f.delete();
+    }
+
+    File touch(String path, String content) throws Exception {
+        File out = new File(root, path);
+        out.getParentFile().mkdirs();
+        FileWriter w = new FileWriter(out);
+        w.write(content);
+        w.close();
+        return out;
+    }
+
+    String path(String rel) { return new File(root, rel).getPath(); }
+
+    static boolean globMatches(String glob, String path) {
+        return Pattern.matches(InputFiles.globToRegex(glob), path);
+    }
+
+    @Test
+    public void testGlobToRegex() {
+        assertTrue(globMatches("*.xml", "a.xml"));
+        assertTrue(globMatches("*.xml", ".xml"));
+        assertFalse(globMatches("*.xml", "d/a.xml"));
+        assertFalse(globMatches("*.xml", "a.xsd"));
+
+        assertTrue(globMatches("**/*.xml", "a.xml"));
+        assertTrue(globMatches("**/*.xml", "d/a.xml"));
+        assertTrue(globMatches("**/*.xml", "d/e/a.xml"));
+        assertTrue(globMatches("d/**", "d/e/a.xml"));
+        assertFalse(globMatches("d/**/a.xml", "e/a.xml"));
+
+        assertTrue(globMatches("a?.xml", "ab.xml"));
+        assertFalse(globMatches("a?.xml", "a.xml"));
+        assertFalse(globMatches("a?.xml", "abc.xml"));
+        assertFalse(globMatches("a?b", "a/b"));
+
+        assertTrue(globMatches("[ab].xml", "b.xml"));
+        assertFalse(globMatches("[ab].xml", "c.xml"));
+        assertTrue(globMatches("[!ab].xml", "c.xml"));
+        assertFalse(globMatches("[!ab].xml", "a.xml"));
+
+        // regular expression characters are taken literally
+        assertTrue(globMatches("a+(1).xml", "a+(1).xml"));
+        assertFalse(globMatches("a.xml", "abxml"));
+        assertTrue(globMatches("a[.xml", "a[.xml"));
+    }
+
+    @Test
+    public void testExpandDirectory() throws Exception {
+        touch("b.xml", "<b/>");
+        touch("a.xml", "<a/>");
+        touch("notes.txt", "");
+        touch("sub/c.xml", "<c/>");
+        touch("sub/deeper/D.XML", "<d/>");
+        touch("sub/deeper/e.xsd", "");
+
+        List<String> got = new InputFiles().expand(Arrays.asList(
+                                                       root.getPath()));
+        assertEquals(Arrays.asList(path("a.xml"), path("b.xml"),
+                                   path("sub/c.xml"),
+                                   path("sub/deeper/D.XML")), got);
+
+        got = new InputFiles(new String[] { ".xsd", ".txt" })
+                  .expand(Arrays.asList(root.getPath()));
+        assertEquals(Arrays.asList(path("notes.txt"),
+                                   path("sub/deeper/e.xsd")), got);
+    }
+
+    @Test
+    public void testExpandPatterns() throws Exception {
+        touch("a.xml", "<a/>");
+        touch("ab.xml", "<a/>");
+        touch("sub/c.xml", "<c/>");
+        touch("sub/deeper/d.xml", "<d/>");
+
+        InputFiles inf = new InputFiles();
+        assertEquals(Arrays.asList(path("a.xml"), path("ab.xml")),
+                     inf.expand(Arrays.asList(path("*.xml"))));
+        assertEquals(Arrays.asList(path("a.xml"), path("ab.xml"),
+                                   path("sub/c.xml"),
+                                   path("sub/deeper/d.xml")),
+                     inf.expand(Arrays.asList(path("**/*.xml"))));
+        assertEquals(Arrays.asList(path("sub/c.xml")),
+                     inf.expand(Arrays.asList(path("s?b/*.xml"))));
+        assertEquals(Arrays.asList(path("sub/deeper/d.xml")),
+                     inf.expand(Arrays.asList(path("sub/*/?.xml"))));
+
+        // arguments keep their order; plain names and patterns that match
+        // nothing are passed through so that they can be reported
+        assertEquals(Arrays.asList(path("missing.xml"), path("sub/c.xml"),
+                                   path("sub/deeper/d.xml"), path("*.txt"),
+                                   path("nodir/*.xml"), path("a.xml")),
+                     inf.expand(Arrays.asList(path("missing.xml"),
+                                              path("sub"),
+                                              path("*.txt"),
+                                              path("nodir/*.xml"),
+                                              path("a.xml"))));
+    }
+
+    @Test
+    public void testValidateFiles() throws Exception {
+        xsd = SchemaValidatorTest.writeTemp(SchemaValidatorTest.XSD, ".xsd");
+        SchemaLocation sl = new SchemaLocation();
+        sl.addLocation(SchemaValidatorTest.NS, xsd.getAbsolutePath());
+        String good = "<rec xmlns=\"" + SchemaValidatorTest.NS +
+                      "\"><v>1</v></rec>";
+        String bad = "<rec xmlns=\"" + SchemaValidatorTest.NS +
+                     "\"><v>one</v></rec>";
+
+        List<String> valid = new ArrayList<String>();
+        List<String> mixed = new ArrayList<String>();
+        for(int i=0; i < 20; i++) {
+            String name = "f" + i + ".xml";
+            valid.add(touch("valid/" + name, good).getPath());
+            mixed.add(touch("mixed/" + name, (i % 3 == 1) ? bad : good)
+                          .getPath());
+        }
+
+        Validate v = new Validate(sl);
+        assertEquals(0, v.validateFiles(valid, 4, null, null));
+
+        // results are reported in the order of the input list
+        StringWriter out = new StringWriter();
+        assertEquals(1, v.validateFiles(mixed, 4, new PrintWriter(out),
+                                        null));
+        List<String> results = new ArrayList<String>();
+        for(String line : out.toString().split("\\r?\\n")) {
+            if (! line.startsWith("[")) results.add(line);
+        }
+        assertEquals(20, results.size());
+        for(int i=0; i < 20; i++) {
+            assertEquals(mixed.get(i) + ((i % 3 == 1) ? ": not valid."
+                                                      : ": valid!"),
+                         results.get(i));
+        }
+
+        // a file that cannot be read takes precedence over invalid ones
+        mixed.add(5, path("missing.xml"));
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        assertEquals(2, v.validateFiles(mixed, 4, null,
+                                        new PrintStream(err, true)));
+        assertTrue(err.toString(), err.toString().startsWith(
+                       "Validation failed: " + path("missing.xml") + ": "));
+    }
+
+    @Test
+    public void testUnmatchedPattern() throws Exception {
+        touch("a.xml", "<a/>");
+        List<String> files = new InputFiles().expand(Arrays.asList(
+                                                         path("*.xsd")));
+        assertEquals(Arrays.asList(path("*.xsd")), files);
+
+        // reported as a failure rather than validating nothing
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        assertEquals(2, new Validate().validateFiles(files, 1, null,
+                                                 new PrintStream(err, true)));
+        assertEquals("Validation failed: " + path("*.xsd") +
+                     ": no files match", err.toString().trim());
+    }
+}